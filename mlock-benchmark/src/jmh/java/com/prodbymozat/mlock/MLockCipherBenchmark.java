@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Benchmarks the AES-GCM records of {@link MLockCipherSymmetric} across value sizes, through both the byte
+ * array and the direct buffer paths.
+ */
+@State(Scope.Thread)
+public class MLockCipherBenchmark {
+
+    @Param({"16", "1024", "16384", "262144"})
+    public int size;
+
+    private MLockCipherSymmetric cipher;
+    private SecretKey key;
+    private byte[] data;
+    private byte[] record;
+    private ByteBuffer directData;
+    private ByteBuffer directRecord;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        final KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        key = generator.generateKey();
+        cipher = new MLockCipherSymmetric();
+
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        record = cipher.encrypt(key, data);
+
+        directData = ByteBuffer.allocateDirect(size);
+        directData.put(data).flip();
+        directRecord = cipher.encrypt(key, new byte[0], directData.duplicate());
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return cipher.encrypt(key, data);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return cipher.decrypt(key, record);
+    }
+
+    @Benchmark
+    public ByteBuffer encryptDirect() {
+        return cipher.encrypt(key, new byte[0], directData.duplicate());
+    }
+
+    @Benchmark
+    public ByteBuffer decryptDirect() {
+        return cipher.decrypt(key, directRecord.duplicate());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Benchmarks encoding and encrypting a JSON {@link MLockString}, and decrypting and decoding it back, with and
+ * without compression across value sizes. The size of the stored record of each setting is reported as the
+ * {@code recordBytes} counter of {@link RecordSize}, next to the latencies it traded for. Counters are only
+ * reported in throughput mode.
+ */
+@State(Scope.Thread)
+public class MLockCompressionBenchmark {
+
+    @Param({"256", "4096", "65536", "1048576"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    private final MLockKey key = new MLockKey("benchmark_key");
+    private MLockCipherSymmetric cipher;
+    private SecretKey secretKey;
+    private MLockString data;
+    private int threshold;
+    private byte[] record;
+
+    @Setup(Level.Trial)
+    public void setUp() throws NoSuchAlgorithmException {
+        final KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        secretKey = generator.generateKey();
+        cipher = new MLockCipherSymmetric();
+
+        data = new MLockString(key, json(size));
+        threshold = compression ? 1 : 0;
+        record = cipher.encrypt(secretKey, MLockSerializer.encode(data, threshold));
+    }
+
+    @Benchmark
+    public byte[] write(RecordSize recordSize) {
+        recordSize.recordBytes = record.length;
+        return cipher.encrypt(secretKey, MLockSerializer.encode(data, threshold));
+    }
+
+    @Benchmark
+    public MLockData<?> read(RecordSize recordSize) {
+        recordSize.recordBytes = record.length;
+        return MLockSerializer.decode(key, cipher.decrypt(secretKey, record));
+    }
+
+    /**
+     * Size of the stored record, reported next to the latencies. Set rather than counted, so every iteration
+     * reports the size itself.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RecordSize {
+        public long recordBytes;
+    }
+
+    /**
+     * @return Array of JSON objects of about the given length, shaped like a cached API response.
+     */
+    private static String json(int length) {
+        final Random random = new Random(length);
+        final StringBuilder json = new StringBuilder(length + 128).append('[');
+        for (int i = 0; json.length() < length; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(random.nextInt(1_000_000))
+                    .append(",\"name\":\"User ").append(Long.toHexString(random.nextLong()))
+                    .append("\",\"score\":").append(random.nextDouble())
+                    .append(",\"active\":").append(random.nextBoolean()).append('}');
+        }
+        return json.append(']').toString();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks {@link MLockKey}: SHA-256 hashing of raw keys, with and without the digest cache.
+ */
+@State(Scope.Thread)
+public class MLockKeyBenchmark {
+
+    @Param({"8", "64"})
+    public int keyLength;
+
+    @Param({"0", "128"})
+    public int cacheSize;
+
+    private String rawKey;
+    private MLockKey key;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder builder = new StringBuilder(keyLength);
+        for (int i = 0; i < keyLength; i++) builder.append((char) ('a' + i % 26));
+        rawKey = builder.toString();
+        key = new MLockKey(rawKey);
+        MLockKey.setCacheSize(cacheSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MLockKey.setCacheSize(0);
+    }
+
+    @Benchmark
+    public MLockKey create() {
+        return new MLockKey(rawKey);
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return key.hashCode();
+    }
+
+    @Benchmark
+    public byte[] hexBytes() {
+        return key.hexBytes();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Benchmarks {@link MLockSerializer} encoding and decoding of every {@link MLockData} type.
+ */
+@State(Scope.Thread)
+public class MLockSerializerBenchmark {
+
+    @Param({"INTEGER", "LONG", "FLOAT", "DOUBLE", "BOOLEAN", "STRING", "BYTES"})
+    public String type;
+
+    private final MLockKey key = new MLockKey("benchmark_key");
+    private MLockData<?> data;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        switch (type) {
+            case "INTEGER":
+                data = new MLockInteger(key, 42);
+                break;
+            case "LONG":
+                data = new MLockLong(key, 42L);
+                break;
+            case "FLOAT":
+                data = new MLockFloat(key, 4.2f);
+                break;
+            case "DOUBLE":
+                data = new MLockDouble(key, 4.2);
+                break;
+            case "BOOLEAN":
+                data = new MLockBoolean(key, true);
+                break;
+            case "STRING":
+                data = new MLockString(key, "Some benchmark value of a typical length");
+                break;
+            default:
+                data = new MLockBytes(key, ByteBuffer.wrap(new byte[256]));
+                break;
+        }
+        encoded = MLockSerializer.encode(data);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return MLockSerializer.encode(data);
+    }
+
+    @Benchmark
+    public MLockData<?> decode() {
+        return MLockSerializer.decode(key, encoded);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link MLockInternal} end to end: get and commit through the cipher and either the host build of
+ * libmlock or {@link MLockLogStorage}, with and without the value cache in front of it, and with and without
+ * metrics.
+ */
+@State(Scope.Benchmark)
+public class MLockStorageBenchmark {
+
+    // Benchmark Constants
+    private static final String KEY = "benchmark_key";
+    private static final byte[] DATABASE_KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"SQLITE", "LOG"})
+    public MLockOptions.StorageBackend backend;
+
+    @Param({"16", "4096"})
+    public int size;
+
+    @Param({"0", "64"})
+    public int valueCacheSize;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private File directory;
+    private MLockInternal internal;
+    private MLockString value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("mlock-benchmark").toFile();
+        final MLockOptions options = new MLockOptions.Builder()
+                .setValueCache(valueCacheSize, 0, TimeUnit.MILLISECONDS)
+                .setMetrics(metrics ? new MLockMetrics() : null)
+                .build();
+        final MLockKeyStore<?> keyStore = new MLockKeyStoreProvided(MLockSoftwareKeyProvider.inMemory());
+        final MLockStorage storage = backend == MLockOptions.StorageBackend.LOG
+                ? new MLockLogStorage(new File(directory, MLockLogStorage.LOG_NAME), DATABASE_KEY::clone)
+                : new MLockNative(new File(directory, MLockNative.DATABASE_NAME), DATABASE_KEY::clone);
+        internal = new MLockInternal(MLockCipher.getInstance(keyStore), keyStore, storage, null, options);
+
+        final char[] chars = new char[size];
+        Arrays.fill(chars, 'v');
+        value = new MLockString(new MLockKey(KEY), new String(chars));
+        internal.commit(KEY, value);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        internal.close();
+        final File[] files = directory.listFiles();
+        if (files != null) for (final File file : files) file.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public MLockData<?> get() {
+        return internal.get(KEY);
+    }
+
+    @Benchmark
+    public void commit() {
+        internal.commit(KEY, value);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.prodbymozat.mlock;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the throughput of single-key commit and get against commitAll and getAll at batch sizes of
+ * 1, 10, 100 and 1000 values. Results are written to logcat under the {@link MLockBatchBenchmarkTest} tag.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockBatchBenchmarkTest {
+
+    // Test Constants
+    private static final String TAG = MLockBatchBenchmarkTest.class.getSimpleName();
+    private static final String TEST_KEY = "Benchmark-Key-";
+    private static final byte[] TEST_DATABASE_KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int[] BATCH_SIZES = {1, 10, 100, 1000};
+
+    /**
+     * Class Logger
+     */
+    private final Logger logger = Logger.getLogger(TAG);
+
+    /**
+     * {@link MLockKeyStore}
+     */
+    private MLockKeyStore<?> mLockKeyStore;
+
+    /**
+     * Database file of the benchmark.
+     */
+    private File database;
+
+    /**
+     * {@link MLockNative}
+     */
+    private MLockNative storage;
+
+    /**
+     * {@link MLockInternal}
+     */
+    private MLockInternal internal;
+
+    @Before
+    public void setUp() {
+        final Context context = getInstrumentation().getTargetContext();
+        mLockKeyStore = MLockKeyStore.getInstance(context);
+        database = new File(context.getCacheDir(), TAG + ".mq3");
+        storage = new MLockNative(database, TEST_DATABASE_KEY::clone);
+        internal = new MLockInternal(MLockCipher.getInstance(), mLockKeyStore, storage);
+    }
+
+    @After
+    public void tearDown() {
+        internal.close();
+        mLockKeyStore.deleteAllKeys();
+        for (final String suffix : new String[]{"", "-wal", "-shm"}) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(database.getPath() + suffix).delete();
+        }
+    }
+
+    @Test
+    public void commit_singleVersusBatch() {
+        for (final int size : BATCH_SIZES) {
+            // Arrange
+            final Map<MLockKey, MLockData<?>> values = values(size);
+
+            // Act
+            long start = System.nanoTime();
+            for (final Map.Entry<MLockKey, MLockData<?>> entry : values.entrySet()) {
+                internal.commit(TEST_KEY + entry.getValue().getValue(), entry.getValue());
+            }
+            report("commit", size, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            internal.commitAll(values);
+            report("commitAll", size, System.nanoTime() - start);
+
+            // Assert
+            assertEquals(size, internal.getAll(values.keySet()).size());
+        }
+    }
+
+    @Test
+    public void get_singleVersusBatch() {
+        for (final int size : BATCH_SIZES) {
+            // Arrange
+            final Map<MLockKey, MLockData<?>> values = values(size);
+            internal.commitAll(values);
+            final List<String> keys = new ArrayList<>();
+            for (final MLockData<?> value : values.values()) keys.add(TEST_KEY + value.getValue());
+
+            // Act
+            long start = System.nanoTime();
+            int found = 0;
+            for (final String key : keys) if (internal.get(key) != null) found++;
+            report("get", size, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            final Map<MLockKey, MLockData<?>> result = internal.getAll(values.keySet());
+            report("getAll", size, System.nanoTime() - start);
+
+            // Assert
+            assertEquals(size, found);
+            assertEquals(size, result.size());
+        }
+    }
+
+    /**
+     * @return Integer values keyed by {@link MLockKey}.
+     */
+    private static Map<MLockKey, MLockData<?>> values(int size) {
+        final Map<MLockKey, MLockData<?>> values = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            final MLockKey key = new MLockKey(TEST_KEY + i);
+            values.put(key, new MLockInteger(key, i));
+        }
+        return values;
+    }
+
+    /**
+     * Logs the throughput of one run.
+     */
+    private void report(String name, int size, long elapsedNanos) {
+        final long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+        logger.info(name + " x" + size + ": " + micros + "us, "
+                + (size * TimeUnit.SECONDS.toMicros(1) / micros) + " values/s");
+    }
+}
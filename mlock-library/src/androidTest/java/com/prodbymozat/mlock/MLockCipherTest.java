@@ -22,16 +22,23 @@
 
 package com.prodbymozat.mlock;
 
+import android.os.Build;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class MLockCipherTest {
@@ -101,4 +108,65 @@ public class MLockCipherTest {
         // Assert
         assertNull(decrypted);
     }
+
+    @Test
+    public void decryptBytes_shouldDecryptBinaryRecord() {
+        // Arrange
+        final Object key = mLockKeyStore.generateKey(TEST_KEY_ALIAS);
+        final byte[] data = TEST_DATA_DECRYPTED.getBytes(StandardCharsets.UTF_8);
+
+        // Act
+        final byte[] encrypted = mLockSymmetricCipher.encrypt(key, data);
+        final byte[] decrypted = mLockSymmetricCipher.decrypt(key, encrypted);
+
+        // Assert
+        assertEquals(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                ? MLockRecord.VERSION_1 : MLockRecord.VERSION_HYBRID, encrypted[0]);
+        assertArrayEquals(data, decrypted);
+    }
+
+    @Test
+    public void decryptBytes_shouldDecryptLegacyStringRecord() {
+        // Arrange
+        final Object key = mLockKeyStore.generateKey(TEST_KEY_ALIAS);
+        final String legacy = mLockSymmetricCipher.encrypt(key, TEST_DATA_DECRYPTED);
+
+        // Act
+        final byte[] decrypted = mLockSymmetricCipher.decrypt(key, legacy.getBytes(StandardCharsets.US_ASCII));
+
+        // Assert
+        assertArrayEquals(TEST_DATA_DECRYPTED.getBytes(StandardCharsets.UTF_8), decrypted);
+    }
+
+    @Test
+    public void decryptBuffer_shouldDecryptDirectBuffer() {
+        // Arrange
+        final Object key = mLockKeyStore.generateKey(TEST_KEY_ALIAS);
+        final byte[] data = TEST_DATA_DECRYPTED.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+
+        // Act
+        final ByteBuffer encrypted = mLockSymmetricCipher.encrypt(key, buffer);
+        final ByteBuffer decrypted = mLockSymmetricCipher.decrypt(key, encrypted);
+        final byte[] result = new byte[decrypted.remaining()];
+        decrypted.get(result);
+
+        // Assert
+        assertTrue(encrypted.isDirect());
+        assertArrayEquals(data, result);
+    }
+
+    @Test
+    public void encryptBytes_shouldBeSmallerThanLegacyStringRecord() {
+        // Arrange
+        final Object key = mLockKeyStore.generateKey(TEST_KEY_ALIAS);
+
+        // Act
+        final String legacy = mLockSymmetricCipher.encrypt(key, TEST_DATA_DECRYPTED);
+        final byte[] binary = mLockSymmetricCipher.encrypt(key, TEST_DATA_DECRYPTED.getBytes(StandardCharsets.UTF_8));
+
+        // Assert
+        assertTrue(binary.length < legacy.length());
+    }
 }
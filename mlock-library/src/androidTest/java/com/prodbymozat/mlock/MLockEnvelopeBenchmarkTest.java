@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares per-value latency of the KeyStore-bound cipher path against envelope encryption with a cached
+ * data key. Results are written to logcat under the {@link MLockEnvelopeBenchmarkTest} tag.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockEnvelopeBenchmarkTest {
+
+    // Test Constants
+    private static final String TAG = MLockEnvelopeBenchmarkTest.class.getSimpleName();
+    private static final String TEST_KEY_ALIAS = "Benchmark-Key";
+    private static final String TEST_DATA_DECRYPTED = "{\"user\":42,\"theme\":\"dark\",\"token\":\"abcdef0123456789\"}";
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 200;
+
+    /**
+     * Class Logger
+     */
+    private final Logger logger = Logger.getLogger(TAG);
+
+    /**
+     * {@link MLockKeyStore}
+     */
+    private MLockKeyStore<?> mLockKeyStore;
+
+    /**
+     * {@link MLockCipher}
+     */
+    private MLockCipher mLockCipher;
+
+    /**
+     * Directory the wrapped data key is written to.
+     */
+    private File directory;
+
+    @Before
+    public void setUp() {
+        final Context context = getInstrumentation().getTargetContext();
+        mLockKeyStore = MLockKeyStore.getInstance(context);
+        mLockCipher = MLockCipher.getInstance();
+        directory = context.getNoBackupFilesDir();
+    }
+
+    @After
+    public void tearDown() {
+        mLockKeyStore.deleteAllKeys();
+        //noinspection ResultOfMethodCallIgnored
+        new File(directory, MLockEnvelope.WRAPPED_KEY_FILE_NAME).delete();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void keyStoreBound_encryptDecryptLatency() {
+        // Arrange
+        final Object key = mLockKeyStore.generateKey(TEST_KEY_ALIAS);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            mLockCipher.decrypt(key, mLockCipher.encrypt(key, TEST_DATA_DECRYPTED));
+        }
+
+        // Act
+        String decrypted = null;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            decrypted = mLockCipher.decrypt(key, mLockCipher.encrypt(key, TEST_DATA_DECRYPTED));
+        }
+        report("KeyStore-bound", System.nanoTime() - start);
+
+        // Assert
+        assertEquals(TEST_DATA_DECRYPTED, decrypted);
+    }
+
+    @Test
+    public void envelope_encryptDecryptLatency() {
+        // Arrange
+        final MLockEnvelope<?> envelope = MLockEnvelope.create(mLockKeyStore, mLockCipher,
+                new File(directory, MLockEnvelope.WRAPPED_KEY_FILE_NAME), MLockOptions.DEFAULT_DATA_KEY_LIFETIME_MILLIS);
+        assertNotNull(envelope.getDataKey());
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            envelope.decrypt(envelope.encrypt(TEST_DATA_DECRYPTED));
+        }
+
+        // Act
+        String decrypted = null;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            decrypted = envelope.decrypt(envelope.encrypt(TEST_DATA_DECRYPTED));
+        }
+        report("Envelope", System.nanoTime() - start);
+
+        // Assert
+        assertEquals(TEST_DATA_DECRYPTED, decrypted);
+    }
+
+    @Test
+    public void envelope_dataKeySurvivesEviction() {
+        // Arrange
+        final MLockEnvelope<?> envelope = MLockEnvelope.create(mLockKeyStore, mLockCipher,
+                new File(directory, MLockEnvelope.WRAPPED_KEY_FILE_NAME), MLockOptions.DEFAULT_DATA_KEY_LIFETIME_MILLIS);
+        final String encrypted = envelope.encrypt(TEST_DATA_DECRYPTED);
+
+        // Act, forces the data key to be unwrapped again through the KeyStore.
+        envelope.evict();
+        final String decrypted = envelope.decrypt(encrypted);
+
+        // Assert
+        assertEquals(TEST_DATA_DECRYPTED, decrypted);
+    }
+
+    /**
+     * Logs the average latency of one encrypt + decrypt round trip.
+     */
+    private void report(String name, long elapsedNanos) {
+        logger.info(name + ": " + TimeUnit.NANOSECONDS.toMicros(elapsedNanos / ITERATIONS)
+                + "us per encrypt + decrypt (" + ITERATIONS + " iterations)");
+    }
+}
@@ -36,6 +36,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
@@ -163,4 +164,37 @@ public class MLockKeyStoreTest {
         assertFalse(mLockKeyStore.hasKey(TEST_ALIAS + "2"));
         assertFalse(mLockKeyStore.getKeyStore().aliases().hasMoreElements());
     }
+
+    @Test
+    public void getKey_shouldReturnCachedKeyOnRepeatedLookups() {
+        // Arrange
+        mLockKeyStore.generateKey(TEST_ALIAS);
+
+        // Act
+        final Object key = mLockKeyStore.getKey(TEST_ALIAS);
+        final Object key2 = mLockKeyStore.getKey(TEST_ALIAS);
+
+        // Assert
+        assertSame(key, key2);
+    }
+
+    @Test
+    public void getKey_shouldReturnNullAfterKeyIsDeletedByAnotherInstance() {
+        // Arrange
+        mLockKeyStore.generateKey(TEST_ALIAS);
+        assertNotNull(mLockKeyStore.getKey(TEST_ALIAS));
+
+        // Act
+        MLockKeyStore.getInstance(getInstrumentation().getContext()).deleteKey(TEST_ALIAS);
+
+        // Assert
+        assertNull(mLockKeyStore.getKey(TEST_ALIAS));
+    }
+
+    @Test
+    public void getKeyStore_shouldReturnSameLoadedInstance() {
+        // Act & Assert
+        assertSame(mLockKeyStore.getKeyStore(),
+                MLockKeyStore.getInstance(getInstrumentation().getContext()).getKeyStore());
+    }
 }
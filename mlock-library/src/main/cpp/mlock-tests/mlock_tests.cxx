@@ -26,4 +26,51 @@
 #include "gtest/gtest.h"
 
 
-TEST(MLock, TestName) {}
+#include <cstdio>
+#include <string>
+
+namespace {
+constexpr auto kTestDatabase = "mlock_test_db.mq3";
+constexpr char kTestKey[] = "0123456789abcdef0123456789abcdef";
+
+std::string get(MLock& mlock, const std::string& key) {
+  std::string value;
+  mlock.get(key.data(), int(key.size()), [&](const void* data, int len) {
+    value.assign(static_cast<const char*>(data), len);
+  });
+  return value;
+}
+}  // namespace
+
+TEST(MLock, ShouldReturnSavedValue) {
+  std::remove(kTestDatabase);
+  MLock mlock;
+  mlock.open(kTestDatabase, kTestKey, int(sizeof(kTestKey) - 1));
+
+  mlock.put("key", 3, "value", 5);
+
+  EXPECT_EQ("value", get(mlock, "key"));
+}
+
+TEST(MLock, ShouldNotFindRemovedValue) {
+  std::remove(kTestDatabase);
+  MLock mlock;
+  mlock.open(kTestDatabase, kTestKey, int(sizeof(kTestKey) - 1));
+  mlock.put("key", 3, "value", 5);
+
+  EXPECT_TRUE(mlock.remove("key", 3));
+  EXPECT_FALSE(mlock.get("key", 3, [](const void*, int) {}));
+}
+
+TEST(MLock, ShouldRollbackFailedTransaction) {
+  std::remove(kTestDatabase);
+  MLock mlock;
+  mlock.open(kTestDatabase, kTestKey, int(sizeof(kTestKey) - 1));
+
+  EXPECT_THROW(mlock.transaction([&] {
+    mlock.put("key", 3, "value", 5);
+    throw std::runtime_error("abort");
+  }), std::runtime_error);
+
+  EXPECT_FALSE(mlock.get("key", 3, [](const void*, int) {}));
+}
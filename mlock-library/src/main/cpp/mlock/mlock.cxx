@@ -29,41 +29,152 @@
 
 MLock::MLock() = default;
 
-MLock::~MLock() = default;
+MLock::~MLock() { close(); }
 
-void MLock::initDatabase() {}
+void MLock::open(const std::string& path, const void* key, const int key_len) {
+  std::lock_guard<std::recursive_mutex> guard(mutex_);
+  if (db_ != nullptr) return;
 
-void MLock::saveString(const std::string& key, const std::string& value) {}
+  // Attempt to open this database on the device
+  const auto flags = SQLITE_OPEN_READWRITE | SQLITE_OPEN_CREATE | SQLITE_OPEN_FULLMUTEX;
+  if (sqlite3_open_v2(path.c_str(), &db_, flags, nullptr) != SQLITE_OK) {
+    const std::string message = sqlite3_errmsg(db_);
+    sqlite3_close(db_);
+    db_ = nullptr;
+    throw std::runtime_error("Error: Cannot open or create database: " + message);
+  }
+
+  try {
+    // The key has to be set before anything reads the database. Reading the
+    // schema afterwards fails if the key is wrong, which only happens if the
+    // database has been tampered with.
+    check(sqlite3_key(db_, key, key_len));
+    exec("SELECT count(*) FROM sqlite_master;");
 
-void MLock::saveInteger(const std::string& key, const int value) {}
+    exec("PRAGMA journal_mode = WAL;");
+    exec("PRAGMA synchronous = NORMAL;");
+    exec(
+        "CREATE TABLE IF NOT EXISTS mlock ("
+        "key BLOB PRIMARY KEY NOT NULL, value BLOB NOT NULL, namespace BLOB) WITHOUT ROWID;");
+    migrate();
 
-std::string MLock::getString(const std::string& key,
-                             const std::string default_value) {
-  return std::string();
+    get_ = prepare("SELECT value FROM mlock WHERE key = ?1;");
+    put_ = prepare("INSERT OR REPLACE INTO mlock (key, value, namespace) VALUES (?1, ?2, ?3);");
+    remove_ = prepare("DELETE FROM mlock WHERE key = ?1;");
+    clear_ = prepare("DELETE FROM mlock;");
+    keys_ = prepare("SELECT key FROM mlock WHERE namespace = ?1 ORDER BY key;");
+    all_keys_ = prepare("SELECT key FROM mlock;");
+    scan_ = prepare(
+        "SELECT key, value FROM mlock WHERE namespace = ?1 AND key > ?2 ORDER BY key LIMIT ?3;");
+    clear_namespace_ = prepare("DELETE FROM mlock WHERE namespace = ?1;");
+    begin_ = prepare("BEGIN IMMEDIATE;");
+    begin_read_ = prepare("BEGIN DEFERRED;");
+    commit_ = prepare("COMMIT;");
+    rollback_ = prepare("ROLLBACK;");
+  } catch (...) {
+    close();
+    throw;
+  }
 }
 
-int MLock::getInteger(const std::string& key, const int default_value) {
-  return 0;
+void MLock::close() {
+  std::lock_guard<std::recursive_mutex> guard(mutex_);
+  if (db_ == nullptr) return;
+
+  for (auto stmt : {get_, put_, remove_, clear_, keys_, all_keys_, scan_, clear_namespace_,
+                      begin_, begin_read_, commit_, rollback_}) {
+    sqlite3_finalize(stmt);
+  }
+  get_ = put_ = remove_ = clear_ = keys_ = all_keys_ = scan_ = clear_namespace_ = nullptr;
+  begin_ = begin_read_ = commit_ = rollback_ = nullptr;
+
+  sqlite3_close_v2(db_);
+  db_ = nullptr;
 }
 
-sqlite3* MLock::getDatabase() {
-  // Use FileUtils to get the path of the database
-  const auto& path =
-      /* FileUtils::getInstance()->getWritablePath()  + */ __MLOCK_DB_NAME__;
-  sqlite3* db;
+void MLock::put(const void* key, const int key_len, const void* value,
+                const int value_len, const void* ns, const int ns_len) {
+  std::lock_guard<std::recursive_mutex> guard(mutex_);
+  Reset reset(put_);
+  check(sqlite3_bind_blob(put_, 1, key, key_len, SQLITE_STATIC));
+  check(sqlite3_bind_blob(put_, 2, value, value_len, SQLITE_STATIC));
+  if (ns != nullptr) {
+    check(sqlite3_bind_blob(put_, 3, ns, ns_len, SQLITE_STATIC));
+  }
+  if (sqlite3_step(put_) != SQLITE_DONE) check(sqlite3_errcode(db_));
+}
 
-  // Attempt to open this database on the device
-  if (sqlite3_open(path, &db) == SQLITE_OK) {
-    sqlite3_key(db, std::to_string(getDatabaseKey()).c_str(),
-                int(strlen(std::to_string(getDatabaseKey()).c_str())));
+bool MLock::remove(const void* key, const int key_len) {
+  std::lock_guard<std::recursive_mutex> guard(mutex_);
+  Reset reset(remove_);
+  check(sqlite3_bind_blob(remove_, 1, key, key_len, SQLITE_STATIC));
+  if (sqlite3_step(remove_) != SQLITE_DONE) check(sqlite3_errcode(db_));
+  return sqlite3_changes(db_) > 0;
+}
 
-    return db;
+void MLock::clear() {
+  std::lock_guard<std::recursive_mutex> guard(mutex_);
+  step(clear_);
+}
+
+int MLock::clear_namespace(const void* ns, const int ns_len) {
+  std::lock_guard<std::recursive_mutex> guard(mutex_);
+  Reset reset(clear_namespace_);
+  check(sqlite3_bind_blob(clear_namespace_, 1, ns, ns_len, SQLITE_STATIC));
+  if (sqlite3_step(clear_namespace_) != SQLITE_DONE) check(sqlite3_errcode(db_));
+  return sqlite3_changes(db_);
+}
+
+void MLock::migrate() {
+  sqlite3_stmt* version_stmt = prepare("PRAGMA user_version;");
+  int version = 0;
+  if (sqlite3_step(version_stmt) == SQLITE_ROW) version = sqlite3_column_int(version_stmt, 0);
+  sqlite3_finalize(version_stmt);
+  if (version >= kSchemaVersion) return;
+
+  exec("BEGIN IMMEDIATE;");
+  try {
+    // Tables created before version 1 lack the namespace column, newly created ones already have it.
+    sqlite3_stmt* probe = nullptr;
+    if (sqlite3_prepare_v2(db_, "SELECT namespace FROM mlock LIMIT 0;", -1, &probe, nullptr) != SQLITE_OK) {
+      exec("ALTER TABLE mlock ADD COLUMN namespace BLOB;");
+    }
+    sqlite3_finalize(probe);
+
+    exec(
+        "CREATE INDEX IF NOT EXISTS mlock_namespace ON mlock (namespace, key) "
+        "WHERE namespace IS NOT NULL;");
+    exec(("PRAGMA user_version = " + std::to_string(kSchemaVersion) + ";").c_str());
+    exec("COMMIT;");
+  } catch (...) {
+    sqlite3_exec(db_, "ROLLBACK;", nullptr, nullptr, nullptr);
+    throw;
   }
+}
 
-  // This will only happen if the user has somehow tampered with the database.
-  throw std::runtime_error("Error: Cannot open or create database...");
+void MLock::check(const int rc) const {
+  if (rc == SQLITE_OK || rc == SQLITE_ROW || rc == SQLITE_DONE) return;
+  throw std::runtime_error(std::string("Error: ") +
+                           (db_ != nullptr ? sqlite3_errmsg(db_) : sqlite3_errstr(rc)));
 }
 
-int MLock::getDatabaseKey() { return 0; }
+void MLock::step(sqlite3_stmt* stmt) {
+  if (db_ == nullptr) throw std::runtime_error("Error: Database is not open...");
+  Reset reset(stmt);
+  if (sqlite3_step(stmt) != SQLITE_DONE) check(sqlite3_errcode(db_));
+}
 
-int MLock::generateKey(const std::string& key) { return 0; }
+void MLock::exec(const char* sql) {
+  char* error = nullptr;
+  if (sqlite3_exec(db_, sql, nullptr, nullptr, &error) != SQLITE_OK) {
+    const std::string message = error != nullptr ? error : "unknown error";
+    sqlite3_free(error);
+    throw std::runtime_error("Error: " + message);
+  }
+}
+
+sqlite3_stmt* MLock::prepare(const char* sql) {
+  sqlite3_stmt* stmt = nullptr;
+  check(sqlite3_prepare_v3(db_, sql, -1, SQLITE_PREPARE_PERSISTENT, &stmt, nullptr));
+  return stmt;
+}
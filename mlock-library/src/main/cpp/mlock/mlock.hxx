@@ -28,17 +28,33 @@
 /**
  * Includes
  */
+#include <cstdint>
+#include <mutex>
+#include <stdexcept>
+#include <string>
+
 #include "mqlite3.h"
-#include "msha2.hxx"
 
 /**
  * Macros
  */
 constexpr auto __MLOCK_DB_NAME__ = "mlock_db.mq3";
 
+/**
+ * Version of the schema, kept in the user_version pragma of the database.
+ * Version 1 added the namespace column and its index.
+ */
+constexpr int kSchemaVersion = 1;
+
 /**
  * This class manages, creates and execue sqlite3 tasks to store and retrieve
- * data in the database.
+ * data in the database. Keys and values are opaque byte arrays, the values
+ * are already encrypted by the Java layer before they get here.
+ *
+ * One instance owns one connection. The connection runs in WAL mode and keeps
+ * its statements prepared for its whole lifetime. All access to the
+ * connection is serialized by a recursive mutex so a transaction can call the
+ * single-entry methods.
  */
 class MLock {
  public:
@@ -48,72 +64,239 @@ class MLock {
   MLock();
 
   /**
-   * Contructor
+   * Destructor, closes the database if it is still open.
    */
   virtual ~MLock();
 
   /**
-   * Initializes the database for the first time.
+   * Opens the database at the given path, creating it if needed. The database
+   * is encrypted by the mqlite3 codec using the given key.
+   *
+   * @param path    Path of the database file.
+   * @param key     Key used by the codec.
+   * @param key_len Length of the key in bytes.
    */
-  static void initDatabase();
+  void open(const std::string& path, const void* key, int key_len);
 
   /**
-   * Saves a string in the mqlite3 database
+   * Closes the database and finalizes every prepared statement.
+   */
+  void close();
+
+  /**
+   * Retrieves a value from the mqlite3 database. The consumer is called with
+   * the value while the row is still current, so no copy is made here.
    *
-   * @param key   Key to access a value in database.
-   * @param value Value to store in database.
+   * @param key      Key used to lookup data.
+   * @param key_len  Length of the key in bytes.
+   * @param consumer Called with (const void* value, int value_len).
+   *
+   * @returns true if a value was found.
    */
-  static void saveString(const std::string& key, const std::string& value);
+  template <typename Consumer>
+  bool get(const void* key, int key_len, Consumer&& consumer) {
+    std::lock_guard<std::recursive_mutex> guard(mutex_);
+    Reset reset(get_);
+    check(sqlite3_bind_blob(get_, 1, key, key_len, SQLITE_STATIC));
+
+    const auto rc = sqlite3_step(get_);
+    if (rc == SQLITE_DONE) return false;
+    if (rc != SQLITE_ROW) check(rc);
+
+    consumer(sqlite3_column_blob(get_, 0), sqlite3_column_bytes(get_, 0));
+    return true;
+  }
 
   /**
-   * Saves an integer in the mqlite3 database
+   * Saves a value in the mqlite3 database, replacing any previous value.
    *
-   * @param key   Key to access a value in database.
-   * @param value Value to store in database.
+   * @param key       Key to access a value in database.
+   * @param key_len   Length of the key in bytes.
+   * @param value     Value to store in database.
+   * @param value_len Length of the value in bytes.
+   * @param ns        Namespace of the value, or nullptr for none.
+   * @param ns_len    Length of the namespace in bytes.
    */
-  static void saveInteger(const std::string& key, const int value);
+  void put(const void* key, int key_len, const void* value, int value_len,
+           const void* ns = nullptr, int ns_len = 0);
 
   /**
-   * Retrieves a string from the mqlite3 database.
+   * Lists the keys of a namespace in key order, through its index, or every
+   * key in no particular order.
    *
-   * @param key           Key used to lookup data.
-   * @param default_value What we should return if nothing is found.
+   * @param ns       Namespace to list, or nullptr to list every key.
+   * @param ns_len   Length of the namespace in bytes.
+   * @param consumer Called with (const void* key, int key_len) for every key.
    */
-  static std::string getString(const std::string& key,
-                               const std::string default_value = std::string());
+  template <typename Consumer>
+  void keys(const void* ns, int ns_len, Consumer&& consumer) {
+    std::lock_guard<std::recursive_mutex> guard(mutex_);
+    sqlite3_stmt* const stmt = ns == nullptr ? all_keys_ : keys_;
+    Reset reset(stmt);
+    if (ns != nullptr) check(sqlite3_bind_blob(stmt, 1, ns, ns_len, SQLITE_STATIC));
+
+    int rc;
+    while ((rc = sqlite3_step(stmt)) == SQLITE_ROW) {
+      consumer(sqlite3_column_blob(stmt, 0), sqlite3_column_bytes(stmt, 0));
+    }
+    if (rc != SQLITE_DONE) check(rc);
+  }
 
   /**
-   * Retrieves an integer from the mqlite3 database.
+   * Reads a page of the entries of a namespace in key order, through its
+   * index. Pass the last key of a page as after to read the next one.
    *
-   * @param key           Key used to lookup data.
-   * @param default_value What we should return if nothing is found.
+   * @param ns        Namespace to read.
+   * @param ns_len    Length of the namespace in bytes.
+   * @param after     Key the page starts after, or nullptr to start at the first key.
+   * @param after_len Length of that key in bytes.
+   * @param limit     Maximum number of entries in the page.
+   * @param consumer  Called with (const void* key, int key_len, const void* value,
+   *                  int value_len) for every entry.
    */
-  static int getInteger(const std::string& key, const int default_value = 0);
+  template <typename Consumer>
+  void scan(const void* ns, int ns_len, const void* after, int after_len, int limit,
+            Consumer&& consumer) {
+    std::lock_guard<std::recursive_mutex> guard(mutex_);
+    Reset reset(scan_);
+    check(sqlite3_bind_blob(scan_, 1, ns, ns_len, SQLITE_STATIC));
+    check(after != nullptr ? sqlite3_bind_blob(scan_, 2, after, after_len, SQLITE_STATIC)
+                           : sqlite3_bind_zeroblob(scan_, 2, 0));
+    check(sqlite3_bind_int(scan_, 3, limit));
+
+    int rc;
+    while ((rc = sqlite3_step(scan_)) == SQLITE_ROW) {
+      consumer(sqlite3_column_blob(scan_, 0), sqlite3_column_bytes(scan_, 0),
+               sqlite3_column_blob(scan_, 1), sqlite3_column_bytes(scan_, 1));
+    }
+    if (rc != SQLITE_DONE) check(rc);
+  }
 
- private:
   /**
-   * Gets and instance of the database. This will allow the database connections
-   * be thread safe if multiple threads are attempting to access the database at
-   * the same time.
+   * Deletes every value of a namespace with a single indexed statement.
+   *
+   * @param ns     Namespace to delete.
+   * @param ns_len Length of the namespace in bytes.
    *
-   * @returns SQLite3 database instance
+   * @returns Number of deleted values.
    */
-  static sqlite3* getDatabase();
+  int clear_namespace(const void* ns, int ns_len);
 
   /**
-   * Using the msha2 library and a developers backend to create
+   * Deletes a value from the mqlite3 database.
    *
-   * @returns Generated database key
+   * @param key     Key of the value to delete.
+   * @param key_len Length of the key in bytes.
+   *
+   * @returns true if a value was deleted.
    */
-  static int getDatabaseKey();
+  bool remove(const void* key, int key_len);
 
   /**
+   * Deletes every value from the mqlite3 database.
+   */
+  void clear();
+
+  /**
+   * Runs the given body inside a single write transaction. The transaction is
+   * rolled back if the body throws.
    *
-   * @param key Key to be hashed
+   * @param body Callable running the statements of the transaction.
+   */
+  template <typename Body>
+  void transaction(Body&& body) {
+    run_transaction(begin_, body);
+  }
+
+  /**
+   * Runs the given body inside a single read transaction, so every statement
+   * sees the same snapshot of the database without blocking writers.
    *
-   * @returns Integer hashed key.
+   * @param body Callable running the statements of the transaction.
+   */
+  template <typename Body>
+  void read_transaction(Body&& body) {
+    run_transaction(begin_read_, body);
+  }
+
+ private:
+  /**
+   * Resets and clears the bindings of a statement when it goes out of scope.
+   */
+  struct Reset {
+    explicit Reset(sqlite3_stmt* stmt) : stmt_(stmt) {}
+    ~Reset() {
+      sqlite3_reset(stmt_);
+      sqlite3_clear_bindings(stmt_);
+    }
+    sqlite3_stmt* stmt_;
+  };
+
+  /**
+   * Runs the given body between the given BEGIN statement and a COMMIT. The
+   * transaction is rolled back if the body throws.
+   */
+  template <typename Body>
+  void run_transaction(sqlite3_stmt* begin, Body& body) {
+    std::lock_guard<std::recursive_mutex> guard(mutex_);
+    step(begin);
+    try {
+      body();
+      step(commit_);
+    } catch (...) {
+      sqlite3_step(rollback_);
+      sqlite3_reset(rollback_);
+      throw;
+    }
+  }
+
+  /**
+   * Throws a std::runtime_error with the database error message if the given
+   * result code is an error.
+   */
+  void check(int rc) const;
+
+  /**
+   * Executes a statement that does not return rows, then resets it.
+   */
+  void step(sqlite3_stmt* stmt);
+
+  /**
+   * Executes raw SQL without keeping a prepared statement.
+   */
+  void exec(const char* sql);
+
+  /**
+   * Brings the schema of an existing database up to kSchemaVersion.
+   */
+  void migrate();
+
+  /**
+   * Prepares a statement that lives as long as the connection.
+   */
+  sqlite3_stmt* prepare(const char* sql);
+
+  /**
+   * Database connection and its prepared statements.
+   */
+  sqlite3* db_ = nullptr;
+  sqlite3_stmt* get_ = nullptr;
+  sqlite3_stmt* put_ = nullptr;
+  sqlite3_stmt* remove_ = nullptr;
+  sqlite3_stmt* clear_ = nullptr;
+  sqlite3_stmt* keys_ = nullptr;
+  sqlite3_stmt* all_keys_ = nullptr;
+  sqlite3_stmt* scan_ = nullptr;
+  sqlite3_stmt* clear_namespace_ = nullptr;
+  sqlite3_stmt* begin_ = nullptr;
+  sqlite3_stmt* begin_read_ = nullptr;
+  sqlite3_stmt* commit_ = nullptr;
+  sqlite3_stmt* rollback_ = nullptr;
+
+  /**
+   * Serializes access to the connection.
    */
-  static int generateKey(const std::string& key);
+  std::recursive_mutex mutex_;
 };
 
 #endif  // __MLOCK_HXX__
@@ -0,0 +1,405 @@
+/**
+ * mlock_jni.cxx
+ *
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+/**
+ * Includes
+ */
+#include <jni.h>
+
+#include <cstring>
+#include <memory>
+#include <vector>
+
+#include "mlock.hxx"
+
+/**
+ * JNI bindings for com.prodbymozat.mlock.MLockNative. Every native method
+ * takes the handle returned by nativeOpen, which is a pointer to an MLock
+ * instance. Errors are rethrown as java.io.IOException.
+ */
+namespace {
+
+/**
+ * Throws a java.io.IOException with the given message.
+ */
+void throwIOException(JNIEnv* env, const char* message) {
+  const auto clazz = env->FindClass("java/io/IOException");
+  if (clazz != nullptr) env->ThrowNew(clazz, message);
+}
+
+/**
+ * Converts a handle back to its MLock instance.
+ */
+MLock* fromHandle(const jlong handle) { return reinterpret_cast<MLock*>(handle); }
+
+/**
+ * Pins the elements of a Java byte array for the lifetime of the object. The
+ * elements are released without copying back since they are only read.
+ */
+class ByteArray {
+ public:
+  ByteArray(JNIEnv* env, jbyteArray array)
+      : env_(env),
+        array_(array),
+        bytes_(env->GetByteArrayElements(array, nullptr)),
+        length_(env->GetArrayLength(array)) {}
+
+  ~ByteArray() {
+    if (bytes_ != nullptr) env_->ReleaseByteArrayElements(array_, bytes_, JNI_ABORT);
+  }
+
+  ByteArray(const ByteArray&) = delete;
+  ByteArray& operator=(const ByteArray&) = delete;
+
+  const void* data() const { return bytes_; }
+  int length() const { return length_; }
+  bool ok() const { return bytes_ != nullptr; }
+
+ private:
+  JNIEnv* env_;
+  jbyteArray array_;
+  jbyte* bytes_;
+  jsize length_;
+};
+
+/**
+ * Values larger than this are returned in a direct ByteBuffer instead of a
+ * byte[], so they never occupy the Java heap.
+ */
+constexpr jint kDirectThreshold = 64 * 1024;
+
+/**
+ * Borrows the bytes of a value passed from Java, which is either a byte[] or
+ * a direct ByteBuffer whose whole capacity is the value. Direct buffers are
+ * read in place.
+ */
+class Value {
+ public:
+  Value(JNIEnv* env, jobject value, jclass byte_array_class) {
+    if (env->IsInstanceOf(value, byte_array_class)) {
+      array_.reset(new ByteArray(env, static_cast<jbyteArray>(value)));
+      data_ = array_->data();
+      length_ = array_->length();
+      ok_ = array_->ok();
+    } else {
+      data_ = env->GetDirectBufferAddress(value);
+      length_ = static_cast<int>(env->GetDirectBufferCapacity(value));
+      ok_ = data_ != nullptr && length_ >= 0;
+    }
+  }
+
+  const void* data() const { return data_; }
+  int length() const { return length_; }
+  bool ok() const { return ok_; }
+
+ private:
+  std::unique_ptr<ByteArray> array_;
+  const void* data_ = nullptr;
+  int length_ = 0;
+  bool ok_ = false;
+};
+
+}  // namespace
+
+extern "C" {
+
+JNIEXPORT jlong JNICALL Java_com_prodbymozat_mlock_MLockNative_nativeOpen(
+    JNIEnv* env, jclass, jstring path, jbyteArray key) {
+  const char* chars = env->GetStringUTFChars(path, nullptr);
+  if (chars == nullptr) return 0;
+  const std::string database_path(chars);
+  env->ReleaseStringUTFChars(path, chars);
+
+  const ByteArray database_key(env, key);
+  if (!database_key.ok()) return 0;
+
+  std::unique_ptr<MLock> mlock(new MLock());
+  try {
+    mlock->open(database_path, database_key.data(), database_key.length());
+  } catch (const std::exception& e) {
+    throwIOException(env, e.what());
+    return 0;
+  }
+  return reinterpret_cast<jlong>(mlock.release());
+}
+
+JNIEXPORT void JNICALL Java_com_prodbymozat_mlock_MLockNative_nativeClose(
+    JNIEnv*, jclass, jlong handle) {
+  delete fromHandle(handle);
+}
+
+JNIEXPORT jbyteArray JNICALL Java_com_prodbymozat_mlock_MLockNative_nativeGet(
+    JNIEnv* env, jclass, jlong handle, jbyteArray key) {
+  const ByteArray lookup(env, key);
+  if (!lookup.ok()) return nullptr;
+
+  jbyteArray result = nullptr;
+  try {
+    // Copy the row straight into a new Java array, no intermediate buffer.
+    fromHandle(handle)->get(lookup.data(), lookup.length(),
+                            [&](const void* value, const int value_len) {
+                              result = env->NewByteArray(value_len);
+                              if (result == nullptr) return;
+                              env->SetByteArrayRegion(result, 0, value_len,
+                                                      static_cast<const jbyte*>(value));
+                            });
+  } catch (const std::exception& e) {
+    throwIOException(env, e.what());
+    return nullptr;
+  }
+  return result;
+}
+
+JNIEXPORT jobject JNICALL Java_com_prodbymozat_mlock_MLockNative_nativeGetValue(
+    JNIEnv* env, jclass, jlong handle, jbyteArray key) {
+  const ByteArray lookup(env, key);
+  if (!lookup.ok()) return nullptr;
+
+  jobject result = nullptr;
+  try {
+    fromHandle(handle)->get(lookup.data(), lookup.length(), [&](const void* value, const int value_len) {
+      if (value_len <= kDirectThreshold) {
+        const auto array = env->NewByteArray(value_len);
+        if (array == nullptr) return;
+        env->SetByteArrayRegion(array, 0, value_len, static_cast<const jbyte*>(value));
+        result = array;
+        return;
+      }
+
+      // Let the VM own the memory of the buffer, the row is copied once, straight into it.
+      const auto byte_buffer_class = env->FindClass("java/nio/ByteBuffer");
+      if (byte_buffer_class == nullptr) return;
+      const auto allocate_direct =
+          env->GetStaticMethodID(byte_buffer_class, "allocateDirect", "(I)Ljava/nio/ByteBuffer;");
+      if (allocate_direct == nullptr) return;
+      const auto buffer = env->CallStaticObjectMethod(byte_buffer_class, allocate_direct, value_len);
+      if (buffer == nullptr || env->ExceptionCheck()) return;
+      std::memcpy(env->GetDirectBufferAddress(buffer), value, static_cast<size_t>(value_len));
+      result = buffer;
+    });
+  } catch (const std::exception& e) {
+    throwIOException(env, e.what());
+    return nullptr;
+  }
+  return result;
+}
+
+JNIEXPORT jobjectArray JNICALL Java_com_prodbymozat_mlock_MLockNative_nativeGetAll(
+    JNIEnv* env, jclass, jlong handle, jobjectArray keys) {
+  const auto count = env->GetArrayLength(keys);
+  const auto mlock = fromHandle(handle);
+
+  const auto byte_array_class = env->FindClass("[B");
+  if (byte_array_class == nullptr) return nullptr;
+  const auto results = env->NewObjectArray(count, byte_array_class, nullptr);
+  if (results == nullptr) return nullptr;
+
+  try {
+    mlock->read_transaction([&] {
+      for (jsize i = 0; i < count; ++i) {
+        const auto key = static_cast<jbyteArray>(env->GetObjectArrayElement(keys, i));
+        {
+          const ByteArray lookup(env, key);
+          if (!lookup.ok()) throw std::runtime_error("Error: Out of memory while reading keys...");
+          mlock->get(lookup.data(), lookup.length(), [&](const void* value, const int value_len) {
+            const auto result = env->NewByteArray(value_len);
+            if (result == nullptr) throw std::runtime_error("Error: Out of memory while reading values...");
+            env->SetByteArrayRegion(result, 0, value_len, static_cast<const jbyte*>(value));
+            env->SetObjectArrayElement(results, i, result);
+            env->DeleteLocalRef(result);
+          });
+        }
+        env->DeleteLocalRef(key);
+      }
+    });
+  } catch (const std::exception& e) {
+    if (!env->ExceptionCheck()) throwIOException(env, e.what());
+    return nullptr;
+  }
+  return results;
+}
+
+JNIEXPORT void JNICALL Java_com_prodbymozat_mlock_MLockNative_nativePut(
+    JNIEnv* env, jclass, jlong handle, jbyteArray key, jbyteArray value) {
+  const ByteArray entry_key(env, key);
+  const ByteArray entry_value(env, value);
+  if (!entry_key.ok() || !entry_value.ok()) return;
+
+  try {
+    fromHandle(handle)->put(entry_key.data(), entry_key.length(), entry_value.data(),
+                            entry_value.length());
+  } catch (const std::exception& e) {
+    throwIOException(env, e.what());
+  }
+}
+
+JNIEXPORT void JNICALL Java_com_prodbymozat_mlock_MLockNative_nativePutAll(
+    JNIEnv* env, jclass, jlong handle, jobjectArray keys, jobjectArray values,
+    jobjectArray namespaces) {
+  const auto count = env->GetArrayLength(keys);
+  const auto mlock = fromHandle(handle);
+  const auto byte_array_class = env->FindClass("[B");
+  if (byte_array_class == nullptr) return;
+
+  try {
+    mlock->transaction([&] {
+      for (jsize i = 0; i < count; ++i) {
+        const auto key = static_cast<jbyteArray>(env->GetObjectArrayElement(keys, i));
+        const auto value = env->GetObjectArrayElement(values, i);
+        const auto ns = namespaces != nullptr
+                            ? static_cast<jbyteArray>(env->GetObjectArrayElement(namespaces, i))
+                            : nullptr;
+        {
+          const ByteArray entry_key(env, key);
+          const Value entry_value(env, value, byte_array_class);
+          std::unique_ptr<ByteArray> entry_namespace(ns != nullptr ? new ByteArray(env, ns) : nullptr);
+          if (!entry_key.ok() || !entry_value.ok() || (entry_namespace && !entry_namespace->ok())) {
+            throw std::runtime_error("Error: Out of memory while reading entries...");
+          }
+          mlock->put(entry_key.data(), entry_key.length(), entry_value.data(),
+                     entry_value.length(), entry_namespace ? entry_namespace->data() : nullptr,
+                     entry_namespace ? entry_namespace->length() : 0);
+        }
+        env->DeleteLocalRef(key);
+        env->DeleteLocalRef(value);
+        if (ns != nullptr) env->DeleteLocalRef(ns);
+      }
+    });
+  } catch (const std::exception& e) {
+    if (!env->ExceptionCheck()) throwIOException(env, e.what());
+  }
+}
+
+JNIEXPORT jboolean JNICALL Java_com_prodbymozat_mlock_MLockNative_nativeRemove(
+    JNIEnv* env, jclass, jlong handle, jbyteArray key) {
+  const ByteArray entry_key(env, key);
+  if (!entry_key.ok()) return JNI_FALSE;
+
+  try {
+    return fromHandle(handle)->remove(entry_key.data(), entry_key.length()) ? JNI_TRUE
+                                                                            : JNI_FALSE;
+  } catch (const std::exception& e) {
+    throwIOException(env, e.what());
+    return JNI_FALSE;
+  }
+}
+
+JNIEXPORT jobjectArray JNICALL Java_com_prodbymozat_mlock_MLockNative_nativeKeys(
+    JNIEnv* env, jclass, jlong handle, jbyteArray ns) {
+  std::vector<std::vector<jbyte>> keys;
+  const auto collect = [&](const void* key, const int key_len) {
+    const auto bytes = static_cast<const jbyte*>(key);
+    keys.emplace_back(bytes, bytes + key_len);
+  };
+  try {
+    // A null namespace lists every key.
+    if (ns == nullptr) {
+      fromHandle(handle)->keys(nullptr, 0, collect);
+    } else {
+      const ByteArray lookup(env, ns);
+      if (!lookup.ok()) return nullptr;
+      fromHandle(handle)->keys(lookup.data(), lookup.length(), collect);
+    }
+  } catch (const std::exception& e) {
+    throwIOException(env, e.what());
+    return nullptr;
+  }
+
+  const auto byte_array_class = env->FindClass("[B");
+  if (byte_array_class == nullptr) return nullptr;
+  const auto results = env->NewObjectArray(static_cast<jsize>(keys.size()), byte_array_class, nullptr);
+  if (results == nullptr) return nullptr;
+  for (size_t i = 0; i < keys.size(); ++i) {
+    const auto key = env->NewByteArray(static_cast<jsize>(keys[i].size()));
+    if (key == nullptr) return nullptr;
+    env->SetByteArrayRegion(key, 0, static_cast<jsize>(keys[i].size()), keys[i].data());
+    env->SetObjectArrayElement(results, static_cast<jsize>(i), key);
+    env->DeleteLocalRef(key);
+  }
+  return results;
+}
+
+JNIEXPORT jobjectArray JNICALL Java_com_prodbymozat_mlock_MLockNative_nativeScan(
+    JNIEnv* env, jclass, jlong handle, jbyteArray ns, jbyteArray after, jint limit) {
+  const ByteArray lookup(env, ns);
+  if (!lookup.ok()) return nullptr;
+  std::unique_ptr<ByteArray> start(after != nullptr ? new ByteArray(env, after) : nullptr);
+  if (start && !start->ok()) return nullptr;
+
+  const auto byte_array_class = env->FindClass("[B");
+  if (byte_array_class == nullptr) return nullptr;
+
+  // Every key and value of the page holds a local reference until the page is built.
+  if (limit <= 0 || env->EnsureLocalCapacity(limit * 2 + 2) != 0) return nullptr;
+
+  // Keys and values alternate in the page, it is trimmed to the entries actually read.
+  std::vector<jbyteArray> entries;
+  try {
+    fromHandle(handle)->scan(
+        lookup.data(), lookup.length(), start ? start->data() : nullptr, start ? start->length() : 0,
+        limit, [&](const void* key, const int key_len, const void* value, const int value_len) {
+          for (const auto& column : {std::make_pair(key, key_len), std::make_pair(value, value_len)}) {
+            const auto array = env->NewByteArray(column.second);
+            if (array == nullptr) throw std::runtime_error("Error: Out of memory while reading entries...");
+            env->SetByteArrayRegion(array, 0, column.second, static_cast<const jbyte*>(column.first));
+            entries.push_back(array);
+          }
+        });
+  } catch (const std::exception& e) {
+    for (const auto array : entries) env->DeleteLocalRef(array);
+    if (!env->ExceptionCheck()) throwIOException(env, e.what());
+    return nullptr;
+  }
+
+  const auto results = env->NewObjectArray(static_cast<jsize>(entries.size()), byte_array_class, nullptr);
+  for (size_t i = 0; i < entries.size(); ++i) {
+    if (results != nullptr) env->SetObjectArrayElement(results, static_cast<jsize>(i), entries[i]);
+    env->DeleteLocalRef(entries[i]);
+  }
+  return results;
+}
+
+JNIEXPORT jint JNICALL Java_com_prodbymozat_mlock_MLockNative_nativeClearNamespace(
+    JNIEnv* env, jclass, jlong handle, jbyteArray ns) {
+  const ByteArray entry_namespace(env, ns);
+  if (!entry_namespace.ok()) return 0;
+
+  try {
+    return fromHandle(handle)->clear_namespace(entry_namespace.data(), entry_namespace.length());
+  } catch (const std::exception& e) {
+    throwIOException(env, e.what());
+    return 0;
+  }
+}
+
+JNIEXPORT void JNICALL Java_com_prodbymozat_mlock_MLockNative_nativeClear(
+    JNIEnv* env, jclass, jlong handle) {
+  try {
+    fromHandle(handle)->clear();
+  } catch (const std::exception& e) {
+    throwIOException(env, e.what());
+  }
+}
+
+}  // extern "C"
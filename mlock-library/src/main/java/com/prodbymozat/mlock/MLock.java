@@ -23,13 +23,26 @@
 package com.prodbymozat.mlock;
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.prodbymozat.mlock.exceptions.MLockException;
 import com.prodbymozat.mlock.exceptions.MLockInitializedException;
 
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * Entry point class into the MLock Library.
  */
@@ -39,6 +52,17 @@ public final class MLock {
      */
     static volatile MLockInternal internal = null;
 
+    /**
+     * Makes init and reset atomic. Held for reading by every operation, so operations run concurrently and
+     * reset waits for the ones in progress, then flushes pending values before any new operation starts.
+     */
+    private static final ReentrantReadWriteLock LIFECYCLE_LOCK = new ReentrantReadWriteLock();
+
+    /**
+     * {@link TrimMemoryCallbacks} registered by the last call to init, or null.
+     */
+    private static volatile TrimMemoryCallbacks trimMemoryCallbacks = null;
+
     /**
      * Initializes the MLock Library.
      *
@@ -46,48 +70,304 @@ public final class MLock {
      * @param listener {@link OnInitializeListener}. required to implement in case an exception is caught
      */
     public static void init(Context context, OnInitializeListener listener) {
-        if (internal != null) {
+        init(context, MLockOptions.defaults(), listener);
+    }
+
+    /**
+     * Initializes the MLock Library with the given {@link MLockOptions}. With
+     * {@link MLockOptions.Builder#setBackgroundInit} this returns right away and the listener is called on a
+     * background thread once MLock has warmed up.
+     *
+     * @param context  Application context. Use `getApplicationContext()` method.
+     * @param options  {@link MLockOptions} to configure MLock with.
+     * @param listener {@link OnInitializeListener}. required to implement in case an exception is caught
+     */
+    public static void init(Context context, MLockOptions options, OnInitializeListener listener) {
+        final long start = System.nanoTime();
+        final MLockInternal created;
+        LIFECYCLE_LOCK.writeLock().lock();
+        try {
+            if (internal != null) {
+                created = null;
+            } else {
+                created = create(context, options);
+                internal = created;
+            }
+        } finally {
+            LIFECYCLE_LOCK.writeLock().unlock();
+        }
+
+        if (created == null) {
             listener.onComplete(new MLockInitializedException());
             return;
         }
 
+        if (!options.isBackgroundInit()) {
+            // Complete Listener
+            listener.onComplete(null);
+            return;
+        }
+
+        // Warm up in the background, completing the listener from there.
+        final MLockInitTimings.Listener timingsListener = options.getInitTimingsListener();
+        created.warmUp(System.nanoTime() - start).addListener(new MLockFutureListener<MLockInitTimings>() {
+            @Override
+            public void onSuccess(MLockInitTimings timings) {
+                if (timingsListener != null) timingsListener.onInitialized(timings);
+                listener.onComplete(null);
+            }
+
+            @Override
+            public void onError(MLockException exception) {
+                listener.onComplete(exception);
+            }
+        });
+    }
+
+    /**
+     * Builds {@link MLockInternal} and registers its callbacks. Called with the lifecycle write lock held.
+     */
+    @NonNull
+    private static MLockInternal create(Context context, MLockOptions options) {
         // Assure MLock is using the Application context and not an activity one.
         final Context ctx = context instanceof Application ? context : context.getApplicationContext();
 
+        MLockKey.setCacheSize(options.getKeyCacheSize());
+
         // Initialize MLockInternal
-        internal = new MLockInternal(MLockCipher.getInstance(),
-                MLockKeyStore.getInstance(ctx), new MLockNative());
+        final MLockKeyStore<?> keyStore = MLockKeyStore.getInstance(ctx, options.getKeyProvider());
+        final MLockCipher<?> cipher = MLockCipher.getInstance(keyStore);
+        final MLockEnvelope<?> envelope = options.isEnvelopeEncryption() ? MLockEnvelope.create(keyStore, cipher,
+                new File(ctx.getNoBackupFilesDir(), MLockEnvelope.WRAPPED_KEY_FILE_NAME),
+                options.getDataKeyLifetimeMillis()) : null;
+        final MLockStorage storage = options.getStorageBackend() == MLockOptions.StorageBackend.LOG
+                ? MLockLogStorage.create(ctx, keyStore, cipher, options)
+                : MLockNative.create(ctx, keyStore, cipher);
+        final MLockBloomFilter bloomFilter = options.getBloomFilterExpectedKeys() > 0 ? new MLockBloomFilter(
+                new File(ctx.getNoBackupFilesDir(), MLockBloomFilter.FILE_NAME), MLockBloomFilter.storageId(options),
+                options.getBloomFilterExpectedKeys(), options.getBloomFilterFalsePositiveRate()) : null;
+        final MLockInternal created = new MLockInternal(cipher, keyStore, storage, envelope, options, bloomFilter);
 
-        // Complete Listener
-        listener.onComplete(null);
+        // Release cached values when the system runs low on memory.
+        if (options.getValueCacheSize() > 0) {
+            trimMemoryCallbacks = new TrimMemoryCallbacks(ctx);
+            ctx.registerComponentCallbacks(trimMemoryCallbacks);
+        }
+        return created;
+    }
+
+    /**
+     * Makes the given {@link MLockInternal} the current one, unless MLock is already initialized. Lets tests
+     * initialize MLock without a {@link Context}.
+     *
+     * @return false if MLock was already initialized.
+     */
+    static boolean install(@NonNull MLockInternal created) {
+        LIFECYCLE_LOCK.writeLock().lock();
+        try {
+            if (internal != null) return false;
+            internal = created;
+            return true;
+        } finally {
+            LIFECYCLE_LOCK.writeLock().unlock();
+        }
     }
 
     public static void commit(String key, MLockData<?> data) {
-        internal.commit(key, data);
+        run(current -> current.commit(key, data));
     }
 
     public static void apply(String key, MLockData<?> data) {
-        internal.apply(key, data);
+        run(current -> current.apply(key, data));
     }
 
     @Nullable
     public static MLockData<?> get(String key) {
-        return internal.get(key);
+        return call(current -> current.get(key));
     }
 
     public static void retrieve(String key, MLockAsyncRetrieveListener<?> listener) {
-        internal.retrieve(key, listener);
+        run(current -> current.retrieve(key, listener));
+    }
+
+    public static void commitAll(Map<MLockKey, MLockData<?>> data) {
+        run(current -> current.commitAll(data));
+    }
+
+    @NonNull
+    public static Map<MLockKey, MLockData<?>> getAll(Collection<MLockKey> keys) {
+        return call(current -> current.getAll(keys));
+    }
+
+    public static void retrieveAll(Collection<MLockKey> keys, MLockAsyncRetrieveAllListener listener) {
+        run(current -> current.retrieveAll(keys, listener));
+    }
+
+    @NonNull
+    public static OutputStream openOutputStream(String key) {
+        return call(current -> current.openOutputStream(key));
+    }
+
+    @Nullable
+    public static InputStream openInputStream(String key) {
+        return call(current -> current.openInputStream(key));
+    }
+
+    public static boolean deleteStream(String key) {
+        return call(current -> current.deleteStream(key));
+    }
+
+    @NonNull
+    public static MLockFuture<MLockData<?>> retrieveAsync(String key) {
+        return call(current -> current.retrieveAsync(key));
+    }
+
+    @NonNull
+    public static MLockFuture<MLockData<?>> retrieveAsync(String key, Executor executor) {
+        return call(current -> current.retrieveAsync(key, executor));
+    }
+
+    @NonNull
+    public static MLockFuture<Void> applyAsync(String key, MLockData<?> data) {
+        return call(current -> current.applyAsync(key, data));
+    }
+
+    @NonNull
+    public static MLockFuture<Void> applyAsync(String key, MLockData<?> data, Executor executor) {
+        return call(current -> current.applyAsync(key, data, executor));
+    }
+
+    @NonNull
+    public static MLockFuture<Map<MLockKey, MLockData<?>>> getAllAsync(Collection<MLockKey> keys) {
+        return call(current -> current.getAllAsync(keys));
+    }
+
+    @NonNull
+    public static MLockFuture<Map<MLockKey, MLockData<?>>> getAllAsync(Collection<MLockKey> keys,
+                                                                      Executor executor) {
+        return call(current -> current.getAllAsync(keys, executor));
+    }
+
+    /**
+     * @param namespace Non-empty namespace without NUL characters, for example the id of the signed in user.
+     * @return {@link MLockNamespace} whose values can be listed and cleared together.
+     */
+    @NonNull
+    public static MLockNamespace namespace(@NonNull String namespace) {
+        return new MLockNamespace(namespace);
+    }
+
+    @NonNull
+    public static List<MLockKey> keys(String namespace) {
+        return call(current -> current.keys(namespace));
+    }
+
+    @NonNull
+    public static Iterator<MLockData<?>> values(String namespace) {
+        return call(current -> current.values(namespace));
+    }
+
+    public static int clearNamespace(String namespace) {
+        return call(current -> current.clearNamespace(namespace));
     }
 
     /**
-     * Resets MLock to be reinitialized.
+     * Resets MLock to be reinitialized. Waits for operations in progress, then persists values still queued by
+     * {@link MLock#apply(String, MLockData)}. Operations called after this and before the next init throw
+     * {@link IllegalStateException}.
+     *
+     * @throws IllegalStateException if called from within an MLock operation on the same thread.
      */
     public static void reset() {
-        internal = null;
+        if (LIFECYCLE_LOCK.getReadHoldCount() > 0) {
+            throw new IllegalStateException("MLock can not be reset from within an MLock call");
+        }
+
+        LIFECYCLE_LOCK.writeLock().lock();
+        try {
+            final TrimMemoryCallbacks callbacks = trimMemoryCallbacks;
+            trimMemoryCallbacks = null;
+            if (callbacks != null) callbacks.context.unregisterComponentCallbacks(callbacks);
+
+            final MLockInternal previous = internal;
+            internal = null;
+            if (previous != null) previous.close();
+            MLockKey.setCacheSize(0);
+            MLockKeyStore.invalidateCache();
+        } finally {
+            LIFECYCLE_LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Operation on the current {@link MLockInternal}.
+     */
+    private interface Operation<R> {
+        R run(@NonNull MLockInternal current);
+    }
+
+    /**
+     * Operation on the current {@link MLockInternal} without a result.
+     */
+    private interface Action {
+        void run(@NonNull MLockInternal current);
+    }
+
+    /**
+     * Runs an operation on the current {@link MLockInternal}, holding the lifecycle read lock so it can not
+     * be reset underneath the operation.
+     *
+     * @throws IllegalStateException if MLock is not initialized.
+     */
+    private static <R> R call(@NonNull Operation<R> operation) {
+        LIFECYCLE_LOCK.readLock().lock();
+        try {
+            final MLockInternal current = internal;
+            if (current == null) throw new IllegalStateException("MLock is not initialized");
+            return operation.run(current);
+        } finally {
+            LIFECYCLE_LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLock#call(Operation)
+     */
+    private static void run(@NonNull Action action) {
+        call(current -> {
+            action.run(current);
+            return null;
+        });
+    }
+
+    /**
+     * Forwards trim-memory signals to {@link MLockInternal}.
+     */
+    private static final class TrimMemoryCallbacks implements ComponentCallbacks2 {
+        private final Context context;
+
+        TrimMemoryCallbacks(@NonNull Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            final MLockInternal current = internal;
+            if (current != null) current.trimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
     }
 
     /**
-     * Completion listener for {@link MLock#init(Context, OnInitializeListener)}.
+     * Completion listener for {@link MLock#init(Context, MLockOptions, OnInitializeListener)}.
      */
     public interface OnInitializeListener {
         /**
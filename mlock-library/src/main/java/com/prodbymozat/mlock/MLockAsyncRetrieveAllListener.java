@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.prodbymozat.mlock;
+
+import com.prodbymozat.mlock.exceptions.MLockException;
+
+import java.util.Map;
+
+/**
+ * Completion listener for {@link MLock#retrieveAll}
+ */
+public interface MLockAsyncRetrieveAllListener {
+    /**
+     * Completion listener for {@link MLock#retrieveAll}.
+     *
+     * @param data Values retrieved from MLock by key. Keys without a value are left out.
+     */
+    void onRetrieved(Map<MLockKey, MLockData<?>> data);
+
+    /**
+     * Error method for when the values can not be retrieved.
+     *
+     * @param exception {@link MLockException} exception for when the values can not be retrieved.
+     */
+    void onError(MLockException exception);
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bloom filter over the storage keys of the stored values. {@link MLockInternal} asks it before reading a value,
+ * so reads of keys that were never stored return without touching the storage or the cipher.
+ * <p>
+ * A key that is not in the filter is never stored. A key that is in it may not be stored, at about the
+ * configured false positive rate. Keys are only ever added: removed values leave their bits set, which only
+ * raises the false positive rate until the filter is next rebuilt.
+ * </p>
+ * The filter is saved to a file when MLock is closed, and that file is deleted as soon as it is loaded, so a
+ * filter that missed writes because the app died is never trusted. Without a saved filter, or with one saved
+ * for other settings or another storage, it is rebuilt from the keys of the storage. Until then every key may
+ * be stored.
+ */
+final class MLockBloomFilter {
+
+    // Class Constants
+    private static final String TAG = MLockBloomFilter.class.getSimpleName();
+    static final String FILE_NAME = "mlock_bloom";
+    static final int MAGIC = 0x4d4f4c42;
+    static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 4 + 4 + 4 + 4 + 8;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Class Logger
+     */
+    private final Logger logger = Logger.getLogger(TAG);
+
+    /**
+     * File the filter is saved to.
+     */
+    private final File file;
+
+    /**
+     * Hash of the identity of the storage the filter holds the keys of.
+     */
+    private final long storageId;
+
+    /**
+     * Number of bits set for every key.
+     */
+    private final int hashCount;
+
+    /**
+     * Bits of the filter, 64 to a word.
+     */
+    private final AtomicLongArray words;
+
+    /**
+     * Number of bits of the filter.
+     */
+    private final long bitCount;
+
+    /**
+     * Whether the filter holds every stored key, set once it is loaded or rebuilt.
+     */
+    private volatile boolean ready = false;
+
+    /**
+     * Constructor. The filter is sized for the expected number of keys at the given false positive rate, more
+     * keys raise the rate.
+     *
+     * @param file              File the filter is saved to.
+     * @param storageId         Identity of the storage and of the form of its keys. A filter saved for another
+     *                          one is rebuilt, since it lacks the keys of this one.
+     * @param expectedKeys      Number of keys expected to be stored, positive.
+     * @param falsePositiveRate Rate at which keys that are not stored pass the filter, in (0, 1).
+     */
+    MLockBloomFilter(@NonNull File file, @NonNull String storageId, int expectedKeys, double falsePositiveRate) {
+        if (expectedKeys <= 0) throw new IllegalArgumentException("Expected keys must be positive");
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be in (0, 1)");
+        }
+
+        // Optimal size and number of hashes, m = -n ln p / (ln 2)^2 and k = m / n ln 2.
+        final double bits = -expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        final long wordCount = Math.max(1, (long) Math.ceil(bits / 64));
+        if (wordCount > Integer.MAX_VALUE) throw new IllegalArgumentException("Bloom filter is too large");
+
+        this.file = file;
+        this.storageId = hash(storageId.getBytes(StandardCharsets.UTF_8));
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bitCount = wordCount * 64;
+        this.hashCount = Math.max(1, (int) Math.round(bits / expectedKeys * Math.log(2)));
+    }
+
+    /**
+     * @return Identity of the storage the given options select and of the form of its keys, for
+     * {@link MLockBloomFilter#MLockBloomFilter(File, String, int, double)}.
+     */
+    @NonNull
+    static String storageId(@NonNull MLockOptions options) {
+        return options.getStorageBackend().name() + (options.isDigestStorageKeys() ? "/digest" : "/hex");
+    }
+
+    /**
+     * Adds the saved filter, or every key of the storage if there is no usable saved filter, then lets the
+     * filter answer {@link MLockBloomFilter#mightContain(byte[])}. Keys added meanwhile are kept.
+     *
+     * @param storage Opened {@link MLockStorage} the filter is rebuilt from.
+     */
+    void load(@NonNull MLockStorage storage) throws IOException {
+        if (!loadSaved()) {
+            for (final byte[] key : storage.keys()) add(key);
+        }
+        ready = true;
+    }
+
+    /**
+     * Saves the filter, to be loaded by the next {@link MLockBloomFilter#load(MLockStorage)}. Nothing is saved
+     * before the filter is loaded.
+     */
+    void save() throws IOException {
+        if (!ready) return;
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + words.length() * 8)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(hashCount).putInt(words.length()).putLong(storageId);
+        for (int i = 0; i < words.length(); i++) buffer.putLong(words.get(i));
+        buffer.flip();
+
+        final File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        try (FileChannel channel = new RandomAccessFile(tempFile, "rw").getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+        }
+        if (!tempFile.renameTo(file)) {
+            if (!tempFile.delete()) logger.log(Level.WARNING, "Unable to delete " + tempFile);
+            throw new IOException("Unable to replace Bloom filter with " + tempFile);
+        }
+    }
+
+    /**
+     * Adds a storage key.
+     */
+    void add(@NonNull byte[] key) {
+        final long hash = hash(key);
+        final long first = (int) hash;
+        final long second = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            final long bit = ((first + i * second) & Long.MAX_VALUE) % bitCount;
+            final int word = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+
+            // Writers flushing at once may share a word, set the bit without losing theirs.
+            long current;
+            do {
+                current = words.get(word);
+            } while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * @return false if the storage key is certainly not stored, true if it may be.
+     */
+    boolean mightContain(@NonNull byte[] key) {
+        if (!ready) return true;
+
+        final long hash = hash(key);
+        final long first = (int) hash;
+        final long second = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            final long bit = ((first + i * second) & Long.MAX_VALUE) % bitCount;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true once the filter is loaded.
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Adds the bits of the saved filter and deletes it.
+     *
+     * @return false if there is no saved filter, or it can not be used.
+     */
+    private boolean loadSaved() {
+        if (!file.exists()) return false;
+
+        final ByteBuffer buffer;
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            if (channel.size() != HEADER_LENGTH + words.length() * 8L) {
+                logger.log(Level.WARNING, "Rebuilding Bloom filter saved for other settings");
+                delete();
+                return false;
+            }
+            buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new IOException("Unexpected end of " + file);
+            }
+            buffer.flip();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to read Bloom filter: " + e.getMessage());
+            delete();
+            return false;
+        }
+
+        // Trusting the saved filter is only safe once it is gone, so a crash can not leave it behind stale.
+        if (!delete()) return false;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != hashCount
+                || buffer.getInt() != words.length()) {
+            logger.log(Level.WARNING, "Rebuilding Bloom filter saved for other settings");
+            return false;
+        }
+        if (buffer.getLong() != storageId) {
+            logger.log(Level.WARNING, "Rebuilding Bloom filter saved for another storage");
+            return false;
+        }
+        for (int i = 0; i < words.length(); i++) {
+            final long saved = buffer.getLong();
+            long current;
+            do {
+                current = words.get(i);
+            } while (!words.compareAndSet(i, current, current | saved));
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the saved filter.
+     *
+     * @return true if it is gone.
+     */
+    private boolean delete() {
+        if (file.delete() || !file.exists()) return true;
+        logger.log(Level.WARNING, "Unable to delete Bloom filter " + file);
+        return false;
+    }
+
+    /**
+     * @return 64-bit FNV-1a hash of a key, mixed by the MurmurHash3 finalizer so both halves can seed the bit
+     * positions.
+     */
+    private static long hash(@NonNull byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (final byte b : key) hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.prodbymozat.mlock;
+
+/**
+ * Boolean data model class for MLock. Use this to save a boolean value in MLock.
+ * <p>
+ * The value is held as a boolean and encoded as fixed-width little-endian bytes, it is only boxed by
+ * {@link MLockBoolean#getValue()}.
+ * </p>
+ */
+public final class MLockBoolean extends MLockData<Boolean> {
+    /**
+     * Value.
+     */
+    private final boolean value;
+
+    /**
+     * Constructor.
+     *
+     * @param key   {@link MLockKey} Key associated with value
+     * @param value Value (boolean).
+     */
+    public MLockBoolean(MLockKey key, boolean value) {
+        super(key);
+        this.value = value;
+    }
+
+    /**
+     * Constructor, used when restoring a value from storage.
+     */
+    MLockBoolean(MLockKey key, boolean value, long timestamp) {
+        super(key, timestamp);
+        this.value = value;
+    }
+
+    @Override
+    public Boolean getValue() {
+        return value;
+    }
+
+    /**
+     * @return Value, without boxing.
+     */
+    public boolean booleanValue() {
+        return value;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary data model class for MLock. Use this to save raw bytes, such as tokens, serialized messages or
+ * images, in MLock.
+ * <p>
+ * The bytes are not copied. Values created from a direct {@link ByteBuffer} are encrypted straight into a
+ * direct buffer that is handed to the native storage, so large values never pass through the Java heap.
+ * The caller must not modify the array or buffer until the value has been saved.
+ * </p>
+ */
+public final class MLockBytes extends MLockData<byte[]> {
+    /**
+     * Value, from position 0 to its limit.
+     */
+    private final ByteBuffer value;
+
+    /**
+     * Array the caller created the value with, or null. Values read from MLock have none, so their arrays are
+     * never shared with the value cache.
+     */
+    @Nullable
+    private final byte[] array;
+
+    /**
+     * Constructor.
+     *
+     * @param key   {@link MLockKey} Key associated with value
+     * @param value Value (byte[]).
+     */
+    public MLockBytes(MLockKey key, @NonNull byte[] value) {
+        super(key);
+        this.value = ByteBuffer.wrap(value);
+        this.array = value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param key   {@link MLockKey} Key associated with value
+     * @param value Value, the bytes between its position and limit. The position of the buffer is not changed.
+     */
+    public MLockBytes(MLockKey key, @NonNull ByteBuffer value) {
+        super(key);
+        this.value = value.slice();
+        this.array = null;
+    }
+
+    /**
+     * Constructor, used when restoring a value from storage.
+     */
+    MLockBytes(MLockKey key, @NonNull ByteBuffer value, long timestamp) {
+        super(key, timestamp);
+        this.value = value.slice();
+        this.array = null;
+    }
+
+    /**
+     * @return Value as an array. This is the array the value was created with if there was one, otherwise a new
+     * copy on every call. Values read from MLock are always copied, so modifying the array never changes a
+     * cached value.
+     */
+    @Override
+    public byte[] getValue() {
+        if (array != null) return array;
+
+        final byte[] copy = new byte[value.remaining()];
+        value.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * @return Read-only view of the value, direct if the value is held in a direct buffer.
+     */
+    @NonNull
+    public ByteBuffer getBuffer() {
+        return value.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return Number of bytes in the value.
+     */
+    public int size() {
+        return value.remaining();
+    }
+
+    /**
+     * @return Writable view of the value, only read by MLock itself.
+     */
+    @NonNull
+    ByteBuffer buffer() {
+        return value.duplicate();
+    }
+}
@@ -27,6 +27,7 @@ import android.os.Build;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.nio.ByteBuffer;
 import java.security.Key;
 import java.util.logging.Logger;
 
@@ -35,25 +36,42 @@ import javax.crypto.spec.IvParameterSpec;
 
 abstract class MLockCipher<T> {
 
-    // Class Constants
-    static final int GCM_SPEC_LENGTH = 128;
-    static final String IV_SEPARATOR = "]";
-
     // Class Ciphers
     static final String SYMMETRIC_CIPHER = "AES/GCM/NoPadding";
     static final String ASYMMETRIC_CIPHER = "RSA/ECB/PKCS1Padding";
 
+    // Class Constants
+    static final int GCM_SPEC_LENGTH = 128;
+    static final String IV_SEPARATOR = "]";
+    static final byte[] NO_PREFIX = new byte[0];
+
     /**
      * Class Logger
      */
     protected final Logger logger;
 
+    /**
+     * Per-thread {@link Cipher} cache, avoids a provider lookup and allocation on every operation.
+     */
+    protected final MLockCipherPool pool;
+
     /**
      * Constructor, initializes {@link MLockCipher##logger}. Made package-private to prevent outside
      * instantiation of this package.
+     *
+     * @param transformation Transformation of the {@link Cipher} instances used by this class.
      */
-    MLockCipher(@NonNull String tag) {
+    MLockCipher(@NonNull String tag, @NonNull String transformation) {
         logger = Logger.getLogger(tag);
+        pool = new MLockCipherPool(transformation);
+    }
+
+    /**
+     * @return {@link MLockCipherPool} used by this cipher, exposes the pool hit rate.
+     */
+    @NonNull
+    final MLockCipherPool getPool() {
+        return pool;
     }
 
     /**
@@ -67,6 +85,18 @@ abstract class MLockCipher<T> {
                 : new MLockCipherAsymmetric();
     }
 
+    /**
+     * Creates a new instance of the {@link MLockCipher} matching the keys of the given {@link MLockKeyStore}.
+     * Keys of an {@link MLockKeyProvider} are AES keys on every API level, so they always get an
+     * {@link MLockCipherSymmetric}, otherwise this is the same as {@link MLockCipher#getInstance()}.
+     *
+     * @apiNote This is not a singleton, this will return a new object every time it is called.
+     */
+    @NonNull
+    static MLockCipher<?> getInstance(@NonNull MLockKeyStore<?> keyStore) {
+        return keyStore instanceof MLockKeyStoreProvided ? new MLockCipherSymmetric() : getInstance();
+    }
+
     /**
      * Encrypts the given data using a {@link Key}.
      *
@@ -77,7 +107,7 @@ abstract class MLockCipher<T> {
     abstract String encrypt(@NonNull T key, @NonNull String data);
 
     /**
-     * Decrypts data that was encrypted by {@link MLockCipher#encrypt}. Data should contain key
+     * Decrypts data that was encrypted by {@link MLockCipher#encrypt(Object, String)}. Data should contain key
      * inside in this format <iv key>]<encrypted data>. This is critical as the {@link IvParameterSpec} will
      * need it to properly initialize the {@link Cipher} in {@link Cipher#DECRYPT_MODE}
      *
@@ -86,4 +116,59 @@ abstract class MLockCipher<T> {
      */
     @Nullable
     abstract String decrypt(@NonNull T key, @NonNull String data);
+
+    /**
+     * Encrypts the given bytes using a {@link Key}.
+     *
+     * @return Encrypted data laid out as described in {@link MLockRecord}, or null if any error occur.
+     */
+    @Nullable
+    abstract byte[] encrypt(@NonNull T key, @NonNull byte[] data);
+
+    /**
+     * Decrypts a record that was encrypted by {@link MLockCipher#encrypt(Object, byte[])}. Records in the
+     * legacy Base64 String format produced by {@link MLockCipher#encrypt(Object, String)} are also accepted.
+     *
+     * @param record Encrypted record.
+     * @return decrypted data or null if any error occur.
+     */
+    @Nullable
+    abstract byte[] decrypt(@NonNull T key, @NonNull byte[] record);
+
+    /**
+     * Encrypts the remaining bytes of the given buffer using a {@link Key}. The returned buffer is direct if
+     * the given buffer is direct.
+     *
+     * @return Flipped buffer containing the record described in {@link MLockRecord}, or null if any error occur.
+     */
+    @Nullable
+    final ByteBuffer encrypt(@NonNull T key, @NonNull ByteBuffer data) {
+        return encrypt(key, NO_PREFIX, data);
+    }
+
+    /**
+     * Encrypts the given prefix followed by the remaining bytes of the given buffer, as if they were one
+     * plaintext. Lets callers put a small header in front of a large payload without copying the payload.
+     * The returned buffer is direct if the given buffer is direct.
+     *
+     * @return Flipped buffer containing the record described in {@link MLockRecord}, or null if any error occur.
+     */
+    @Nullable
+    abstract ByteBuffer encrypt(@NonNull T key, @NonNull byte[] prefix, @NonNull ByteBuffer data);
+
+    /**
+     * Decrypts the remaining bytes of the given buffer, which must hold a record produced by
+     * {@link MLockCipher#encrypt(Object, ByteBuffer)} or {@link MLockCipher#encrypt(Object, byte[])}.
+     *
+     * @return Flipped buffer containing the decrypted data or null if any error occur.
+     */
+    @Nullable
+    abstract ByteBuffer decrypt(@NonNull T key, @NonNull ByteBuffer record);
+
+    /**
+     * Allocates an output buffer of the same kind (heap or direct) as the given input buffer.
+     */
+    static ByteBuffer allocateLike(@NonNull ByteBuffer input, int capacity) {
+        return input.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
 }
@@ -27,39 +27,91 @@ import android.util.Base64;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * {@link MLockCipher} for devices below API 23, where the AndroidKeyStore only holds RSA key pairs.
+ * <p>
+ * RSA alone caps a value at about 245 bytes and costs a private key operation per read. Values are
+ * therefore encrypted with AES-GCM under a random content key, which the key pair only wraps. The wrapped
+ * content key travels in every record, laid out as the hybrid record of {@link MLockRecord}, and one content
+ * key is reused until the key pair changes, so writes cost no RSA operation and reads cost one per content
+ * key. Records written with RSA alone by earlier versions can still be read.
+ * </p>
+ */
 final class MLockCipherAsymmetric extends MLockCipher<KeyStore.PrivateKeyEntry> {
 
     // Class Constants
     private static final String TAG = MLockCipherAsymmetric.class.getSimpleName();
+    private static final String CONTENT_KEY_ALGORITHM = "AES";
+    private static final int CONTENT_KEY_LENGTH = 32;
+    private static final int MAX_UNWRAPPED_KEYS = 8;
+
+    /**
+     * Pool of the AES-GCM ciphers doing the bulk encryption, {@link MLockCipher#pool} only wraps content keys
+     * and decrypts records written with RSA alone.
+     */
+    private final MLockCipherPool contentPool = new MLockCipherPool(SYMMETRIC_CIPHER);
+
+    /**
+     * Source of content keys.
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Recently unwrapped content keys by wrapped key, so reading a record costs no RSA operation once its
+     * content key is known.
+     */
+    private final Map<ByteBuffer, SecretKey> unwrapped =
+            new LinkedHashMap<ByteBuffer, SecretKey>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SecretKey> eldest) {
+                    return size() > MAX_UNWRAPPED_KEYS;
+                }
+            };
+
+    /**
+     * Content key new records are encrypted with. Null until the first record is encrypted.
+     */
+    @Nullable
+    private volatile ContentKey contentKey = null;
 
     /**
      * Constructor.
      */
     MLockCipherAsymmetric() {
-        super(TAG);
+        super(TAG, ASYMMETRIC_CIPHER);
     }
 
     /**
-     * @see MLockCipher#encrypt
+     * @see MLockCipher#encrypt(Object, String)
      */
     @Override
     @Nullable
     final String encrypt(@NonNull KeyStore.PrivateKeyEntry key, @NonNull String data) {
         try {
             // Initialize Cipher in encryption mode with the secret key.
-            final Cipher cipher = Cipher.getInstance(ASYMMETRIC_CIPHER);
-            cipher.init(Cipher.ENCRYPT_MODE, key.getCertificate().getPublicKey());
+            final Cipher cipher = pool.acquire(Cipher.ENCRYPT_MODE, key.getCertificate().getPublicKey());
 
             // Create full encrypted string.
             return Base64.encodeToString(cipher.doFinal(data.getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT);
@@ -72,7 +124,7 @@ final class MLockCipherAsymmetric extends MLockCipher<KeyStore.PrivateKeyEntry>
     }
 
     /**
-     * @see MLockCipher#decrypt
+     * @see MLockCipher#decrypt(Object, String)
      */
     @Override
     @Nullable
@@ -80,8 +132,7 @@ final class MLockCipherAsymmetric extends MLockCipher<KeyStore.PrivateKeyEntry>
         try {
 
             // Initializing Cipher in Decrypt mode with IvParameterSpec.
-            final Cipher cipher = Cipher.getInstance(ASYMMETRIC_CIPHER);
-            cipher.init(Cipher.DECRYPT_MODE, key.getPrivateKey());
+            final Cipher cipher = pool.acquire(Cipher.DECRYPT_MODE, key.getPrivateKey());
 
             // Decode the encrypted string to a byte array.
             final byte[] decodedData = cipher.doFinal(Base64.decode(data, Base64.DEFAULT));
@@ -96,4 +147,197 @@ final class MLockCipherAsymmetric extends MLockCipher<KeyStore.PrivateKeyEntry>
 
         return null;
     }
+
+    /**
+     * Encrypts with AES-GCM under the current content key and stores the wrapped content key in the record.
+     *
+     * @see MLockCipher#encrypt(Object, byte[])
+     */
+    @Override
+    @Nullable
+    final byte[] encrypt(@NonNull KeyStore.PrivateKeyEntry key, @NonNull byte[] data) {
+        try {
+            final ContentKey contentKey = contentKey(key);
+            final Cipher cipher = contentPool.acquire(Cipher.ENCRYPT_MODE, contentKey.secret);
+
+            // Write the header and encrypt directly behind it, no intermediate copies.
+            final byte[] iv = cipher.getIV();
+            final byte[] record = new byte[MLockRecord.hybridHeaderLength(iv.length, contentKey.wrapped.length)
+                    + cipher.getOutputSize(data.length)];
+            final int offset = MLockRecord.writeHybridHeader(record, iv, contentKey.wrapped);
+            final int written = cipher.doFinal(data, 0, data.length, record, offset);
+            return offset + written == record.length ? record : Arrays.copyOf(record, offset + written);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
+                | BadPaddingException | IllegalBlockSizeException | ShortBufferException e) {
+            logger.log(Level.WARNING, "Unable to encrypt data due to exception: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Decrypts hybrid records as well as records encrypted with RSA alone by earlier versions.
+     *
+     * @see MLockCipher#decrypt(Object, byte[])
+     */
+    @Override
+    @Nullable
+    final byte[] decrypt(@NonNull KeyStore.PrivateKeyEntry key, @NonNull byte[] record) {
+        if (!MLockRecord.isBinary(record)) {
+            final String decrypted = decrypt(key, new String(record, StandardCharsets.US_ASCII));
+            return decrypted == null ? null : decrypted.getBytes(StandardCharsets.UTF_8);
+        }
+
+        try {
+            final int offset = MLockRecord.ciphertextOffset(record);
+            if (!MLockRecord.isHybrid(record)) {
+                // Initializing Cipher in Decrypt mode with the private key.
+                final Cipher cipher = pool.acquire(Cipher.DECRYPT_MODE, key.getPrivateKey());
+                return cipher.doFinal(record, offset, record.length - offset);
+            }
+
+            // Initializing Cipher in Decrypt mode with the content key and the IV stored in the record header.
+            final GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_SPEC_LENGTH, record,
+                    MLockRecord.HEADER_LENGTH, MLockRecord.ivLength(record));
+            final Cipher cipher = contentPool.acquire(Cipher.DECRYPT_MODE,
+                    unwrap(key, MLockRecord.wrappedKey(record)), parameterSpec);
+            return cipher.doFinal(record, offset, record.length - offset);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
+                | InvalidAlgorithmParameterException | BadPaddingException | IllegalBlockSizeException e) {
+            logger.log(Level.WARNING, "Unable to decrypt data due to exception: "
+                    + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * @see MLockCipher#encrypt(Object, byte[], ByteBuffer)
+     */
+    @Override
+    @Nullable
+    final ByteBuffer encrypt(@NonNull KeyStore.PrivateKeyEntry key, @NonNull byte[] prefix, @NonNull ByteBuffer data) {
+        try {
+            final ContentKey contentKey = contentKey(key);
+            final Cipher cipher = contentPool.acquire(Cipher.ENCRYPT_MODE, contentKey.secret);
+
+            final byte[] iv = cipher.getIV();
+            final ByteBuffer record = allocateLike(data,
+                    MLockRecord.hybridHeaderLength(iv.length, contentKey.wrapped.length)
+                            + cipher.getOutputSize(prefix.length + data.remaining()));
+            MLockRecord.writeHybridHeader(record, iv, contentKey.wrapped);
+            if (prefix.length > 0) cipher.update(ByteBuffer.wrap(prefix), record);
+            cipher.doFinal(data, record);
+            record.flip();
+            return record;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
+                | BadPaddingException | IllegalBlockSizeException | ShortBufferException e) {
+            logger.log(Level.WARNING, "Unable to encrypt data due to exception: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * @see MLockCipher#decrypt(Object, ByteBuffer)
+     */
+    @Override
+    @Nullable
+    final ByteBuffer decrypt(@NonNull KeyStore.PrivateKeyEntry key, @NonNull ByteBuffer record) {
+        if (!MLockRecord.isBinary(record)) {
+            final byte[] legacy = new byte[record.remaining()];
+            record.get(legacy);
+            final byte[] decrypted = decrypt(key, legacy);
+            return decrypted == null ? null : ByteBuffer.wrap(decrypted);
+        }
+
+        try {
+            final boolean hybrid = MLockRecord.isHybrid(record);
+            final byte[] iv = MLockRecord.readHeader(record);
+            final Cipher cipher = hybrid
+                    ? contentPool.acquire(Cipher.DECRYPT_MODE, unwrap(key, MLockRecord.readWrappedKey(record)),
+                    new GCMParameterSpec(GCM_SPEC_LENGTH, iv))
+                    : pool.acquire(Cipher.DECRYPT_MODE, key.getPrivateKey());
+
+            final ByteBuffer data = allocateLike(record, cipher.getOutputSize(record.remaining()));
+            cipher.doFinal(record, data);
+            data.flip();
+            return data;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
+                | InvalidAlgorithmParameterException | BadPaddingException | IllegalBlockSizeException
+                | ShortBufferException e) {
+            logger.log(Level.WARNING, "Unable to decrypt data due to exception: "
+                    + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the content key new records are encrypted with, generating and wrapping it with the public key
+     * on first use, or when the key pair changed.
+     */
+    @NonNull
+    private ContentKey contentKey(@NonNull KeyStore.PrivateKeyEntry key) throws NoSuchAlgorithmException,
+            NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        final PublicKey publicKey = key.getCertificate().getPublicKey();
+        final ContentKey current = contentKey;
+        if (current != null && current.publicKey.equals(publicKey)) return current;
+
+        synchronized (this) {
+            final ContentKey existing = contentKey;
+            if (existing != null && existing.publicKey.equals(publicKey)) return existing;
+
+            final byte[] raw = new byte[CONTENT_KEY_LENGTH];
+            random.nextBytes(raw);
+            final SecretKey secret = new SecretKeySpec(raw, CONTENT_KEY_ALGORITHM);
+            final byte[] wrapped = pool.acquire(Cipher.ENCRYPT_MODE, publicKey).doFinal(raw);
+
+            // Records written with this key never need the private key to be read back in this process.
+            synchronized (unwrapped) {
+                unwrapped.put(ByteBuffer.wrap(wrapped), secret);
+            }
+            contentKey = new ContentKey(publicKey, secret, wrapped);
+            return contentKey;
+        }
+    }
+
+    /**
+     * Returns the content key of a hybrid record, unwrapping it with the private key unless it was seen
+     * recently.
+     */
+    @NonNull
+    private SecretKey unwrap(@NonNull KeyStore.PrivateKeyEntry key, @NonNull byte[] wrapped)
+            throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException,
+            IllegalBlockSizeException {
+        final ByteBuffer cacheKey = ByteBuffer.wrap(wrapped);
+        synchronized (unwrapped) {
+            final SecretKey cached = unwrapped.get(cacheKey);
+            if (cached != null) return cached;
+        }
+
+        final byte[] raw = pool.acquire(Cipher.DECRYPT_MODE, key.getPrivateKey()).doFinal(wrapped);
+        if (raw.length != CONTENT_KEY_LENGTH) throw new InvalidKeyException("Invalid content key length");
+
+        final SecretKey secret = new SecretKeySpec(raw, CONTENT_KEY_ALGORITHM);
+        synchronized (unwrapped) {
+            unwrapped.put(cacheKey, secret);
+        }
+        return secret;
+    }
+
+    /**
+     * AES key and its RSA-wrapped form, for one key pair.
+     */
+    private static final class ContentKey {
+        final PublicKey publicKey;
+        final SecretKey secret;
+        final byte[] wrapped;
+
+        ContentKey(@NonNull PublicKey publicKey, @NonNull SecretKey secret, @NonNull byte[] wrapped) {
+            this.publicKey = publicKey;
+            this.secret = secret;
+            this.wrapped = wrapped;
+        }
+    }
 }
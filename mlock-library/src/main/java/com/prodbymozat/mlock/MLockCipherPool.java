@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Thread-confined cache of {@link Cipher} instances for a single transformation.
+ * <p>
+ * Each thread keeps its own {@link Cipher}, so no locking is needed and concurrent callers never share state.
+ * The cached instance is re-initialized for every operation, which resets it and, in encrypt mode, makes the
+ * provider generate a fresh IV. A {@link Cipher} binds to a provider on its first init, so if a cached
+ * instance rejects a key from a different provider it is replaced with a new one.
+ * </p>
+ */
+final class MLockCipherPool {
+
+    /**
+     * Transformation passed to {@link Cipher#getInstance(String)}.
+     */
+    private final String transformation;
+
+    /**
+     * {@link Cipher} owned by the current thread.
+     */
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
+
+    /**
+     * Number of operations served by an already cached {@link Cipher}.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of operations that had to call {@link Cipher#getInstance(String)}.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param transformation Transformation of the pooled ciphers, e.g. {@link MLockCipher#SYMMETRIC_CIPHER}.
+     */
+    MLockCipherPool(@NonNull String transformation) {
+        this.transformation = transformation;
+    }
+
+    /**
+     * Returns the current thread's {@link Cipher}, initialized with the given mode and key.
+     */
+    @NonNull
+    Cipher acquire(int mode, @NonNull Key key) throws NoSuchAlgorithmException, NoSuchPaddingException,
+            InvalidKeyException {
+        final Cipher cached = ciphers.get();
+        if (cached != null) {
+            try {
+                cached.init(mode, key);
+                hits.incrementAndGet();
+                return cached;
+            } catch (InvalidKeyException e) {
+                // Cached cipher is bound to another provider, fall through to a new instance.
+            }
+        }
+
+        final Cipher cipher = newCipher();
+        cipher.init(mode, key);
+        return cipher;
+    }
+
+    /**
+     * Returns the current thread's {@link Cipher}, initialized with the given mode, key and parameters.
+     */
+    @NonNull
+    Cipher acquire(int mode, @NonNull Key key, @NonNull AlgorithmParameterSpec spec)
+            throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+            InvalidAlgorithmParameterException {
+        final Cipher cached = ciphers.get();
+        if (cached != null) {
+            try {
+                cached.init(mode, key, spec);
+                hits.incrementAndGet();
+                return cached;
+            } catch (InvalidKeyException e) {
+                // Cached cipher is bound to another provider, fall through to a new instance.
+            }
+        }
+
+        final Cipher cipher = newCipher();
+        cipher.init(mode, key, spec);
+        return cipher;
+    }
+
+    /**
+     * @return Number of operations served by an already cached {@link Cipher}.
+     */
+    long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of operations that had to create a new {@link Cipher}.
+     */
+    long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return Ratio of operations served by a cached {@link Cipher}, between 0 and 1.
+     */
+    double getHitRate() {
+        final long hitCount = hits.get();
+        final long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Creates a new {@link Cipher} and makes it the current thread's cached instance.
+     */
+    private Cipher newCipher() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        final Cipher cipher = Cipher.getInstance(transformation);
+        ciphers.set(cipher);
+        misses.incrementAndGet();
+        return cipher;
+    }
+}
@@ -29,10 +29,12 @@ import android.util.Base64;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.logging.Level;
 
 import javax.crypto.BadPaddingException;
@@ -40,6 +42,7 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.GCMParameterSpec;
 
 @TargetApi(Build.VERSION_CODES.M)
@@ -52,19 +55,18 @@ final class MLockCipherSymmetric extends MLockCipher<SecretKey> {
      * Constructor.
      */
     MLockCipherSymmetric() {
-        super(TAG);
+        super(TAG, SYMMETRIC_CIPHER);
     }
 
     /**
-     * @see MLockCipher#encrypt
+     * @see MLockCipher#encrypt(Object, String)
      */
     @Override
     @Nullable
     final String encrypt(@NonNull SecretKey key, @NonNull String data) {
         try {
             // Initialize Cipher in encryption mode with the secret key.
-            final Cipher cipher = Cipher.getInstance(SYMMETRIC_CIPHER);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
+            final Cipher cipher = pool.acquire(Cipher.ENCRYPT_MODE, key);
 
             // Create Base64 encoded IV
             final String iv = Base64.encodeToString(cipher.getIV(), Base64.DEFAULT);
@@ -84,7 +86,7 @@ final class MLockCipherSymmetric extends MLockCipher<SecretKey> {
     }
 
     /**
-     * @see MLockCipher#decrypt
+     * @see MLockCipher#decrypt(Object, String)
      */
     @Override
     @Nullable
@@ -96,10 +98,9 @@ final class MLockCipherSymmetric extends MLockCipher<SecretKey> {
             final String encryptedString = split[1];
 
             // Initializing Cipher in Decrypt mode with IvParameterSpec.
-            final Cipher cipher = Cipher.getInstance(SYMMETRIC_CIPHER);
             final GCMParameterSpec parameterSpec =
                     new GCMParameterSpec(GCM_SPEC_LENGTH, Base64.decode(ivString, Base64.DEFAULT));
-            cipher.init(Cipher.DECRYPT_MODE, key, parameterSpec);
+            final Cipher cipher = pool.acquire(Cipher.DECRYPT_MODE, key, parameterSpec);
 
             // Decode the encrypted string to a byte array.
             final byte[] decodedData =
@@ -116,4 +117,115 @@ final class MLockCipherSymmetric extends MLockCipher<SecretKey> {
 
         return null;
     }
+
+    /**
+     * @see MLockCipher#encrypt(Object, byte[])
+     */
+    @Override
+    @Nullable
+    final byte[] encrypt(@NonNull SecretKey key, @NonNull byte[] data) {
+        try {
+            // Initialize Cipher in encryption mode with the secret key.
+            final Cipher cipher = pool.acquire(Cipher.ENCRYPT_MODE, key);
+
+            // Write the header and encrypt directly behind it, no intermediate copies.
+            final byte[] iv = cipher.getIV();
+            final byte[] record = new byte[MLockRecord.headerLength(iv.length) + cipher.getOutputSize(data.length)];
+            final int offset = MLockRecord.writeHeader(record, iv);
+            final int written = cipher.doFinal(data, 0, data.length, record, offset);
+            return offset + written == record.length ? record : Arrays.copyOf(record, offset + written);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
+                | BadPaddingException | IllegalBlockSizeException | ShortBufferException e) {
+            logger.log(Level.WARNING, "Unable to encrypt data due to exception: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * @see MLockCipher#decrypt(Object, byte[])
+     */
+    @Override
+    @Nullable
+    final byte[] decrypt(@NonNull SecretKey key, @NonNull byte[] record) {
+        if (!MLockRecord.isBinary(record)) {
+            final String decrypted = decrypt(key, new String(record, StandardCharsets.US_ASCII));
+            return decrypted == null ? null : decrypted.getBytes(StandardCharsets.UTF_8);
+        }
+
+        try {
+            // Initializing Cipher in Decrypt mode with the IV stored in the record header.
+            final GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_SPEC_LENGTH, record,
+                    MLockRecord.HEADER_LENGTH, MLockRecord.ivLength(record));
+            final Cipher cipher = pool.acquire(Cipher.DECRYPT_MODE, key, parameterSpec);
+
+            final int offset = MLockRecord.ciphertextOffset(record);
+            return cipher.doFinal(record, offset, record.length - offset);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
+                InvalidAlgorithmParameterException | BadPaddingException |
+                IllegalBlockSizeException e) {
+            logger.log(Level.WARNING, "Unable to decrypt data due to exception: "
+                    + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * @see MLockCipher#encrypt(Object, byte[], ByteBuffer)
+     */
+    @Override
+    @Nullable
+    final ByteBuffer encrypt(@NonNull SecretKey key, @NonNull byte[] prefix, @NonNull ByteBuffer data) {
+        try {
+            // Initialize Cipher in encryption mode with the secret key.
+            final Cipher cipher = pool.acquire(Cipher.ENCRYPT_MODE, key);
+
+            final byte[] iv = cipher.getIV();
+            final ByteBuffer record = allocateLike(data,
+                    MLockRecord.headerLength(iv.length) + cipher.getOutputSize(prefix.length + data.remaining()));
+            MLockRecord.writeHeader(record, iv);
+            if (prefix.length > 0) cipher.update(ByteBuffer.wrap(prefix), record);
+            cipher.doFinal(data, record);
+            record.flip();
+            return record;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
+                | BadPaddingException | IllegalBlockSizeException | ShortBufferException e) {
+            logger.log(Level.WARNING, "Unable to encrypt data due to exception: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * @see MLockCipher#decrypt(Object, ByteBuffer)
+     */
+    @Override
+    @Nullable
+    final ByteBuffer decrypt(@NonNull SecretKey key, @NonNull ByteBuffer record) {
+        if (!MLockRecord.isBinary(record)) {
+            final byte[] legacy = new byte[record.remaining()];
+            record.get(legacy);
+            final byte[] decrypted = decrypt(key, legacy);
+            return decrypted == null ? null : ByteBuffer.wrap(decrypted);
+        }
+
+        try {
+            // Initializing Cipher in Decrypt mode with the IV stored in the record header.
+            final Cipher cipher = pool.acquire(Cipher.DECRYPT_MODE, key,
+                    new GCMParameterSpec(GCM_SPEC_LENGTH, MLockRecord.readHeader(record)));
+
+            final ByteBuffer data = allocateLike(record, cipher.getOutputSize(record.remaining()));
+            cipher.doFinal(record, data);
+            data.flip();
+            return data;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
+                InvalidAlgorithmParameterException | BadPaddingException |
+                IllegalBlockSizeException | ShortBufferException e) {
+            logger.log(Level.WARNING, "Unable to decrypt data due to exception: "
+                    + e.getMessage());
+        }
+
+        return null;
+    }
 }
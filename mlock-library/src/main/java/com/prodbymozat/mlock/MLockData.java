@@ -30,49 +30,64 @@ import java.util.Date;
  * These are the supported data types for MLock:
  * <ul>
  * <li>Integer
+ * <li>Long
  * <li>Float
  * <li>Double
+ * <li>Boolean
  * <li>String
  * </ul>
  * </p>
+ * Numeric and boolean values are held as primitives by their subclasses and only boxed when
+ * {@link MLockData#getValue()} is called. The creation date is held as epoch milliseconds.
  */
 abstract class MLockData<V> {
     /**
      * Key for the key/pair value.
      */
-    private MLockKey key;
+    private final MLockKey key;
 
     /**
-     * Value for the key/pair value.
+     * Creation time of the data type, in milliseconds since the epoch.
      */
-    private V value;
+    private final long timestamp;
 
     /**
-     * Data of the data type creation.
+     * Constructor.
+     *
+     * @param key {@link MLockKey} Key associated with value
      */
-    private Date date;
+    MLockData(MLockKey key) {
+        this(key, System.currentTimeMillis());
+    }
 
     /**
-     * Constructor.
+     * Constructor, used when restoring a value from storage.
      *
-     * @param key   {@link MLockKey} Key associated with value
-     * @param value Value to be saved. Must be one of the supported types listed in the Javadoc.
+     * @param key       {@link MLockKey} Key associated with value
+     * @param timestamp Time the value was first created, in milliseconds since the epoch.
      */
-    MLockData(MLockKey key, V value) {
+    MLockData(MLockKey key, long timestamp) {
         this.key = key;
-        this.value = value;
-        this.date = new Date();
+        this.timestamp = timestamp;
     }
 
     public MLockKey getKey() {
         return key;
     }
 
-    public V getValue() {
-        return value;
-    }
+    /**
+     * @return Value, boxed for primitive types.
+     */
+    public abstract V getValue();
 
     public Date getDate() {
-        return date;
+        return new Date(timestamp);
+    }
+
+    /**
+     * @return Time the value was first created, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
     }
 }
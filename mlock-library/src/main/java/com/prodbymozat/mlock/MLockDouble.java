@@ -24,15 +24,55 @@ package com.prodbymozat.mlock;
 
 /**
  * Double data model class for MLock. Use this to save a double value in MLock.
+ * <p>
+ * The value is held as a double and encoded as fixed-width little-endian bytes, it is only boxed by
+ * {@link MLockDouble#getValue()}.
+ * </p>
  */
 public final class MLockDouble extends MLockData<Double> {
+    /**
+     * Value.
+     */
+    private final double value;
+
+    /**
+     * Constructor.
+     *
+     * @param key   {@link MLockKey} Key associated with value
+     * @param value Value (double).
+     */
+    public MLockDouble(MLockKey key, double value) {
+        super(key);
+        this.value = value;
+    }
+
     /**
      * Constructor.
      *
      * @param key   {@link MLockKey} Key associated with value
-     * @param value Value (Double).
+     * @param value Value (Double), must not be null.
      */
     public MLockDouble(MLockKey key, Double value) {
-        super(key, value);
+        this(key, value.doubleValue());
+    }
+
+    /**
+     * Constructor, used when restoring a value from storage.
+     */
+    MLockDouble(MLockKey key, double value, long timestamp) {
+        super(key, timestamp);
+        this.value = value;
+    }
+
+    @Override
+    public Double getValue() {
+        return value;
+    }
+
+    /**
+     * @return Value, without boxing.
+     */
+    public double doubleValue() {
+        return value;
     }
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Envelope encryption for MLock.
+ * <p>
+ * A random AES-256 data key is generated once and wrapped by the {@link MLockKeyStore} key (the AES key on
+ * API 23+, the RSA key pair before that). Only the wrapped form is persisted. Once unwrapped, the data key is
+ * kept in memory for a configurable lifetime and every value is encrypted in software with
+ * {@link MLockCipherSymmetric}, so the KeyStore is only touched when the data key has to be unwrapped.
+ * </p>
+ */
+final class MLockEnvelope<T> {
+
+    // Class Constants
+    private static final String TAG = MLockEnvelope.class.getSimpleName();
+    static final String KEY_ALIAS = "mlock_envelope_key";
+    static final String WRAPPED_KEY_FILE_NAME = "mlock_data_key";
+    static final String DATA_KEY_ALGORITHM = "AES";
+    static final int DATA_KEY_SIZE = 32;
+
+    /**
+     * Class Logger
+     */
+    private final Logger logger;
+
+    /**
+     * {@link MLockKeyStore} holding the key used to wrap the data key.
+     */
+    private final MLockKeyStore<T> keyStore;
+
+    /**
+     * {@link MLockCipher} matching {@link MLockEnvelope##keyStore}, used to wrap and unwrap the data key.
+     */
+    private final MLockCipher<T> wrapCipher;
+
+    /**
+     * Software {@link MLockCipher} used for values.
+     */
+    private final MLockCipherSymmetric dataCipher;
+
+    /**
+     * File the wrapped data key is persisted in.
+     */
+    private final File wrappedKeyFile;
+
+    /**
+     * Lifetime of the unwrapped data key in nanoseconds.
+     */
+    private final long lifetimeNanos;
+
+    /**
+     * Unwrapped data key, null until first use or after it has expired.
+     */
+    @Nullable
+    private SecretKey dataKey;
+
+    /**
+     * {@link System#nanoTime()} at which {@link MLockEnvelope##dataKey} expires.
+     */
+    private long expiresAt;
+
+    /**
+     * Constructor.
+     *
+     * @param keyStore       {@link MLockKeyStore} used to wrap the data key.
+     * @param wrapCipher     {@link MLockCipher} matching the key type of the keystore.
+     * @param wrappedKeyFile File the wrapped data key is persisted in.
+     * @param lifetimeMillis How long the unwrapped data key is kept in memory.
+     */
+    MLockEnvelope(@NonNull MLockKeyStore<T> keyStore, @NonNull MLockCipher<T> wrapCipher,
+                  @NonNull File wrappedKeyFile, long lifetimeMillis) {
+        this.logger = Logger.getLogger(TAG);
+        this.keyStore = keyStore;
+        this.wrapCipher = wrapCipher;
+        this.dataCipher = new MLockCipherSymmetric();
+        this.wrappedKeyFile = wrappedKeyFile;
+        this.lifetimeNanos = TimeUnit.MILLISECONDS.toNanos(lifetimeMillis);
+    }
+
+    /**
+     * Creates a new {@link MLockEnvelope} from the untyped instances returned by {@link MLockKeyStore#getInstance}
+     * and {@link MLockCipher#getInstance()}. Both are chosen from the same API level check, so their key types
+     * always match.
+     */
+    @SuppressWarnings("unchecked")
+    static MLockEnvelope<?> create(@NonNull MLockKeyStore<?> keyStore, @NonNull MLockCipher<?> wrapCipher,
+                                   @NonNull File wrappedKeyFile, long lifetimeMillis) {
+        return new MLockEnvelope<>((MLockKeyStore<Object>) keyStore, (MLockCipher<Object>) wrapCipher,
+                wrappedKeyFile, lifetimeMillis);
+    }
+
+    /**
+     * Encrypts the given data with the data key.
+     *
+     * @see MLockCipher#encrypt(Object, String)
+     */
+    @Nullable
+    String encrypt(@NonNull String data) {
+        final SecretKey key = getDataKey();
+        return key == null ? null : dataCipher.encrypt(key, data);
+    }
+
+    /**
+     * Decrypts data that was encrypted by {@link MLockEnvelope#encrypt(String)}.
+     *
+     * @see MLockCipher#decrypt(Object, String)
+     */
+    @Nullable
+    String decrypt(@NonNull String data) {
+        final SecretKey key = getDataKey();
+        return key == null ? null : dataCipher.decrypt(key, data);
+    }
+
+    /**
+     * Encrypts the given bytes with the data key.
+     *
+     * @see MLockCipher#encrypt(Object, byte[])
+     */
+    @Nullable
+    byte[] encrypt(@NonNull byte[] data) {
+        final SecretKey key = getDataKey();
+        return key == null ? null : dataCipher.encrypt(key, data);
+    }
+
+    /**
+     * Decrypts a record that was encrypted by {@link MLockEnvelope#encrypt(byte[])}.
+     *
+     * @see MLockCipher#decrypt(Object, byte[])
+     */
+    @Nullable
+    byte[] decrypt(@NonNull byte[] record) {
+        final SecretKey key = getDataKey();
+        return key == null ? null : dataCipher.decrypt(key, record);
+    }
+
+    /**
+     * Encrypts the given prefix followed by the remaining bytes of the buffer with the data key.
+     *
+     * @see MLockCipher#encrypt(Object, byte[], ByteBuffer)
+     */
+    @Nullable
+    ByteBuffer encrypt(@NonNull byte[] prefix, @NonNull ByteBuffer data) {
+        final SecretKey key = getDataKey();
+        return key == null ? null : dataCipher.encrypt(key, prefix, data);
+    }
+
+    /**
+     * Decrypts the remaining bytes of a buffer holding a record encrypted with the data key.
+     *
+     * @see MLockCipher#decrypt(Object, ByteBuffer)
+     */
+    @Nullable
+    ByteBuffer decrypt(@NonNull ByteBuffer record) {
+        final SecretKey key = getDataKey();
+        return key == null ? null : dataCipher.decrypt(key, record);
+    }
+
+    /**
+     * Returns the unwrapped data key. The key is unwrapped (or generated and wrapped on first use) through
+     * the KeyStore only if it is not cached or its lifetime has passed.
+     *
+     * @return Data key or null if it could not be unwrapped or generated.
+     */
+    @Nullable
+    synchronized SecretKey getDataKey() {
+        if (dataKey != null && System.nanoTime() - expiresAt < 0) return dataKey;
+
+        // Cached key is missing or expired, go through the KeyStore.
+        dataKey = wrappedKeyFile.exists() ? unwrapDataKey() : generateDataKey();
+        expiresAt = System.nanoTime() + lifetimeNanos;
+        return dataKey;
+    }
+
+    /**
+     * Drops the cached data key, forcing the next operation to unwrap it through the KeyStore again.
+     */
+    synchronized void evict() {
+        dataKey = null;
+    }
+
+    /**
+     * Reads the wrapped data key from disk and unwraps it with the KeyStore key.
+     */
+    @Nullable
+    private SecretKey unwrapDataKey() {
+        final T wrappingKey = keyStore.getKey(KEY_ALIAS);
+        if (wrappingKey == null) {
+            logger.log(Level.WARNING, "Wrapping key is missing, unable to unwrap data key");
+            return null;
+        }
+
+        try {
+            final String wrapped = new String(MLockUtils.readFully(wrappedKeyFile), StandardCharsets.UTF_8);
+            final String encoded = wrapCipher.decrypt(wrappingKey, wrapped);
+            if (encoded == null) return null;
+
+            final byte[] raw = Base64.decode(encoded, Base64.NO_WRAP);
+            final SecretKey key = new SecretKeySpec(raw, DATA_KEY_ALGORITHM);
+            Arrays.fill(raw, (byte) 0);
+            return key;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to read wrapped data key: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Generates a new data key, wraps it with the KeyStore key and persists the wrapped form.
+     */
+    @Nullable
+    private SecretKey generateDataKey() {
+        T wrappingKey = keyStore.getKey(KEY_ALIAS);
+        if (wrappingKey == null) wrappingKey = keyStore.generateKey(KEY_ALIAS);
+        if (wrappingKey == null) {
+            logger.log(Level.WARNING, "Unable to generate wrapping key for data key");
+            return null;
+        }
+
+        final byte[] raw = new byte[DATA_KEY_SIZE];
+        new SecureRandom().nextBytes(raw);
+
+        try {
+            final String wrapped = wrapCipher.encrypt(wrappingKey, Base64.encodeToString(raw, Base64.NO_WRAP));
+            if (wrapped == null) return null;
+
+            MLockUtils.writeAtomically(wrappedKeyFile, wrapped.getBytes(StandardCharsets.UTF_8));
+            return new SecretKeySpec(raw, DATA_KEY_ALGORITHM);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to persist wrapped data key: " + e.getMessage());
+            return null;
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+}
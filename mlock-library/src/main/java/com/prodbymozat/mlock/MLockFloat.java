@@ -24,15 +24,55 @@ package com.prodbymozat.mlock;
 
 /**
  * Float data model class for MLock. Use this to save a float value in MLock.
+ * <p>
+ * The value is held as a float and encoded as fixed-width little-endian bytes, it is only boxed by
+ * {@link MLockFloat#getValue()}.
+ * </p>
  */
 public final class MLockFloat extends MLockData<Float> {
+    /**
+     * Value.
+     */
+    private final float value;
+
+    /**
+     * Constructor.
+     *
+     * @param key   {@link MLockKey} Key associated with value
+     * @param value Value (float).
+     */
+    public MLockFloat(MLockKey key, float value) {
+        super(key);
+        this.value = value;
+    }
+
     /**
      * Constructor.
      *
      * @param key   {@link MLockKey} Key associated with value
-     * @param value Value (Float).
+     * @param value Value (Float), must not be null.
      */
     public MLockFloat(MLockKey key, Float value) {
-        super(key, value);
+        this(key, value.floatValue());
+    }
+
+    /**
+     * Constructor, used when restoring a value from storage.
+     */
+    MLockFloat(MLockKey key, float value, long timestamp) {
+        super(key, timestamp);
+        this.value = value;
+    }
+
+    @Override
+    public Float getValue() {
+        return value;
+    }
+
+    /**
+     * @return Value, without boxing.
+     */
+    public float floatValue() {
+        return value;
     }
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.prodbymozat.mlock.exceptions.MLockException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an asynchronous MLock operation, such as {@link MLock#retrieveAsync(String)}.
+ * <p>
+ * Listeners run on the executor they are added with, or on the callback executor set in {@link MLockOptions}.
+ * A listener added after completion is called right away on its executor. Operations can not be cancelled,
+ * since concurrent reads of the same key share one future.
+ * </p>
+ *
+ * @param <V> Type of the result.
+ */
+public final class MLockFuture<V> implements Future<V> {
+
+    /**
+     * Executor listeners added without one run on.
+     */
+    private final Executor callbackExecutor;
+
+    /**
+     * Listeners waiting for completion, with their executors. Guarded by this.
+     */
+    private final List<Registration<? super V>> listeners = new ArrayList<>();
+
+    /**
+     * Whether the future completed. Guarded by this.
+     */
+    private boolean done = false;
+
+    /**
+     * Result, once completed successfully. Guarded by this.
+     */
+    @Nullable
+    private V result = null;
+
+    /**
+     * Failure, once completed with an error. Guarded by this.
+     */
+    @Nullable
+    private MLockException exception = null;
+
+    /**
+     * Constructor
+     *
+     * @param callbackExecutor Executor listeners added without one run on.
+     */
+    MLockFuture(@NonNull Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Adds a listener, called on the callback executor set in {@link MLockOptions}.
+     */
+    public void addListener(@NonNull MLockFutureListener<? super V> listener) {
+        addListener(listener, callbackExecutor);
+    }
+
+    /**
+     * Adds a listener, called on the given executor, e.g. one posting to the main thread.
+     */
+    public void addListener(@NonNull MLockFutureListener<? super V> listener, @NonNull Executor executor) {
+        final Registration<? super V> registration = new Registration<>(listener, executor);
+        synchronized (this) {
+            if (!done) {
+                listeners.add(registration);
+                return;
+            }
+        }
+        registration.dispatch(result, exception);
+    }
+
+    /**
+     * Always false, MLock operations can not be cancelled.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits for the operation to complete.
+     *
+     * @throws ExecutionException with the {@link MLockException} as cause, if the operation failed.
+     */
+    @Override
+    public synchronized V get() throws InterruptedException, ExecutionException {
+        while (!done) wait();
+        return getResult();
+    }
+
+    /**
+     * Waits at most the given time for the operation to complete.
+     *
+     * @throws ExecutionException with the {@link MLockException} as cause, if the operation failed.
+     */
+    @Override
+    public synchronized V get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getResult();
+    }
+
+    /**
+     * Completes the future with a result.
+     *
+     * @return false if it had already completed.
+     */
+    boolean complete(@Nullable V value) {
+        return finish(value, null);
+    }
+
+    /**
+     * Completes the future with a failure.
+     *
+     * @return false if it had already completed.
+     */
+    boolean fail(@NonNull MLockException failure) {
+        return finish(null, failure);
+    }
+
+    private boolean finish(@Nullable V value, @Nullable MLockException failure) {
+        final List<Registration<? super V>> waiting;
+        synchronized (this) {
+            if (done) return false;
+            done = true;
+            result = value;
+            exception = failure;
+            waiting = new ArrayList<>(listeners);
+            listeners.clear();
+            notifyAll();
+        }
+
+        for (final Registration<? super V> registration : waiting) registration.dispatch(value, failure);
+        return true;
+    }
+
+    private V getResult() throws ExecutionException {
+        if (exception != null) throw new ExecutionException(exception.getMessage(), exception);
+        return result;
+    }
+
+    /**
+     * Listener and the executor it runs on.
+     */
+    private static final class Registration<V> {
+        private final MLockFutureListener<V> listener;
+        private final Executor executor;
+
+        Registration(@NonNull MLockFutureListener<V> listener, @NonNull Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        void dispatch(@Nullable V value, @Nullable MLockException failure) {
+            executor.execute(() -> {
+                if (failure != null) listener.onError(failure);
+                else listener.onSuccess(value);
+            });
+        }
+    }
+}
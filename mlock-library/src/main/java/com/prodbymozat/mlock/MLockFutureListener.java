@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import com.prodbymozat.mlock.exceptions.MLockException;
+
+/**
+ * Completion listener for {@link MLockFuture}
+ *
+ * @param <V> Type of the result of the future.
+ */
+public interface MLockFutureListener<V> {
+    /**
+     * Completion listener for a successful {@link MLockFuture}.
+     *
+     * @param result Result of the future, null where the operation documents it.
+     */
+    void onSuccess(V result);
+
+    /**
+     * Error method for when the operation of the {@link MLockFuture} failed.
+     *
+     * @param exception {@link MLockException} exception for when the operation failed.
+     */
+    void onError(MLockException exception);
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each phase of a background initialization, see {@link MLockOptions.Builder#setBackgroundInit}.
+ */
+public final class MLockInitTimings {
+
+    /**
+     * Listener for the timings of a background initialization.
+     */
+    public interface Listener {
+        /**
+         * Called on the background thread once the warm-up has finished, before
+         * {@link MLock.OnInitializeListener#onComplete}. Not called if the warm-up failed.
+         *
+         * @param timings {@link MLockInitTimings} of the initialization.
+         */
+        void onInitialized(@NonNull MLockInitTimings timings);
+    }
+
+    private final long constructNanos;
+    private final long keyNanos;
+    private final long storageNanos;
+    private final long cipherNanos;
+    private final long totalNanos;
+
+    /**
+     * Constructor
+     */
+    MLockInitTimings(long constructNanos, long keyNanos, long storageNanos, long cipherNanos, long totalNanos) {
+        this.constructNanos = constructNanos;
+        this.keyNanos = keyNanos;
+        this.storageNanos = storageNanos;
+        this.cipherNanos = cipherNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * @return Time spent in {@link MLock#init} on the calling thread.
+     */
+    public long getConstructMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(constructNanos);
+    }
+
+    /**
+     * @return Time spent loading or generating the KeyStore key, and unwrapping the data key with envelope
+     * encryption.
+     */
+    public long getKeyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(keyNanos);
+    }
+
+    /**
+     * @return Time spent loading the native library and opening the encrypted database.
+     */
+    public long getStorageMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(storageNanos);
+    }
+
+    /**
+     * @return Time spent on a first encrypt and decrypt, which initializes the cipher provider.
+     */
+    public long getCipherMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(cipherNanos);
+    }
+
+    /**
+     * @return Time from the call to {@link MLock#init} until the warm-up finished.
+     */
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "MLockInitTimings{construct=" + getConstructMillis() + "ms, key=" + getKeyMillis()
+                + "ms, storage=" + getStorageMillis() + "ms, cipher=" + getCipherMillis()
+                + "ms, total=" + getTotalMillis() + "ms}";
+    }
+}
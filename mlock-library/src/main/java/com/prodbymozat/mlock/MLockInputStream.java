@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * {@link InputStream} returned by {@link MLock#openInputStream(String)}. Reads and authenticates one chunk of
+ * an {@link MLockStream} at a time. A stream that was truncated, reordered or replaced while it was read
+ * fails with an {@link IOException} instead of returning partial data as complete.
+ */
+final class MLockInputStream extends InputStream {
+
+    // Class Constants
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * {@link MLockStorage} holding the chunks.
+     */
+    private final MLockStorage storage;
+
+    /**
+     * Key the manifest is stored under.
+     */
+    private final byte[] manifestKey;
+
+    /**
+     * {@link MLockStream} being read.
+     */
+    private final MLockStream stream;
+
+    /**
+     * Plaintext of the current chunk.
+     */
+    private byte[] chunk = EMPTY;
+
+    /**
+     * Read position in {@link MLockInputStream#chunk}.
+     */
+    private int position = 0;
+
+    /**
+     * Index of the next chunk.
+     */
+    private int index = 0;
+
+    /**
+     * Number of plaintext bytes decrypted so far.
+     */
+    private long decrypted = 0;
+
+    /**
+     * Constructor
+     */
+    MLockInputStream(@NonNull MLockStorage storage, @NonNull byte[] manifestKey, @NonNull MLockStream stream) {
+        this.storage = storage;
+        this.manifestKey = manifestKey;
+        this.stream = stream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == chunk.length && !nextChunk()) return -1;
+        return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+        if (len == 0) return 0;
+        if (position == chunk.length && !nextChunk()) return -1;
+
+        final int copied = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, copied);
+        position += copied;
+        return copied;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - position;
+    }
+
+    /**
+     * Loads the next non-empty chunk.
+     *
+     * @return false once every chunk has been read.
+     */
+    private boolean nextChunk() throws IOException {
+        while (index < stream.getChunkCount()) {
+            final byte[] record = storage.get(stream.chunkKey(manifestKey, index));
+            if (record == null) throw new IOException("Missing chunk " + index + " of stream");
+
+            try {
+                chunk = stream.decryptChunk(index, record);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Unable to decrypt chunk " + index + ": " + e.getMessage(), e);
+            }
+            index++;
+            position = 0;
+            decrypted += chunk.length;
+            if (decrypted > stream.getLength()) throw new IOException("Stream is longer than its manifest");
+            if (chunk.length > 0) return true;
+        }
+
+        if (decrypted != stream.getLength()) throw new IOException("Stream is shorter than its manifest");
+        return false;
+    }
+}
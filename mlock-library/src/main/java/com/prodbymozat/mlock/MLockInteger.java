@@ -24,15 +24,55 @@ package com.prodbymozat.mlock;
 
 /**
  * Integer data model class for MLock. Use this to save a integer value in MLock.
+ * <p>
+ * The value is held as a int and encoded as fixed-width little-endian bytes, it is only boxed by
+ * {@link MLockInteger#getValue()}.
+ * </p>
  */
 public final class MLockInteger extends MLockData<Integer> {
+    /**
+     * Value.
+     */
+    private final int value;
+
+    /**
+     * Constructor.
+     *
+     * @param key   {@link MLockKey} Key associated with value
+     * @param value Value (int).
+     */
+    public MLockInteger(MLockKey key, int value) {
+        super(key);
+        this.value = value;
+    }
+
     /**
      * Constructor.
      *
      * @param key   {@link MLockKey} Key associated with value
-     * @param value Value (Integer).
+     * @param value Value (Integer), must not be null.
      */
     public MLockInteger(MLockKey key, Integer value) {
-        super(key, value);
+        this(key, value.intValue());
+    }
+
+    /**
+     * Constructor, used when restoring a value from storage.
+     */
+    MLockInteger(MLockKey key, int value, long timestamp) {
+        super(key, timestamp);
+        this.value = value;
+    }
+
+    @Override
+    public Integer getValue() {
+        return value;
+    }
+
+    /**
+     * @return Value, without boxing.
+     */
+    public int intValue() {
+        return value;
     }
 }
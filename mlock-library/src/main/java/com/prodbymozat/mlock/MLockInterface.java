@@ -22,8 +22,17 @@
 
 package com.prodbymozat.mlock;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
 /**
  * Interface class defining the method to save and retrieve data from MLock
  */
@@ -53,10 +62,159 @@ interface MLockInterface {
     MLockData<?> get(String key);
 
     /**
-     * Retrieves a value (String) in the MLock encrypted store asynchronously.
+     * Retrieves a value (String) in the MLock encrypted store asynchronously. The value is read and the
+     * listener called on MLock's single background thread.
      *
      * @param key      Key for the value.
      * @param listener {@link MLockAsyncRetrieveListener}.
      */
     void retrieve(String key, MLockAsyncRetrieveListener<?> listener);
+
+    /**
+     * Saves several values in the MLock encrypted store synchronously, in a single transaction.
+     *
+     * @param data Values to save by key. Each must be one of the supported types listed in {@link MLockData}
+     */
+    void commitAll(Map<MLockKey, MLockData<?>> data);
+
+    /**
+     * Retrieves several values in the MLock encrypted store synchronously, from a single read of the store.
+     *
+     * @param keys Keys of the values.
+     * @return Values by key. Keys without a value are left out.
+     */
+    @NonNull
+    Map<MLockKey, MLockData<?>> getAll(Collection<MLockKey> keys);
+
+    /**
+     * Retrieves several values in the MLock encrypted store asynchronously, from a single read of the store.
+     *
+     * @param keys     Keys of the values.
+     * @param listener {@link MLockAsyncRetrieveAllListener}, called once with every value found.
+     */
+    void retrieveAll(Collection<MLockKey> keys, MLockAsyncRetrieveAllListener listener);
+
+    /**
+     * Opens a stream that saves a large value in the MLock encrypted store in encrypted chunks, so it never
+     * has to fit in memory. The value replaces the previous one once the stream is closed. Streamed values
+     * are kept apart from the values of {@link MLockInterface#commit(String, MLockData)}.
+     *
+     * @param key Key for the value.
+     */
+    @NonNull
+    OutputStream openOutputStream(String key);
+
+    /**
+     * Opens a stream that reads a value saved through {@link MLockInterface#openOutputStream(String)}, one
+     * decrypted chunk at a time.
+     *
+     * @param key Key for the value.
+     * @return Stream or null if no value is stored under the key or it can not be read.
+     */
+    @Nullable
+    InputStream openInputStream(String key);
+
+    /**
+     * Deletes a value saved through {@link MLockInterface#openOutputStream(String)}, its manifest and every
+     * chunk. Readers still on the value fail on their next chunk.
+     *
+     * @param key Key for the value.
+     * @return true if a value was stored under the key and deleted.
+     */
+    boolean deleteStream(String key);
+
+    /**
+     * Retrieves a value in the MLock encrypted store on the async executor set in {@link MLockOptions}.
+     * Concurrent retrieves of a key that has not been written meanwhile share one read and decrypt.
+     *
+     * @param key Key for the value.
+     * @return {@link MLockFuture} of the value, whose result is null if no value is stored under the key.
+     */
+    @NonNull
+    MLockFuture<MLockData<?>> retrieveAsync(String key);
+
+    /**
+     * Retrieves a value in the MLock encrypted store on the given executor. A retrieve that joins one already
+     * in flight for the same key runs on the executor of the first.
+     *
+     * @param key      Key for the value.
+     * @param executor Executor the value is read on.
+     * @return {@link MLockFuture} of the value, whose result is null if no value is stored under the key.
+     */
+    @NonNull
+    MLockFuture<MLockData<?>> retrieveAsync(String key, Executor executor);
+
+    /**
+     * Saves a value in the MLock encrypted store like {@link MLockInterface#apply(String, MLockData)}, and
+     * persists it on the async executor set in {@link MLockOptions}.
+     *
+     * @param key  Key for the value.
+     * @param data Data being saved. Must be one of the supported types listed in {@link MLockData}
+     * @return {@link MLockFuture} that completes once the value is persisted.
+     */
+    @NonNull
+    MLockFuture<Void> applyAsync(String key, MLockData<?> data);
+
+    /**
+     * Saves a value in the MLock encrypted store like {@link MLockInterface#apply(String, MLockData)}, and
+     * persists it on the given executor.
+     *
+     * @param key      Key for the value.
+     * @param data     Data being saved. Must be one of the supported types listed in {@link MLockData}
+     * @param executor Executor the value is persisted on.
+     * @return {@link MLockFuture} that completes once the value is persisted.
+     */
+    @NonNull
+    MLockFuture<Void> applyAsync(String key, MLockData<?> data, Executor executor);
+
+    /**
+     * Retrieves several values like {@link MLockInterface#getAll(Collection)}, on the async executor set in
+     * {@link MLockOptions}.
+     *
+     * @param keys Keys of the values.
+     * @return {@link MLockFuture} of the values by key. Keys without a value are left out.
+     */
+    @NonNull
+    MLockFuture<Map<MLockKey, MLockData<?>>> getAllAsync(Collection<MLockKey> keys);
+
+    /**
+     * Retrieves several values like {@link MLockInterface#getAll(Collection)}, on the given executor.
+     *
+     * @param keys     Keys of the values.
+     * @param executor Executor the values are read on.
+     * @return {@link MLockFuture} of the values by key. Keys without a value are left out.
+     */
+    @NonNull
+    MLockFuture<Map<MLockKey, MLockData<?>>> getAllAsync(Collection<MLockKey> keys, Executor executor);
+
+    /**
+     * Lists the keys of the values saved in a namespace, see {@link MLockNamespace}. Pending values are
+     * persisted first. Only hashed keys are stored, so the keys are returned as {@link MLockKey}s without
+     * their raw form.
+     *
+     * @param namespace Non-empty namespace without NUL characters.
+     * @return Keys of the namespace in storage order, or an empty list if they could not be read.
+     */
+    @NonNull
+    List<MLockKey> keys(String namespace);
+
+    /**
+     * Iterates over the values saved in a namespace, see {@link MLockNamespace}. Pending values are persisted
+     * first. Values are read a page at a time, so the namespace never has to fit in memory. The iterator is
+     * invalid once MLock is reset: reading its next page then throws {@link IllegalStateException}.
+     *
+     * @param namespace Non-empty namespace without NUL characters.
+     * @return Iterator over the values of the namespace. Values saved while iterating may be left out.
+     */
+    @NonNull
+    Iterator<MLockData<?>> values(String namespace);
+
+    /**
+     * Deletes every value saved in a namespace, see {@link MLockNamespace}, with a single statement. Pending
+     * values are persisted first, so they are deleted too. Values saved while the namespace is cleared are kept.
+     *
+     * @param namespace Non-empty namespace without NUL characters.
+     * @return Number of deleted values, or zero if they could not be deleted.
+     */
+    int clearNamespace(String namespace);
 }
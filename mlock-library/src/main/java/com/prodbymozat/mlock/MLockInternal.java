@@ -22,15 +22,79 @@
 
 package com.prodbymozat.mlock;
 
+import android.content.ComponentCallbacks2;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.prodbymozat.mlock.MLockMetrics.Operation;
+import com.prodbymozat.mlock.MLockMetrics.Stage;
+import com.prodbymozat.mlock.exceptions.MLockException;
+import com.prodbymozat.mlock.exceptions.MLockStorageException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Internal implementation of {@link MLockInterface
+ * Internal implementation of {@link MLockInterface}.
+ * <p>
+ * Values are encoded by {@link MLockSerializer}, encrypted by {@link MLockCipher} (or {@link MLockEnvelope} when
+ * envelope encryption is enabled) and persisted in {@link MLockStorage} under their hashed {@link MLockKey}.
+ * The storage is opened on first use. Asynchronous operations run in order on a single background thread.
+ * </p>
+ * Applied values go through {@link MLockWriteQueue}, which persists them in batches. Committed values are
+ * queued too and the queue is then flushed synchronously, so a commit also persists every pending apply.
+ * Decoded values can be kept in an optional {@link MLockValueCache}, which writes invalidate.
+ * Future-returning operations run on a separate, bounded async executor, and concurrent
+ * {@link MLockInternal#retrieveAsync} calls for one key share a single read.
+ * Streamed values bypass both the queue and the cache, their chunks are written and read directly as
+ * {@link MLockStream} describes.
+ * Values of an {@link MLockNamespace} are stored with their namespace in an indexed column, so a namespace is
+ * listed, scanned page by page or cleared with one query each.
+ * <p>
+ * Every method may be called from any thread. Reads take no exclusive lock of their own: they check the write
+ * queue through a concurrent map and the value cache with an O(1) lookup under its monitor, so hits proceed in
+ * parallel. Storage reads are as parallel as the backend: {@link MLockLogStorage} reads under a shared lock,
+ * while {@link MLockNative} serializes every call on its single connection. Writes only lock the write-queue
+ * stripe of their {@link MLockKey} hash, flushes are serialized by {@link MLockWriteQueue}, and {@link MLock}
+ * makes init and reset atomic with respect to all other calls.
+ * </p>
  */
 class MLockInternal implements MLockInterface {
 
     // Class Constants
     private static final String TAG = MLock.class.getSimpleName();
+    static final String KEY_ALIAS = "mlock_key";
+    private static final int ASYNC_QUEUE_CAPACITY = 256;
+    private static final long ASYNC_KEEP_ALIVE_SECONDS = 30;
+    private static final byte[] WARM_UP_PROBE = new byte[16];
+    private static final int NAMESPACE_PAGE_SIZE = 64;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
 
     /**
      * Class Logger
@@ -48,18 +112,172 @@ class MLockInternal implements MLockInterface {
     private final MLockKeyStore<?> keyStore;
 
     /**
-     * {@link MLockNative}
+     * {@link MLockStorage}
+     */
+    private final MLockStorage storage;
+
+    /**
+     * {@link MLockEnvelope}. Null unless envelope encryption is enabled in {@link MLockOptions}.
+     */
+    @Nullable
+    private final MLockEnvelope<?> envelope;
+
+    /**
+     * Runs {@link MLockInternal#retrieve} and the flushes of {@link MLockInternal#writeQueue}.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Thread of {@link MLockInternal#executor}, so {@link MLockInternal#close()} called from one of its listeners
+     * does not wait for itself.
+     */
+    private volatile Thread executorThread;
+
+    /**
+     * Runs future-returning operations that are not given an executor.
+     */
+    private final Executor asyncExecutor;
+
+    /**
+     * Async executor owned and shut down by this class. Null if one was set in {@link MLockOptions}.
+     */
+    @Nullable
+    private final ExecutorService ownedAsyncExecutor;
+
+    /**
+     * Executor {@link MLockFuture} listeners run on by default.
+     */
+    private final Executor callbackExecutor;
+
+    /**
+     * Reads started by {@link MLockInternal#retrieveAsync} and not yet completed, by key.
+     */
+    private final ConcurrentMap<MLockKey, MLockFuture<MLockData<?>>> pendingReads = new ConcurrentHashMap<>();
+
+    /**
+     * {@link MLockWriteQueue}
+     */
+    private final MLockWriteQueue writeQueue;
+
+    /**
+     * {@link MLockValueCache}. Null unless enabled in {@link MLockOptions}.
+     */
+    @Nullable
+    private final MLockValueCache valueCache;
+
+    /**
+     * Whether values are stored under the raw SHA-256 digest of their key instead of its hex form.
+     */
+    private final boolean digestStorageKeys;
+
+    /**
+     * Chunk size of new {@link MLockStream}s.
+     */
+    private final int streamChunkSize;
+
+    /**
+     * Smallest String value in UTF-8 bytes compressed before it is encrypted, zero to compress none.
+     */
+    private final int compressionThreshold;
+
+    /**
+     * Serializes replacing stream manifests, so two streams closed together never delete each other's chunks.
+     */
+    private final Object streamLock = new Object();
+
+    /**
+     * Manifest keys of the streams opened by {@link MLockInternal#openOutputStream(String)} and not yet closed,
+     * so the chunks of a stream abandoned without being closed are deleted when MLock closes.
+     */
+    private final Map<MLockStream, byte[]> openStreams = new ConcurrentHashMap<>();
+
+    /**
+     * {@link MLockMetrics} operations are recorded into. Null unless enabled in {@link MLockOptions}.
+     */
+    @Nullable
+    private final MLockMetrics metrics;
+
+    /**
+     * {@link MLockTracer} operations report their sections to. Null unless set in {@link MLockOptions}.
+     */
+    @Nullable
+    private final MLockTracer tracer;
+
+    /**
+     * Bloom filter over the stored keys, or null if disabled.
+     */
+    @Nullable
+    private final MLockBloomFilter bloomFilter;
+
+    /**
+     * Whether {@link MLockInternal##storage} has been opened.
+     */
+    private volatile boolean opened = false;
+
+    /**
+     * Held for reading by every operation running on an executor, and for writing by {@link MLockInternal#close}
+     * to wait for the ones in progress before the storage is closed.
      */
-    private MLockNative lockNative;
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Whether {@link MLockInternal#close} has run. Operations still queued then fail instead of running against
+     * the closed storage.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor
+     */
+    MLockInternal(MLockCipher<?> cipher, MLockKeyStore<?> keyStore, MLockStorage storage) {
+        this(cipher, keyStore, storage, null, MLockOptions.defaults());
+    }
+
+    /**
+     * Constructor
+     */
+    MLockInternal(MLockCipher<?> cipher, MLockKeyStore<?> keyStore, MLockStorage storage,
+                  @Nullable MLockEnvelope<?> envelope, MLockOptions options) {
+        this(cipher, keyStore, storage, envelope, options, null);
+    }
 
     /**
      * Constructor
      */
-    MLockInternal(MLockCipher<?> cipher, MLockKeyStore<?> keyStore, MLockNative lockNative) {
+    MLockInternal(MLockCipher<?> cipher, MLockKeyStore<?> keyStore, MLockStorage storage,
+                  @Nullable MLockEnvelope<?> envelope, MLockOptions options, @Nullable MLockBloomFilter bloomFilter) {
         this.logger = Logger.getLogger(TAG);
         this.cipher = cipher;
         this.keyStore = keyStore;
-        this.lockNative = lockNative;
+        this.storage = storage;
+        this.envelope = envelope;
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = newThread(runnable);
+            executorThread = thread;
+            return thread;
+        });
+        // Close flushes the write queue itself, so delayed flushes are dropped instead of waited for.
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor = executor;
+        if (options.getAsyncExecutor() != null) {
+            this.ownedAsyncExecutor = null;
+            this.asyncExecutor = options.getAsyncExecutor();
+        } else {
+            this.ownedAsyncExecutor = newAsyncExecutor(options.getAsyncThreads());
+            this.asyncExecutor = ownedAsyncExecutor;
+        }
+        this.callbackExecutor = options.getCallbackExecutor();
+        this.writeQueue = new MLockWriteQueue(this::writeAll, executor, options.getWriteBehindDelayMillis(),
+                options.getWriteBehindBatchSize(), options.getWriteQueueCapacity());
+        this.valueCache = options.getValueCacheSize() > 0
+                ? new MLockValueCache(options.getValueCacheSize(), options.getValueCacheTtlMillis()) : null;
+        this.digestStorageKeys = options.isDigestStorageKeys();
+        this.streamChunkSize = options.getStreamChunkSize();
+        this.compressionThreshold = options.getCompressionThreshold();
+        this.metrics = options.getMetrics();
+        this.tracer = options.getTracer();
+        this.bloomFilter = bloomFilter;
+        if (metrics != null) metrics.bind(writeQueue, keyStore, cipher);
     }
 
     /**
@@ -67,21 +285,1050 @@ class MLockInternal implements MLockInterface {
      */
     @Override
     public void commit(String key, MLockData<?> data) {
-
+        final long start = begin(Operation.COMMIT.section);
+        try {
+            enqueue(hash(Operation.COMMIT, key), data);
+            writeQueue.flush();
+        } catch (MLockStorageException e) {
+            logger.log(Level.WARNING, "Unable to commit value: " + e.getMessage());
+        } finally {
+            end(Operation.COMMIT, Stage.TOTAL, start);
+        }
     }
 
     @Override
     public void apply(String key, MLockData<?> data) {
-
+        final long start = begin(Operation.APPLY.section);
+        try {
+            enqueue(hash(Operation.APPLY, key), data);
+        } finally {
+            end(Operation.APPLY, Stage.TOTAL, start);
+        }
     }
 
+    @Nullable
     @Override
     public MLockData<?> get(String key) {
-        return null;
+        final long start = begin(Operation.GET.section);
+        try {
+            return read(hash(Operation.GET, key), Operation.GET);
+        } catch (MLockStorageException e) {
+            logger.log(Level.WARNING, "Unable to get value: " + e.getMessage());
+            return null;
+        } finally {
+            end(Operation.GET, Stage.TOTAL, start);
+        }
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void retrieve(String key, MLockAsyncRetrieveListener<?> listener) {
+        final MLockAsyncRetrieveListener<Object> callback = (MLockAsyncRetrieveListener<Object>) listener;
+        executor.execute(() -> {
+            MLockData<?> data = null;
+            MLockStorageException error = null;
+            final long start = begin(Operation.RETRIEVE.section);
+            closeLock.readLock().lock();
+            try {
+                checkNotClosed();
+                data = read(hash(Operation.RETRIEVE, key), Operation.RETRIEVE);
+            } catch (MLockStorageException e) {
+                error = e;
+            } finally {
+                closeLock.readLock().unlock();
+                end(Operation.RETRIEVE, Stage.TOTAL, start);
+            }
+
+            // The listener runs outside the measured section.
+            if (error != null) callback.onError(error);
+            else callback.onRetrieved((MLockData<Object>) data);
+        });
+    }
+
+    @Override
+    public void commitAll(Map<MLockKey, MLockData<?>> data) {
+        for (final Map.Entry<MLockKey, MLockData<?>> entry : data.entrySet()) {
+            enqueue(entry.getKey(), entry.getValue());
+        }
+        try {
+            writeQueue.flush();
+        } catch (MLockStorageException e) {
+            logger.log(Level.WARNING, "Unable to commit values: " + e.getMessage());
+        }
+    }
 
+    @NonNull
+    @Override
+    public Map<MLockKey, MLockData<?>> getAll(Collection<MLockKey> keys) {
+        try {
+            return readAll(keys);
+        } catch (MLockStorageException e) {
+            logger.log(Level.WARNING, "Unable to get values: " + e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    @Override
+    public void retrieveAll(Collection<MLockKey> keys, MLockAsyncRetrieveAllListener listener) {
+        final List<MLockKey> snapshot = new ArrayList<>(keys);
+        executor.execute(() -> {
+            Map<MLockKey, MLockData<?>> data = null;
+            MLockStorageException error = null;
+            closeLock.readLock().lock();
+            try {
+                checkNotClosed();
+                data = readAll(snapshot);
+            } catch (MLockStorageException e) {
+                error = e;
+            } finally {
+                closeLock.readLock().unlock();
+            }
+
+            if (error != null) listener.onError(error);
+            else listener.onRetrieved(data);
+        });
+    }
+
+    @NonNull
+    @Override
+    public OutputStream openOutputStream(String key) {
+        final byte[] manifestKey = MLockStream.manifestKey(storageKey(new MLockKey(key)));
+        final MLockStream created = MLockStream.create(streamChunkSize);
+        openStreams.put(created, manifestKey);
+        return new MLockOutputStream(new MLockOutputStream.Sink() {
+            @Override
+            public void putChunk(@NonNull byte[] key, @NonNull byte[] chunk) throws IOException {
+                storage().put(key, chunk);
+            }
+
+            @Override
+            public void commit(@NonNull MLockStream stream) throws IOException {
+                commitStream(manifestKey, stream);
+                openStreams.remove(created);
+            }
+
+            @Override
+            public void discard() {
+                if (openStreams.remove(created) != null) discardStream(manifestKey, created);
+            }
+        }, manifestKey, created);
+    }
+
+    @Nullable
+    @Override
+    public InputStream openInputStream(String key) {
+        final byte[] manifestKey = MLockStream.manifestKey(storageKey(new MLockKey(key)));
+        try {
+            final MLockStream stream = readStream(manifestKey);
+            return stream == null ? null : new MLockInputStream(storage(), manifestKey, stream);
+        } catch (MLockStorageException | IOException e) {
+            logger.log(Level.WARNING, "Unable to open stream: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean deleteStream(String key) {
+        final byte[] manifestKey = MLockStream.manifestKey(storageKey(new MLockKey(key)));
+        synchronized (streamLock) {
+            try {
+                final MLockStream stream = readStream(manifestKey);
+                if (stream == null) return false;
+
+                // Without its manifest the stream is gone for readers, even if a chunk is left behind below.
+                storage().remove(manifestKey);
+                removeChunks(manifestKey, stream);
+                return true;
+            } catch (MLockStorageException | IOException e) {
+                logger.log(Level.WARNING, "Unable to delete stream: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public MLockFuture<MLockData<?>> retrieveAsync(String key) {
+        return retrieveAsync(key, asyncExecutor);
+    }
+
+    @NonNull
+    @Override
+    public MLockFuture<MLockData<?>> retrieveAsync(String key, Executor executor) {
+        final MLockKey mLockKey = hash(Operation.RETRIEVE, key);
+        final MLockFuture<MLockData<?>> future = new MLockFuture<>(callbackExecutor);
+        final MLockFuture<MLockData<?>> pending = pendingReads.putIfAbsent(mLockKey, future);
+        if (pending != null) return pending;
+
+        submit(executor, future, () -> {
+            final long start = begin(Operation.RETRIEVE.section);
+            try {
+                return read(mLockKey, Operation.RETRIEVE);
+            } finally {
+                end(Operation.RETRIEVE, Stage.TOTAL, start);
+                pendingReads.remove(mLockKey, future);
+            }
+        });
+        // Rejected without running, so the task could not unregister itself.
+        if (future.isDone()) pendingReads.remove(mLockKey, future);
+        return future;
+    }
+
+    @NonNull
+    @Override
+    public MLockFuture<Void> applyAsync(String key, MLockData<?> data) {
+        return applyAsync(key, data, asyncExecutor);
+    }
+
+    @NonNull
+    @Override
+    public MLockFuture<Void> applyAsync(String key, MLockData<?> data, Executor executor) {
+        apply(key, data);
+
+        final MLockFuture<Void> future = new MLockFuture<>(callbackExecutor);
+        submit(executor, future, () -> {
+            writeQueue.flush();
+            return null;
+        });
+        return future;
+    }
+
+    @NonNull
+    @Override
+    public MLockFuture<Map<MLockKey, MLockData<?>>> getAllAsync(Collection<MLockKey> keys) {
+        return getAllAsync(keys, asyncExecutor);
+    }
+
+    @NonNull
+    @Override
+    public MLockFuture<Map<MLockKey, MLockData<?>>> getAllAsync(Collection<MLockKey> keys, Executor executor) {
+        final List<MLockKey> snapshot = new ArrayList<>(keys);
+        final MLockFuture<Map<MLockKey, MLockData<?>>> future = new MLockFuture<>(callbackExecutor);
+        submit(executor, future, () -> readAll(snapshot));
+        return future;
+    }
+
+    @NonNull
+    @Override
+    public List<MLockKey> keys(String namespace) {
+        final byte[] namespaceBytes = namespaceBytes(namespace);
+        flushQueue();
+
+        final byte[][] storageKeys;
+        try {
+            storageKeys = storage().keys(namespaceBytes);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to list keys: " + e.getMessage());
+            return Collections.emptyList();
+        }
+
+        final List<MLockKey> keys = new ArrayList<>(storageKeys.length);
+        for (final byte[] storageKey : storageKeys) {
+            final MLockKey key = toKey(storageKey, namespace);
+            if (key != null) keys.add(key);
+        }
+        return keys;
+    }
+
+    @NonNull
+    @Override
+    public Iterator<MLockData<?>> values(String namespace) {
+        final byte[] namespaceBytes = namespaceBytes(namespace);
+        flushQueue();
+        return new NamespaceIterator(namespace, namespaceBytes);
+    }
+
+    @Override
+    public int clearNamespace(String namespace) {
+        final byte[] namespaceBytes = namespaceBytes(namespace);
+        try {
+            // Values applied after the flush must not be persisted before the clear, or it would delete them.
+            return writeQueue.runExclusive(() -> {
+                flushQueue();
+                return storage().clearNamespace(namespaceBytes);
+            });
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to clear namespace: " + e.getMessage());
+            return 0;
+        } finally {
+            // Cached values carry no namespace, so every one of them is dropped.
+            if (valueCache != null) valueCache.clear();
+        }
+    }
+
+    /**
+     * Loads the key, opens the storage and initializes the cipher provider on the background thread, ahead of
+     * the first operation. Operations called meanwhile need no coordination: they queue behind the warm-up on
+     * the background thread, or wait on the same locks that guard loading the key and opening the storage.
+     *
+     * @param constructNanos Time already spent constructing MLock, reported in the timings.
+     * @return {@link MLockFuture} of the timings of each phase, which fails if any phase fails.
+     */
+    @NonNull
+    MLockFuture<MLockInitTimings> warmUp(long constructNanos) {
+        final long start = System.nanoTime() - constructNanos;
+        final MLockFuture<MLockInitTimings> future = new MLockFuture<>(Runnable::run);
+        submit(executor, future, () -> {
+            final long keyStart = System.nanoTime();
+            final Object cipherKey = cipherKey();
+            if (envelope != null && envelope.getDataKey() == null) {
+                throw new MLockStorageException("Unable to load data key");
+            }
+
+            final long storageStart = System.nanoTime();
+            try {
+                storage();
+            } catch (IOException e) {
+                throw new MLockStorageException("Unable to open storage: " + e.getMessage(), e);
+            }
+
+            final long cipherStart = System.nanoTime();
+            final byte[] record = encrypt(cipherKey, WARM_UP_PROBE);
+            if (record == null || decrypt(cipherKey, record) == null) {
+                throw new MLockStorageException("Unable to initialize cipher");
+            }
+
+            final long end = System.nanoTime();
+            return new MLockInitTimings(constructNanos, storageStart - keyStart, cipherStart - storageStart,
+                    end - cipherStart, end - start);
+        });
+        return future;
+    }
+
+    /**
+     * Persists every pending value and lets operations already queued finish, then stops the background
+     * threads, closes the storage and saves the Bloom filter. Operations still queued on an executor given by
+     * the caller fail once they run. Called from a listener on the background thread, it can not wait for the
+     * operations queued behind that listener, so they fail too.
+     */
+    void close() {
+        if (ownedAsyncExecutor != null) ownedAsyncExecutor.shutdown();
+        if (valueCache != null) valueCache.clear();
+        try {
+            writeQueue.flush();
+        } catch (MLockStorageException e) {
+            logger.log(Level.WARNING, "Unable to flush queued values: " + e.getMessage());
+        }
+        executor.shutdown();
+        awaitTermination(ownedAsyncExecutor);
+        // Called from a listener on the executor, the task running it can only finish once this returns.
+        if (Thread.currentThread() != executorThread) awaitTermination(executor);
+        for (final Map.Entry<MLockStream, byte[]> open : openStreams.entrySet()) {
+            if (openStreams.remove(open.getKey()) != null) discardStream(open.getValue(), open.getKey());
+        }
+
+        // Waits for operations still running on executors of the caller, later ones see the flag and fail.
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            storage.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to close storage: " + e.getMessage());
+        }
+        try {
+            if (bloomFilter != null) bloomFilter.save();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to save Bloom filter: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops cached values when the system asks the app to release memory.
+     *
+     * @param level Level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    void trimMemory(int level) {
+        if (valueCache == null) return;
+
+        // Keep the cache while the UI is merely hidden, it serves the next screen.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)) {
+            valueCache.clear();
+        }
+    }
+
+    /**
+     * @return {@link MLockValueCache}, or null if the cache is disabled.
+     */
+    @Nullable
+    MLockValueCache getValueCache() {
+        return valueCache;
+    }
+
+    /**
+     * @return {@link MLockWriteQueue} behind {@link MLockInternal#apply}.
+     */
+    @NonNull
+    MLockWriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
+    /**
+     * Queues a value and drops its cached copy. The cache is invalidated after the value is queued, so a
+     * concurrent read either finds the queued value or has its cached value rejected.
+     *
+     * @param key {@link MLockKey} of the value.
+     */
+    private void enqueue(@NonNull MLockKey key, @NonNull MLockData<?> data) {
+        writeQueue.enqueue(key, data);
+        if (valueCache != null) valueCache.invalidate(key);
+        // Reads already in flight may miss this value, later ones must not join them.
+        pendingReads.remove(key);
+    }
+
+    /**
+     * Persists every queued value, so storage queries see them. A failure is logged, the stored values can
+     * still be read.
+     */
+    private void flushQueue() {
+        try {
+            writeQueue.flush();
+        } catch (MLockStorageException e) {
+            logger.log(Level.WARNING, "Unable to flush queued values: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return UTF-8 bytes of a namespace.
+     * @throws IllegalArgumentException if the namespace is empty or contains a NUL character.
+     */
+    @NonNull
+    private static byte[] namespaceBytes(@NonNull String namespace) {
+        MLockKey.checkNamespace(namespace);
+        return namespace.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return {@link MLockKey} a value is stored under, from its storage key. Null if the storage key is not
+     * one {@link MLockInternal#storageKey} produces.
+     */
+    @Nullable
+    private MLockKey toKey(@NonNull byte[] storageKey, @Nullable String namespace) {
+        final MLockKey key = digestStorageKeys
+                ? MLockKey.fromDigest(storageKey, namespace) : MLockKey.fromHex(storageKey, namespace);
+        if (key == null) logger.log(Level.WARNING, "Skipping invalid storage key");
+        return key;
+    }
+
+    /**
+     * Iterates over the values of a namespace in key order, reading {@link MLockInternal#NAMESPACE_PAGE_SIZE}
+     * values per query, so a namespace never has to fit in memory. Values are neither cached nor taken from
+     * the write queue. Values that can not be decrypted or decoded are logged and skipped, a failed query is
+     * logged and ends the iteration. Reading a page once MLock is closed throws {@link IllegalStateException}.
+     */
+    private final class NamespaceIterator implements Iterator<MLockData<?>> {
+
+        private final String namespace;
+        private final byte[] namespaceBytes;
+
+        /**
+         * Keys and values of the current page, alternating.
+         */
+        private byte[][] page = new byte[0][];
+        private int index = 0;
+        private boolean lastPage = false;
+        @Nullable
+        private Object cipherKey;
+        @Nullable
+        private MLockData<?> next;
+
+        NamespaceIterator(@NonNull String namespace, @NonNull byte[] namespaceBytes) {
+            this.namespace = namespace;
+            this.namespaceBytes = namespaceBytes;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (index == page.length && (lastPage || !nextPage())) return false;
+
+                final byte[] storageKey = page[index++];
+                final byte[] record = page[index++];
+                final MLockKey key = toKey(storageKey, namespace);
+                if (key == null) continue;
+                try {
+                    next = decode(key, record, cipherKey);
+                } catch (MLockStorageException e) {
+                    logger.log(Level.WARNING, "Unable to read value: " + e.getMessage());
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public MLockData<?> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            final MLockData<?> data = next;
+            next = null;
+            return data;
+        }
+
+        /**
+         * Reads the page after the current one.
+         *
+         * @return true if the page has values.
+         * @throws IllegalStateException if MLock was closed since the iterator was created.
+         */
+        private boolean nextPage() {
+            final byte[] after = page.length > 0 ? page[page.length - 2] : null;
+            closeLock.readLock().lock();
+            try {
+                // Stopping early would look like the end of the namespace, so a closed MLock fails loudly.
+                if (closed) throw new IllegalStateException("MLock was reset while iterating");
+                page = storage().scan(namespaceBytes, after, NAMESPACE_PAGE_SIZE);
+                if (cipherKey == null) cipherKey = cipherKey();
+            } catch (IOException | MLockStorageException e) {
+                logger.log(Level.WARNING, "Unable to read values: " + e.getMessage());
+                page = new byte[0][];
+            } finally {
+                closeLock.readLock().unlock();
+            }
+            index = 0;
+            lastPage = page.length < NAMESPACE_PAGE_SIZE * 2;
+            return page.length > 0;
+        }
+    }
+
+    /**
+     * Body of a future-returning operation.
+     */
+    private interface AsyncOperation<V> {
+        V run() throws MLockException;
+    }
+
+    /**
+     * Runs an operation on the given executor and completes the future with its outcome, failing it if MLock
+     * was closed before the operation ran.
+     */
+    private <V> void submit(@NonNull Executor executor, @NonNull MLockFuture<V> future,
+                            @NonNull AsyncOperation<V> operation) {
+        try {
+            executor.execute(() -> {
+                final V result;
+                closeLock.readLock().lock();
+                try {
+                    checkNotClosed();
+                    result = operation.run();
+                } catch (MLockException e) {
+                    future.fail(e);
+                    return;
+                } catch (RuntimeException e) {
+                    future.fail(new MLockStorageException("Operation failed: " + e.getMessage(), e));
+                    return;
+                } finally {
+                    closeLock.readLock().unlock();
+                }
+                // Completed outside the lock, so a listener may reset MLock.
+                future.complete(result);
+            });
+        } catch (RejectedExecutionException e) {
+            future.fail(new MLockStorageException("Unable to schedule operation: " + e.getMessage(), e));
+        }
+    }
+
+    /**
+     * @throws MLockStorageException if {@link MLockInternal#close} has run.
+     */
+    private void checkNotClosed() throws MLockStorageException {
+        if (closed) throw new MLockStorageException("MLock is closed");
+    }
+
+    /**
+     * Waits for the tasks queued on an executor that was shut down, logging if they take too long.
+     */
+    private void awaitTermination(@Nullable ExecutorService executor) {
+        if (executor == null) return;
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.log(Level.WARNING, "Operations still queued after " + CLOSE_TIMEOUT_SECONDS + "s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates the bounded pool behind future-returning operations. Work submitted while the queue is full
+     * runs on the caller instead of piling up, work submitted after shutdown is rejected.
+     */
+    @NonNull
+    private static ExecutorService newAsyncExecutor(int threads) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, ASYNC_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<>(ASYNC_QUEUE_CAPACITY), MLockInternal::newThread,
+                (runnable, executor) -> {
+                    if (executor.isShutdown()) throw new RejectedExecutionException("MLock is closed");
+                    runnable.run();
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * @return Daemon thread for the executors of this class.
+     */
+    @NonNull
+    private static Thread newThread(@NonNull Runnable runnable) {
+        final Thread thread = new Thread(runnable, TAG);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Encodes and encrypts a batch of values and saves them in a single transaction. The key is loaded once
+     * for the whole batch. Values that can not be encoded or encrypted are logged and left out of the batch.
+     */
+    private void writeAll(@NonNull Map<MLockKey, MLockData<?>> batch) throws MLockStorageException {
+        final long start = begin(Operation.FLUSH.section);
+        try {
+            final Object cipherKey = cipherKey(Operation.FLUSH);
+            byte[][] keys = new byte[batch.size()][];
+            ByteBuffer[] records = new ByteBuffer[batch.size()];
+            byte[][] namespaces = null;
+            int count = 0;
+            final long cipherStart = begin(Stage.CIPHER.section);
+            try {
+                for (final Map.Entry<MLockKey, MLockData<?>> entry : batch.entrySet()) {
+                    final ByteBuffer record;
+                    try {
+                        record = encrypt(cipherKey, entry.getValue());
+                    } catch (IllegalArgumentException e) {
+                        logger.log(Level.WARNING, "Unable to save value: " + e.getMessage());
+                        continue;
+                    }
+                    if (record == null) {
+                        logger.log(Level.WARNING, "Unable to save value: unable to encrypt value");
+                        continue;
+                    }
+
+                    final String namespace = entry.getKey().getNamespace();
+                    if (namespace != null) {
+                        if (namespaces == null) namespaces = new byte[keys.length][];
+                        namespaces[count] = namespace.getBytes(StandardCharsets.UTF_8);
+                    }
+                    keys[count] = storageKey(entry.getKey());
+                    records[count++] = record;
+                }
+            } finally {
+                end(Operation.FLUSH, Stage.CIPHER, cipherStart);
+            }
+            if (count == 0) return;
+            if (count < keys.length) {
+                keys = Arrays.copyOf(keys, count);
+                records = Arrays.copyOf(records, count);
+                if (namespaces != null) namespaces = Arrays.copyOf(namespaces, count);
+            }
+            // Added before the values leave the write queue, so no read can miss them in both.
+            if (bloomFilter != null) for (final byte[] key : keys) bloomFilter.add(key);
+
+            final long storageStart = begin(Stage.STORAGE.section);
+            try {
+                storage().putAll(keys, records, namespaces);
+            } catch (IOException e) {
+                throw new MLockStorageException("Unable to save values: " + e.getMessage(), e);
+            } finally {
+                end(Operation.FLUSH, Stage.STORAGE, storageStart);
+            }
+        } finally {
+            end(Operation.FLUSH, Stage.TOTAL, start);
+        }
+    }
+
+    /**
+     * Reads, decrypts and decodes a value.
+     *
+     * @param operation {@link Operation} the stages of the read are recorded under.
+     * @return Value or null if no value is stored under the key.
+     */
+    @Nullable
+    private MLockData<?> read(@NonNull MLockKey key, @NonNull Operation operation) throws MLockStorageException {
+        // Taken before the queue is checked, so a write queued after the check rejects the value read here.
+        final long cacheVersion = valueCache != null ? valueCache.version() : 0;
+        final MLockData<?> known = lookup(key);
+        if (known != null) return known;
+
+        final byte[] storageKey = storageKey(key);
+        if (!mightContain(storageKey)) return null;
+
+        final ByteBuffer record;
+        final long storageStart = begin(Stage.STORAGE.section);
+        try {
+            record = storage().getBuffer(storageKey);
+        } catch (IOException e) {
+            throw new MLockStorageException("Unable to read value: " + e.getMessage(), e);
+        } finally {
+            end(operation, Stage.STORAGE, storageStart);
+        }
+        if (record == null) {
+            if (bloomFilter != null && metrics != null) metrics.recordBloomFilterFalsePositive();
+            return null;
+        }
+
+        final Object cipherKey = cipherKey(operation);
+        final MLockData<?> decoded;
+        final long cipherStart = begin(Stage.CIPHER.section);
+        try {
+            decoded = decode(key, record, cipherKey);
+        } finally {
+            end(operation, Stage.CIPHER, cipherStart);
+        }
+        if (valueCache != null) valueCache.put(key, decoded, cacheVersion);
+        return decoded;
+    }
+
+    /**
+     * Reads, decrypts and decodes several values. Values that are neither queued nor cached are read from the
+     * storage in one call and decrypted with a single key fetch. Values that can not be decrypted or decoded
+     * are logged and left out.
+     *
+     * @return Values by key, without the keys that have no value.
+     */
+    @NonNull
+    private Map<MLockKey, MLockData<?>> readAll(@NonNull Collection<MLockKey> keys) throws MLockStorageException {
+        final long cacheVersion = valueCache != null ? valueCache.version() : 0;
+        final Map<MLockKey, MLockData<?>> results = new HashMap<>();
+        final List<MLockKey> missing = new ArrayList<>();
+        final List<byte[]> missingKeys = new ArrayList<>();
+        for (final MLockKey key : keys) {
+            final MLockData<?> known = lookup(key);
+            if (known != null) {
+                results.put(key, known);
+                continue;
+            }
+            final byte[] storageKey = storageKey(key);
+            if (mightContain(storageKey)) {
+                missing.add(key);
+                missingKeys.add(storageKey);
+            }
+        }
+        if (missing.isEmpty()) return results;
+
+        final byte[][] storageKeys = missingKeys.toArray(new byte[0][]);
+
+        final byte[][] records;
+        try {
+            records = storage().getAll(storageKeys);
+        } catch (IOException e) {
+            throw new MLockStorageException("Unable to read values: " + e.getMessage(), e);
+        }
+
+        final Object cipherKey = cipherKey();
+        for (int i = 0; i < records.length; i++) {
+            if (records[i] == null) {
+                if (bloomFilter != null && metrics != null) metrics.recordBloomFilterFalsePositive();
+                continue;
+            }
+
+            final MLockKey key = missing.get(i);
+            try {
+                final MLockData<?> decoded = decode(key, records[i], cipherKey);
+                if (valueCache != null) valueCache.put(key, decoded, cacheVersion);
+                results.put(key, decoded);
+            } catch (MLockStorageException e) {
+                logger.log(Level.WARNING, "Unable to get value: " + e.getMessage());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Saves the encrypted manifest of a completely written stream, then deletes the chunks of the stream it
+     * replaces. A reader still on the replaced stream fails on its next chunk.
+     */
+    private void commitStream(@NonNull byte[] manifestKey, @NonNull MLockStream stream) throws IOException {
+        synchronized (streamLock) {
+            MLockStream previous = null;
+            try {
+                previous = readStream(manifestKey);
+            } catch (MLockStorageException e) {
+                logger.log(Level.WARNING, "Unable to read replaced stream: " + e.getMessage());
+            }
+
+            final byte[] record;
+            try {
+                record = encrypt(cipherKey(), stream.encode());
+            } catch (MLockStorageException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            if (record == null) throw new IOException("Unable to encrypt stream manifest");
+            storage().put(manifestKey, record);
+
+            if (previous == null) return;
+            try {
+                removeChunks(manifestKey, previous);
+            } catch (IOException e) {
+                // The new stream is committed, only the space of the replaced one is lost.
+                logger.log(Level.WARNING, "Unable to delete replaced stream: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Deletes the chunks of a stream that was never committed, see {@link MLockOutputStream.Sink#discard()}.
+     */
+    private void discardStream(@NonNull byte[] manifestKey, @NonNull MLockStream stream) {
+        try {
+            removeChunks(manifestKey, stream);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to discard stream: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes every chunk of a stream. A stream that was never committed does not know its chunk count, its
+     * chunks are deleted from the first one on until one is missing, as they are saved in order.
+     */
+    private void removeChunks(@NonNull byte[] manifestKey, @NonNull MLockStream stream) throws IOException {
+        for (int index = 0; ; index++) {
+            final boolean removed = storage().remove(stream.chunkKey(manifestKey, index));
+            if (!removed && index >= stream.getChunkCount()) return;
+        }
+    }
+
+    /**
+     * Reads and decrypts the manifest of a stream.
+     *
+     * @return {@link MLockStream} or null if no stream is stored under the key.
+     */
+    @Nullable
+    private MLockStream readStream(@NonNull byte[] manifestKey) throws MLockStorageException {
+        final byte[] record;
+        try {
+            record = storage().get(manifestKey);
+        } catch (IOException e) {
+            throw new MLockStorageException("Unable to read stream: " + e.getMessage(), e);
+        }
+        if (record == null) return null;
+
+        final byte[] manifest = decrypt(cipherKey(), record);
+        if (manifest == null) throw new MLockStorageException("Unable to decrypt stream manifest");
+
+        try {
+            return MLockStream.decode(manifest);
+        } catch (IllegalArgumentException e) {
+            throw new MLockStorageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return Value waiting in the write queue or cached for the key, or null if neither has one.
+     */
+    @Nullable
+    private MLockData<?> lookup(@NonNull MLockKey key) {
+        MLockData<?> known = writeQueue.lookup(key);
+        if (known == null && valueCache != null) known = valueCache.get(key);
+        if (metrics != null) metrics.recordLookup(known != null);
+        return known;
+    }
+
+    /**
+     * Asks the Bloom filter whether a value may be stored under a storage key.
+     *
+     * @return false if no value is stored under the key, true if there may be one or there is no filter.
+     */
+    private boolean mightContain(@NonNull byte[] storageKey) {
+        if (bloomFilter == null) return true;
+
+        final boolean mightContain = bloomFilter.mightContain(storageKey);
+        if (metrics != null) metrics.recordBloomFilter(mightContain);
+        return mightContain;
+    }
+
+    /**
+     * Decrypts and decodes a stored record held in a buffer, which is direct for large values.
+     */
+    @NonNull
+    private MLockData<?> decode(@NonNull MLockKey key, @NonNull ByteBuffer record, @Nullable Object cipherKey)
+            throws MLockStorageException {
+        final ByteBuffer data = decrypt(cipherKey, record);
+        if (data == null) throw new MLockStorageException("Unable to decrypt value");
+
+        try {
+            return MLockSerializer.decode(key, data);
+        } catch (IllegalArgumentException e) {
+            throw new MLockStorageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decrypts and decodes a stored record.
+     */
+    @NonNull
+    private MLockData<?> decode(@NonNull MLockKey key, @NonNull byte[] record, @Nullable Object cipherKey)
+            throws MLockStorageException {
+        final byte[] data = decrypt(cipherKey, record);
+        if (data == null) throw new MLockStorageException("Unable to decrypt value");
+
+        try {
+            return MLockSerializer.decode(key, data);
+        } catch (IllegalArgumentException e) {
+            throw new MLockStorageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the key to pass to {@link MLockInternal#encrypt} and {@link MLockInternal#decrypt}.
+     *
+     * @return KeyStore key, or null when envelope encryption is enabled and the envelope holds the key.
+     */
+    @Nullable
+    private Object cipherKey() throws MLockStorageException {
+        if (envelope != null) return null;
+
+        final Object key = getKey();
+        if (key == null) throw new MLockStorageException("Unable to load key");
+        return key;
+    }
+
+    /**
+     * {@link MLockInternal#cipherKey()}, timed as the key fetch stage of the given operation. With envelope
+     * encryption the data key is fetched while encrypting, so it is timed as part of the cipher stage.
+     */
+    @Nullable
+    private Object cipherKey(@NonNull Operation operation) throws MLockStorageException {
+        final long start = begin(Stage.KEY_FETCH.section);
+        try {
+            return cipherKey();
+        } finally {
+            end(operation, Stage.KEY_FETCH, start);
+        }
+    }
+
+    /**
+     * Encrypts with the envelope data key if enabled, otherwise with the given KeyStore key.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private byte[] encrypt(@Nullable Object key, @NonNull byte[] data) {
+        if (envelope != null) return envelope.encrypt(data);
+        return ((MLockCipher<Object>) cipher).encrypt(key, data);
+    }
+
+    /**
+     * Encodes and encrypts a value, compressing large strings first. {@link MLockBytes} are encrypted from
+     * their buffer behind their encoded header, so the value is never copied and a direct value produces a
+     * direct record.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private ByteBuffer encrypt(@Nullable Object key, @NonNull MLockData<?> data) {
+        if (!(data instanceof MLockBytes)) {
+            final byte[] record = encrypt(key, MLockSerializer.encode(data, compressionThreshold));
+            return record == null ? null : ByteBuffer.wrap(record);
+        }
+
+        final MLockBytes bytes = (MLockBytes) data;
+        final byte[] header = MLockSerializer.encodeHeader(bytes);
+        if (envelope != null) return envelope.encrypt(header, bytes.buffer());
+        return ((MLockCipher<Object>) cipher).encrypt(key, header, bytes.buffer());
+    }
+
+    /**
+     * Decrypts a buffer with the envelope data key if enabled, otherwise with the given KeyStore key.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private ByteBuffer decrypt(@Nullable Object key, @NonNull ByteBuffer record) {
+        if (envelope != null) return envelope.decrypt(record);
+        return ((MLockCipher<Object>) cipher).decrypt(key, record);
+    }
+
+    /**
+     * Decrypts with the envelope data key if enabled, otherwise with the given KeyStore key.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private byte[] decrypt(@Nullable Object key, @NonNull byte[] record) {
+        if (envelope != null) return envelope.decrypt(record);
+        return ((MLockCipher<Object>) cipher).decrypt(key, record);
+    }
+
+    /**
+     * Returns the KeyStore key used for values, generating it on first use.
+     */
+    @Nullable
+    private Object getKey() {
+        final Object key = keyStore.getKey(KEY_ALIAS);
+        if (key != null) return key;
+
+        // Only one thread may generate the key, a second one would replace it.
+        synchronized (keyStore) {
+            final Object existing = keyStore.getKey(KEY_ALIAS);
+            return existing != null ? existing : keyStore.generateKey(KEY_ALIAS);
+        }
+    }
+
+    /**
+     * Returns {@link MLockInternal##storage}, opening it on first use.
+     */
+    @NonNull
+    private MLockStorage storage() throws IOException {
+        if (!opened) {
+            synchronized (storage) {
+                if (closed) throw new IOException("MLock is closed");
+                if (!opened) {
+                    storage.open();
+                    opened = true;
+                    loadBloomFilter();
+                }
+            }
+        }
+        return storage;
+    }
+
+    /**
+     * Loads or rebuilds the Bloom filter once the storage is open. A failure is logged, the filter then lets
+     * every read through to the storage.
+     */
+    private void loadBloomFilter() {
+        if (bloomFilter == null) return;
+        try {
+            bloomFilter.load(storage);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to load Bloom filter: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hashes a raw key, timed as the key hashing stage of the given operation.
+     */
+    @NonNull
+    private MLockKey hash(@NonNull Operation operation, @NonNull String key) {
+        final long start = begin(Stage.KEY_HASH.section);
+        try {
+            return new MLockKey(key);
+        } finally {
+            end(operation, Stage.KEY_HASH, start);
+        }
+    }
+
+    /**
+     * Begins a section, traced if a tracer is set.
+     *
+     * @return Start time to pass to {@link MLockInternal#end}, or zero without metrics.
+     */
+    private long begin(@NonNull String section) {
+        if (tracer != null) tracer.beginSection(section);
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Ends a section begun by {@link MLockInternal#begin}, recording its time under the operation and stage.
+     */
+    private void end(@NonNull Operation operation, @NonNull Stage stage, long start) {
+        if (metrics != null) metrics.record(operation, stage, System.nanoTime() - start);
+        if (tracer != null) tracer.endSection();
+    }
+
+    /**
+     * @return Key the value for the given {@link MLockKey} is stored under.
+     */
+    @NonNull
+    private byte[] storageKey(@NonNull MLockKey key) {
+        return digestStorageKeys ? key.digest() : key.hexBytes();
     }
 }
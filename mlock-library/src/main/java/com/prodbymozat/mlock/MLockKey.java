@@ -21,28 +21,75 @@
  */
 package com.prodbymozat.mlock;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Base key class for MLock
  * <p>
  * These are the supported data types for keys are:
  * <ul>
- * <li>Integer
  * <li>String
  * </ul>
  * </p>
+ * Keys are hashed with SHA-256. Only the 32-byte digest is kept, the hex form returned by
+ * {@link MLockKey#getKey()} is built on first use. Digests of recently used keys can be kept in a bounded
+ * cache, see {@link MLockOptions.Builder#setKeyCacheSize(int)}.
+ * <p>
+ * A key may belong to a namespace, see {@link MLockNamespace}. Its digest then covers a 0xff marker, the
+ * namespace, a NUL and the key. UTF-8 never contains 0xff and namespaces contain no NUL, so a namespaced key
+ * never collides with a key in another namespace or with no namespace.
+ * </p>
  */
 public class MLockKey {
     // Class Constants
     private static final String ALGORITHM_SHA_256 = "SHA-256";
+    private static final char NAMESPACE_SEPARATOR = '\u0000';
+    private static final byte NAMESPACE_MARKER = (byte) 0xff;
+
+    /**
+     * SHA-256 {@link MessageDigest} of the current thread.
+     */
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(ALGORITHM_SHA_256);
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java and Android platform is required to support SHA-256.
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * Digests by raw key, least recently used first. Null when the cache is disabled.
+     */
+    private static volatile Map<Object, byte[]> digestCache = null;
+
+    /**
+     * SHA-256 digest of the key. Never modified, so it is shared with {@link MLockKey#digestCache}.
+     */
+    private final byte[] digest;
+
+    /**
+     * Namespace of the key, null if it has none.
+     */
+    @Nullable
+    private final String namespace;
 
     /**
-     * String key. This will be null if the Integer constructor is used.
+     * Hex encoded {@link MLockKey#digest}, built on first use.
      */
-    private String key;
+    private volatile String key;
 
     /**
      * Constructor.
@@ -50,7 +97,78 @@ public class MLockKey {
      * @param strKey String key to be used with {@link MLockData}
      */
     public MLockKey(String strKey) {
-        this.key = generateSHA256Key(strKey);
+        this.digest = digestOf(null, strKey);
+        this.namespace = null;
+    }
+
+    /**
+     * Constructor for a key in a namespace.
+     *
+     * @param namespace Non-empty namespace of the key, without NUL characters.
+     * @param strKey    String key to be used with {@link MLockData}
+     * @throws IllegalArgumentException if the namespace is empty or contains a NUL character.
+     */
+    public MLockKey(@NonNull String namespace, String strKey) {
+        checkNamespace(namespace);
+        this.digest = digestOf(namespace, strKey);
+        this.namespace = namespace;
+    }
+
+    /**
+     * Constructor for a key read back from storage, where only the digest is kept.
+     */
+    private MLockKey(@NonNull byte[] digest, @Nullable String namespace) {
+        this.digest = digest;
+        this.namespace = namespace;
+    }
+
+    /**
+     * Checks a namespace name. The namespace and key are hashed with a NUL between them, so a namespace
+     * containing one could hash like another namespace and key.
+     *
+     * @throws IllegalArgumentException if the namespace is empty or contains a NUL character.
+     */
+    static void checkNamespace(@NonNull String namespace) {
+        if (namespace.isEmpty()) throw new IllegalArgumentException("Namespace must not be empty");
+        if (namespace.indexOf(NAMESPACE_SEPARATOR) >= 0) {
+            throw new IllegalArgumentException("Namespace must not contain NUL characters");
+        }
+    }
+
+    /**
+     * @param digest    SHA-256 digest of the key, not copied.
+     * @param namespace Namespace of the key, or null.
+     * @return Key with the given digest.
+     */
+    @NonNull
+    static MLockKey fromDigest(@NonNull byte[] digest, @Nullable String namespace) {
+        return new MLockKey(digest, namespace);
+    }
+
+    /**
+     * @param hex       Bytes of {@link MLockKey#hexBytes()}.
+     * @param namespace Namespace of the key, or null.
+     * @return Key whose {@link MLockKey#getKey()} is the given hex, or null if it is not valid hex.
+     */
+    @Nullable
+    static MLockKey fromHex(@NonNull byte[] hex, @Nullable String namespace) {
+        if (hex.length % 2 != 0) return null;
+        final byte[] digest = new byte[hex.length / 2];
+        for (int i = 0; i < digest.length; i++) {
+            final int high = Character.digit(hex[i * 2], 16);
+            final int low = Character.digit(hex[i * 2 + 1], 16);
+            if (high < 0 || low < 0) return null;
+            digest[i] = (byte) (high << 4 | low);
+        }
+        return new MLockKey(digest, namespace);
+    }
+
+    /**
+     * @return Namespace of the key, or null if it has none.
+     */
+    @Nullable
+    public String getNamespace() {
+        return namespace;
     }
 
     /**
@@ -59,33 +177,109 @@ public class MLockKey {
      * @return {@link MLockKey##key}.
      */
     public String getKey() {
-        return key;
+        String hex = key;
+        if (hex == null) {
+            hex = new String(MLockUtils.toHex(digest));
+            key = hex;
+        }
+        return hex;
     }
 
     /**
-     * Generates a SHA-256.
+     * @return Copy of the 32-byte SHA-256 digest of the key.
+     */
+    @NonNull
+    public byte[] getDigest() {
+        return digest.clone();
+    }
+
+    /**
+     * @return The SHA-256 digest itself, callers must not modify it.
+     */
+    @NonNull
+    byte[] digest() {
+        return digest;
+    }
+
+    /**
+     * @return ASCII bytes of {@link MLockKey#getKey()}, without building the String.
+     */
+    @NonNull
+    byte[] hexBytes() {
+        final char[] hex = MLockUtils.toHex(digest);
+        final byte[] bytes = new byte[hex.length];
+        for (int i = 0; i < hex.length; i++) bytes[i] = (byte) hex[i];
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MLockKey)) return false;
+        return Arrays.equals(digest, ((MLockKey) o).digest);
+    }
+
+    @Override
+    public int hashCode() {
+        // The digest is uniformly distributed, its first four bytes make a good hash.
+        return (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | (digest[3] & 0xff);
+    }
+
+    /**
+     * Enables, resizes or disables the cache of digests by raw key.
      *
-     * @param key String key to be used in the hash.
-     * @return SHA-256 generated string.
-     */
-    private String generateSHA256Key(String key) {
-        try {
-            final MessageDigest digest = MessageDigest.getInstance(ALGORITHM_SHA_256);
-            final byte[] encodedHash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
-            final StringBuilder hexString = new StringBuilder();
-
-            // Obtain the hex value of each byte.
-            for (final byte b : encodedHash) {
-                final String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
+     * @param maxEntries Maximum number of cached digests, zero disables the cache.
+     */
+    static void setCacheSize(int maxEntries) {
+        if (maxEntries <= 0) {
+            digestCache = null;
+            return;
+        }
+
+        digestCache = new LinkedHashMap<Object, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, byte[]> eldest) {
+                return size() > maxEntries;
             }
+        };
+    }
 
-            // Return SHA-256 String
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+    /**
+     * Returns the digest of a raw key, from {@link MLockKey#digestCache} if enabled.
+     */
+    @NonNull
+    private static byte[] digestOf(@Nullable String namespace, @NonNull String key) {
+        final Map<Object, byte[]> cache = digestCache;
+        if (cache == null) return generateSHA256Key(namespace, key);
+
+        // Namespaced keys are cached by pair, so they never share an entry with a key of no namespace.
+        final Object cacheKey = namespace == null ? key : new AbstractMap.SimpleImmutableEntry<>(namespace, key);
+        synchronized (cache) {
+            final byte[] cached = cache.get(cacheKey);
+            if (cached != null) return cached;
+        }
+        final byte[] digest = generateSHA256Key(namespace, key);
+        synchronized (cache) {
+            cache.put(cacheKey, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Generates a SHA-256.
+     *
+     * @param namespace Namespace of the key, or null.
+     * @param key       String key to be used in the hash.
+     * @return SHA-256 digest of the key.
+     */
+    @NonNull
+    private static byte[] generateSHA256Key(@Nullable String namespace, @NonNull String key) {
+        final MessageDigest digest = DIGESTS.get();
+        if (namespace != null) {
+            digest.update(NAMESPACE_MARKER);
+            digest.update(namespace.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) NAMESPACE_SEPARATOR);
         }
-        return key;
+        return digest.digest(key.getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Source of the AES keys MLock encrypts with, in place of the AndroidKeyStore. Set one with
+ * {@link MLockOptions.Builder#setKeyProvider} to run MLock where there is no AndroidKeyStore, such as on a
+ * plain JVM in tests and benchmarks.
+ * <p>
+ * Implementations must be safe to call from multiple threads.
+ * </p>
+ *
+ * @see MLockSoftwareKeyProvider
+ */
+public interface MLockKeyProvider {
+    /**
+     * Generates a new AES key for the alias, replacing any previous key.
+     *
+     * @param alias Alias of the key.
+     * @return Generated key, or null if it could not be generated.
+     */
+    @Nullable
+    SecretKey generateKey(@NonNull String alias);
+
+    /**
+     * Loads the key of the alias.
+     *
+     * @param alias Alias of the key.
+     * @return Key, or null if there is none.
+     */
+    @Nullable
+    SecretKey loadKey(@NonNull String alias);
+
+    /**
+     * @param alias Alias of the key.
+     * @return true if there is a key for the alias.
+     */
+    boolean containsKey(@NonNull String alias);
+
+    /**
+     * Deletes the key of the alias, if there is one.
+     *
+     * @param alias Alias of the key.
+     */
+    void deleteKey(@NonNull String alias);
+
+    /**
+     * Deletes every key.
+     */
+    void deleteAllKeys();
+}
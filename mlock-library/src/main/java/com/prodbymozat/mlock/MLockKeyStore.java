@@ -34,8 +34,10 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
-import java.util.Enumeration;
+import java.util.Collections;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,17 +46,51 @@ abstract class MLockKeyStore<T> {
     // Class Constants
     static final String ANDROID_KEY_STORE = "AndroidKeyStore";
 
+    /**
+     * Loaded {@link KeyStore}, shared by every instance. The AndroidKeyStore provider queries the keystore
+     * service on each call, so one loaded handle always reflects the current entries.
+     */
+    private static volatile KeyStore keyStore;
+
+    /**
+     * Alias to key cache of the AndroidKeyStore, shared by every instance reading it since they all read the
+     * same {@link KeyStore}. Entries are invalidated when a key is generated or deleted through this class.
+     */
+    private static final ConcurrentHashMap<String, Object> androidKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Alias to key cache of this instance, {@link MLockKeyStore##androidKeys} or one of its own if its keys
+     * come from somewhere else.
+     */
+    private final ConcurrentHashMap<String, Object> keys;
+
     /**
      * Class Logger
      */
     protected Logger logger;
 
     /**
-     * Constructor, initializes {@link MLockKeyStore##logger}. Made package-private to prevent outside
-     * instantiation of this class.
+     * Number of keys read from the {@link KeyStore} because they were not cached.
+     */
+    private final AtomicLong loads = new AtomicLong();
+
+    /**
+     * Constructor, initializes {@link MLockKeyStore##logger} for an instance reading the AndroidKeyStore. Made
+     * package-private to prevent outside instantiation of this class.
      */
     MLockKeyStore(@NonNull String tag) {
+        this(tag, true);
+    }
+
+    /**
+     * Constructor, initializes {@link MLockKeyStore##logger}.
+     *
+     * @param androidKeyStore true if the keys are read from the AndroidKeyStore and cached with every other
+     *                        instance reading it, false to cache them for this instance only.
+     */
+    MLockKeyStore(@NonNull String tag, boolean androidKeyStore) {
         logger = Logger.getLogger(tag);
+        keys = androidKeyStore ? androidKeys : new ConcurrentHashMap<>();
     }
 
     /**
@@ -69,21 +105,72 @@ abstract class MLockKeyStore<T> {
                 : new MLockKeyStoreAsymmetric(context);
     }
 
+    /**
+     * Create a new instance of the {@link MLockKeyStore} backed by the given {@link MLockKeyProvider}, or the
+     * AndroidKeyStore one from {@link MLockKeyStore#getInstance(Context)} if there is no provider.
+     *
+     * @apiNote This is not a singleton, this will return a new object every time it is called.
+     */
+    @NonNull
+    static MLockKeyStore<?> getInstance(@NonNull Context context, @Nullable MLockKeyProvider provider) {
+        return provider != null ? new MLockKeyStoreProvided(provider) : getInstance(context);
+    }
+
     /**
      * Generates a {@link T} and stores it in the AndroidKeyStore using the given alias.
      *
      * @return {@link Key} or null if any error occurs.
      */
-    public abstract T generateKey(@NonNull String alias);
+    @Nullable
+    public final T generateKey(@NonNull String alias) {
+        keys.remove(alias);
+        final T key = createKey(alias);
+        if (key != null) keys.put(alias, key);
+        return key;
+    }
 
     /**
-     * Gets a key from the {@link KeyStore} using the given alias
+     * Gets a key from the {@link KeyStore} using the given alias. Keys are cached after the first lookup.
      *
      * @param alias Name of the key
-     * @return {@link T from the {@link KeyStore}, otherwise null.
+     * @return {@link T} from the {@link KeyStore}, otherwise null.
      */
     @Nullable
-    public abstract T getKey(@NonNull String alias);
+    @SuppressWarnings("unchecked")
+    public final T getKey(@NonNull String alias) {
+        final Object cached = keys.get(alias);
+        if (cached != null) return (T) cached;
+
+        loads.incrementAndGet();
+        final T key = loadKey(alias);
+        if (key != null) keys.put(alias, key);
+        return key;
+    }
+
+    /**
+     * @return Number of keys read from the {@link KeyStore} by {@link MLockKeyStore#getKey} because they were
+     * not cached.
+     */
+    final long getLoadCount() {
+        return loads.get();
+    }
+
+    /**
+     * Generates a {@link T} and stores it in the AndroidKeyStore using the given alias.
+     *
+     * @return {@link Key} or null if any error occurs.
+     */
+    @Nullable
+    abstract T createKey(@NonNull String alias);
+
+    /**
+     * Reads a key from the {@link KeyStore}, bypassing the cache.
+     *
+     * @param alias Name of the key
+     * @return {@link T} from the {@link KeyStore}, otherwise null.
+     */
+    @Nullable
+    abstract T loadKey(@NonNull String alias);
 
     /**
      * Checks the {@link KeyStore} for a key using the given alias.
@@ -92,6 +179,34 @@ abstract class MLockKeyStore<T> {
      * @return true if keystore has the key, otherwise false.
      */
     final boolean hasKey(@NonNull String alias) {
+        return keys.containsKey(alias) || containsEntry(alias);
+    }
+
+    /**
+     * Deletes a key in the {@link KeyStore} using the given alias.
+     *
+     * @param alias Alias of the key.
+     */
+    final void deleteKey(@NonNull String alias) {
+        keys.remove(alias);
+        deleteEntry(alias);
+    }
+
+    /**
+     * Deleted all keys in the {@link KeyStore} for this application.
+     */
+    final void deleteAllKeys() {
+        keys.clear();
+        deleteAllEntries();
+    }
+
+    /**
+     * Checks the {@link KeyStore} for a key, bypassing the cache.
+     *
+     * @param alias Alias of the key.
+     * @return true if keystore has the key, otherwise false.
+     */
+    boolean containsEntry(@NonNull String alias) {
         try {
             return Objects.requireNonNull(getKeyStore()).isKeyEntry(alias);
         } catch (KeyStoreException e) {
@@ -102,14 +217,14 @@ abstract class MLockKeyStore<T> {
     }
 
     /**
-     * Deletes a key in the {@link KeyStore} using the given alias.
+     * Deletes a key from the {@link KeyStore}, the cache is already cleared.
      *
      * @param alias Alias of the key.
      */
-    final void deleteKey(@NonNull String alias) {
+    void deleteEntry(@NonNull String alias) {
         try {
             final KeyStore keyStore = getKeyStore();
-            if (keyStore == null || !hasKey(alias)) return;
+            if (keyStore == null || !keyStore.containsAlias(alias)) return;
             keyStore.deleteEntry(alias);
         } catch (KeyStoreException e) {
             logger.log(Level.WARNING, "Unable to delete key by alias: \"" + alias + "\" because of " +
@@ -118,34 +233,49 @@ abstract class MLockKeyStore<T> {
     }
 
     /**
-     * Deleted all keys in the {@link KeyStore} for this application.
+     * Deletes every key from the {@link KeyStore}, the cache is already cleared.
      */
-    final void deleteAllKeys() {
+    void deleteAllEntries() {
         try {
-            // Loop through all aliases and delete each key.
-            final KeyStore keyStore = getKeyStore();
-            final Enumeration<String> aliases = Objects.requireNonNull(keyStore).aliases();
-            while (aliases.hasMoreElements()) deleteKey(aliases.nextElement());
+            // Collect the aliases first, then delete each key through the same loaded KeyStore.
+            final KeyStore keyStore = Objects.requireNonNull(getKeyStore());
+            for (final String alias : Collections.list(keyStore.aliases())) keyStore.deleteEntry(alias);
         } catch (KeyStoreException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Drops every cached AndroidKeyStore key, forcing the next {@link MLockKeyStore#getKey} to read from the
+     * {@link KeyStore}.
+     */
+    static void invalidateCache() {
+        androidKeys.clear();
+    }
+
     /**
      * Returns and instance of the {@link KeyStore} The provider of this key store is
-     * {@link MLockKeyStore##ANDROID_KEY_STORE}
+     * {@link MLockKeyStore##ANDROID_KEY_STORE}. The {@link KeyStore} is loaded once and then reused.
      *
      * @return Instance of {@link KeyStore}
      */
     @Nullable
     final KeyStore getKeyStore() {
-        try {
-            final KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
-            keyStore.load(null);
-            return keyStore;
-        } catch (KeyStoreException | CertificateException | IOException | NoSuchAlgorithmException e) {
-            logger.log(Level.WARNING, "Unable to obtain KeyStore: " + e.getMessage());
-            return null;
+        KeyStore loaded = keyStore;
+        if (loaded != null) return loaded;
+
+        synchronized (MLockKeyStore.class) {
+            if (keyStore != null) return keyStore;
+
+            try {
+                loaded = KeyStore.getInstance(ANDROID_KEY_STORE);
+                loaded.load(null);
+                keyStore = loaded;
+                return loaded;
+            } catch (KeyStoreException | CertificateException | IOException | NoSuchAlgorithmException e) {
+                logger.log(Level.WARNING, "Unable to obtain KeyStore: " + e.getMessage());
+                return null;
+            }
         }
     }
 }
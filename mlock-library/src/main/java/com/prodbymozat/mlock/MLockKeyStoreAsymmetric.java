@@ -62,10 +62,10 @@ final class MLockKeyStoreAsymmetric extends MLockKeyStore<KeyStore.PrivateKeyEnt
     }
 
     /**
-     * @see MLockKeyStore#generateKey
+     * @see MLockKeyStore#createKey
      */
     @Override
-    public KeyStore.PrivateKeyEntry generateKey(@NonNull String alias) {
+    final KeyStore.PrivateKeyEntry createKey(@NonNull String alias) {
         try {
             final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA",
                     ANDROID_KEY_STORE);
@@ -86,7 +86,7 @@ final class MLockKeyStoreAsymmetric extends MLockKeyStore<KeyStore.PrivateKeyEnt
             // KeyStore.PrivateKeyEntry afterwards.
             generator.genKeyPair();
 
-            return getKey(alias);
+            return loadKey(alias);
         } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException e) {
             logger.log(Level.WARNING, "Could not generate symmetric key: " + e.getMessage());
             return null;
@@ -94,11 +94,11 @@ final class MLockKeyStoreAsymmetric extends MLockKeyStore<KeyStore.PrivateKeyEnt
     }
 
     /**
-     * @see MLockKeyStore#getKey
+     * @see MLockKeyStore#loadKey
      */
     @Nullable
     @Override
-    public KeyStore.PrivateKeyEntry getKey(@NonNull String alias) {
+    final KeyStore.PrivateKeyEntry loadKey(@NonNull String alias) {
         try {
             return (KeyStore.PrivateKeyEntry) Objects.requireNonNull(getKeyStore()).getEntry(alias, null);
         } catch (UnrecoverableEntryException | NoSuchAlgorithmException |
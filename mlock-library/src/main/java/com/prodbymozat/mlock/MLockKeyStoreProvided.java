@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import javax.crypto.SecretKey;
+
+/**
+ * {@link MLockKeyStore} whose keys come from an {@link MLockKeyProvider} instead of the AndroidKeyStore.
+ * Paired with {@link MLockCipherSymmetric} on every API level.
+ */
+final class MLockKeyStoreProvided extends MLockKeyStore<SecretKey> {
+
+    // Class Constants
+    private static final String TAG = MLockKeyStoreProvided.class.getSimpleName();
+
+    /**
+     * {@link MLockKeyProvider} holding the keys.
+     */
+    private final MLockKeyProvider provider;
+
+    /**
+     * Constructor.
+     */
+    MLockKeyStoreProvided(@NonNull MLockKeyProvider provider) {
+        super(TAG, false);
+        this.provider = provider;
+    }
+
+    /**
+     * @see MLockKeyStore#createKey
+     */
+    @Nullable
+    @Override
+    SecretKey createKey(@NonNull String alias) {
+        return provider.generateKey(alias);
+    }
+
+    /**
+     * @see MLockKeyStore#loadKey
+     */
+    @Nullable
+    @Override
+    SecretKey loadKey(@NonNull String alias) {
+        return provider.loadKey(alias);
+    }
+
+    /**
+     * @see MLockKeyStore#containsEntry
+     */
+    @Override
+    boolean containsEntry(@NonNull String alias) {
+        return provider.containsKey(alias);
+    }
+
+    /**
+     * @see MLockKeyStore#deleteEntry
+     */
+    @Override
+    void deleteEntry(@NonNull String alias) {
+        provider.deleteKey(alias);
+    }
+
+    /**
+     * @see MLockKeyStore#deleteAllEntries
+     */
+    @Override
+    void deleteAllEntries() {
+        provider.deleteAllKeys();
+    }
+}
@@ -55,10 +55,10 @@ final class MLockKeyStoreSymmetric extends MLockKeyStore<SecretKey> {
     }
 
     /**
-     * @see MLockKeyStore#generateKey
+     * @see MLockKeyStore#createKey
      */
     @Override
-    public final SecretKey generateKey(@NonNull String alias) {
+    final SecretKey createKey(@NonNull String alias) {
         try {
             final KeyGenerator keyGenerator =
                     KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
@@ -77,11 +77,11 @@ final class MLockKeyStoreSymmetric extends MLockKeyStore<SecretKey> {
     }
 
     /**
-     * @see MLockKeyStore#getKey
+     * @see MLockKeyStore#loadKey
      */
     @Nullable
     @Override
-    public SecretKey getKey(@NonNull String alias) {
+    final SecretKey loadKey(@NonNull String alias) {
         try {
             return (SecretKey) Objects.requireNonNull(getKeyStore()).getKey(alias, null);
         } catch (UnrecoverableKeyException | NoSuchAlgorithmException | KeyStoreException e) {
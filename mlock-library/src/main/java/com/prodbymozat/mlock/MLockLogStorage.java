@@ -0,0 +1,1710 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * {@link MLockStorage} written in plain Java as an append-only log, for apps that would rather not ship the
+ * native mqlite3 library. Selected with {@link MLockOptions.Builder#setStorageBackend}.
+ * <p>
+ * The log starts with a header and every write appends one frame. The values of a batch share a frame, so a
+ * batch is saved entirely or not at all.
+ * </p>
+ * <pre>
+ * +-----------------+-----------------+-------------------------------------------------+
+ * | body length     | CRC-32 of body  | body: type, then the values, a key or a namespace |
+ * | 4 bytes, LE     | 4 bytes, LE     |                                                 |
+ * +-----------------+-----------------+-------------------------------------------------+
+ * </pre>
+ * An index maps every key to the offset of its latest value. It is saved next to the log as a file of records
+ * sorted by key, when the log is closed and on a background thread every so often, and mapped into memory when
+ * the log is opened: lookups binary search the mapped records, so opening costs the same however many keys are
+ * stored and only the index pages lookups touch are read. Keys written since the index was saved are kept in a
+ * hash map built by replaying the frames after the end the index covers. Without a usable index the whole log
+ * is replayed. A frame torn by a crash fails its CRC and is cut off along with anything after it, so the log
+ * always replays up to the last complete write. Values are read in place with positional reads, which run in
+ * parallel.
+ * <p>
+ * Values are records already encrypted by {@link MLockCipher} and keys are SHA-256 digests. Namespaces are
+ * only stored as an HMAC under a random key wrapped by the {@link MLockKeyStore} key, so nothing in the log is
+ * readable without it. Appends are left to the OS to write back, like the WAL of {@link MLockNative}: a crash
+ * of the app loses nothing, a power loss may lose the latest writes. The log is forced to disk when closed.
+ * </p>
+ * Overwritten and deleted values stay in the log as garbage until it is compacted. Once the log is large
+ * enough and garbage takes enough of it, the live values are copied to a new log on a background thread, in
+ * throttled slices read under the shared lock, so reads and writes go on meanwhile. Frames appended in the
+ * meantime are copied after them, then the new log is renamed over the old one, which only blocks other
+ * operations while the last few frames are copied and the index is pointed at the new offsets.
+ */
+final class MLockLogStorage implements MLockStorage {
+
+    // Class Constants
+    private static final String TAG = MLockLogStorage.class.getSimpleName();
+    static final String LOG_NAME = "mlock.log";
+    static final String LOG_KEY_FILE_NAME = "mlock_log_key";
+    static final String COMPACT_SUFFIX = ".compact";
+    static final String INDEX_SUFFIX = ".index";
+    static final int MAGIC = 0x474f4c4d;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 4 + 4;
+    static final int FRAME_HEADER_LENGTH = 4 + 4;
+    static final byte TYPE_PUT = 1;
+    static final byte TYPE_REMOVE = 2;
+    static final byte TYPE_CLEAR_NAMESPACE = 3;
+    static final int INDEX_MAGIC = 0x58444e49;
+    static final int INDEX_VERSION = 1;
+    static final int INDEX_HEADER_LENGTH = 4 + 4 + 8 + 8 + 8 + 8 + 4 + 4;
+    private static final int ENTRY_HEADER_LENGTH = 2 + 1 + 4;
+    private static final String NAMESPACE_ALGORITHM = "HmacSHA256";
+    private static final int DIRECT_THRESHOLD = 64 * 1024;
+    private static final int CRC_CHUNK_SIZE = 8 * 1024;
+    private static final int COMPACTION_SLICE_BYTES = 256 * 1024;
+    private static final long COMPACTION_SLICE_PAUSE_MILLIS = 10;
+    private static final long INDEX_SAVE_BYTES = 1024 * 1024;
+    private static final String INDEX_TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Marks a key of the mapped index that has been removed since the index was saved.
+     */
+    private static final Entry REMOVED = new Entry(-1, 0, null);
+
+    /**
+     * Class Logger
+     */
+    private final Logger logger = Logger.getLogger(TAG);
+
+    /**
+     * Log file.
+     */
+    private final File file;
+
+    /**
+     * Provides the namespace key when the log is opened.
+     */
+    private final MLockNative.KeyProvider keyProvider;
+
+    /**
+     * Size the log must reach before it is compacted.
+     */
+    private final long compactionMinBytes;
+
+    /**
+     * Share of the log taken by garbage that triggers a compaction.
+     */
+    private final float compactionGarbageRatio;
+
+    /**
+     * Metrics compactions are recorded into, or null.
+     */
+    @Nullable
+    private final MLockMetrics metrics;
+
+    /**
+     * Whether a compaction is scheduled or running.
+     */
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    /**
+     * Guards the index and the end of the log: reads hold the read lock, appends and
+     * {@link MLockLogStorage#close()} hold the write lock.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Whether the index is scheduled to be saved.
+     */
+    private final AtomicBoolean savingIndex = new AtomicBoolean();
+
+    /**
+     * Latest value of every key written since the mapped index was saved, {@link MLockLogStorage#REMOVED} for
+     * its keys removed since. Every key while there is no mapped index.
+     */
+    private final Map<Bytes, Entry> index = new HashMap<>();
+
+    /**
+     * Index mapped when the log was opened, or null.
+     */
+    @Nullable
+    private MappedIndex mapped = null;
+
+    /**
+     * Keys of every namespace in key order, by namespace MAC. Built from the index when first needed, null
+     * until then.
+     */
+    @Nullable
+    private volatile Map<Bytes, TreeSet<Bytes>> namespaces = null;
+
+    /**
+     * Channel of the log, null while closed.
+     */
+    @Nullable
+    private volatile FileChannel channel = null;
+
+    /**
+     * MACs namespaces, null while closed.
+     */
+    @Nullable
+    private Mac namespaceMac = null;
+
+    /**
+     * Offset the next frame is appended at.
+     */
+    private long end = 0;
+
+    /**
+     * Offset of the last frame, or 0 if there is none.
+     */
+    private long lastFrame = 0;
+
+    /**
+     * End of the log covered by the saved index, or 0 if there is none.
+     */
+    private volatile long indexedEnd = 0;
+
+    /**
+     * Bytes taken by the latest value of every key, the rest of the log after its header is garbage.
+     */
+    private long liveBytes = 0;
+
+    /**
+     * Changed whenever the log is cleared or closed, so a compaction running meanwhile gives up.
+     */
+    private long generation = 0;
+
+    /**
+     * Runs compactions, null while closed.
+     */
+    @Nullable
+    private ExecutorService compactor = null;
+
+    /**
+     * Constructor.
+     *
+     * @param file        Log file, created if it does not exist.
+     * @param keyProvider Provider of the key namespaces are stored under.
+     */
+    MLockLogStorage(@NonNull File file, @NonNull MLockNative.KeyProvider keyProvider) {
+        this(file, keyProvider, MLockOptions.DEFAULT_COMPACTION_MIN_BYTES,
+                MLockOptions.DEFAULT_COMPACTION_GARBAGE_RATIO, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param file                   Log file, created if it does not exist.
+     * @param keyProvider            Provider of the key namespaces are stored under.
+     * @param compactionMinBytes     Size the log must reach before it is compacted.
+     * @param compactionGarbageRatio Share of the log taken by garbage that triggers a compaction.
+     * @param metrics                {@link MLockMetrics} compactions are recorded into, or null.
+     */
+    MLockLogStorage(@NonNull File file, @NonNull MLockNative.KeyProvider keyProvider, long compactionMinBytes,
+                    float compactionGarbageRatio, @Nullable MLockMetrics metrics) {
+        this.file = file;
+        this.keyProvider = keyProvider;
+        this.compactionMinBytes = compactionMinBytes;
+        this.compactionGarbageRatio = compactionGarbageRatio;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates an {@link MLockLogStorage} in the application's database directory whose namespace key is
+     * wrapped by the given {@link MLockKeyStore}. Nothing is read or opened until
+     * {@link MLockLogStorage#open()}.
+     */
+    @NonNull
+    static MLockLogStorage create(@NonNull Context context, @NonNull MLockKeyStore<?> keyStore,
+                                  @NonNull MLockCipher<?> cipher, @NonNull MLockOptions options) {
+        final MLockEnvelope<?> logKey = MLockEnvelope.create(keyStore, cipher,
+                new File(context.getNoBackupFilesDir(), LOG_KEY_FILE_NAME),
+                MLockOptions.DEFAULT_DATA_KEY_LIFETIME_MILLIS);
+
+        return new MLockLogStorage(context.getDatabasePath(LOG_NAME), () -> {
+            final SecretKey key = logKey.getDataKey();
+
+            // The key is only needed to open the log, don't keep it around.
+            logKey.evict();
+            return key == null ? null : key.getEncoded();
+        }, options.getCompactionMinBytes(), options.getCompactionGarbageRatio(), options.getMetrics());
+    }
+
+    /**
+     * Opens the log, maps the saved index and replays the frames it does not cover.
+     *
+     * @see MLockStorage#open()
+     */
+    @Override
+    public void open() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (channel != null) return;
+
+            final byte[] key = keyProvider.getDatabaseKey();
+            if (key == null) throw new IOException("Unable to obtain log key");
+            try {
+                namespaceMac = Mac.getInstance(NAMESPACE_ALGORITHM);
+                namespaceMac.init(new SecretKeySpec(key, NAMESPACE_ALGORITHM));
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new IOException("Unable to initialize namespace MAC: " + e.getMessage(), e);
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+
+            final File directory = file.getParentFile();
+            if (directory != null && !directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Unable to create log directory " + directory);
+            }
+            // Left by a compaction that did not finish, the log itself is complete.
+            deleteQuietly(compactFile());
+            deleteQuietly(indexTempFile());
+
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            try {
+                mapIndex();
+                try {
+                    replay();
+                } catch (IOException e) {
+                    if (mapped == null) throw e;
+
+                    // The log may still be fine, rebuild the index from all of it.
+                    logger.log(Level.WARNING, "Discarding unusable log index: " + e.getMessage());
+                    resetIndex();
+                    deleteIndex();
+                    replay();
+                }
+            } catch (IOException e) {
+                closeChannel();
+                throw e;
+            }
+            compactor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            });
+            maybeCompact();
+            maybeSaveIndex();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#get(byte[])
+     */
+    @Nullable
+    @Override
+    public byte[] get(@NonNull byte[] key) throws IOException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            final Entry entry = lookup(new Bytes(key));
+            return entry == null ? null : read(entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#getBuffer(byte[])
+     */
+    @Nullable
+    @Override
+    public ByteBuffer getBuffer(@NonNull byte[] key) throws IOException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            final Entry entry = lookup(new Bytes(key));
+            if (entry == null) return null;
+            if (entry.length <= DIRECT_THRESHOLD) return ByteBuffer.wrap(read(entry));
+
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(entry.length);
+            readFully(buffer, entry.offset);
+            buffer.flip();
+            return buffer;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#getAll(byte[][])
+     */
+    @NonNull
+    @Override
+    public byte[][] getAll(@NonNull byte[][] keys) throws IOException {
+        final byte[][] values = new byte[keys.length][];
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            for (int i = 0; i < keys.length; i++) {
+                final Entry entry = lookup(new Bytes(keys[i]));
+                if (entry != null) values[i] = read(entry);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return values;
+    }
+
+    /**
+     * @see MLockStorage#put(byte[], byte[])
+     */
+    @Override
+    public void put(@NonNull byte[] key, @NonNull byte[] value) throws IOException {
+        putAll(new byte[][]{key}, new ByteBuffer[]{ByteBuffer.wrap(value)}, null);
+    }
+
+    /**
+     * @see MLockStorage#putAll(byte[][], byte[][])
+     */
+    @Override
+    public void putAll(@NonNull byte[][] keys, @NonNull byte[][] values) throws IOException {
+        if (keys.length != values.length) throw new IllegalArgumentException("Keys and values differ in length");
+        final ByteBuffer[] buffers = new ByteBuffer[values.length];
+        for (int i = 0; i < values.length; i++) buffers[i] = ByteBuffer.wrap(values[i]);
+        putAll(keys, buffers, null);
+    }
+
+    /**
+     * @see MLockStorage#putAll(byte[][], ByteBuffer[])
+     */
+    @Override
+    public void putAll(@NonNull byte[][] keys, @NonNull ByteBuffer[] values) throws IOException {
+        putAll(keys, values, null);
+    }
+
+    /**
+     * Appends the batch as a single frame. Heap values are copied into the frame, direct values are written
+     * from their buffer.
+     *
+     * @see MLockStorage#putAll(byte[][], ByteBuffer[], byte[][])
+     */
+    @Override
+    public void putAll(@NonNull byte[][] keys, @NonNull ByteBuffer[] values, @Nullable byte[][] namespaces)
+            throws IOException {
+        if (keys.length != values.length || (namespaces != null && namespaces.length != keys.length)) {
+            throw new IllegalArgumentException("Keys, values and namespaces differ in length");
+        }
+        if (keys.length == 0) return;
+
+        lock.writeLock().lock();
+        try {
+            final Bytes[] namespaceKeys = new Bytes[keys.length];
+            final int[] metadata = new int[keys.length];
+            long bodyLength = 1 + 4;
+            int heapLength = FRAME_HEADER_LENGTH + 1 + 4;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].length > Short.MAX_VALUE) throw new IllegalArgumentException("Key is too long");
+                if (namespaces != null && namespaces[i] != null) namespaceKeys[i] = namespaceKey(namespaces[i]);
+
+                metadata[i] = ENTRY_HEADER_LENGTH + keys[i].length
+                        + (namespaceKeys[i] != null ? namespaceKeys[i].length() : 0);
+                bodyLength += metadata[i] + values[i].remaining();
+                heapLength += metadata[i] + (values[i].isDirect() ? 0 : values[i].remaining());
+            }
+            if (bodyLength > Integer.MAX_VALUE) throw new IOException("Batch is too large for one log frame");
+
+            // Metadata and heap values fill one buffer, direct values are written between its segments.
+            final ByteBuffer frame = ByteBuffer.allocate(heapLength).order(ByteOrder.LITTLE_ENDIAN);
+            final List<ByteBuffer> segments = new ArrayList<>();
+            final long[] offsets = new long[keys.length];
+            long position = end + FRAME_HEADER_LENGTH;
+            int segmentStart = 0;
+            frame.position(FRAME_HEADER_LENGTH);
+            frame.put(TYPE_PUT).putInt(keys.length);
+            position += 1 + 4;
+            for (int i = 0; i < keys.length; i++) {
+                final ByteBuffer value = values[i];
+                frame.putShort((short) keys[i].length).put(keys[i]);
+                if (namespaceKeys[i] != null) {
+                    frame.put((byte) namespaceKeys[i].length()).put(namespaceKeys[i].bytes);
+                } else {
+                    frame.put((byte) 0);
+                }
+                frame.putInt(value.remaining());
+                position += metadata[i];
+                offsets[i] = position;
+                position += value.remaining();
+
+                if (value.isDirect()) {
+                    segments.add(segment(frame, segmentStart));
+                    segments.add(value.duplicate());
+                    segmentStart = frame.position();
+                } else {
+                    frame.put(value.duplicate());
+                }
+            }
+            segments.add(segment(frame, segmentStart));
+            frame.putInt(0, (int) bodyLength).putInt(4, checksum(segments));
+
+            append(segments.toArray(new ByteBuffer[0]));
+            for (int i = 0; i < keys.length; i++) {
+                index(new Bytes(keys[i].clone()), new Entry(offsets[i], values[i].remaining(), namespaceKeys[i]));
+            }
+            maybeCompact();
+            maybeSaveIndex();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#keys()
+     */
+    @NonNull
+    @Override
+    public byte[][] keys() throws IOException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            final List<Live> live = liveEntries();
+            final byte[][] result = new byte[live.size()][];
+            for (int i = 0; i < result.length; i++) result[i] = live.get(i).key.bytes.clone();
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#keys(byte[])
+     */
+    @NonNull
+    @Override
+    public byte[][] keys(@NonNull byte[] namespace) throws IOException {
+        lock.readLock().lock();
+        try {
+            final TreeSet<Bytes> keys = namespaces().get(namespaceKey(namespace));
+            if (keys == null) return new byte[0][];
+
+            final byte[][] result = new byte[keys.size()][];
+            int i = 0;
+            for (final Bytes key : keys) result[i++] = key.bytes.clone();
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#scan(byte[], byte[], int)
+     */
+    @NonNull
+    @Override
+    public byte[][] scan(@NonNull byte[] namespace, @Nullable byte[] after, int limit) throws IOException {
+        if (limit <= 0) throw new IllegalArgumentException("Limit must be positive");
+        lock.readLock().lock();
+        try {
+            final TreeSet<Bytes> keys = namespaces().get(namespaceKey(namespace));
+            if (keys == null) return new byte[0][];
+
+            final NavigableSet<Bytes> page = after == null ? keys : keys.tailSet(new Bytes(after), false);
+            final List<byte[]> result = new ArrayList<>();
+            for (final Iterator<Bytes> it = page.iterator(); it.hasNext() && result.size() < limit * 2; ) {
+                final Bytes key = it.next();
+                result.add(key.bytes.clone());
+                result.add(read(lookup(key)));
+            }
+            return result.toArray(new byte[0][]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#clearNamespace(byte[])
+     */
+    @Override
+    public int clearNamespace(@NonNull byte[] namespace) throws IOException {
+        lock.writeLock().lock();
+        try {
+            final Bytes namespaceKey = namespaceKey(namespace);
+            final TreeSet<Bytes> keys = namespaces().get(namespaceKey);
+            if (keys == null) return 0;
+
+            appendFrame(ByteBuffer.allocate(1 + 1 + namespaceKey.length())
+                    .put(TYPE_CLEAR_NAMESPACE).put((byte) namespaceKey.length()).put(namespaceKey.bytes));
+            final int count = keys.size();
+            for (final Bytes key : new ArrayList<>(keys)) unindex(key);
+            maybeCompact();
+            maybeSaveIndex();
+            return count;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#remove(byte[])
+     */
+    @Override
+    public boolean remove(@NonNull byte[] key) throws IOException {
+        if (key.length > Short.MAX_VALUE) throw new IllegalArgumentException("Key is too long");
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            final Bytes indexKey = new Bytes(key);
+            if (lookup(indexKey) == null) return false;
+
+            appendFrame(ByteBuffer.allocate(1 + 2 + key.length).order(ByteOrder.LITTLE_ENDIAN)
+                    .put(TYPE_REMOVE).putShort((short) key.length).put(key));
+            unindex(indexKey);
+            maybeCompact();
+            maybeSaveIndex();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the saved index and cuts the log back to its header.
+     *
+     * @see MLockStorage#clear()
+     */
+    @Override
+    public void clear() throws IOException {
+        lock.writeLock().lock();
+        try {
+            final FileChannel current = channel();
+            deleteIndex();
+            current.truncate(HEADER_LENGTH);
+            current.force(false);
+            resetIndex();
+            end = HEADER_LENGTH;
+            generation++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the log to disk, saves the index and closes it. Waits for operations in progress, a running
+     * compaction gives up.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            final FileChannel current = channel;
+            if (current == null) return;
+            try {
+                if (current.isOpen()) current.force(true);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to force log to disk: " + e.getMessage());
+            }
+            try {
+                if (end != indexedEnd) writeIndex();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to save log index: " + e.getMessage());
+            }
+            closeChannel();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Length of the log in bytes, or 0 while closed.
+     */
+    long size() {
+        lock.readLock().lock();
+        try {
+            return channel == null ? 0 : end;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Bytes of the log taken by overwritten and deleted values and by frame headers, or 0 while closed.
+     */
+    long garbageBytes() {
+        lock.readLock().lock();
+        try {
+            return channel == null ? 0 : end - HEADER_LENGTH - liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the live values to a new log and swaps it in, see the class documentation. Runs on the calling
+     * thread, pausing between slices.
+     *
+     * @return Bytes reclaimed, or -1 if the log was cleared or closed meanwhile.
+     */
+    long compact() throws IOException {
+        final long startGeneration;
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            startGeneration = generation;
+        } finally {
+            lock.readLock().unlock();
+        }
+        return compact(startGeneration);
+    }
+
+    /**
+     * Compacts the log if it is still the one of the given generation.
+     *
+     * @return Bytes reclaimed, or -1 if the log was cleared, closed or compacted since that generation.
+     */
+    private long compact(long startGeneration) throws IOException {
+        // Compactions share the compaction file, run them one at a time.
+        synchronized (compacting) {
+            return compactLog(startGeneration);
+        }
+    }
+
+    private long compactLog(long startGeneration) throws IOException {
+        final long start = System.nanoTime();
+        final long startEnd;
+        final List<Live> live = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (generation != startGeneration) return -1;
+            startEnd = end;
+            live.addAll(liveEntries());
+        } finally {
+            lock.readLock().unlock();
+        }
+        // Copy in log order, so the old log is read sequentially.
+        Collections.sort(live, (a, b) -> Long.compare(a.entry.offset, b.entry.offset));
+
+        final File compactFile = compactFile();
+        final FileChannel target = new RandomAccessFile(compactFile, "rw").getChannel();
+        boolean swapped = false;
+        try {
+            target.truncate(0);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(target, new ByteBuffer[]{header}, 0);
+
+            long position = HEADER_LENGTH;
+            long lastSlice = 0;
+            for (int from = 0; from < live.size(); ) {
+                int to = from + 1;
+                long sliceBytes = live.get(from).entry.length;
+                while (to < live.size() && sliceBytes + live.get(to).entry.length <= COMPACTION_SLICE_BYTES) {
+                    sliceBytes += live.get(to++).entry.length;
+                }
+                final ByteBuffer frame = sliceFrame(live.subList(from, to), startGeneration, position);
+                if (frame == null) return -1;
+                final int length = frame.remaining();
+                writeFully(target, new ByteBuffer[]{frame}, position);
+                lastSlice = position;
+                position += length;
+                from = to;
+
+                try {
+                    Thread.sleep(COMPACTION_SLICE_PAUSE_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+
+            // Catch up with the frames appended meanwhile until few are left, without holding anyone off.
+            final long tailStart = position;
+            long copied = startEnd;
+            while (true) {
+                final long tail;
+                lock.readLock().lock();
+                try {
+                    if (generation != startGeneration) return -1;
+                    tail = end;
+                    if (tail - copied <= COMPACTION_SLICE_BYTES) break;
+                    copy(copied, tail, target, tailStart + copied - startEnd);
+                } finally {
+                    lock.readLock().unlock();
+                }
+                copied = tail;
+            }
+
+            final long reclaimed = startEnd - tailStart;
+            final long pause;
+            lock.writeLock().lock();
+            final long pauseStart = System.nanoTime();
+            try {
+                if (generation != startGeneration) return -1;
+                copy(copied, end, target, tailStart + copied - startEnd);
+                target.force(false);
+                // The saved index points into the old log, it must not outlive it.
+                deleteIndex();
+                if (!compactFile.renameTo(file)) throw new IOException("Unable to replace log with " + compactFile);
+
+                // Values written meanwhile lie in the copied frames, the others where their slice put them. The
+                // value at an offset is only ever written once, so an unchanged offset means an unchanged value.
+                final Map<Bytes, Entry> compacted = new HashMap<>();
+                for (final Live moved : live) {
+                    final Entry current = lookup(moved.key);
+                    if (current != null && current.offset == moved.entry.offset) {
+                        compacted.put(moved.key, moved.entry.at(moved.offset));
+                    }
+                }
+                for (final Map.Entry<Bytes, Entry> entry : index.entrySet()) {
+                    final Entry value = entry.getValue();
+                    if (value != REMOVED && value.offset >= startEnd) {
+                        compacted.put(entry.getKey(), value.at(value.offset - reclaimed));
+                    }
+                }
+                index.clear();
+                index.putAll(compacted);
+                mapped = null;
+                indexedEnd = 0;
+                lastFrame = lastFrame >= startEnd ? lastFrame - reclaimed : lastSlice;
+
+                closeQuietly(channel);
+                channel = target;
+                swapped = true;
+                end -= reclaimed;
+                generation++;
+            } finally {
+                pause = System.nanoTime() - pauseStart;
+                lock.writeLock().unlock();
+            }
+            if (metrics != null) metrics.recordCompaction(System.nanoTime() - start, pause, reclaimed);
+            return reclaimed;
+        } finally {
+            if (!swapped) {
+                closeQuietly(target);
+                if (!compactFile.delete()) logger.log(Level.WARNING, "Unable to delete " + compactFile);
+            }
+        }
+    }
+
+    /**
+     * Schedules a compaction if the log has reached the thresholds and none is pending. Called with the write
+     * lock held.
+     */
+    private void maybeCompact() {
+        final ExecutorService executor = compactor;
+        final long size = end - HEADER_LENGTH;
+        if (executor == null || end < compactionMinBytes || size == 0) return;
+        if (size - liveBytes < compactionGarbageRatio * size || !compacting.compareAndSet(false, true)) return;
+
+        // A compaction still queued when the log is cleared or closed finds another generation and gives up.
+        final long scheduledGeneration = generation;
+        try {
+            executor.execute(() -> {
+                try {
+                    // Offsets all changed, save the index of the compacted log straight away.
+                    if (compact(scheduledGeneration) >= 0) saveIndexIfOpen();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Unable to compact log: " + e.getMessage());
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Schedules saving the index if enough of the log was written since it was last saved and saving is not
+     * pending. Called with the write lock held.
+     */
+    private void maybeSaveIndex() {
+        final ExecutorService executor = compactor;
+        if (executor == null || end - Math.max(indexedEnd, HEADER_LENGTH) < INDEX_SAVE_BYTES) return;
+        if (!savingIndex.compareAndSet(false, true)) return;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    saveIndexIfOpen();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Unable to save log index: " + e.getMessage());
+                } finally {
+                    savingIndex.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            savingIndex.set(false);
+        }
+    }
+
+    /**
+     * Saves the index if the log changed since it was last saved. Holds the read lock, so appends wait while
+     * the index is written, reads do not.
+     */
+    void saveIndex() throws IOException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            if (end != indexedEnd) writeIndex();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the index like {@link MLockLogStorage#saveIndex()}, unless the log was closed meanwhile. Used by the
+     * background tasks, which may still run once the log is closed.
+     */
+    private void saveIndexIfOpen() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (channel != null && end != indexedEnd) writeIndex();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes every live key to a new index file sorted by key, then renames it over the saved index. Called with
+     * the read or write lock held, by one thread at a time.
+     * <pre>
+     * +-------+---------+------------+------------+-------------------+------------+-------+----------------+
+     * | magic | version | log length | last frame | last frame header | live bytes | count | header CRC-32  |
+     * +-------+---------+------------+------------+-------------------+------------+-------+----------------+
+     * | record offsets, 4 bytes each, in key order                                                            |
+     * +-------------------------------------------------------------------------------------------------------+
+     * | records: key length, key, value offset, value length, namespace length, namespace                     |
+     * +-------------------------------------------------------------------------------------------------------+
+     * </pre>
+     * The header of the last frame ties the index to the log it was saved from, a log cleared, compacted or
+     * replaced since does not have the same frame there.
+     */
+    private void writeIndex() throws IOException {
+        final List<Live> live = liveEntries();
+        Collections.sort(live, (a, b) -> a.key.compareTo(b.key));
+
+        long length = INDEX_HEADER_LENGTH + 4L * live.size();
+        for (final Live entry : live) length += recordLength(entry);
+        if (length > Integer.MAX_VALUE) throw new IOException("Too many keys for a log index");
+
+        final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        if (lastFrame != 0) readFully(frameHeader, lastFrame);
+        final ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putLong(end).putLong(lastFrame)
+                .putLong(frameHeader.getLong(0)).putLong(liveBytes).putInt(live.size());
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+
+        int record = INDEX_HEADER_LENGTH + 4 * live.size();
+        for (final Live entry : live) {
+            buffer.putInt(record);
+            record += recordLength(entry);
+        }
+        for (final Live entry : live) {
+            buffer.putShort((short) entry.key.length()).put(entry.key.bytes)
+                    .putLong(entry.entry.offset).putInt(entry.entry.length);
+            if (entry.entry.namespace != null) {
+                buffer.put((byte) entry.entry.namespace.length()).put(entry.entry.namespace.bytes);
+            } else {
+                buffer.put((byte) 0);
+            }
+        }
+        buffer.flip();
+
+        final File tempFile = indexTempFile();
+        try (FileChannel target = new RandomAccessFile(tempFile, "rw").getChannel()) {
+            target.truncate(0);
+            writeFully(target, new ByteBuffer[]{buffer}, 0);
+            target.force(false);
+        }
+        if (!tempFile.renameTo(indexFile())) {
+            deleteQuietly(tempFile);
+            throw new IOException("Unable to replace log index with " + tempFile);
+        }
+        indexedEnd = end;
+    }
+
+    /**
+     * Maps the saved index if it was saved from this log. An index that does not match is deleted and the log
+     * replayed from its header. Called with the write lock held.
+     */
+    private void mapIndex() throws IOException {
+        final File indexFile = indexFile();
+        if (!indexFile.exists()) return;
+
+        final MappedByteBuffer buffer;
+        try (FileChannel source = new RandomAccessFile(indexFile, "r").getChannel()) {
+            final long size = source.size();
+            buffer = size >= INDEX_HEADER_LENGTH && size <= Integer.MAX_VALUE
+                    ? source.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+        }
+        final MappedIndex index = buffer == null ? null : MappedIndex.of(buffer);
+        if (index == null || !matches(index)) {
+            logger.log(Level.WARNING, "Discarding log index that does not match " + file);
+            deleteIndex();
+            return;
+        }
+
+        mapped = index;
+        end = index.end;
+        indexedEnd = index.end;
+        lastFrame = index.lastFrame;
+        liveBytes = index.liveBytes;
+    }
+
+    /**
+     * @return true if the index was saved from this log: the log reaches the end the index covers and has the
+     * same last frame.
+     */
+    private boolean matches(@NonNull MappedIndex index) throws IOException {
+        if (index.end < HEADER_LENGTH || index.end > channel().size()) return false;
+        if (index.lastFrame == 0) return index.end == HEADER_LENGTH;
+        if (index.lastFrame < HEADER_LENGTH || index.lastFrame > index.end - FRAME_HEADER_LENGTH) return false;
+
+        final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(frameHeader, index.lastFrame);
+        return frameHeader.getLong(0) == index.lastFrameHeader;
+    }
+
+    /**
+     * @return Latest value of a key, or null if it has none.
+     */
+    @Nullable
+    private Entry lookup(@NonNull Bytes key) throws IOException {
+        final Entry entry = index.get(key);
+        if (entry != null) return entry == REMOVED ? null : entry;
+        return mapped == null ? null : mapped.find(key);
+    }
+
+    /**
+     * @return Latest value of every key, in no particular order.
+     */
+    @NonNull
+    private List<Live> liveEntries() throws IOException {
+        final MappedIndex base = mapped;
+        final List<Live> live = new ArrayList<>(index.size() + (base == null ? 0 : base.count));
+        if (base != null) {
+            for (int i = 0; i < base.count; i++) {
+                final Bytes key = base.key(i);
+                if (!index.containsKey(key)) live.add(new Live(key, base.entry(i)));
+            }
+        }
+        for (final Map.Entry<Bytes, Entry> entry : index.entrySet()) {
+            if (entry.getValue() != REMOVED) live.add(new Live(entry.getKey(), entry.getValue()));
+        }
+        return live;
+    }
+
+    /**
+     * @return Keys of every namespace, built from the index the first time. Called with a lock held.
+     */
+    @NonNull
+    private Map<Bytes, TreeSet<Bytes>> namespaces() throws IOException {
+        final Map<Bytes, TreeSet<Bytes>> current = namespaces;
+        if (current != null) return current;
+
+        // Readers may get here together, build it once.
+        synchronized (index) {
+            if (namespaces != null) return namespaces;
+            final Map<Bytes, TreeSet<Bytes>> built = new HashMap<>();
+            for (final Live live : liveEntries()) {
+                if (live.entry.namespace == null) continue;
+                TreeSet<Bytes> keys = built.get(live.entry.namespace);
+                if (keys == null) {
+                    keys = new TreeSet<>();
+                    built.put(live.entry.namespace, keys);
+                }
+                keys.add(live.key);
+            }
+            namespaces = built;
+            return built;
+        }
+    }
+
+    /**
+     * Forgets the index, the log is replayed from its header. Called with the write lock held.
+     */
+    private void resetIndex() {
+        index.clear();
+        mapped = null;
+        namespaces = null;
+        end = 0;
+        indexedEnd = 0;
+        lastFrame = 0;
+        liveBytes = 0;
+    }
+
+    /**
+     * @return Bytes an entry takes in the index file.
+     */
+    private static int recordLength(@NonNull Live live) {
+        return 2 + live.key.length() + 8 + 4 + 1 + (live.entry.namespace == null ? 0 : live.entry.namespace.length());
+    }
+
+    /**
+     * Reads the values of a slice of a compaction and builds the frame they are copied in, recording where
+     * each value lands.
+     *
+     * @param slice           Values of the slice.
+     * @param startGeneration {@link MLockLogStorage#generation} the compaction started in.
+     * @param position        Offset of the frame in the new log.
+     * @return Frame, or null if the log was cleared or closed meanwhile.
+     */
+    @Nullable
+    private ByteBuffer sliceFrame(@NonNull List<Live> slice, long startGeneration, long position)
+            throws IOException {
+        final byte[][] values = new byte[slice.size()][];
+        lock.readLock().lock();
+        try {
+            if (generation != startGeneration) return null;
+            for (int i = 0; i < values.length; i++) values[i] = read(slice.get(i).entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        int length = FRAME_HEADER_LENGTH + 1 + 4;
+        for (int i = 0; i < values.length; i++) length += entryLength(slice.get(i).key, slice.get(i).entry);
+        final ByteBuffer frame = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        frame.position(FRAME_HEADER_LENGTH);
+        frame.put(TYPE_PUT).putInt(values.length);
+        for (int i = 0; i < values.length; i++) {
+            final Live live = slice.get(i);
+            frame.putShort((short) live.key.length()).put(live.key.bytes);
+            if (live.entry.namespace != null) {
+                frame.put((byte) live.entry.namespace.length()).put(live.entry.namespace.bytes);
+            } else {
+                frame.put((byte) 0);
+            }
+            frame.putInt(values[i].length);
+            live.offset = position + frame.position();
+            frame.put(values[i]);
+        }
+        frame.flip();
+
+        final CRC32 crc = new CRC32();
+        crc.update(frame.array(), FRAME_HEADER_LENGTH, length - FRAME_HEADER_LENGTH);
+        frame.putInt(0, length - FRAME_HEADER_LENGTH).putInt(4, (int) crc.getValue());
+        return frame;
+    }
+
+    /**
+     * Copies a range of the log to another channel.
+     */
+    private void copy(long from, long to, @NonNull FileChannel target, long targetPosition) throws IOException {
+        final FileChannel source = channel();
+        target.position(targetPosition);
+        long position = from;
+        while (position < to) {
+            final long transferred = source.transferTo(position, to - position, target);
+            if (transferred <= 0) throw new EOFException("Unexpected end of log at " + position);
+            position += transferred;
+        }
+    }
+
+    @NonNull
+    private File compactFile() {
+        return new File(file.getPath() + COMPACT_SUFFIX);
+    }
+
+    @NonNull
+    private File indexFile() {
+        return new File(file.getPath() + INDEX_SUFFIX);
+    }
+
+    @NonNull
+    private File indexTempFile() {
+        return new File(file.getPath() + INDEX_SUFFIX + INDEX_TEMP_SUFFIX);
+    }
+
+    /**
+     * Deletes the saved index.
+     *
+     * @throws IOException if it exists and cannot be deleted.
+     */
+    private void deleteIndex() throws IOException {
+        final File indexFile = indexFile();
+        if (indexFile.exists() && !indexFile.delete()) throw new IOException("Unable to delete " + indexFile);
+        indexedEnd = 0;
+    }
+
+    private void deleteQuietly(@NonNull File leftover) {
+        if (leftover.exists() && !leftover.delete()) logger.log(Level.WARNING, "Unable to delete " + leftover);
+    }
+
+    /**
+     * Rebuilds the index from the frames of the log after the end the mapped index covers, and cuts off a torn
+     * or corrupted tail. Called with the write lock held.
+     */
+    private void replay() throws IOException {
+        final FileChannel current = channel();
+        final long size = current.size();
+        if (size < HEADER_LENGTH) {
+            // Empty, or the header itself was torn before any frame was written.
+            current.truncate(0);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(current, new ByteBuffer[]{header}, 0);
+            end = HEADER_LENGTH;
+            return;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC) throw new IOException("Not an MLock log: " + file);
+        if (header.getInt(4) != VERSION) throw new IOException("Unsupported log version " + header.getInt(4));
+
+        final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        final CRC32 crc = new CRC32();
+        long position = mapped == null ? HEADER_LENGTH : mapped.end;
+        while (size - position >= FRAME_HEADER_LENGTH) {
+            frameHeader.clear();
+            readFully(frameHeader, position);
+            final int length = frameHeader.getInt(0);
+            if (length <= 0 || length > size - position - FRAME_HEADER_LENGTH) break;
+
+            final byte[] body = new byte[length];
+            readFully(ByteBuffer.wrap(body), position + FRAME_HEADER_LENGTH);
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != frameHeader.getInt(4)) break;
+
+            try {
+                replayFrame(ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN), position + FRAME_HEADER_LENGTH);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                break;
+            }
+            lastFrame = position;
+            position += FRAME_HEADER_LENGTH + length;
+        }
+
+        if (position < size) {
+            logger.log(Level.WARNING, "Discarding " + (size - position) + " bytes of incomplete log");
+            current.truncate(position);
+        }
+        end = position;
+    }
+
+    /**
+     * Applies one frame to the index. A PUT frame is parsed completely before any of its values is indexed.
+     *
+     * @param body       Body of the frame.
+     * @param bodyOffset Offset of the body in the log.
+     * @throws IllegalArgumentException  if the frame is malformed.
+     * @throws BufferUnderflowException if the frame is truncated.
+     * @throws IOException              if the mapped index is corrupted.
+     */
+    private void replayFrame(@NonNull ByteBuffer body, long bodyOffset) throws IOException {
+        final byte type = body.get();
+        switch (type) {
+            case TYPE_PUT: {
+                final int count = body.getInt();
+                if (count <= 0 || count > body.remaining() / ENTRY_HEADER_LENGTH) {
+                    throw new IllegalArgumentException("Invalid value count " + count);
+                }
+                final Bytes[] keys = new Bytes[count];
+                final Entry[] entries = new Entry[count];
+                for (int i = 0; i < count; i++) {
+                    keys[i] = readKey(body);
+                    final int namespaceLength = body.get() & 0xff;
+                    final Bytes namespace = namespaceLength == 0 ? null : new Bytes(readBytes(body, namespaceLength));
+                    final int length = body.getInt();
+                    if (length < 0 || length > body.remaining()) {
+                        throw new IllegalArgumentException("Invalid value length " + length);
+                    }
+                    entries[i] = new Entry(bodyOffset + body.position(), length, namespace);
+                    body.position(body.position() + length);
+                }
+                for (int i = 0; i < count; i++) index(keys[i], entries[i]);
+                break;
+            }
+            case TYPE_REMOVE:
+                unindex(readKey(body));
+                break;
+            case TYPE_CLEAR_NAMESPACE: {
+                final TreeSet<Bytes> keys = namespaces().get(new Bytes(readBytes(body, body.get() & 0xff)));
+                if (keys != null) for (final Bytes key : new ArrayList<>(keys)) unindex(key);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown frame type " + type);
+        }
+    }
+
+    /**
+     * Makes an entry the latest value of its key, moving the key between namespaces if needed.
+     */
+    private void index(@NonNull Bytes key, @NonNull Entry entry) throws IOException {
+        final Entry previous = lookup(key);
+        index.put(key, entry);
+        liveBytes += entryLength(key, entry) - (previous == null ? 0 : entryLength(key, previous));
+
+        final Map<Bytes, TreeSet<Bytes>> namespaces = this.namespaces;
+        if (namespaces == null) return;
+        if (previous != null && previous.namespace != null && !previous.namespace.equals(entry.namespace)) {
+            removeFromNamespace(previous.namespace, key);
+        }
+        if (entry.namespace != null) {
+            TreeSet<Bytes> keys = namespaces.get(entry.namespace);
+            if (keys == null) {
+                keys = new TreeSet<>();
+                namespaces.put(entry.namespace, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Drops a key from the index and from its namespace.
+     */
+    private void unindex(@NonNull Bytes key) throws IOException {
+        final Entry previous = lookup(key);
+        if (previous == null) return;
+        if (mapped == null) index.remove(key);
+        else index.put(key, REMOVED);
+        liveBytes -= entryLength(key, previous);
+        if (namespaces != null && previous.namespace != null) removeFromNamespace(previous.namespace, key);
+    }
+
+    /**
+     * @return Bytes an entry takes in a PUT frame.
+     */
+    private static int entryLength(@NonNull Bytes key, @NonNull Entry entry) {
+        return ENTRY_HEADER_LENGTH + key.length() + (entry.namespace == null ? 0 : entry.namespace.length())
+                + entry.length;
+    }
+
+    private void removeFromNamespace(@NonNull Bytes namespace, @NonNull Bytes key) {
+        final Map<Bytes, TreeSet<Bytes>> namespaces = this.namespaces;
+        if (namespaces == null) return;
+        final TreeSet<Bytes> keys = namespaces.get(namespace);
+        if (keys == null) return;
+        keys.remove(key);
+        if (keys.isEmpty()) namespaces.remove(namespace);
+    }
+
+    /**
+     * Appends a frame with the given body, which is written up to its position.
+     */
+    private void appendFrame(@NonNull ByteBuffer body) throws IOException {
+        body.flip();
+        final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, body.remaining());
+        final CRC32 crc = new CRC32();
+        crc.update(body.array(), body.arrayOffset(), body.remaining());
+        header.putInt(4, (int) crc.getValue());
+        append(new ByteBuffer[]{header, body});
+    }
+
+    /**
+     * Writes a frame at the end of the log. If the write fails the log is cut back, and the next frame
+     * overwrites whatever part of this one reached the file.
+     */
+    private void append(@NonNull ByteBuffer[] frame) throws IOException {
+        final FileChannel current = channel();
+        long length = 0;
+        for (final ByteBuffer segment : frame) length += segment.remaining();
+        try {
+            writeFully(current, frame, end);
+        } catch (IOException e) {
+            try {
+                channel().truncate(end);
+            } catch (IOException ignored) {
+                // Replay cuts the torn frame off.
+            }
+            throw e;
+        }
+        lastFrame = end;
+        end += length;
+    }
+
+    /**
+     * @return CRC-32 of the frame in the given segments, skipping its header.
+     */
+    private static int checksum(@NonNull List<ByteBuffer> segments) {
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[CRC_CHUNK_SIZE];
+        int skip = FRAME_HEADER_LENGTH;
+        for (final ByteBuffer segment : segments) {
+            final ByteBuffer bytes = segment.duplicate();
+            bytes.position(bytes.position() + Math.min(skip, bytes.remaining()));
+            skip = 0;
+            if (bytes.hasArray()) {
+                crc.update(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                continue;
+            }
+            // CRC32 only reads buffers from API 26, copy direct values through a chunk.
+            while (bytes.hasRemaining()) {
+                final int length = Math.min(chunk.length, bytes.remaining());
+                bytes.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return Segment of the frame buffer from the given offset up to its position.
+     */
+    @NonNull
+    private static ByteBuffer segment(@NonNull ByteBuffer frame, int start) {
+        final ByteBuffer segment = frame.duplicate();
+        segment.position(start).limit(frame.position());
+        return segment;
+    }
+
+    @NonNull
+    private byte[] read(@NonNull Entry entry) throws IOException {
+        final byte[] value = new byte[entry.length];
+        readFully(ByteBuffer.wrap(value), entry.offset);
+        return value;
+    }
+
+    /**
+     * Fills the buffer from the log, starting at the given offset.
+     */
+    private void readFully(@NonNull ByteBuffer buffer, long offset) throws IOException {
+        final FileChannel current = channel();
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            final int read = current.read(buffer, position);
+            if (read < 0) throw new EOFException("Unexpected end of log at " + position);
+            position += read;
+        }
+    }
+
+    private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer[] buffers, long offset)
+            throws IOException {
+        channel.position(offset);
+        final ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) channel.write(buffers);
+    }
+
+    /**
+     * @throws IOException if the log is closed.
+     */
+    private void checkOpen() throws IOException {
+        if (channel == null) throw new IOException("Log is closed");
+    }
+
+    /**
+     * Returns the open channel. A thread interrupted during I/O closes a {@link FileChannel} for every thread,
+     * so a channel closed that way is replaced by a new one.
+     *
+     * @throws IOException if the log is closed.
+     */
+    @NonNull
+    private FileChannel channel() throws IOException {
+        final FileChannel current = channel;
+        if (current == null) throw new IOException("Log is closed");
+        if (current.isOpen()) return current;
+
+        synchronized (file) {
+            if (channel == current) channel = new RandomAccessFile(file, "rw").getChannel();
+            return channel;
+        }
+    }
+
+    /**
+     * Closes the channel and drops the index. Called with the write lock held.
+     */
+    private void closeChannel() {
+        if (compactor != null) compactor.shutdown();
+        compactor = null;
+        closeQuietly(channel);
+        channel = null;
+        namespaceMac = null;
+        resetIndex();
+        generation++;
+    }
+
+    private void closeQuietly(@Nullable FileChannel closed) {
+        try {
+            if (closed != null) closed.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to close log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return MAC a namespace is stored under.
+     */
+    @NonNull
+    private Bytes namespaceKey(@NonNull byte[] namespace) throws IOException {
+        final Mac mac = namespaceMac;
+        if (mac == null) throw new IOException("Log is closed");
+        synchronized (mac) {
+            return new Bytes(mac.doFinal(namespace));
+        }
+    }
+
+    @NonNull
+    private static Bytes readKey(@NonNull ByteBuffer body) {
+        return new Bytes(readBytes(body, body.getShort()));
+    }
+
+    @NonNull
+    private static byte[] readBytes(@NonNull ByteBuffer body, int length) {
+        if (length < 0) throw new IllegalArgumentException("Invalid length " + length);
+        final byte[] bytes = new byte[length];
+        body.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Location of the latest value of a key.
+     */
+    private static final class Entry {
+        final long offset;
+        final int length;
+        @Nullable
+        final Bytes namespace;
+
+        Entry(long offset, int length, @Nullable Bytes namespace) {
+            this.offset = offset;
+            this.length = length;
+            this.namespace = namespace;
+        }
+
+        /**
+         * @return The same value at another offset.
+         */
+        @NonNull
+        Entry at(long offset) {
+            return new Entry(offset, length, namespace);
+        }
+    }
+
+    /**
+     * Saved index mapped into memory, see {@link MLockLogStorage#writeIndex()}. Lookups binary search the records
+     * in place and only read the pages they touch.
+     */
+    private static final class MappedIndex {
+        final ByteBuffer buffer;
+        final long end;
+        final long lastFrame;
+        final long lastFrameHeader;
+        final long liveBytes;
+        final int count;
+
+        private MappedIndex(@NonNull ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.end = buffer.getLong(8);
+            this.lastFrame = buffer.getLong(16);
+            this.lastFrameHeader = buffer.getLong(24);
+            this.liveBytes = buffer.getLong(32);
+            this.count = buffer.getInt(40);
+        }
+
+        /**
+         * @return Index in the buffer, or null if its header is not valid.
+         */
+        @Nullable
+        static MappedIndex of(@NonNull ByteBuffer buffer) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != INDEX_MAGIC || buffer.getInt(4) != INDEX_VERSION) return null;
+
+            final byte[] header = new byte[INDEX_HEADER_LENGTH - 4];
+            buffer.duplicate().get(header);
+            final CRC32 crc = new CRC32();
+            crc.update(header, 0, header.length);
+            if ((int) crc.getValue() != buffer.getInt(header.length)) return null;
+
+            final MappedIndex index = new MappedIndex(buffer);
+            final long slots = INDEX_HEADER_LENGTH + 4L * index.count;
+            return index.count >= 0 && slots <= buffer.capacity() ? index : null;
+        }
+
+        /**
+         * @return Value of a key, or null if the index has none.
+         * @throws IOException if the index is corrupted.
+         */
+        @Nullable
+        Entry find(@NonNull Bytes key) throws IOException {
+            int low = 0;
+            int high = count - 1;
+            try {
+                while (low <= high) {
+                    final int middle = (low + high) >>> 1;
+                    final int record = record(middle);
+                    final int difference = compare(record, key.bytes);
+                    if (difference < 0) low = middle + 1;
+                    else if (difference > 0) high = middle - 1;
+                    else return entryAt(record);
+                }
+                return null;
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Corrupted log index", e);
+            }
+        }
+
+        /**
+         * @return Key of the record at a position in key order.
+         */
+        @NonNull
+        Bytes key(int position) throws IOException {
+            try {
+                final int record = record(position);
+                return new Bytes(bytes(record + 2, buffer.getShort(record)));
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IOException("Corrupted log index", e);
+            }
+        }
+
+        /**
+         * @return Value of the record at a position in key order.
+         */
+        @NonNull
+        Entry entry(int position) throws IOException {
+            try {
+                return entryAt(record(position));
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Corrupted log index", e);
+            }
+        }
+
+        private int record(int position) {
+            return buffer.getInt(INDEX_HEADER_LENGTH + 4 * position);
+        }
+
+        /**
+         * @return Difference of the key of a record and another key, in the order of {@link Bytes}.
+         */
+        private int compare(int record, @NonNull byte[] key) {
+            final int length = buffer.getShort(record);
+            final int shorter = Math.min(length, key.length);
+            for (int i = 0; i < shorter; i++) {
+                final int difference = (buffer.get(record + 2 + i) & 0xff) - (key[i] & 0xff);
+                if (difference != 0) return difference;
+            }
+            return length - key.length;
+        }
+
+        @NonNull
+        private Entry entryAt(int record) throws IOException {
+            final int position = record + 2 + buffer.getShort(record);
+            final long offset = buffer.getLong(position);
+            final int length = buffer.getInt(position + 8);
+            final int namespaceLength = buffer.get(position + 12) & 0xff;
+            if (offset < HEADER_LENGTH || length < 0 || offset + length > end) {
+                throw new IOException("Corrupted log index entry at " + record);
+            }
+            return new Entry(offset, length,
+                    namespaceLength == 0 ? null : new Bytes(bytes(position + 13, namespaceLength)));
+        }
+
+        @NonNull
+        private byte[] bytes(int position, int length) {
+            if (length < 0) throw new IllegalArgumentException("Invalid length " + length);
+            final byte[] bytes = new byte[length];
+            final ByteBuffer source = buffer.duplicate();
+            source.position(position);
+            source.get(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Value copied by a compaction.
+     */
+    private static final class Live {
+        final Bytes key;
+        final Entry entry;
+
+        /**
+         * Offset of the value in the compacted log.
+         */
+        long offset;
+
+        Live(@NonNull Bytes key, @NonNull Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Byte array compared by content, in unsigned lexicographic order like the keys of {@link MLockNative}.
+     */
+    private static final class Bytes implements Comparable<Bytes> {
+        final byte[] bytes;
+        private final int hash;
+
+        Bytes(@NonNull byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        int length() {
+            return bytes.length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Bytes && Arrays.equals(bytes, ((Bytes) o).bytes));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public int compareTo(@NonNull Bytes other) {
+            final int length = Math.min(bytes.length, other.bytes.length);
+            for (int i = 0; i < length; i++) {
+                final int difference = (bytes[i] & 0xff) - (other.bytes[i] & 0xff);
+                if (difference != 0) return difference;
+            }
+            return bytes.length - other.bytes.length;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Opt-in timings and counters of MLock operations, enabled with {@link MLockOptions.Builder#setMetrics}.
+ * <p>
+ * Every {@link Operation} records its total time and the time of each {@link Stage} it went through into a
+ * {@link Histogram}. Recording only updates atomic counters, it never allocates or locks. Values applied or
+ * committed are encrypted and saved in batches, the stages of those batches are reported under
+ * {@link Operation#FLUSH}, while {@link Operation#COMMIT} and {@link Operation#APPLY} report the key hashing
+ * and their total time.
+ * </p>
+ * One instance may be kept across {@link MLock#reset()}, the gauges then follow the newly initialized MLock.
+ */
+public final class MLockMetrics {
+
+    /**
+     * Operation timings are recorded for.
+     */
+    public enum Operation {
+        COMMIT, APPLY, GET, RETRIEVE, FLUSH,
+
+        /**
+         * Compaction of the {@link MLockOptions.StorageBackend#LOG} backend, only its total time is recorded.
+         */
+        COMPACT;
+
+        /**
+         * Name of the trace section of this operation.
+         */
+        final String section = "MLock." + name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Stage of an {@link Operation}.
+     */
+    public enum Stage {
+        /**
+         * Whole operation.
+         */
+        TOTAL,
+
+        /**
+         * Hashing the raw key into an {@link MLockKey}.
+         */
+        KEY_HASH,
+
+        /**
+         * Fetching the key from the KeyStore, or its cache.
+         */
+        KEY_FETCH,
+
+        /**
+         * Initializing the cipher and encrypting or decrypting, together with encoding or decoding the value.
+         */
+        CIPHER,
+
+        /**
+         * Reading from or writing to the storage, opening it on first use.
+         */
+        STORAGE;
+
+        /**
+         * Name of the trace section of this stage.
+         */
+        final String section = "MLock." + name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Histograms by operation and stage.
+     */
+    private final Histogram[][] histograms;
+
+    /**
+     * Reads served by the write queue or the value cache.
+     */
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    /**
+     * Reads that had to go to the storage.
+     */
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    /**
+     * Reads the Bloom filter answered without going to the storage.
+     */
+    private final AtomicLong bloomFilterNegatives = new AtomicLong();
+
+    /**
+     * Reads the Bloom filter passed on to the storage.
+     */
+    private final AtomicLong bloomFilterPositives = new AtomicLong();
+
+    /**
+     * Reads the Bloom filter passed on to the storage that found no value.
+     */
+    private final AtomicLong bloomFilterFalsePositives = new AtomicLong();
+
+    /**
+     * Times compactions held every other storage operation off while swapping in the compacted log.
+     */
+    private final Histogram compactionPauses = new Histogram();
+
+    /**
+     * Bytes compactions removed from the storage.
+     */
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+
+    /**
+     * Sources of the gauges, set by the {@link MLockInternal} this instance was given to.
+     */
+    @Nullable
+    private volatile MLockWriteQueue writeQueue;
+    @Nullable
+    private volatile MLockKeyStore<?> keyStore;
+    @Nullable
+    private volatile MLockCipher<?> cipher;
+
+    /**
+     * Constructor.
+     */
+    public MLockMetrics() {
+        histograms = new Histogram[Operation.values().length][Stage.values().length];
+        for (final Histogram[] stages : histograms) {
+            for (int i = 0; i < stages.length; i++) stages[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @return {@link Histogram} of the given stage of an operation.
+     */
+    @NonNull
+    public Histogram getHistogram(@NonNull Operation operation, @NonNull Stage stage) {
+        return histograms[operation.ordinal()][stage.ordinal()];
+    }
+
+    /**
+     * @return Number of reads served by a value waiting in the write queue or held by the value cache.
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return Number of reads that had to go to the storage.
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * @return Number of reads of missing keys the Bloom filter answered without the storage or the cipher.
+     */
+    public long getBloomFilterNegatives() {
+        return bloomFilterNegatives.get();
+    }
+
+    /**
+     * @return Number of reads the Bloom filter passed on to the storage, including its false positives.
+     */
+    public long getBloomFilterPositives() {
+        return bloomFilterPositives.get();
+    }
+
+    /**
+     * @return Number of reads the Bloom filter passed on to the storage that found no value.
+     */
+    public long getBloomFilterFalsePositives() {
+        return bloomFilterFalsePositives.get();
+    }
+
+    /**
+     * @return {@link Histogram} of the times compactions blocked reads and writes while swapping in the
+     * compacted log. The rest of a compaction runs alongside them.
+     */
+    @NonNull
+    public Histogram getCompactionPauses() {
+        return compactionPauses;
+    }
+
+    /**
+     * @return Number of bytes compactions removed from the storage.
+     */
+    public long getBytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+
+    /**
+     * @return Number of times a key was loaded from the KeyStore because it was not cached.
+     */
+    public long getKeyStoreReloads() {
+        final MLockKeyStore<?> source = keyStore;
+        return source == null ? 0 : source.getLoadCount();
+    }
+
+    /**
+     * @return Number of operations that had to create a new cipher instead of reusing a cached one.
+     */
+    public long getCipherCreations() {
+        final MLockCipher<?> source = cipher;
+        return source == null ? 0 : source.getPool().getMissCount();
+    }
+
+    /**
+     * @return Number of values currently waiting in the write queue.
+     */
+    public int getQueueDepth() {
+        final MLockWriteQueue source = writeQueue;
+        return source == null ? 0 : source.getQueueDepth();
+    }
+
+    /**
+     * Clears every histogram and counter. The gauges are unaffected.
+     */
+    public void reset() {
+        for (final Histogram[] stages : histograms) {
+            for (final Histogram histogram : stages) histogram.reset();
+        }
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        bloomFilterNegatives.set(0);
+        bloomFilterPositives.set(0);
+        bloomFilterFalsePositives.set(0);
+        compactionPauses.reset();
+        bytesReclaimed.set(0);
+    }
+
+    /**
+     * Makes the gauges report on the given components.
+     */
+    void bind(@NonNull MLockWriteQueue writeQueue, @NonNull MLockKeyStore<?> keyStore,
+              @NonNull MLockCipher<?> cipher) {
+        this.writeQueue = writeQueue;
+        this.keyStore = keyStore;
+        this.cipher = cipher;
+    }
+
+    /**
+     * Records the time of a stage.
+     */
+    void record(@NonNull Operation operation, @NonNull Stage stage, long nanos) {
+        histograms[operation.ordinal()][stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records a completed compaction.
+     */
+    void recordCompaction(long totalNanos, long pauseNanos, long reclaimedBytes) {
+        record(Operation.COMPACT, Stage.TOTAL, totalNanos);
+        compactionPauses.record(pauseNanos);
+        bytesReclaimed.addAndGet(reclaimedBytes);
+    }
+
+    /**
+     * Counts a read the Bloom filter answered or passed on to the storage.
+     */
+    void recordBloomFilter(boolean mightContain) {
+        if (mightContain) bloomFilterPositives.incrementAndGet();
+        else bloomFilterNegatives.incrementAndGet();
+    }
+
+    /**
+     * Counts a read the Bloom filter passed on to the storage that found no value.
+     */
+    void recordBloomFilterFalsePositive() {
+        bloomFilterFalsePositives.incrementAndGet();
+    }
+
+    /**
+     * Counts a read, served from memory or not.
+     */
+    void recordLookup(boolean hit) {
+        if (hit) cacheHits.incrementAndGet();
+        else cacheMisses.incrementAndGet();
+    }
+
+    /**
+     * Histogram of durations in power-of-two nanosecond buckets. Percentiles are the upper bound of their
+     * bucket, so they are exact to within a factor of two, which is enough to see where time goes and to
+     * catch regressions.
+     */
+    public static final class Histogram {
+
+        // Class Constants
+        private static final int BUCKET_COUNT = 64;
+
+        /**
+         * Bucket i counts durations below 2^i nanoseconds and at least 2^(i-1).
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        /**
+         * Constructor.
+         */
+        Histogram() {
+        }
+
+        /**
+         * @return Number of recorded durations.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return Sum of the recorded durations.
+         */
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        /**
+         * @return Mean of the recorded durations, zero if there are none.
+         */
+        public long getMeanNanos() {
+            final long recorded = count.get();
+            return recorded == 0 ? 0 : totalNanos.get() / recorded;
+        }
+
+        /**
+         * @return Longest recorded duration.
+         */
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * @param percentile Percentile between 0 and 100, such as 50, 99 or 99.9.
+         * @return Duration at or below which the given percentage of the recorded durations fall, zero if there
+         * are none.
+         */
+        public long getPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            }
+
+            long total = 0;
+            final long[] snapshot = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) return 0;
+
+            final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(upperBound(i), maxNanos.get());
+            }
+            return maxNanos.get();
+        }
+
+        /**
+         * Records a duration.
+         */
+        void record(long nanos) {
+            final long value = Math.max(0, nanos);
+            buckets.incrementAndGet(Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value)));
+            count.incrementAndGet();
+            totalNanos.addAndGet(value);
+
+            long max = maxNanos.get();
+            while (value > max && !maxNanos.compareAndSet(max, value)) max = maxNanos.get();
+        }
+
+        /**
+         * Clears every recorded duration.
+         */
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) buckets.set(i, 0);
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+
+        /**
+         * @return Largest duration counted by the bucket.
+         */
+        private static long upperBound(int bucket) {
+            return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+    }
+}
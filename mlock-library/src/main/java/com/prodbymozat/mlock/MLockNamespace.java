@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Group of MLock values that can be listed, iterated and cleared together, for example every value of a
+ * signed in user. Obtained from {@link MLock#namespace(String)}.
+ * <p>
+ * The namespace is stored unhashed next to the hashed key of each value, in an indexed column, so each of
+ * {@link MLockNamespace#keys()}, {@link MLockNamespace#values()} and {@link MLockNamespace#clear()} is a
+ * single query. The namespace is part of the hash, so equal keys in different namespaces never collide.
+ * </p>
+ */
+public final class MLockNamespace {
+
+    /**
+     * Name of the namespace.
+     */
+    private final String name;
+
+    /**
+     * Constructor.
+     *
+     * @param name Non-empty name of the namespace, without NUL characters.
+     */
+    MLockNamespace(@NonNull String name) {
+        MLockKey.checkNamespace(name);
+        this.name = name;
+    }
+
+    /**
+     * @return Name of the namespace.
+     */
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param key Raw key of a value.
+     * @return {@link MLockKey} of the value in this namespace, to pass to {@link MLock#commitAll(java.util.Map)}
+     * and {@link MLock#getAll(java.util.Collection)}.
+     */
+    @NonNull
+    public MLockKey key(String key) {
+        return new MLockKey(name, key);
+    }
+
+    /**
+     * Saves a value in this namespace synchronously.
+     *
+     * @param key  Key for the value.
+     * @param data Data being saved. Must be one of the supported types listed in {@link MLockData}
+     */
+    public void commit(String key, MLockData<?> data) {
+        MLock.commitAll(Collections.singletonMap(key(key), data));
+    }
+
+    /**
+     * Retrieves a value of this namespace synchronously.
+     *
+     * @param key Key for the value.
+     */
+    @Nullable
+    public MLockData<?> get(String key) {
+        final MLockKey mLockKey = key(key);
+        return MLock.getAll(Collections.singleton(mLockKey)).get(mLockKey);
+    }
+
+    /**
+     * @see MLockInterface#keys(String)
+     */
+    @NonNull
+    public List<MLockKey> keys() {
+        return MLock.keys(name);
+    }
+
+    /**
+     * @see MLockInterface#values(String)
+     */
+    @NonNull
+    public Iterator<MLockData<?>> values() {
+        return MLock.values(name);
+    }
+
+    /**
+     * @see MLockInterface#clearNamespace(String)
+     */
+    public int clear() {
+        return MLock.clearNamespace(name);
+    }
+}
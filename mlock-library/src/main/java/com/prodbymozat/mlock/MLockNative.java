@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2019 Mozart Alexander Louis
+ * Copyright (c) 2020 Mozart Alexander Louis
  *
  * Permission is hereby granted, free of charge, to any person obtaining a copy
  * of this software and associated documentation files (the "Software"), to deal
@@ -22,5 +22,407 @@
 
 package com.prodbymozat.mlock;
 
-final class MLockNative {
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.crypto.SecretKey;
+
+/**
+ * {@link MLockStorage} backed by the bundled mqlite3 database through JNI.
+ * <p>
+ * The database is encrypted by the mqlite3 codec with a random key that is wrapped by the
+ * {@link MLockKeyStore} key, the same way {@link MLockEnvelope} wraps its data key. The native side keeps a
+ * single WAL-mode connection with prepared statements for every operation and moves values as byte arrays.
+ * Every call locks that connection, so reads from several threads run one at a time.
+ * </p>
+ */
+final class MLockNative implements MLockStorage {
+
+    // Class Constants
+    static final String LIBRARY_NAME = "mlock";
+    static final String DATABASE_NAME = "mlock_db.mq3";
+    static final String DATABASE_KEY_FILE_NAME = "mlock_database_key";
+
+    /**
+     * Whether the native library has been loaded.
+     */
+    private static volatile boolean libraryLoaded = false;
+
+    /**
+     * Database file.
+     */
+    private final File databaseFile;
+
+    /**
+     * Provides the codec key when the database is opened.
+     */
+    private final KeyProvider keyProvider;
+
+    /**
+     * Guards {@link MLockNative##handle}: operations hold the read lock, {@link MLockNative#close()} holds the
+     * write lock so the native instance is never freed while in use.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Pointer to the native MLock instance, 0 while closed.
+     */
+    private long handle = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param databaseFile Database file, created if it does not exist.
+     * @param keyProvider  {@link KeyProvider} for the codec key.
+     */
+    MLockNative(@NonNull File databaseFile, @NonNull KeyProvider keyProvider) {
+        this.databaseFile = databaseFile;
+        this.keyProvider = keyProvider;
+    }
+
+    /**
+     * Creates an {@link MLockNative} in the application's database directory whose codec key is wrapped by the
+     * given {@link MLockKeyStore}. Nothing is read or opened until {@link MLockNative#open()}.
+     */
+    @NonNull
+    static MLockNative create(@NonNull Context context, @NonNull MLockKeyStore<?> keyStore,
+                              @NonNull MLockCipher<?> cipher) {
+        final MLockEnvelope<?> databaseKey = MLockEnvelope.create(keyStore, cipher,
+                new File(context.getNoBackupFilesDir(), DATABASE_KEY_FILE_NAME),
+                MLockOptions.DEFAULT_DATA_KEY_LIFETIME_MILLIS);
+
+        return new MLockNative(context.getDatabasePath(DATABASE_NAME), () -> {
+            final SecretKey key = databaseKey.getDataKey();
+
+            // The codec key is only needed to open the database, don't keep it around.
+            databaseKey.evict();
+            return key == null ? null : key.getEncoded();
+        });
+    }
+
+    /**
+     * Loads the native library if it has not been loaded yet.
+     *
+     * @throws UnsatisfiedLinkError if the library can not be found.
+     */
+    static void loadLibrary() {
+        if (libraryLoaded) return;
+        synchronized (MLockNative.class) {
+            if (libraryLoaded) return;
+            System.loadLibrary(LIBRARY_NAME);
+            libraryLoaded = true;
+        }
+    }
+
+    /**
+     * @see MLockStorage#open()
+     */
+    @Override
+    public void open() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (handle != 0) return;
+            loadLibrary();
+
+            final byte[] key = keyProvider.getDatabaseKey();
+            if (key == null) throw new IOException("Unable to obtain database key");
+
+            try {
+                final File directory = databaseFile.getParentFile();
+                if (directory != null && !directory.exists() && !directory.mkdirs()) {
+                    throw new IOException("Unable to create database directory " + directory);
+                }
+                handle = nativeOpen(databaseFile.getPath(), key);
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+        } catch (UnsatisfiedLinkError e) {
+            throw new IOException("Unable to load native library: " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#get(byte[])
+     */
+    @Nullable
+    @Override
+    public byte[] get(@NonNull byte[] key) throws IOException {
+        lock.readLock().lock();
+        try {
+            return nativeGet(handle(), key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#getBuffer(byte[])
+     */
+    @Nullable
+    @Override
+    public ByteBuffer getBuffer(@NonNull byte[] key) throws IOException {
+        final Object value;
+        lock.readLock().lock();
+        try {
+            value = nativeGetValue(handle(), key);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (value == null) return null;
+        return value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : (ByteBuffer) value;
+    }
+
+    /**
+     * @see MLockStorage#getAll(byte[][])
+     */
+    @NonNull
+    @Override
+    public byte[][] getAll(@NonNull byte[][] keys) throws IOException {
+        lock.readLock().lock();
+        try {
+            return nativeGetAll(handle(), keys);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#put(byte[], byte[])
+     */
+    @Override
+    public void put(@NonNull byte[] key, @NonNull byte[] value) throws IOException {
+        lock.readLock().lock();
+        try {
+            nativePut(handle(), key, value);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#putAll(byte[][], byte[][])
+     */
+    @Override
+    public void putAll(@NonNull byte[][] keys, @NonNull byte[][] values) throws IOException {
+        if (keys.length != values.length) throw new IllegalArgumentException("Keys and values differ in length");
+        lock.readLock().lock();
+        try {
+            nativePutAll(handle(), keys, values, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#putAll(byte[][], ByteBuffer[])
+     */
+    @Override
+    public void putAll(@NonNull byte[][] keys, @NonNull ByteBuffer[] values) throws IOException {
+        putAll(keys, values, null);
+    }
+
+    /**
+     * @see MLockStorage#putAll(byte[][], ByteBuffer[], byte[][])
+     */
+    @Override
+    public void putAll(@NonNull byte[][] keys, @NonNull ByteBuffer[] values, @Nullable byte[][] namespaces)
+            throws IOException {
+        if (keys.length != values.length || (namespaces != null && namespaces.length != keys.length)) {
+            throw new IllegalArgumentException("Keys, values and namespaces differ in length");
+        }
+
+        // The native side reads byte arrays and direct buffers, a direct buffer is sliced so it starts at 0.
+        final Object[] entries = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            final ByteBuffer value = values[i];
+            if (value.isDirect()) {
+                entries[i] = value.slice();
+            } else if (value.hasArray() && value.arrayOffset() == 0 && value.position() == 0
+                    && value.remaining() == value.array().length) {
+                entries[i] = value.array();
+            } else {
+                final byte[] copy = new byte[value.remaining()];
+                value.duplicate().get(copy);
+                entries[i] = copy;
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            nativePutAll(handle(), keys, entries, namespaces);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#remove(byte[])
+     */
+    @Override
+    public boolean remove(@NonNull byte[] key) throws IOException {
+        lock.readLock().lock();
+        try {
+            return nativeRemove(handle(), key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#keys()
+     */
+    @NonNull
+    @Override
+    public byte[][] keys() throws IOException {
+        lock.readLock().lock();
+        try {
+            return nativeKeys(handle(), null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#keys(byte[])
+     */
+    @NonNull
+    @Override
+    public byte[][] keys(@NonNull byte[] namespace) throws IOException {
+        lock.readLock().lock();
+        try {
+            return nativeKeys(handle(), namespace);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#scan(byte[], byte[], int)
+     */
+    @NonNull
+    @Override
+    public byte[][] scan(@NonNull byte[] namespace, @Nullable byte[] after, int limit) throws IOException {
+        if (limit <= 0) throw new IllegalArgumentException("Limit must be positive");
+        lock.readLock().lock();
+        try {
+            return nativeScan(handle(), namespace, after, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#clearNamespace(byte[])
+     */
+    @Override
+    public int clearNamespace(@NonNull byte[] namespace) throws IOException {
+        lock.readLock().lock();
+        try {
+            return nativeClearNamespace(handle(), namespace);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see MLockStorage#clear()
+     */
+    @Override
+    public void clear() throws IOException {
+        lock.readLock().lock();
+        try {
+            nativeClear(handle());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the database. It can be opened again with {@link MLockNative#open()}.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (handle == 0) return;
+            nativeClose(handle);
+            handle = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Native handle, must be called while holding the read lock.
+     */
+    private long handle() throws IOException {
+        if (handle == 0) throw new IOException("Database is not open");
+        return handle;
+    }
+
+    /**
+     * Provides the key of the mqlite3 codec.
+     */
+    interface KeyProvider {
+        /**
+         * @return Codec key or null if it can not be obtained. The caller clears the array after use.
+         */
+        @Nullable
+        byte[] getDatabaseKey();
+    }
+
+    /**
+     * Native methods, implemented in mlock_jni.cxx.
+     */
+    private static native long nativeOpen(String path, byte[] key) throws IOException;
+
+    private static native void nativeClose(long handle);
+
+    @Nullable
+    private static native byte[] nativeGet(long handle, byte[] key) throws IOException;
+
+    /**
+     * @return byte[] for small values, a direct {@link ByteBuffer} for large ones, or null if there is none.
+     */
+    @Nullable
+    private static native Object nativeGetValue(long handle, byte[] key) throws IOException;
+
+    private static native byte[][] nativeGetAll(long handle, byte[][] keys) throws IOException;
+
+    private static native void nativePut(long handle, byte[] key, byte[] value) throws IOException;
+
+    /**
+     * @param values     byte[] or direct {@link ByteBuffer} values, the whole capacity of a buffer is saved.
+     * @param namespaces Namespace of each value or null for none, or null if no value has one.
+     */
+    private static native void nativePutAll(long handle, byte[][] keys, Object[] values, byte[][] namespaces)
+            throws IOException;
+
+    /**
+     * @param namespace Namespace to list the keys of, or null to list every key.
+     */
+    private static native byte[][] nativeKeys(long handle, byte[] namespace) throws IOException;
+
+    /**
+     * @return Keys and values of the page, alternating.
+     */
+    private static native byte[][] nativeScan(long handle, byte[] namespace, byte[] after, int limit)
+            throws IOException;
+
+    private static native int nativeClearNamespace(long handle, byte[] namespace) throws IOException;
+
+    private static native boolean nativeRemove(long handle, byte[] key) throws IOException;
+
+    private static native void nativeClear(long handle) throws IOException;
 }
@@ -0,0 +1,669 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration options for {@link MLock}. Use {@link MLockOptions.Builder} to create an instance and pass
+ * it to {@link MLock#init(android.content.Context, MLockOptions, MLock.OnInitializeListener)}.
+ */
+public final class MLockOptions {
+    /**
+     * Default lifetime of an unwrapped data key kept in memory when envelope encryption is enabled.
+     */
+    public static final long DEFAULT_DATA_KEY_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Default time a value passed to {@link MLock#apply(String, MLockData)} may wait before it is persisted.
+     */
+    public static final long DEFAULT_WRITE_BEHIND_DELAY_MILLIS = 50;
+
+    /**
+     * Default number of queued values that are persisted together as soon as they are reached.
+     */
+    public static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 64;
+
+    /**
+     * Default number of queued values at which {@link MLock#apply(String, MLockData)} persists them itself.
+     */
+    public static final int DEFAULT_WRITE_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Default number of plaintext bytes sealed together by {@link MLock#openOutputStream(String)}.
+     */
+    public static final int DEFAULT_STREAM_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Default number of threads of the executor that runs {@link MLock#retrieveAsync(String)} and the other
+     * future-returning operations, unless an executor is set.
+     */
+    public static final int DEFAULT_ASYNC_THREADS = 2;
+
+    /**
+     * Default size the {@link StorageBackend#LOG} backend must reach before it is compacted.
+     */
+    public static final long DEFAULT_COMPACTION_MIN_BYTES = 1024 * 1024;
+
+    /**
+     * Default share of the {@link StorageBackend#LOG} backend taken by overwritten and deleted values that
+     * triggers a compaction.
+     */
+    public static final float DEFAULT_COMPACTION_GARBAGE_RATIO = 0.5f;
+
+    /**
+     * Default rate at which the Bloom filter lets reads of keys that are not stored through to the storage.
+     */
+    public static final double DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+    /**
+     * Backend values are persisted in.
+     */
+    public enum StorageBackend {
+        /**
+         * Encrypted SQLite database of the bundled native mqlite3 library.
+         */
+        SQLITE,
+
+        /**
+         * Append-only log written in plain Java, which needs no native library. Suits many small, frequently
+         * overwritten values. Its index of every key is saved to a file that is mapped into memory when opened.
+         */
+        LOG
+    }
+
+    /**
+     * Whether values are encrypted with a software data key wrapped by the KeyStore key.
+     */
+    private final boolean envelopeEncryption;
+
+    /**
+     * How long an unwrapped data key is kept in memory before it is unwrapped again.
+     */
+    private final long dataKeyLifetimeMillis;
+
+    /**
+     * How long an applied value may wait in the write-behind queue.
+     */
+    private final long writeBehindDelayMillis;
+
+    /**
+     * Number of queued values that triggers a flush of the write-behind queue.
+     */
+    private final int writeBehindBatchSize;
+
+    /**
+     * Maximum number of values held by the write-behind queue.
+     */
+    private final int writeQueueCapacity;
+
+    /**
+     * Maximum number of decoded values kept in memory, zero disables the cache.
+     */
+    private final int valueCacheSize;
+
+    /**
+     * How long a decoded value stays in the cache, zero for no expiry.
+     */
+    private final long valueCacheTtlMillis;
+
+    /**
+     * Maximum number of key digests kept in memory, zero disables the cache.
+     */
+    private final int keyCacheSize;
+
+    /**
+     * Whether values are stored under the 32-byte digest of their key instead of its 64-character hex form.
+     */
+    private final boolean digestStorageKeys;
+
+    /**
+     * Number of plaintext bytes in each encrypted chunk of a streamed value.
+     */
+    private final int streamChunkSize;
+
+    /**
+     * Smallest String value in UTF-8 bytes that is compressed before it is encrypted, zero to compress none.
+     */
+    private final int compressionThreshold;
+
+    /**
+     * Executor running future-returning operations, null for the library-owned one.
+     */
+    @Nullable
+    private final Executor asyncExecutor;
+
+    /**
+     * Number of threads of the library-owned async executor.
+     */
+    private final int asyncThreads;
+
+    /**
+     * Executor {@link MLockFuture} listeners run on by default.
+     */
+    private final Executor callbackExecutor;
+
+    /**
+     * Whether {@link MLock#init} returns right away and warms up on a background thread.
+     */
+    private final boolean backgroundInit;
+
+    /**
+     * Listener for the timings of a background initialization, or null.
+     */
+    @Nullable
+    private final MLockInitTimings.Listener initTimingsListener;
+
+    /**
+     * Provider of the encryption keys, or null to keep them in the AndroidKeyStore.
+     */
+    @Nullable
+    private final MLockKeyProvider keyProvider;
+
+    /**
+     * Metrics operations are recorded into, or null.
+     */
+    @Nullable
+    private final MLockMetrics metrics;
+
+    /**
+     * Tracer operations report their sections to, or null.
+     */
+    @Nullable
+    private final MLockTracer tracer;
+
+    /**
+     * Backend values are persisted in.
+     */
+    private final StorageBackend storageBackend;
+
+    /**
+     * Size the log must reach before it is compacted.
+     */
+    private final long compactionMinBytes;
+
+    /**
+     * Share of the log taken by dead values that triggers a compaction.
+     */
+    private final float compactionGarbageRatio;
+
+    /**
+     * Number of keys the Bloom filter is sized for, or zero without a Bloom filter.
+     */
+    private final int bloomFilterExpectedKeys;
+
+    /**
+     * Rate at which the Bloom filter lets reads of keys that are not stored through.
+     */
+    private final double bloomFilterFalsePositiveRate;
+
+    /**
+     * Constructor. Use {@link MLockOptions.Builder}.
+     */
+    private MLockOptions(@NonNull Builder builder) {
+        this.envelopeEncryption = builder.envelopeEncryption;
+        this.dataKeyLifetimeMillis = builder.dataKeyLifetimeMillis;
+        this.writeBehindDelayMillis = builder.writeBehindDelayMillis;
+        this.writeBehindBatchSize = builder.writeBehindBatchSize;
+        this.writeQueueCapacity = builder.writeQueueCapacity;
+        this.valueCacheSize = builder.valueCacheSize;
+        this.valueCacheTtlMillis = builder.valueCacheTtlMillis;
+        this.keyCacheSize = builder.keyCacheSize;
+        this.digestStorageKeys = builder.digestStorageKeys;
+        this.streamChunkSize = builder.streamChunkSize;
+        this.compressionThreshold = builder.compressionThreshold;
+        this.asyncExecutor = builder.asyncExecutor;
+        this.asyncThreads = builder.asyncThreads;
+        this.callbackExecutor = builder.callbackExecutor;
+        this.backgroundInit = builder.backgroundInit;
+        this.initTimingsListener = builder.initTimingsListener;
+        this.keyProvider = builder.keyProvider;
+        this.metrics = builder.metrics;
+        this.tracer = builder.tracer;
+        this.storageBackend = builder.storageBackend;
+        this.compactionMinBytes = builder.compactionMinBytes;
+        this.compactionGarbageRatio = builder.compactionGarbageRatio;
+        this.bloomFilterExpectedKeys = builder.bloomFilterExpectedKeys;
+        this.bloomFilterFalsePositiveRate = builder.bloomFilterFalsePositiveRate;
+    }
+
+    /**
+     * @return {@link MLockOptions} with every option set to its default value.
+     */
+    @NonNull
+    public static MLockOptions defaults() {
+        return new Builder().build();
+    }
+
+    public boolean isEnvelopeEncryption() {
+        return envelopeEncryption;
+    }
+
+    public long getDataKeyLifetimeMillis() {
+        return dataKeyLifetimeMillis;
+    }
+
+    public long getWriteBehindDelayMillis() {
+        return writeBehindDelayMillis;
+    }
+
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    public int getWriteQueueCapacity() {
+        return writeQueueCapacity;
+    }
+
+    public int getValueCacheSize() {
+        return valueCacheSize;
+    }
+
+    public long getValueCacheTtlMillis() {
+        return valueCacheTtlMillis;
+    }
+
+    public int getKeyCacheSize() {
+        return keyCacheSize;
+    }
+
+    public boolean isDigestStorageKeys() {
+        return digestStorageKeys;
+    }
+
+    public int getStreamChunkSize() {
+        return streamChunkSize;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    @Nullable
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    @NonNull
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public boolean isBackgroundInit() {
+        return backgroundInit;
+    }
+
+    @Nullable
+    public MLockInitTimings.Listener getInitTimingsListener() {
+        return initTimingsListener;
+    }
+
+    @Nullable
+    public MLockKeyProvider getKeyProvider() {
+        return keyProvider;
+    }
+
+    @Nullable
+    public MLockMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Nullable
+    public MLockTracer getTracer() {
+        return tracer;
+    }
+
+    @NonNull
+    public StorageBackend getStorageBackend() {
+        return storageBackend;
+    }
+
+    public long getCompactionMinBytes() {
+        return compactionMinBytes;
+    }
+
+    public float getCompactionGarbageRatio() {
+        return compactionGarbageRatio;
+    }
+
+    public int getBloomFilterExpectedKeys() {
+        return bloomFilterExpectedKeys;
+    }
+
+    public double getBloomFilterFalsePositiveRate() {
+        return bloomFilterFalsePositiveRate;
+    }
+
+    /**
+     * Builder for {@link MLockOptions}.
+     */
+    public static final class Builder {
+        private boolean envelopeEncryption = false;
+        private long dataKeyLifetimeMillis = DEFAULT_DATA_KEY_LIFETIME_MILLIS;
+        private long writeBehindDelayMillis = DEFAULT_WRITE_BEHIND_DELAY_MILLIS;
+        private int writeBehindBatchSize = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+        private int writeQueueCapacity = DEFAULT_WRITE_QUEUE_CAPACITY;
+        private int valueCacheSize = 0;
+        private long valueCacheTtlMillis = 0;
+        private int keyCacheSize = 0;
+        private boolean digestStorageKeys = false;
+        private int streamChunkSize = DEFAULT_STREAM_CHUNK_SIZE;
+        private int compressionThreshold = 0;
+        private Executor asyncExecutor = null;
+        private int asyncThreads = DEFAULT_ASYNC_THREADS;
+        private Executor callbackExecutor = Runnable::run;
+        private boolean backgroundInit = false;
+        private MLockInitTimings.Listener initTimingsListener = null;
+        private MLockKeyProvider keyProvider = null;
+        private MLockMetrics metrics = null;
+        private MLockTracer tracer = null;
+        private StorageBackend storageBackend = StorageBackend.SQLITE;
+        private long compactionMinBytes = DEFAULT_COMPACTION_MIN_BYTES;
+        private float compactionGarbageRatio = DEFAULT_COMPACTION_GARBAGE_RATIO;
+        private int bloomFilterExpectedKeys = 0;
+        private double bloomFilterFalsePositiveRate = DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE;
+
+        /**
+         * Enables envelope encryption. A random AES-256 data key is wrapped once by the KeyStore key and
+         * values are then encrypted in software, which keeps the KeyStore off the per-value path.
+         *
+         * @param enabled true to enable envelope encryption.
+         */
+        @NonNull
+        public Builder setEnvelopeEncryption(boolean enabled) {
+            this.envelopeEncryption = enabled;
+            return this;
+        }
+
+        /**
+         * Sets how long an unwrapped data key stays in memory. Only used with envelope encryption.
+         *
+         * @param duration Lifetime of the data key, must be positive.
+         * @param unit     {@link TimeUnit} of the duration.
+         */
+        @NonNull
+        public Builder setDataKeyLifetime(long duration, @NonNull TimeUnit unit) {
+            if (duration <= 0) throw new IllegalArgumentException("Data key lifetime must be positive");
+            this.dataKeyLifetimeMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Configures the write-behind queue of {@link MLock#apply(String, MLockData)}. Queued values are
+         * persisted in a single transaction once {@code batchSize} of them are pending, or after {@code delay}.
+         *
+         * @param delay     Longest time a value waits in the queue, zero or positive.
+         * @param unit      {@link TimeUnit} of the delay.
+         * @param batchSize Number of pending values that triggers a flush, must be positive.
+         */
+        @NonNull
+        public Builder setWriteBehind(long delay, @NonNull TimeUnit unit, int batchSize) {
+            if (delay < 0) throw new IllegalArgumentException("Write-behind delay must not be negative");
+            if (batchSize <= 0) throw new IllegalArgumentException("Write-behind batch size must be positive");
+            this.writeBehindDelayMillis = unit.toMillis(delay);
+            this.writeBehindBatchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Sets how many values the write-behind queue holds before {@link MLock#apply(String, MLockData)}
+         * persists them on the calling thread. Raised to the batch size if it is smaller.
+         *
+         * @param capacity Capacity of the queue, must be positive.
+         */
+        @NonNull
+        public Builder setWriteQueueCapacity(int capacity) {
+            if (capacity <= 0) throw new IllegalArgumentException("Write queue capacity must be positive");
+            this.writeQueueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Enables an in-memory LRU cache of decrypted values in front of {@link MLock#get(String)}. Cached
+         * values are dropped when they are written, when MLock is reset and when the system is low on memory.
+         *
+         * @param maxEntries Maximum number of cached values, zero disables the cache.
+         * @param ttl        How long a value stays cached, zero for no expiry.
+         * @param unit       {@link TimeUnit} of the TTL.
+         */
+        @NonNull
+        public Builder setValueCache(int maxEntries, long ttl, @NonNull TimeUnit unit) {
+            if (maxEntries < 0) throw new IllegalArgumentException("Value cache size must not be negative");
+            if (ttl < 0) throw new IllegalArgumentException("Value cache TTL must not be negative");
+            this.valueCacheSize = maxEntries;
+            this.valueCacheTtlMillis = unit.toMillis(ttl);
+            return this;
+        }
+
+        /**
+         * Enables a cache of SHA-256 digests by raw key, so {@link MLockKey}s created for the same key over
+         * and over are only hashed once.
+         *
+         * @param maxEntries Maximum number of cached digests, zero disables the cache.
+         */
+        @NonNull
+        public Builder setKeyCacheSize(int maxEntries) {
+            if (maxEntries < 0) throw new IllegalArgumentException("Key cache size must not be negative");
+            this.keyCacheSize = maxEntries;
+            return this;
+        }
+
+        /**
+         * Stores values under the 32-byte SHA-256 digest of their key instead of its 64-character hex form.
+         * Values saved with the other setting can not be found, so this must not change once values exist.
+         *
+         * @param enabled true to store values under key digests.
+         */
+        @NonNull
+        public Builder setDigestStorageKeys(boolean enabled) {
+            this.digestStorageKeys = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the chunk size of values written through {@link MLock#openOutputStream(String)}. Each chunk
+         * is encrypted and stored on its own, so this bounds the memory a stream needs. Only applies to
+         * streams written afterwards, existing streams keep the chunk size they were written with.
+         *
+         * @param bytes Number of plaintext bytes in a chunk, must be positive.
+         */
+        @NonNull
+        public Builder setStreamChunkSize(int bytes) {
+            if (bytes <= 0) throw new IllegalArgumentException("Stream chunk size must be positive");
+            this.streamChunkSize = bytes;
+            return this;
+        }
+
+        /**
+         * Compresses String values with Deflate before they are encrypted, since ciphertext can not be
+         * compressed afterwards. Only values of at least the threshold that get smaller are stored compressed,
+         * so small values skip the cost. Values are read back whatever the setting they were written with.
+         *
+         * @param bytes Smallest value in UTF-8 bytes to compress, zero to compress none. Zero by default.
+         */
+        @NonNull
+        public Builder setCompressionThreshold(int bytes) {
+            if (bytes < 0) throw new IllegalArgumentException("Compression threshold must not be negative");
+            this.compressionThreshold = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the executor that runs {@link MLock#retrieveAsync(String)}, {@link MLock#applyAsync} and
+         * {@link MLock#getAllAsync}. MLock does not shut it down. By default MLock owns a bounded pool of
+         * {@link MLockOptions#DEFAULT_ASYNC_THREADS} threads, which runs work on the caller when its queue is full.
+         *
+         * @param executor Executor for asynchronous operations.
+         */
+        @NonNull
+        public Builder setAsyncExecutor(@NonNull Executor executor) {
+            this.asyncExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads of the executor MLock owns for asynchronous operations. Ignored if an
+         * executor is set with {@link Builder#setAsyncExecutor(Executor)}.
+         *
+         * @param threads Number of threads, must be positive.
+         */
+        @NonNull
+        public Builder setAsyncThreads(int threads) {
+            if (threads <= 0) throw new IllegalArgumentException("Async thread count must be positive");
+            this.asyncThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the executor {@link MLockFuture} listeners run on when they are added without one, e.g.
+         * {@code ContextCompat.getMainExecutor(context)} to get results on the main thread. By default listeners
+         * run on the thread that completes the future.
+         *
+         * @param executor Executor for listeners.
+         */
+        @NonNull
+        public Builder setCallbackExecutor(@NonNull Executor executor) {
+            this.callbackExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Makes {@link MLock#init} return right away. The KeyStore key is then loaded, the database opened and
+         * the cipher provider initialized on MLock's background thread, and the
+         * {@link MLock.OnInitializeListener} is called there once this warm-up has finished. Operations called
+         * before that wait for the part of the warm-up they need instead of failing.
+         *
+         * @param enabled  true to initialize in the background.
+         * @param listener Listener for the timings of each phase, or null.
+         */
+        @NonNull
+        public Builder setBackgroundInit(boolean enabled, @Nullable MLockInitTimings.Listener listener) {
+            this.backgroundInit = enabled;
+            this.initTimingsListener = listener;
+            return this;
+        }
+
+        /**
+         * Replaces the AndroidKeyStore with the given {@link MLockKeyProvider}. Values are then encrypted with
+         * AES-GCM on every API level, under the AES keys of the provider.
+         *
+         * @param provider Provider of the encryption keys, or null for the AndroidKeyStore.
+         * @see MLockSoftwareKeyProvider
+         */
+        @NonNull
+        public Builder setKeyProvider(@Nullable MLockKeyProvider provider) {
+            this.keyProvider = provider;
+            return this;
+        }
+
+        /**
+         * Records the timings of every operation and the counters of the caches into the given
+         * {@link MLockMetrics}. Without metrics nothing is timed.
+         *
+         * @param metrics {@link MLockMetrics} to record into, or null to disable metrics.
+         */
+        @NonNull
+        public Builder setMetrics(@Nullable MLockMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Reports the sections every operation goes through to the given {@link MLockTracer}.
+         *
+         * @param tracer {@link MLockTracer} such as {@link MLockAndroidTracer}, or null to disable tracing.
+         */
+        @NonNull
+        public Builder setTracer(@Nullable MLockTracer tracer) {
+            this.tracer = tracer;
+            return this;
+        }
+
+        /**
+         * Selects the backend values are persisted in. Each backend keeps its own files, so values saved in
+         * one are not found by the other and this must not change once values exist.
+         *
+         * @param backend {@link StorageBackend}, {@link StorageBackend#SQLITE} by default.
+         */
+        @NonNull
+        public Builder setStorageBackend(@NonNull StorageBackend backend) {
+            this.storageBackend = backend;
+            return this;
+        }
+
+        /**
+         * Sets when the {@link StorageBackend#LOG} backend is compacted. Once the log has reached
+         * {@code minBytes} and at least {@code garbageRatio} of it is taken by overwritten or deleted values, its
+         * live values are copied to a new log in the background, in throttled slices that run alongside reads
+         * and writes. See {@link MLockMetrics#getCompactionPauses()} and {@link MLockMetrics#getBytesReclaimed()}.
+         *
+         * @param minBytes     Size below which the log is never compacted, zero or positive.
+         * @param garbageRatio Share of dead bytes that triggers a compaction, greater than 0 and at most 1.
+         */
+        @NonNull
+        public Builder setCompaction(long minBytes, float garbageRatio) {
+            if (minBytes < 0) throw new IllegalArgumentException("Compaction size must not be negative");
+            if (!(garbageRatio > 0 && garbageRatio <= 1)) {
+                throw new IllegalArgumentException("Compaction garbage ratio must be in (0, 1]");
+            }
+            this.compactionMinBytes = minBytes;
+            this.compactionGarbageRatio = garbageRatio;
+            return this;
+        }
+
+        /**
+         * Enables a Bloom filter over the stored keys, so reads of keys that were never stored return null
+         * without touching the storage or the cipher. It takes about 1.2 bytes per expected key at a 1% false
+         * positive rate, is saved when MLock is reset and rebuilt from the storage if the app died before.
+         * See {@link MLockMetrics#getBloomFilterNegatives()} and {@link MLockMetrics#getBloomFilterFalsePositives()}.
+         *
+         * @param expectedKeys      Number of keys the filter is sized for, 0 to disable it. More keys raise the
+         *                          false positive rate.
+         * @param falsePositiveRate Rate at which reads of keys that are not stored still go to the storage, in
+         *                          (0, 1). {@link MLockOptions#DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE} by default.
+         */
+        @NonNull
+        public Builder setBloomFilter(int expectedKeys, double falsePositiveRate) {
+            if (expectedKeys < 0) throw new IllegalArgumentException("Expected keys must not be negative");
+            if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+                throw new IllegalArgumentException("False positive rate must be in (0, 1)");
+            }
+            this.bloomFilterExpectedKeys = expectedKeys;
+            this.bloomFilterFalsePositiveRate = falsePositiveRate;
+            return this;
+        }
+
+        @NonNull
+        public MLockOptions build() {
+            return new MLockOptions(this);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * {@link OutputStream} returned by {@link MLock#openOutputStream(String)}. Buffers one chunk, seals it with
+ * {@link MLockStream} and hands it to the {@link Sink} once the next byte arrives, so memory use does not
+ * depend on the size of the value. The last chunk is sealed on {@link MLockOutputStream#close()}, which then
+ * commits the manifest. Until then the previous value of the stream stays readable. If saving a chunk or the
+ * manifest fails, the chunks saved so far are discarded and the stream is closed.
+ */
+final class MLockOutputStream extends OutputStream {
+
+    /**
+     * Destination of the sealed chunks and the manifest.
+     */
+    interface Sink {
+        /**
+         * Saves a sealed chunk.
+         */
+        void putChunk(@NonNull byte[] key, @NonNull byte[] chunk) throws IOException;
+
+        /**
+         * Saves the manifest of a completely written stream, replacing the previous one.
+         */
+        void commit(@NonNull MLockStream stream) throws IOException;
+
+        /**
+         * Deletes the chunks saved so far of a stream that will never be committed.
+         */
+        void discard();
+    }
+
+    /**
+     * {@link Sink}
+     */
+    private final Sink sink;
+
+    /**
+     * Key the manifest is stored under.
+     */
+    private final byte[] manifestKey;
+
+    /**
+     * {@link MLockStream} being written.
+     */
+    private final MLockStream stream;
+
+    /**
+     * Plaintext of the current chunk.
+     */
+    private final byte[] buffer;
+
+    /**
+     * Number of bytes in {@link MLockOutputStream#buffer}.
+     */
+    private int count = 0;
+
+    /**
+     * Index of the current chunk.
+     */
+    private int index = 0;
+
+    /**
+     * Number of bytes written so far.
+     */
+    private long length = 0;
+
+    /**
+     * Whether the stream has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor
+     */
+    MLockOutputStream(@NonNull Sink sink, @NonNull byte[] manifestKey, @NonNull MLockStream stream) {
+        this.sink = sink;
+        this.manifestKey = manifestKey;
+        this.stream = stream;
+        this.buffer = new byte[stream.getChunkSize()];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) writeChunk(false);
+        buffer[count++] = (byte) b;
+        length++;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+        ensureOpen();
+
+        while (len > 0) {
+            // A full chunk is only sealed once more bytes arrive, so the last chunk is never empty.
+            if (count == buffer.length) writeChunk(false);
+            final int copied = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, copied);
+            count += copied;
+            off += copied;
+            len -= copied;
+            length += copied;
+        }
+    }
+
+    /**
+     * Seals the last chunk and commits the stream. Nothing is visible to readers before this returns.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        writeChunk(true);
+        try {
+            sink.commit(stream.complete(index, length));
+        } catch (IOException | RuntimeException e) {
+            sink.discard();
+            throw e;
+        }
+    }
+
+    private void writeChunk(boolean last) throws IOException {
+        try {
+            final byte[] chunk = stream.encryptChunk(index, last, buffer, 0, count);
+            sink.putChunk(stream.chunkKey(manifestKey, index), chunk);
+        } catch (GeneralSecurityException e) {
+            abort();
+            throw new IOException("Unable to encrypt chunk: " + e.getMessage(), e);
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+        index++;
+        count = 0;
+    }
+
+    /**
+     * Closes the stream without committing it and discards the chunks saved so far.
+     */
+    private void abort() {
+        closed = true;
+        sink.discard();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Stream is closed");
+    }
+}
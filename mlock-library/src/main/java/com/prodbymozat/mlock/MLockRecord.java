@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary layout of an encrypted value produced by the byte[] and {@link ByteBuffer} methods of
+ * {@link MLockCipher}.
+ * <pre>
+ * +---------+-----------+------------+---------------------+
+ * | version | iv length | iv         | ciphertext (+ tag)  |
+ * | 1 byte  | 1 byte    | 0-255 bytes| remaining bytes     |
+ * +---------+-----------+------------+---------------------+
+ * </pre>
+ * Hybrid records, written by {@link MLockCipherAsymmetric}, carry the RSA-wrapped AES content key the
+ * ciphertext was sealed with between the IV and the ciphertext:
+ * <pre>
+ * +---------+-----------+------------+--------------------+-------------+---------------------+
+ * | version | iv length | iv         | wrapped key length | wrapped key | ciphertext (+ tag)  |
+ * | 0x02    | 1 byte    | 0-255 bytes| 2 bytes, big-endian| N bytes     | remaining bytes     |
+ * +---------+-----------+------------+--------------------+-------------+---------------------+
+ * </pre>
+ * Records written by the legacy String methods are Base64 text, whose first byte is always printable ASCII,
+ * so they can never be mistaken for a binary record.
+ */
+final class MLockRecord {
+
+    // Class Constants
+    static final byte VERSION_1 = 0x01;
+    static final byte VERSION_HYBRID = 0x02;
+    static final int HEADER_LENGTH = 2;
+    static final int MAX_IV_LENGTH = 0xff;
+    static final int MAX_WRAPPED_KEY_LENGTH = 0xffff;
+
+    /**
+     * Utility class, not meant to be instantiated.
+     */
+    private MLockRecord() {
+    }
+
+    /**
+     * @return Number of bytes taken by the header and IV of a record.
+     */
+    static int headerLength(int ivLength) {
+        return HEADER_LENGTH + ivLength;
+    }
+
+    /**
+     * @return Number of bytes taken by the header, IV and wrapped key of a hybrid record.
+     */
+    static int hybridHeaderLength(int ivLength, int wrappedKeyLength) {
+        return HEADER_LENGTH + ivLength + 2 + wrappedKeyLength;
+    }
+
+    /**
+     * Writes the header, IV and wrapped key of a hybrid record at the start of the given array.
+     *
+     * @return Offset at which the ciphertext starts.
+     */
+    static int writeHybridHeader(@NonNull byte[] record, @NonNull byte[] iv, @NonNull byte[] wrappedKey) {
+        checkIvLength(iv.length);
+        checkWrappedKeyLength(wrappedKey.length);
+        record[0] = VERSION_HYBRID;
+        record[1] = (byte) iv.length;
+        System.arraycopy(iv, 0, record, HEADER_LENGTH, iv.length);
+        int offset = HEADER_LENGTH + iv.length;
+        record[offset++] = (byte) (wrappedKey.length >>> 8);
+        record[offset++] = (byte) wrappedKey.length;
+        System.arraycopy(wrappedKey, 0, record, offset, wrappedKey.length);
+        return offset + wrappedKey.length;
+    }
+
+    /**
+     * Writes the header, IV and wrapped key of a hybrid record at the current position of the given buffer.
+     */
+    static void writeHybridHeader(@NonNull ByteBuffer record, @NonNull byte[] iv, @NonNull byte[] wrappedKey) {
+        checkIvLength(iv.length);
+        checkWrappedKeyLength(wrappedKey.length);
+        record.put(VERSION_HYBRID).put((byte) iv.length).put(iv).putShort((short) wrappedKey.length).put(wrappedKey);
+    }
+
+    /**
+     * Writes the record header and IV at the start of the given array.
+     *
+     * @return Offset at which the ciphertext starts.
+     */
+    static int writeHeader(@NonNull byte[] record, @NonNull byte[] iv) {
+        checkIvLength(iv.length);
+        record[0] = VERSION_1;
+        record[1] = (byte) iv.length;
+        System.arraycopy(iv, 0, record, HEADER_LENGTH, iv.length);
+        return HEADER_LENGTH + iv.length;
+    }
+
+    /**
+     * Writes the record header and IV at the current position of the given buffer.
+     */
+    static void writeHeader(@NonNull ByteBuffer record, @NonNull byte[] iv) {
+        checkIvLength(iv.length);
+        record.put(VERSION_1).put((byte) iv.length).put(iv);
+    }
+
+    /**
+     * @return true if the given bytes start with a binary record header, false for legacy Base64 records.
+     */
+    static boolean isBinary(@NonNull byte[] record) {
+        if (record.length < HEADER_LENGTH) return false;
+        if (record[0] == VERSION_1) return record.length >= headerLength(ivLength(record));
+        if (record[0] != VERSION_HYBRID) return false;
+
+        final int keyOffset = headerLength(ivLength(record));
+        return record.length >= keyOffset + 2 && record.length >= ciphertextOffset(record);
+    }
+
+    /**
+     * @return true if the remaining bytes of the buffer start with a binary record header.
+     */
+    static boolean isBinary(@NonNull ByteBuffer record) {
+        final int position = record.position();
+        if (record.remaining() < HEADER_LENGTH) return false;
+
+        final byte version = record.get(position);
+        final int ivEnd = headerLength(record.get(position + 1) & 0xff);
+        if (version == VERSION_1) return record.remaining() >= ivEnd;
+        if (version != VERSION_HYBRID || record.remaining() < ivEnd + 2) return false;
+        return record.remaining() >= ivEnd + 2 + (record.getShort(position + ivEnd) & 0xffff);
+    }
+
+    /**
+     * @return true if the given bytes are a binary record written by the hybrid scheme.
+     */
+    static boolean isHybrid(@NonNull byte[] record) {
+        return isBinary(record) && record[0] == VERSION_HYBRID;
+    }
+
+    /**
+     * @return true if the remaining bytes of the buffer are a binary record written by the hybrid scheme.
+     */
+    static boolean isHybrid(@NonNull ByteBuffer record) {
+        return isBinary(record) && record.get(record.position()) == VERSION_HYBRID;
+    }
+
+    /**
+     * @return Length of the IV stored in a binary record.
+     */
+    static int ivLength(@NonNull byte[] record) {
+        return record[1] & 0xff;
+    }
+
+    /**
+     * @return Offset at which the ciphertext of a binary record starts.
+     */
+    static int ciphertextOffset(@NonNull byte[] record) {
+        final int ivEnd = headerLength(ivLength(record));
+        if (record[0] != VERSION_HYBRID) return ivEnd;
+        return ivEnd + 2 + wrappedKeyLength(record, ivEnd);
+    }
+
+    /**
+     * @return Wrapped content key stored in a hybrid record.
+     */
+    @NonNull
+    static byte[] wrappedKey(@NonNull byte[] record) {
+        final int ivEnd = headerLength(ivLength(record));
+        final int length = wrappedKeyLength(record, ivEnd);
+        final byte[] wrappedKey = new byte[length];
+        System.arraycopy(record, ivEnd + 2, wrappedKey, 0, length);
+        return wrappedKey;
+    }
+
+    /**
+     * Reads the wrapped content key of a hybrid record, after {@link MLockRecord#readHeader(ByteBuffer)}.
+     * Leaves the position of the buffer at the ciphertext.
+     */
+    @NonNull
+    static byte[] readWrappedKey(@NonNull ByteBuffer record) {
+        final byte[] wrappedKey = new byte[record.getShort() & 0xffff];
+        record.get(wrappedKey);
+        return wrappedKey;
+    }
+
+    /**
+     * Reads the header of a binary record from the buffer, leaving its position right after the IV, which is
+     * the ciphertext of a version 1 record and the wrapped key of a hybrid one.
+     *
+     * @return IV stored in the record.
+     */
+    @NonNull
+    static byte[] readHeader(@NonNull ByteBuffer record) {
+        record.get();
+        final byte[] iv = new byte[record.get() & 0xff];
+        record.get(iv);
+        return iv;
+    }
+
+    private static int wrappedKeyLength(@NonNull byte[] record, int offset) {
+        return ((record[offset] & 0xff) << 8) | (record[offset + 1] & 0xff);
+    }
+
+    private static void checkIvLength(int ivLength) {
+        if (ivLength > MAX_IV_LENGTH) throw new IllegalArgumentException("IV is too long: " + ivLength);
+    }
+
+    private static void checkWrappedKeyLength(int wrappedKeyLength) {
+        if (wrappedKeyLength > MAX_WRAPPED_KEY_LENGTH) {
+            throw new IllegalArgumentException("Wrapped key is too long: " + wrappedKeyLength);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Converts {@link MLockData} to and from the plaintext bytes handed to {@link MLockCipher}.
+ * <pre>
+ * +--------+-------------------------+------------------------------------------+
+ * | type   | creation date (millis)  | value                                    |
+ * | 1 byte | 8 bytes, little-endian  | fixed-width little-endian, or UTF-8 text |
+ * +--------+-------------------------+------------------------------------------+
+ * </pre>
+ * Integers, longs, floats and doubles take 4 or 8 bytes, booleans 1 byte, strings their UTF-8 bytes and
+ * {@link MLockBytes} their raw bytes.
+ * <p>
+ * Strings of at least the compression threshold are Deflated before they are encrypted, when that makes them
+ * smaller. Such values carry {@link MLockSerializer#FLAG_DEFLATED} in their type and their length ahead of
+ * the zlib stream:
+ * <pre>
+ * +---------------+-------------------------+--------------------------------+---------------------+
+ * | type | 0x80   | creation date (millis)  | value length                   | zlib stream         |
+ * | 1 byte        | 8 bytes, little-endian  | 4 bytes, little-endian         | remaining bytes     |
+ * +---------------+-------------------------+--------------------------------+---------------------+
+ * </pre>
+ */
+final class MLockSerializer {
+
+    // Class Constants
+    static final byte TYPE_INTEGER = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_FLOAT = 3;
+    static final byte TYPE_DOUBLE = 4;
+    static final byte TYPE_BOOLEAN = 5;
+    static final byte TYPE_STRING = 6;
+    static final byte TYPE_BYTES = 7;
+    static final byte FLAG_DEFLATED = (byte) 0x80;
+    static final int HEADER_LENGTH = 1 + 8;
+    private static final int DEFLATED_HEADER_LENGTH = HEADER_LENGTH + 4;
+
+    /**
+     * Utility class, not meant to be instantiated.
+     */
+    private MLockSerializer() {
+    }
+
+    /**
+     * Encodes the given data.
+     *
+     * @throws IllegalArgumentException if the data is not one of the supported types listed in {@link MLockData}.
+     */
+    @NonNull
+    static byte[] encode(@NonNull MLockData<?> data) {
+        return encode(data, 0);
+    }
+
+    /**
+     * Encodes the given data, Deflating strings of at least the given number of UTF-8 bytes if that makes
+     * them smaller.
+     *
+     * @param compressionThreshold Smallest string in UTF-8 bytes that is compressed, zero to compress none.
+     * @throws IllegalArgumentException if the data is not one of the supported types listed in {@link MLockData}.
+     */
+    @NonNull
+    static byte[] encode(@NonNull MLockData<?> data, int compressionThreshold) {
+        final byte[] bytes;
+        if (data instanceof MLockInteger) {
+            bytes = header(TYPE_INTEGER, data, 4);
+            putInt(bytes, HEADER_LENGTH, ((MLockInteger) data).intValue());
+        } else if (data instanceof MLockLong) {
+            bytes = header(TYPE_LONG, data, 8);
+            putLong(bytes, HEADER_LENGTH, ((MLockLong) data).longValue());
+        } else if (data instanceof MLockFloat) {
+            bytes = header(TYPE_FLOAT, data, 4);
+            putInt(bytes, HEADER_LENGTH, Float.floatToRawIntBits(((MLockFloat) data).floatValue()));
+        } else if (data instanceof MLockDouble) {
+            bytes = header(TYPE_DOUBLE, data, 8);
+            putLong(bytes, HEADER_LENGTH, Double.doubleToRawLongBits(((MLockDouble) data).doubleValue()));
+        } else if (data instanceof MLockBoolean) {
+            bytes = header(TYPE_BOOLEAN, data, 1);
+            bytes[HEADER_LENGTH] = (byte) (((MLockBoolean) data).booleanValue() ? 1 : 0);
+        } else if (data instanceof MLockString) {
+            final String value = ((MLockString) data).getValue();
+            if (value == null) throw new IllegalArgumentException("String value must not be null");
+            final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            if (compressionThreshold > 0 && utf8.length >= compressionThreshold) {
+                final byte[] deflated = deflate(TYPE_STRING, data, utf8);
+                if (deflated != null) return deflated;
+            }
+            bytes = header(TYPE_STRING, data, utf8.length);
+            System.arraycopy(utf8, 0, bytes, HEADER_LENGTH, utf8.length);
+        } else if (data instanceof MLockBytes) {
+            final ByteBuffer value = ((MLockBytes) data).buffer();
+            bytes = header(TYPE_BYTES, data, value.remaining());
+            value.get(bytes, HEADER_LENGTH, value.remaining());
+        } else {
+            throw new IllegalArgumentException("Unsupported data type: " + data.getClass().getName());
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes only the header of a {@link MLockBytes} value. The header followed by the bytes of
+     * {@link MLockBytes#buffer()} is the same encoding {@link MLockSerializer#encode} produces, without
+     * copying the value.
+     */
+    @NonNull
+    static byte[] encodeHeader(@NonNull MLockBytes data) {
+        return header(TYPE_BYTES, data, 0);
+    }
+
+    /**
+     * Decodes data that was encoded by {@link MLockSerializer#encode}.
+     *
+     * @param key   {@link MLockKey} the data was stored under.
+     * @param bytes Encoded data.
+     * @throws IllegalArgumentException if the bytes are not a valid encoding.
+     */
+    @NonNull
+    static MLockData<?> decode(@NonNull MLockKey key, @NonNull byte[] bytes) {
+        return decode(key, ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decodes data that was encoded by {@link MLockSerializer#encode}, from the remaining bytes of a buffer.
+     * A decoded {@link MLockBytes} shares the buffer instead of copying it.
+     *
+     * @param key    {@link MLockKey} the data was stored under.
+     * @param buffer Encoded data.
+     * @throws IllegalArgumentException if the bytes are not a valid encoding.
+     */
+    @NonNull
+    static MLockData<?> decode(@NonNull MLockKey key, @NonNull ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_LENGTH) throw new IllegalArgumentException("Encoded data is too short");
+
+        final ByteBuffer bytes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final byte type = bytes.get(0);
+        if ((type & FLAG_DEFLATED) != 0) return decode(key, ByteBuffer.wrap(inflate(bytes)));
+
+        final long timestamp = bytes.getLong(1);
+        final int length = bytes.remaining() - HEADER_LENGTH;
+        switch (type) {
+            case TYPE_INTEGER:
+                checkLength(length, 4);
+                return new MLockInteger(key, bytes.getInt(HEADER_LENGTH), timestamp);
+            case TYPE_LONG:
+                checkLength(length, 8);
+                return new MLockLong(key, bytes.getLong(HEADER_LENGTH), timestamp);
+            case TYPE_FLOAT:
+                checkLength(length, 4);
+                return new MLockFloat(key, bytes.getFloat(HEADER_LENGTH), timestamp);
+            case TYPE_DOUBLE:
+                checkLength(length, 8);
+                return new MLockDouble(key, bytes.getDouble(HEADER_LENGTH), timestamp);
+            case TYPE_BOOLEAN:
+                checkLength(length, 1);
+                return new MLockBoolean(key, bytes.get(HEADER_LENGTH) != 0, timestamp);
+            case TYPE_STRING:
+                return new MLockString(key, utf8(bytes), timestamp);
+            case TYPE_BYTES:
+                bytes.position(HEADER_LENGTH);
+                return new MLockBytes(key, bytes, timestamp);
+            default:
+                throw new IllegalArgumentException("Unknown data type: " + type);
+        }
+    }
+
+    /**
+     * Encodes a value as its Deflated bytes behind a header flagged with {@link MLockSerializer#FLAG_DEFLATED}.
+     *
+     * @return Encoded data, or null if compressing does not make the value smaller.
+     */
+    @Nullable
+    private static byte[] deflate(byte type, @NonNull MLockData<?> data, @NonNull byte[] value) {
+        // Room for one byte less than the plain encoding, anything longer is not worth keeping.
+        if (value.length <= 4) return null;
+        final byte[] bytes = header((byte) (type | FLAG_DEFLATED), data, value.length - 1);
+        putInt(bytes, HEADER_LENGTH, value.length);
+
+        // Fastest level: values are compressed on the write path, and text compresses well even so.
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            int length = DEFLATED_HEADER_LENGTH;
+            while (!deflater.finished() && length < bytes.length) {
+                length += deflater.deflate(bytes, length, bytes.length - length);
+            }
+            if (!deflater.finished()) return null;
+            return Arrays.copyOf(bytes, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses data encoded by {@link MLockSerializer#deflate}.
+     *
+     * @return Plain encoding of the data, with the flag cleared.
+     * @throws IllegalArgumentException if the value can not be decompressed.
+     */
+    @NonNull
+    private static byte[] inflate(@NonNull ByteBuffer bytes) {
+        if (bytes.remaining() < DEFLATED_HEADER_LENGTH) throw new IllegalArgumentException("Encoded data is too short");
+        final int length = bytes.getInt(HEADER_LENGTH);
+        if (length < 0 || length > Integer.MAX_VALUE - HEADER_LENGTH) {
+            throw new IllegalArgumentException("Invalid compressed value length: " + length);
+        }
+
+        final byte[] decoded = new byte[HEADER_LENGTH + length];
+        bytes.duplicate().get(decoded, 0, HEADER_LENGTH);
+        decoded[0] = (byte) (decoded[0] & ~FLAG_DEFLATED);
+
+        final byte[] input;
+        final int offset;
+        if (bytes.hasArray()) {
+            input = bytes.array();
+            offset = bytes.arrayOffset() + DEFLATED_HEADER_LENGTH;
+        } else {
+            input = new byte[bytes.remaining() - DEFLATED_HEADER_LENGTH];
+            final ByteBuffer value = bytes.duplicate();
+            value.position(DEFLATED_HEADER_LENGTH);
+            value.get(input);
+            offset = 0;
+        }
+
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input, offset, bytes.remaining() - DEFLATED_HEADER_LENGTH);
+            int position = HEADER_LENGTH;
+            while (!inflater.finished()) {
+                final int inflated = inflater.inflate(decoded, position, decoded.length - position);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()
+                        || position == decoded.length)) {
+                    throw new IllegalArgumentException("Compressed value is truncated or too long");
+                }
+                position += inflated;
+            }
+            if (position != decoded.length || inflater.getRemaining() != 0) {
+                throw new IllegalArgumentException("Compressed value length does not match");
+            }
+            return decoded;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed value: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return Encoding buffer of the given type with the header written.
+     */
+    @NonNull
+    private static byte[] header(byte type, @NonNull MLockData<?> data, int valueLength) {
+        final byte[] bytes = new byte[HEADER_LENGTH + valueLength];
+        bytes[0] = type;
+        putLong(bytes, 1, data.getTimestamp());
+        return bytes;
+    }
+
+    /**
+     * @return UTF-8 text following the header of the encoded data.
+     */
+    @NonNull
+    private static String utf8(@NonNull ByteBuffer bytes) {
+        final int length = bytes.remaining() - HEADER_LENGTH;
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + HEADER_LENGTH, length, StandardCharsets.UTF_8);
+        }
+
+        final byte[] copy = new byte[length];
+        final ByteBuffer value = bytes.duplicate();
+        value.position(HEADER_LENGTH);
+        value.get(copy);
+        return new String(copy, StandardCharsets.UTF_8);
+    }
+
+    private static void checkLength(int length, int expected) {
+        if (length != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " value bytes but found " + length);
+        }
+    }
+
+    private static void putInt(@NonNull byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static void putLong(@NonNull byte[] bytes, int offset, long value) {
+        putInt(bytes, offset, (int) value);
+        putInt(bytes, offset + 4, (int) (value >>> 32));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * {@link MLockKeyProvider} generating AES keys with the JCE, kept in memory or in plain files of a directory.
+ * <p>
+ * The keys are not protected by any hardware, anyone who can read the directory can read every value MLock
+ * stores. Meant for tests, benchmarks and hosts without an AndroidKeyStore, not for user data on a device.
+ * </p>
+ */
+public final class MLockSoftwareKeyProvider implements MLockKeyProvider {
+
+    // Class Constants
+    private static final String TAG = MLockSoftwareKeyProvider.class.getSimpleName();
+    private static final String KEY_ALGORITHM = "AES";
+    private static final String KEY_FILE_EXTENSION = ".key";
+    private static final int KEY_SIZE = 32;
+
+    /**
+     * Class Logger
+     */
+    private final Logger logger = Logger.getLogger(TAG);
+
+    /**
+     * Keys by alias. The only copy of the keys when there is no directory.
+     */
+    private final ConcurrentHashMap<String, SecretKey> keys = new ConcurrentHashMap<>();
+
+    /**
+     * Directory the keys are persisted in, or null to keep them in memory only.
+     */
+    @Nullable
+    private final File directory;
+
+    /**
+     * Constructor. Use {@link MLockSoftwareKeyProvider#inMemory()} or
+     * {@link MLockSoftwareKeyProvider#inDirectory(File)}.
+     */
+    private MLockSoftwareKeyProvider(@Nullable File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return Provider whose keys only live as long as the provider itself.
+     */
+    @NonNull
+    public static MLockSoftwareKeyProvider inMemory() {
+        return new MLockSoftwareKeyProvider(null);
+    }
+
+    /**
+     * @param directory Directory to persist the keys in, created if it does not exist.
+     * @return Provider whose keys are persisted in the directory, so they survive the process.
+     */
+    @NonNull
+    public static MLockSoftwareKeyProvider inDirectory(@NonNull File directory) {
+        return new MLockSoftwareKeyProvider(directory);
+    }
+
+    /**
+     * @see MLockKeyProvider#generateKey
+     */
+    @Nullable
+    @Override
+    public SecretKey generateKey(@NonNull String alias) {
+        final byte[] raw = new byte[KEY_SIZE];
+        new SecureRandom().nextBytes(raw);
+        try {
+            if (directory != null) {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Unable to create directory " + directory);
+                }
+                MLockUtils.writeAtomically(keyFile(alias), raw);
+            }
+
+            final SecretKey key = new SecretKeySpec(raw, KEY_ALGORITHM);
+            keys.put(alias, key);
+            return key;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to persist key \"" + alias + "\": " + e.getMessage());
+            return null;
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    /**
+     * @see MLockKeyProvider#loadKey
+     */
+    @Nullable
+    @Override
+    public SecretKey loadKey(@NonNull String alias) {
+        final SecretKey cached = keys.get(alias);
+        if (cached != null || directory == null) return cached;
+
+        final File file = keyFile(alias);
+        if (!file.isFile()) return null;
+
+        try {
+            final byte[] raw = MLockUtils.readFully(file);
+            if (raw.length != KEY_SIZE) throw new IOException("Unexpected key length " + raw.length);
+
+            final SecretKey key = new SecretKeySpec(raw, KEY_ALGORITHM);
+            Arrays.fill(raw, (byte) 0);
+            final SecretKey previous = keys.putIfAbsent(alias, key);
+            return previous != null ? previous : key;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to read key \"" + alias + "\": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @see MLockKeyProvider#containsKey
+     */
+    @Override
+    public boolean containsKey(@NonNull String alias) {
+        return keys.containsKey(alias) || (directory != null && keyFile(alias).isFile());
+    }
+
+    /**
+     * @see MLockKeyProvider#deleteKey
+     */
+    @Override
+    public void deleteKey(@NonNull String alias) {
+        keys.remove(alias);
+        if (directory == null) return;
+
+        final File file = keyFile(alias);
+        if (file.exists() && !file.delete()) {
+            logger.log(Level.WARNING, "Unable to delete key file " + file);
+        }
+    }
+
+    /**
+     * @see MLockKeyProvider#deleteAllKeys
+     */
+    @Override
+    public void deleteAllKeys() {
+        keys.clear();
+        if (directory == null) return;
+
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(KEY_FILE_EXTENSION));
+        if (files == null) return;
+        for (final File file : files) {
+            if (!file.delete()) logger.log(Level.WARNING, "Unable to delete key file " + file);
+        }
+    }
+
+    /**
+     * @return File of the key, named after the hex encoded alias so any alias makes a valid file name.
+     */
+    @NonNull
+    private File keyFile(@NonNull String alias) {
+        final char[] hex = MLockUtils.toHex(alias.getBytes(StandardCharsets.UTF_8));
+        return new File(directory, new String(hex) + KEY_FILE_EXTENSION);
+    }
+}
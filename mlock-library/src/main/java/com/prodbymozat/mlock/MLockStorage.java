@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Persistence backend used by {@link MLockInternal}. Keys are hashed {@link MLockKey}s and values are records
+ * already encrypted by {@link MLockCipher}, both as opaque byte arrays.
+ * <p>
+ * Implementations must be safe to call from multiple threads.
+ * </p>
+ */
+interface MLockStorage extends Closeable {
+    /**
+     * Opens the backend. Called once before any other method.
+     */
+    void open() throws IOException;
+
+    /**
+     * Retrieves a value.
+     *
+     * @param key Hashed key of the value.
+     * @return Stored value or null if there is none.
+     */
+    @Nullable
+    byte[] get(@NonNull byte[] key) throws IOException;
+
+    /**
+     * Retrieves a value into a buffer. Large values are copied straight into a direct buffer, so they never
+     * occupy the Java heap.
+     *
+     * @param key Hashed key of the value.
+     * @return Buffer holding the stored value, or null if there is none.
+     */
+    @Nullable
+    ByteBuffer getBuffer(@NonNull byte[] key) throws IOException;
+
+    /**
+     * Retrieves several values from a single consistent snapshot of the backend.
+     *
+     * @param keys Hashed keys of the values.
+     * @return Stored values in the same order as the keys, with null for keys that have no value.
+     */
+    @NonNull
+    byte[][] getAll(@NonNull byte[][] keys) throws IOException;
+
+    /**
+     * Saves a value, replacing any previous value for the same key.
+     *
+     * @param key   Hashed key of the value.
+     * @param value Encrypted value.
+     */
+    void put(@NonNull byte[] key, @NonNull byte[] value) throws IOException;
+
+    /**
+     * Saves every value in a single transaction. Either all values are saved or none are.
+     *
+     * @param keys   Hashed keys of the values.
+     * @param values Encrypted values, in the same order as the keys.
+     */
+    void putAll(@NonNull byte[][] keys, @NonNull byte[][] values) throws IOException;
+
+    /**
+     * Saves every value in a single transaction, reading the remaining bytes of each buffer. Direct buffers
+     * are read in place without being copied to the Java heap.
+     *
+     * @param keys   Hashed keys of the values.
+     * @param values Encrypted values, in the same order as the keys.
+     */
+    void putAll(@NonNull byte[][] keys, @NonNull ByteBuffer[] values) throws IOException;
+
+    /**
+     * Saves every value in a single transaction like {@link MLockStorage#putAll(byte[][], ByteBuffer[])},
+     * filing each value under a namespace.
+     *
+     * @param keys       Hashed keys of the values.
+     * @param values     Encrypted values, in the same order as the keys.
+     * @param namespaces UTF-8 namespaces of the values in the same order as the keys, with null for values
+     *                   without one. Null if no value has one.
+     */
+    void putAll(@NonNull byte[][] keys, @NonNull ByteBuffer[] values, @Nullable byte[][] namespaces)
+            throws IOException;
+
+    /**
+     * Lists every key, used to rebuild structures derived from the stored keys.
+     *
+     * @return Hashed keys of every value, in no particular order.
+     */
+    @NonNull
+    byte[][] keys() throws IOException;
+
+    /**
+     * Lists the keys filed under a namespace, with one indexed query.
+     *
+     * @param namespace UTF-8 namespace.
+     * @return Hashed keys of the values in the namespace, in key order.
+     */
+    @NonNull
+    byte[][] keys(@NonNull byte[] namespace) throws IOException;
+
+    /**
+     * Reads a page of the values filed under a namespace, in key order, with one indexed query.
+     *
+     * @param namespace UTF-8 namespace.
+     * @param after     Last key of the previous page, or null for the first page.
+     * @param limit     Maximum number of values in the page.
+     * @return Keys and values alternating, so entry i is at 2i and 2i + 1. Fewer than the limit on the last
+     * page.
+     */
+    @NonNull
+    byte[][] scan(@NonNull byte[] namespace, @Nullable byte[] after, int limit) throws IOException;
+
+    /**
+     * Deletes every value filed under a namespace, with one indexed statement.
+     *
+     * @param namespace UTF-8 namespace.
+     * @return Number of deleted values.
+     */
+    int clearNamespace(@NonNull byte[] namespace) throws IOException;
+
+    /**
+     * Deletes a value.
+     *
+     * @param key Hashed key of the value.
+     * @return true if a value was deleted.
+     */
+    boolean remove(@NonNull byte[] key) throws IOException;
+
+    /**
+     * Deletes every value.
+     */
+    void clear() throws IOException;
+}
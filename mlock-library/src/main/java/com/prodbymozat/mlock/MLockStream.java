@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Manifest and chunk cipher of a value written through {@link MLock#openOutputStream(String)}.
+ * <p>
+ * A streamed value is split into fixed-size chunks, each sealed on its own with AES-GCM under a random
+ * per-stream key, so it can be written and read with one chunk in memory. The 12-byte nonce of a chunk is
+ * the stream's random nonce prefix, the chunk index and a flag set only on the last chunk:
+ * </p>
+ * <pre>
+ * +--------------+-------------------------+-----------+
+ * | nonce prefix | chunk index             | last flag |
+ * | 7 bytes      | 4 bytes, big-endian     | 1 byte    |
+ * +--------------+-------------------------+-----------+
+ * </pre>
+ * Reordered, dropped or appended chunks therefore fail authentication. The manifest holds the per-stream
+ * key and is itself encrypted like any other value, by {@link MLockCipher} or {@link MLockEnvelope}:
+ * <pre>
+ * +---------+------------+-------------+----------+--------------+---------+
+ * | version | chunk size | chunk count | length   | nonce prefix | key     |
+ * | 1 byte  | 4 bytes    | 4 bytes     | 8 bytes  | 7 bytes      | 32 bytes|
+ * +---------+------------+-------------+----------+--------------+---------+
+ * </pre>
+ * Sizes are little-endian. Chunks are stored under the manifest key followed by the nonce prefix and index,
+ * so a new stream never overwrites the chunks of the one it replaces.
+ */
+final class MLockStream {
+
+    // Class Constants
+    static final byte VERSION_1 = 0x01;
+    static final int KEY_LENGTH = 32;
+    static final int NONCE_PREFIX_LENGTH = 7;
+    static final int NONCE_LENGTH = NONCE_PREFIX_LENGTH + 4 + 1;
+    static final int TAG_LENGTH = MLockCipher.GCM_SPEC_LENGTH / 8;
+    static final int MANIFEST_LENGTH = 1 + 4 + 4 + 8 + NONCE_PREFIX_LENGTH + KEY_LENGTH;
+    private static final byte[] STREAM_SUFFIX = {'.', 's'};
+
+    /**
+     * Pool of the chunk ciphers, shared by every stream.
+     */
+    private static final MLockCipherPool POOL = new MLockCipherPool(MLockCipher.SYMMETRIC_CIPHER);
+
+    /**
+     * Source of per-stream keys and nonce prefixes.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Maximum number of plaintext bytes in a chunk.
+     */
+    private final int chunkSize;
+
+    /**
+     * Number of chunks, at least one.
+     */
+    private final int chunkCount;
+
+    /**
+     * Total number of plaintext bytes.
+     */
+    private final long length;
+
+    /**
+     * Random prefix of every chunk nonce.
+     */
+    private final byte[] noncePrefix;
+
+    /**
+     * Per-stream AES-256 key.
+     */
+    private final byte[] key;
+
+    /**
+     * Constructor
+     */
+    private MLockStream(int chunkSize, int chunkCount, long length, @NonNull byte[] noncePrefix,
+                        @NonNull byte[] key) {
+        this.chunkSize = chunkSize;
+        this.chunkCount = chunkCount;
+        this.length = length;
+        this.noncePrefix = noncePrefix;
+        this.key = key;
+    }
+
+    /**
+     * Creates a new stream with a random key and nonce prefix, before anything is written to it.
+     *
+     * @param chunkSize Maximum number of plaintext bytes in a chunk.
+     */
+    @NonNull
+    static MLockStream create(int chunkSize) {
+        final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        final byte[] key = new byte[KEY_LENGTH];
+        RANDOM.nextBytes(noncePrefix);
+        RANDOM.nextBytes(key);
+        return new MLockStream(chunkSize, 0, 0, noncePrefix, key);
+    }
+
+    /**
+     * @return Copy of this stream recording how many chunks and bytes were written.
+     */
+    @NonNull
+    MLockStream complete(int chunkCount, long length) {
+        return new MLockStream(chunkSize, chunkCount, length, noncePrefix, key);
+    }
+
+    /**
+     * Decodes a manifest encoded by {@link MLockStream#encode()}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid manifest.
+     */
+    @NonNull
+    static MLockStream decode(@NonNull byte[] manifest) {
+        if (manifest.length != MANIFEST_LENGTH || manifest[0] != VERSION_1) {
+            throw new IllegalArgumentException("Invalid stream manifest");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(manifest, 1, MANIFEST_LENGTH - 1).order(ByteOrder.LITTLE_ENDIAN);
+        final int chunkSize = buffer.getInt();
+        final int chunkCount = buffer.getInt();
+        final long length = buffer.getLong();
+        if (chunkSize <= 0 || chunkCount <= 0 || length < 0 || length > (long) chunkSize * chunkCount) {
+            throw new IllegalArgumentException("Invalid stream manifest");
+        }
+
+        final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        final byte[] key = new byte[KEY_LENGTH];
+        buffer.get(noncePrefix).get(key);
+        return new MLockStream(chunkSize, chunkCount, length, noncePrefix, key);
+    }
+
+    /**
+     * @return Manifest of this stream, to be encrypted before it is stored.
+     */
+    @NonNull
+    byte[] encode() {
+        final byte[] manifest = new byte[MANIFEST_LENGTH];
+        ByteBuffer.wrap(manifest).order(ByteOrder.LITTLE_ENDIAN)
+                .put(VERSION_1)
+                .putInt(chunkSize)
+                .putInt(chunkCount)
+                .putLong(length)
+                .put(noncePrefix)
+                .put(key);
+        return manifest;
+    }
+
+    /**
+     * @param storageKey Key the plain value for the same {@link MLockKey} is stored under.
+     * @return Key the manifest of the stream is stored under.
+     */
+    @NonNull
+    static byte[] manifestKey(@NonNull byte[] storageKey) {
+        final byte[] manifestKey = Arrays.copyOf(storageKey, storageKey.length + STREAM_SUFFIX.length);
+        System.arraycopy(STREAM_SUFFIX, 0, manifestKey, storageKey.length, STREAM_SUFFIX.length);
+        return manifestKey;
+    }
+
+    /**
+     * @param manifestKey Key returned by {@link MLockStream#manifestKey(byte[])}.
+     * @param index       Index of the chunk.
+     * @return Key the chunk is stored under.
+     */
+    @NonNull
+    byte[] chunkKey(@NonNull byte[] manifestKey, int index) {
+        final byte[] chunkKey = Arrays.copyOf(manifestKey, manifestKey.length + NONCE_PREFIX_LENGTH + 4);
+        ByteBuffer.wrap(chunkKey, manifestKey.length, NONCE_PREFIX_LENGTH + 4).put(noncePrefix).putInt(index);
+        return chunkKey;
+    }
+
+    /**
+     * Encrypts one chunk.
+     *
+     * @param index Index of the chunk.
+     * @param last  Whether this is the last chunk of the stream.
+     * @return Ciphertext followed by the GCM tag.
+     */
+    @NonNull
+    byte[] encryptChunk(int index, boolean last, @NonNull byte[] data, int offset, int length)
+            throws GeneralSecurityException {
+        final Cipher cipher = POOL.acquire(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+                new GCMParameterSpec(MLockCipher.GCM_SPEC_LENGTH, nonce(index, last)));
+        return cipher.doFinal(data, offset, length);
+    }
+
+    /**
+     * Decrypts and authenticates one chunk.
+     *
+     * @param index Index of the chunk.
+     * @return Plaintext of the chunk.
+     * @throws GeneralSecurityException if the chunk fails authentication.
+     */
+    @NonNull
+    byte[] decryptChunk(int index, @NonNull byte[] chunk) throws GeneralSecurityException {
+        final Cipher cipher = POOL.acquire(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"),
+                new GCMParameterSpec(MLockCipher.GCM_SPEC_LENGTH, nonce(index, index == chunkCount - 1)));
+        return cipher.doFinal(chunk);
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * @return Nonce of the chunk at the given index.
+     */
+    @NonNull
+    private byte[] nonce(int index, boolean last) {
+        final byte[] nonce = Arrays.copyOf(noncePrefix, NONCE_LENGTH);
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_LENGTH, 5).putInt(index).put((byte) (last ? 1 : 0));
+        return nonce;
+    }
+}
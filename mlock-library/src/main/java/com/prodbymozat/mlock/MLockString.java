@@ -26,6 +26,11 @@ package com.prodbymozat.mlock;
  * String data model class for MLock. Use this to save a string value in MLock.
  */
 public final class MLockString extends MLockData<String> {
+    /**
+     * Value.
+     */
+    private final String value;
+
     /**
      * Constructor.
      *
@@ -33,6 +38,20 @@ public final class MLockString extends MLockData<String> {
      * @param value Value (String).
      */
     public MLockString(MLockKey key, String value) {
-        super(key, value);
+        super(key);
+        this.value = value;
+    }
+
+    /**
+     * Constructor, used when restoring a value from storage.
+     */
+    MLockString(MLockKey key, String value, long timestamp) {
+        super(key, timestamp);
+        this.value = value;
+    }
+
+    @Override
+    public String getValue() {
+        return value;
     }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded LRU cache of decoded {@link MLockData}, keyed by {@link MLockKey}.
+ * <p>
+ * Entries expire {@code ttlMillis} after they were cached, a TTL of zero keeps them until they are evicted.
+ * Every invalidation bumps a version number, and {@link MLockValueCache#put(MLockKey, MLockData, long)} drops
+ * values read before the latest invalidation, so a read racing a write can not cache a stale value.
+ * </p>
+ */
+final class MLockValueCache {
+
+    /**
+     * Cached value with its expiry time.
+     */
+    private static final class CachedValue {
+        final MLockData<?> data;
+        final long expiresAtNanos;
+
+        CachedValue(MLockData<?> data, long expiresAtNanos) {
+            this.data = data;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    /**
+     * Maximum number of cached values.
+     */
+    private final int maxEntries;
+
+    /**
+     * Lifetime of a cached value, zero for no expiry.
+     */
+    private final long ttlNanos;
+
+    /**
+     * Cached values in access order, least recently used first. Guarded by this.
+     */
+    private final LinkedHashMap<MLockKey, CachedValue> entries;
+
+    /**
+     * Incremented by every invalidation. Guarded by this.
+     */
+    private long version = 0;
+
+    /**
+     * Metrics.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries Maximum number of cached values, must be positive.
+     * @param ttlMillis  Lifetime of a cached value, zero for no expiry.
+     */
+    MLockValueCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<MLockKey, CachedValue>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MLockKey, CachedValue> eldest) {
+                if (size() <= MLockValueCache.this.maxEntries) return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param key {@link MLockKey} of the value.
+     * @return Cached value, or null if it is missing or has expired.
+     */
+    @Nullable
+    synchronized MLockData<?> get(@NonNull MLockKey key) {
+        final CachedValue entry = entries.get(key);
+        if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.expiresAtNanos >= 0) {
+            entries.remove(key);
+            evictions.incrementAndGet();
+        } else if (entry != null) {
+            hits.incrementAndGet();
+            return entry.data;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return Current version, to pass to {@link MLockValueCache#put} once the value has been read.
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Caches a value unless the cache has been invalidated since {@code readVersion} was taken.
+     *
+     * @param key         {@link MLockKey} of the value.
+     * @param data        Decoded value.
+     * @param readVersion {@link MLockValueCache#version()} taken before the value was read.
+     */
+    synchronized void put(@NonNull MLockKey key, @NonNull MLockData<?> data, long readVersion) {
+        if (readVersion != version) return;
+        entries.put(key, new CachedValue(data, System.nanoTime() + ttlNanos));
+    }
+
+    /**
+     * Removes the cached value of a key.
+     *
+     * @param key {@link MLockKey} of the value.
+     */
+    synchronized void invalidate(@NonNull MLockKey key) {
+        version++;
+        entries.remove(key);
+    }
+
+    /**
+     * Removes every cached value.
+     */
+    synchronized void clear() {
+        version++;
+        entries.clear();
+    }
+
+    /**
+     * @return Number of cached values, including expired ones not yet removed.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of lookups served from the cache.
+     */
+    long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of lookups that missed the cache.
+     */
+    long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return Number of values dropped because the cache was full or they had expired.
+     */
+    long getEvictionCount() {
+        return evictions.get();
+    }
+}
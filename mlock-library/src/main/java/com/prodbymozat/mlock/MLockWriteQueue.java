@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.prodbymozat.mlock.exceptions.MLockStorageException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded write-behind queue backing {@link MLock#apply(String, MLockData)}.
+ * <p>
+ * Pending values are keyed by their {@link MLockKey}, so repeated writes to the same key coalesce into
+ * one. The queue is handed to a {@link Flusher} as a single batch once it holds {@code batchSize} values, or
+ * {@code flushDelayMillis} after the first value was queued, whichever comes first. When the queue reaches its
+ * capacity the writing thread flushes it itself, which bounds memory and slows down runaway producers.
+ * </p>
+ * Values stay visible through {@link MLockWriteQueue#lookup(MLockKey)} until their batch has been written.
+ * <p>
+ * Pending values are split into stripes by {@link MLockKey} hash, each guarded by its own lock, so writers of
+ * different keys rarely contend. Lookups read a concurrent map of every unpersisted value and never lock.
+ * </p>
+ */
+final class MLockWriteQueue {
+
+    // Class Constants
+    private static final String TAG = MLockWriteQueue.class.getSimpleName();
+    private static final int STRIPE_COUNT = 16;
+
+    /**
+     * Persists a batch of values in a single transaction.
+     */
+    interface Flusher {
+        /**
+         * @param batch Values to persist, keyed by {@link MLockKey}.
+         */
+        void flush(@NonNull Map<MLockKey, MLockData<?>> batch) throws MLockStorageException;
+    }
+
+    /**
+     * Work run by {@link MLockWriteQueue#runExclusive(Action)} while no batch is flushed.
+     */
+    interface Action<R> {
+        R run() throws IOException;
+    }
+
+    /**
+     * Class Logger
+     */
+    private final Logger logger = Logger.getLogger(TAG);
+
+    /**
+     * {@link Flusher}
+     */
+    private final Flusher flusher;
+
+    /**
+     * Runs scheduled flushes.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * How long a value may wait in the queue before it is flushed.
+     */
+    private final long flushDelayMillis;
+
+    /**
+     * Number of pending values that triggers an immediate flush.
+     */
+    private final int batchSize;
+
+    /**
+     * Number of pending values at which the writing thread flushes the queue itself.
+     */
+    private final int capacity;
+
+    /**
+     * Serializes flushes, so batches are written in the order they were taken.
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * Values waiting to be flushed, striped by key hash. Each map is guarded by itself.
+     */
+    private final List<Map<MLockKey, MLockData<?>>> stripes = new ArrayList<>(STRIPE_COUNT);
+
+    /**
+     * Number of values waiting to be flushed, across all stripes.
+     */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    /**
+     * Every value queued or being written, removed once persisted unless replaced meanwhile.
+     */
+    private final ConcurrentMap<MLockKey, MLockData<?>> unpersisted = new ConcurrentHashMap<>();
+
+    /**
+     * Whether a delayed or an immediate flush has been scheduled.
+     */
+    private final AtomicBoolean delayedFlushScheduled = new AtomicBoolean();
+    private final AtomicBoolean immediateFlushScheduled = new AtomicBoolean();
+
+    /**
+     * Metrics.
+     */
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile int lastBatchSize = 0;
+    private volatile int maxBatchSize = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param flusher          {@link Flusher} that persists batches.
+     * @param executor         Executor scheduled flushes run on.
+     * @param flushDelayMillis How long a value may wait in the queue before it is flushed.
+     * @param batchSize        Number of pending values that triggers an immediate flush.
+     * @param capacity         Number of pending values at which writers flush the queue themselves.
+     */
+    MLockWriteQueue(@NonNull Flusher flusher, @NonNull ScheduledExecutorService executor, long flushDelayMillis,
+                    int batchSize, int capacity) {
+        this.flusher = flusher;
+        this.executor = executor;
+        this.flushDelayMillis = flushDelayMillis;
+        this.batchSize = batchSize;
+        this.capacity = Math.max(capacity, batchSize);
+        for (int i = 0; i < STRIPE_COUNT; i++) stripes.add(new LinkedHashMap<>());
+    }
+
+    /**
+     * Queues a value, replacing any pending value for the same key.
+     *
+     * @param key  {@link MLockKey} of the value.
+     * @param data Value to persist.
+     */
+    void enqueue(@NonNull MLockKey key, @NonNull MLockData<?> data) {
+        final Map<MLockKey, MLockData<?>> stripe = stripe(key);
+        final int count;
+        synchronized (stripe) {
+            unpersisted.put(key, data);
+            if (stripe.put(key, data) != null) {
+                coalescedCount.incrementAndGet();
+                count = pendingCount.get();
+            } else {
+                count = pendingCount.incrementAndGet();
+            }
+        }
+
+        if (count >= capacity) {
+            flushQuietly();
+        } else if (count >= batchSize) {
+            if (immediateFlushScheduled.compareAndSet(false, true) && !schedule(0)) {
+                immediateFlushScheduled.set(false);
+            }
+        } else if (delayedFlushScheduled.compareAndSet(false, true) && !schedule(flushDelayMillis)) {
+            delayedFlushScheduled.set(false);
+        }
+    }
+
+    /**
+     * Writes every pending value in a single batch, blocking until it has been persisted. Values of a batch
+     * that fails to persist are queued again unless they have been replaced in the meantime.
+     */
+    void flush() throws MLockStorageException {
+        flushLock.lock();
+        try {
+            delayedFlushScheduled.set(false);
+            immediateFlushScheduled.set(false);
+            final Map<MLockKey, MLockData<?>> batch = drain();
+            if (batch.isEmpty()) return;
+
+            try {
+                flusher.flush(batch);
+                record(batch.size());
+            } catch (MLockStorageException | RuntimeException e) {
+                requeue(batch);
+                throw e;
+            }
+
+            // Values replaced while the batch was written stay visible.
+            for (final Map.Entry<MLockKey, MLockData<?>> entry : batch.entrySet()) {
+                unpersisted.remove(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Runs an action while no batch can be flushed. The action may call {@link MLockWriteQueue#flush()} itself.
+     * Values queued meanwhile wait for the next flush, so they are persisted after whatever the action did to
+     * storage.
+     */
+    <R> R runExclusive(@NonNull Action<R> action) throws IOException {
+        flushLock.lock();
+        try {
+            return action.run();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * @param key {@link MLockKey} of the value.
+     * @return Value queued or being written for the key, or null if there is none.
+     */
+    @Nullable
+    MLockData<?> lookup(@NonNull MLockKey key) {
+        return unpersisted.get(key);
+    }
+
+    /**
+     * @return Number of values waiting to be flushed.
+     */
+    int getQueueDepth() {
+        return pendingCount.get();
+    }
+
+    /**
+     * @return Number of batches written.
+     */
+    long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return Number of values written, across all batches.
+     */
+    long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    /**
+     * @return Number of writes that replaced a pending value for the same key.
+     */
+    long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return Size of the last batch written.
+     */
+    int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * @return Size of the largest batch written.
+     */
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Schedules a flush on {@link MLockWriteQueue#executor}.
+     *
+     * @return false if the executor has been shut down.
+     */
+    private boolean schedule(long delayMillis) {
+        try {
+            executor.schedule(this::flushQuietly, delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Flushes and logs failures, for flushes nobody waits on.
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (MLockStorageException | RuntimeException e) {
+            logger.log(Level.WARNING, "Unable to flush queued values: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Stripe the given key belongs to.
+     */
+    @NonNull
+    private Map<MLockKey, MLockData<?>> stripe(@NonNull MLockKey key) {
+        return stripes.get(key.hashCode() & (STRIPE_COUNT - 1));
+    }
+
+    /**
+     * Takes every pending value out of the stripes.
+     */
+    @NonNull
+    private Map<MLockKey, MLockData<?>> drain() {
+        final Map<MLockKey, MLockData<?>> batch = new LinkedHashMap<>();
+        for (final Map<MLockKey, MLockData<?>> stripe : stripes) {
+            synchronized (stripe) {
+                if (stripe.isEmpty()) continue;
+                batch.putAll(stripe);
+                pendingCount.addAndGet(-stripe.size());
+                stripe.clear();
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Puts the values of a failed batch back in the queue, keeping newer values written meanwhile.
+     */
+    private void requeue(@NonNull Map<MLockKey, MLockData<?>> batch) {
+        for (final Map.Entry<MLockKey, MLockData<?>> entry : batch.entrySet()) {
+            final Map<MLockKey, MLockData<?>> stripe = stripe(entry.getKey());
+            synchronized (stripe) {
+                if (stripe.containsKey(entry.getKey())) continue;
+                stripe.put(entry.getKey(), entry.getValue());
+                pendingCount.incrementAndGet();
+            }
+        }
+        if (delayedFlushScheduled.compareAndSet(false, true) && !schedule(flushDelayMillis)) {
+            delayedFlushScheduled.set(false);
+        }
+    }
+
+    private void record(int size) {
+        batchCount.incrementAndGet();
+        flushedCount.addAndGet(size);
+        lastBatchSize = size;
+        if (size > maxBatchSize) maxBatchSize = size;
+    }
+}
@@ -35,4 +35,14 @@ public class MLockException extends Exception {
     MLockException(String message) {
         super(message);
     }
+
+    /**
+     * Constructor.
+     *
+     * @param message Message of the exception.
+     * @param cause   Cause of the exception.
+     */
+    MLockException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock.exceptions;
+
+/**
+ * thrown when a value can not be read from, decrypted or written to the MLock encrypted store.
+ */
+public class MLockStorageException extends MLockException {
+
+    private static final String MESSAGE = "MLock was unable to access the encrypted store...";
+
+    /**
+     * Constructor.
+     */
+    public MLockStorageException() {
+        this(MESSAGE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param message Message of the exception.
+     */
+    public MLockStorageException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param message Message of the exception.
+     * @param cause   Cause of the exception.
+     */
+    public MLockStorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Test Class for {@link MLockBloomFilter}.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockBloomFilterTest {
+
+    // Test Constants
+    private static final byte[] TEST_LOG_KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int TEST_EXPECTED_KEYS = 10_000;
+    private static final double TEST_FALSE_POSITIVE_RATE = 0.01;
+    private static final String TEST_STORAGE_ID = "LOG/hex";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * {@link MLockLogStorage} the filter is rebuilt from.
+     */
+    private MLockLogStorage storage;
+
+    /**
+     * File the filter is saved to.
+     */
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        storage = new MLockLogStorage(new File(folder.getRoot(), MLockLogStorage.LOG_NAME), TEST_LOG_KEY::clone);
+        storage.open();
+        file = new File(folder.getRoot(), MLockBloomFilter.FILE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        storage.close();
+    }
+
+    @Test
+    public void add_shouldAlwaysContainAddedKeys() throws IOException {
+        // Arrange
+        final MLockBloomFilter filter = newFilter();
+        filter.load(storage);
+
+        // Act
+        for (int i = 0; i < TEST_EXPECTED_KEYS; i++) filter.add(key(i));
+
+        // Assert
+        for (int i = 0; i < TEST_EXPECTED_KEYS; i++) assertTrue(filter.mightContain(key(i)));
+    }
+
+    @Test
+    public void mightContain_shouldKeepFalsePositiveRateNearConfiguredRate() throws IOException {
+        // Arrange
+        final MLockBloomFilter filter = newFilter();
+        filter.load(storage);
+        for (int i = 0; i < TEST_EXPECTED_KEYS; i++) filter.add(key(i));
+
+        // Act
+        int falsePositives = 0;
+        for (int i = TEST_EXPECTED_KEYS; i < TEST_EXPECTED_KEYS * 11; i++) {
+            if (filter.mightContain(key(i))) falsePositives++;
+        }
+
+        // Assert
+        final double rate = falsePositives / (TEST_EXPECTED_KEYS * 10.0);
+        assertTrue("False positive rate " + rate, rate < TEST_FALSE_POSITIVE_RATE * 2);
+    }
+
+    @Test
+    public void mightContain_beforeLoad_shouldLetEveryKeyThrough() {
+        // Arrange
+        final MLockBloomFilter filter = newFilter();
+
+        // Act & Assert
+        assertFalse(filter.isReady());
+        assertTrue(filter.mightContain(key(0)));
+    }
+
+    @Test
+    public void load_withoutSavedFilter_shouldRebuildFromStorage() throws IOException {
+        // Arrange
+        for (int i = 0; i < 100; i++) storage.put(key(i), key(i));
+        final MLockBloomFilter filter = newFilter();
+
+        // Act
+        filter.load(storage);
+
+        // Assert
+        assertTrue(filter.isReady());
+        for (int i = 0; i < 100; i++) assertTrue(filter.mightContain(key(i)));
+    }
+
+    @Test
+    public void save_thenLoad_shouldRestoreFilterAndDeleteFile() throws IOException {
+        // Arrange
+        final MLockBloomFilter saved = newFilter();
+        saved.load(storage);
+        for (int i = 0; i < 100; i++) saved.add(key(i));
+        saved.save();
+        final MLockBloomFilter loaded = newFilter();
+
+        // Act
+        loaded.load(storage);
+
+        // Assert
+        assertFalse(file.exists());
+        for (int i = 0; i < 100; i++) assertTrue(loaded.mightContain(key(i)));
+    }
+
+    @Test
+    public void save_beforeLoad_shouldNotWriteFile() throws IOException {
+        // Act
+        newFilter().save();
+
+        // Assert
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void load_savedWithOtherSettings_shouldRebuildFromStorage() throws IOException {
+        // Arrange
+        storage.put(key(0), key(0));
+        final MLockBloomFilter saved = new MLockBloomFilter(file, TEST_STORAGE_ID, 10, TEST_FALSE_POSITIVE_RATE);
+        saved.load(storage);
+        saved.add(key(1));
+        saved.save();
+        final MLockBloomFilter loaded = newFilter();
+
+        // Act
+        loaded.load(storage);
+
+        // Assert
+        assertFalse(file.exists());
+        assertTrue(loaded.mightContain(key(0)));
+    }
+
+    @Test
+    public void load_savedForOtherStorage_shouldRebuildFromStorage() throws IOException {
+        // Arrange
+        final MLockBloomFilter saved = new MLockBloomFilter(file, "SQLITE/hex", TEST_EXPECTED_KEYS,
+                TEST_FALSE_POSITIVE_RATE);
+        saved.load(storage);
+        saved.save();
+        storage.put(key(0), key(0));
+        final MLockBloomFilter loaded = newFilter();
+
+        // Act
+        loaded.load(storage);
+
+        // Assert
+        assertFalse(file.exists());
+        assertTrue(loaded.mightContain(key(0)));
+    }
+
+    @Test
+    public void storageId_shouldDifferByBackendAndKeyForm() {
+        // Act
+        final String log = MLockBloomFilter.storageId(new MLockOptions.Builder()
+                .setStorageBackend(MLockOptions.StorageBackend.LOG).build());
+        final String sqlite = MLockBloomFilter.storageId(new MLockOptions.Builder().build());
+        final String digest = MLockBloomFilter.storageId(new MLockOptions.Builder()
+                .setDigestStorageKeys(true).build());
+
+        // Assert
+        assertNotEquals(log, sqlite);
+        assertNotEquals(sqlite, digest);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_invalidFalsePositiveRate_shouldThrow() {
+        // Act
+        new MLockBloomFilter(file, TEST_STORAGE_ID, TEST_EXPECTED_KEYS, 1);
+    }
+
+    private MLockBloomFilter newFilter() {
+        return new MLockBloomFilter(file, TEST_STORAGE_ID, TEST_EXPECTED_KEYS, TEST_FALSE_POSITIVE_RATE);
+    }
+
+    private static byte[] key(int i) {
+        return ("key_" + i).getBytes(StandardCharsets.US_ASCII);
+    }
+}
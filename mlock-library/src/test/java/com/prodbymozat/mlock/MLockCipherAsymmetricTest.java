@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit Test Class for {@link MLockCipherAsymmetric}, using a software RSA key pair in place of the
+ * AndroidKeyStore.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockCipherAsymmetricTest {
+
+    // Test Constants
+    private static final int ITERATIONS = 100;
+
+    /**
+     * Software RSA key pair, generated once as it is slow.
+     */
+    private static KeyPair keyPair;
+
+    /**
+     * {@link MLockCipherAsymmetric}
+     */
+    private MLockCipherAsymmetric cipher;
+
+    /**
+     * Entry holding {@link MLockCipherAsymmetricTest#keyPair}.
+     */
+    private KeyStore.PrivateKeyEntry key;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    @Before
+    public void setUp() {
+        cipher = new MLockCipherAsymmetric();
+        key = entry(keyPair);
+    }
+
+    @Test
+    public void encrypt_valueLargerThanRsaLimit_shouldRoundTrip() {
+        // Arrange
+        final byte[] data = new byte[64 * 1024];
+        new Random(42).nextBytes(data);
+
+        // Act
+        final byte[] record = cipher.encrypt(key, data);
+
+        // Assert
+        assertNotNull(record);
+        assertEquals(MLockRecord.VERSION_HYBRID, record[0]);
+        assertArrayEquals(data, cipher.decrypt(key, record));
+    }
+
+    @Test
+    public void encrypt_buffer_shouldRoundTripWithPrefix() {
+        // Arrange
+        final byte[] prefix = {1, 2, 3};
+        final ByteBuffer data = ByteBuffer.allocateDirect(4096);
+        while (data.hasRemaining()) data.put((byte) data.position());
+        data.flip();
+
+        // Act
+        final ByteBuffer record = cipher.encrypt(key, prefix, data.duplicate());
+        final ByteBuffer decrypted = cipher.decrypt(key, record);
+
+        // Assert
+        assertNotNull(decrypted);
+        assertTrue(record.isDirect());
+        assertEquals(prefix.length + data.remaining(), decrypted.remaining());
+        assertEquals(3, decrypted.get(2));
+        assertEquals(data.get(10), decrypted.get(prefix.length + 10));
+    }
+
+    @Test
+    public void encryptDecrypt_manyValues_shouldWrapContentKeyOnce() {
+        // Act
+        for (int i = 0; i < ITERATIONS; i++) {
+            final byte[] data = {(byte) i};
+            assertArrayEquals(data, cipher.decrypt(key, cipher.encrypt(key, data)));
+        }
+
+        // Assert, one RSA operation to wrap the content key and none to read the records back.
+        assertEquals(1, cipher.getPool().getHitCount() + cipher.getPool().getMissCount());
+    }
+
+    @Test
+    public void decrypt_recordFromAnotherInstance_shouldUnwrapContentKeyOnce() {
+        // Arrange
+        final MLockCipherAsymmetric writer = new MLockCipherAsymmetric();
+        final byte[][] records = new byte[ITERATIONS][];
+        for (int i = 0; i < ITERATIONS; i++) records[i] = writer.encrypt(key, new byte[]{(byte) i});
+
+        // Act
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertArrayEquals(new byte[]{(byte) i}, cipher.decrypt(key, records[i]));
+        }
+
+        // Assert
+        assertEquals(1, cipher.getPool().getHitCount() + cipher.getPool().getMissCount());
+    }
+
+    @Test
+    public void decrypt_rsaOnlyRecord_shouldReturnValue() throws Exception {
+        // Arrange, laid out like records written before the hybrid scheme.
+        final Cipher rsa = Cipher.getInstance(MLockCipher.ASYMMETRIC_CIPHER);
+        rsa.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        final byte[] ciphertext = rsa.doFinal(new byte[]{4, 2});
+        final byte[] record = new byte[MLockRecord.headerLength(0) + ciphertext.length];
+        final int offset = MLockRecord.writeHeader(record, new byte[0]);
+        System.arraycopy(ciphertext, 0, record, offset, ciphertext.length);
+
+        // Act & Assert
+        assertArrayEquals(new byte[]{4, 2}, cipher.decrypt(key, record));
+        assertArrayEquals(new byte[]{4, 2}, toArray(cipher.decrypt(key, ByteBuffer.wrap(record))));
+    }
+
+    @Test
+    public void decrypt_otherKeyPair_shouldReturnNull() throws Exception {
+        // Arrange
+        final byte[] record = cipher.encrypt(key, new byte[]{1});
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+
+        // Act & Assert
+        assertNull(new MLockCipherAsymmetric().decrypt(entry(generator.generateKeyPair()), record));
+    }
+
+    /**
+     * @return {@link KeyStore.PrivateKeyEntry} for a software key pair.
+     */
+    private static KeyStore.PrivateKeyEntry entry(KeyPair keyPair) {
+        final Certificate certificate = mock(Certificate.class);
+        when(certificate.getPublicKey()).thenReturn(keyPair.getPublic());
+        return new KeyStore.PrivateKeyEntry(keyPair.getPrivate(), new Certificate[]{certificate});
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer.
+     */
+    private static byte[] toArray(ByteBuffer buffer) {
+        assertNotNull(buffer);
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Test Class for {@link MLockCipherPool}, using a software key with {@link MLockCipherSymmetric}.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockCipherPoolTest {
+
+    // Test Constants
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 250;
+
+    /**
+     * {@link MLockCipherSymmetric}
+     */
+    private MLockCipherSymmetric cipher;
+
+    /**
+     * Software AES key.
+     */
+    private SecretKey key;
+
+    @Before
+    public void setUp() {
+        cipher = new MLockCipherSymmetric();
+        key = new SecretKeySpec(new byte[32], "AES");
+    }
+
+    @Test
+    public void encrypt_sameThread_shouldReuseCipher() {
+        // Act
+        for (int i = 0; i < 10; i++) cipher.encrypt(key, new byte[]{(byte) i});
+
+        // Assert
+        assertEquals(1, cipher.getPool().getMissCount());
+        assertEquals(9, cipher.getPool().getHitCount());
+        assertEquals(0.9, cipher.getPool().getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void encrypt_sameCipher_shouldUseFreshIvEveryTime() {
+        // Arrange
+        final byte[] data = "Some Test Data".getBytes(StandardCharsets.UTF_8);
+
+        // Act
+        final byte[] first = cipher.encrypt(key, data);
+        final byte[] second = cipher.encrypt(key, data);
+
+        // Assert
+        final int ivEnd = MLockRecord.ciphertextOffset(first);
+        boolean sameIv = true;
+        for (int i = MLockRecord.HEADER_LENGTH; i < ivEnd; i++) sameIv &= first[i] == second[i];
+        assertFalse(sameIv);
+    }
+
+    @Test
+    public void encryptDecrypt_manyThreads_shouldRoundTripEveryValue() throws Exception {
+        // Arrange
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            tasks.add(() -> {
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    final byte[] data = ("value-" + thread + "-" + i).getBytes(StandardCharsets.UTF_8);
+                    assertArrayEquals(data, cipher.decrypt(key, cipher.encrypt(key, data)));
+                }
+                return true;
+            });
+        }
+
+        // Act
+        final List<Future<Boolean>> results = executor.invokeAll(tasks);
+        executor.shutdown();
+
+        // Assert
+        for (Future<Boolean> result : results) assertTrue(result.get());
+        assertTrue(cipher.getPool().getMissCount() <= THREADS);
+        assertEquals(THREADS * OPERATIONS_PER_THREAD * 2,
+                cipher.getPool().getHitCount() + cipher.getPool().getMissCount());
+    }
+}
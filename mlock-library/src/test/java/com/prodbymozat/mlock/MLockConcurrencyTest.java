@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import com.prodbymozat.mlock.exceptions.MLockException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Stress Test Class for the concurrency design of {@link MLock}, hammering commit, get and reset from many
+ * threads against a host build of libmlock.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockConcurrencyTest {
+
+    // Test Constants
+    private static final byte[] TEST_DATABASE_KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int WRITER_COUNT = 8;
+    private static final int READER_COUNT = 4;
+    private static final int COMMITS_PER_WRITER = 150;
+    private static final int RESET_COUNT = 20;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Key store shared by every installed {@link MLockInternal}, so values survive a reset.
+     */
+    private MLockKeyStore<?> keyStore;
+
+    @BeforeClass
+    public static void setUpClass() {
+        assumeTrue("Host build of libmlock is missing", MLockNativeTest.isLibraryAvailable());
+    }
+
+    @Before
+    public void setUp() {
+        MLock.reset();
+        keyStore = MLockInternalTest.softwareKeyStore();
+        assertTrue(MLock.install(newInternal()));
+    }
+
+    @After
+    public void tearDown() {
+        MLock.reset();
+    }
+
+    @Test
+    public void commitGetReset_fromManyThreads_shouldNeverLoseOrTearValues() throws Exception {
+        // Arrange
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> writers = new ArrayList<>();
+        final List<Thread> others = new ArrayList<>();
+
+        for (int w = 0; w < WRITER_COUNT; w++) {
+            final String key = "writer_" + w;
+            writers.add(newThread(start, failure, () -> {
+                for (int i = 0; i < COMMITS_PER_WRITER; i++) {
+                    final String value = key + ":" + i;
+                    retry(() -> {
+                        MLock.commit(key, new MLockString(new MLockKey(key), value));
+                        return null;
+                    });
+
+                    // Read your own writes, across resets too since commit is durable.
+                    final MLockData<?> read = retry(() -> MLock.get(key));
+                    assertNotNull(read);
+                    assertEquals(value, read.getValue());
+                }
+            }));
+        }
+
+        for (int r = 0; r < READER_COUNT; r++) {
+            others.add(newThread(start, failure, () -> {
+                int w = 0;
+                while (writing.get()) {
+                    final String key = "writer_" + (w++ % WRITER_COUNT);
+                    final MLockData<?> read = retry(() -> MLock.get(key));
+                    if (read != null) assertTrue(((String) read.getValue()).startsWith(key + ":"));
+                }
+            }));
+        }
+
+        others.add(newThread(start, failure, () -> {
+            for (int i = 0; i < RESET_COUNT && writing.get(); i++) {
+                MLock.reset();
+                assertTrue(MLock.install(newInternal()));
+                Thread.sleep(5);
+            }
+        }));
+
+        // Act
+        for (final Thread thread : writers) thread.start();
+        for (final Thread thread : others) thread.start();
+        start.countDown();
+        for (final Thread thread : writers) thread.join(TimeUnit.MINUTES.toMillis(2));
+        writing.set(false);
+        for (final Thread thread : others) thread.join(TimeUnit.MINUTES.toMillis(1));
+
+        // Assert
+        assertNull(failure.get());
+        MLock.reset();
+        assertTrue(MLock.install(newInternal()));
+        for (int w = 0; w < WRITER_COUNT; w++) {
+            final MLockData<?> read = MLock.get("writer_" + w);
+            assertNotNull(read);
+            assertEquals("writer_" + w + ":" + (COMMITS_PER_WRITER - 1), read.getValue());
+        }
+    }
+
+    @Test
+    public void reset_reinitWithOtherKeyProvider_shouldUseKeyOfNewProvider() {
+        // Arrange
+        MLock.commit("test_key", new MLockInteger(new MLockKey("test_key"), 1));
+        final SecretKey previous = (SecretKey) keyStore.getKey(MLockInternal.KEY_ALIAS);
+        final MLockSoftwareKeyProvider provider = MLockSoftwareKeyProvider.inMemory();
+        MLock.reset();
+        keyStore = new MLockKeyStoreProvided(provider);
+        assertTrue(MLock.install(new MLockInternal(new MLockCipherSymmetric(), keyStore, new MLockNative(
+                new File(folder.getRoot(), "other_" + MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone))));
+
+        // Act
+        MLock.commit("test_key", new MLockInteger(new MLockKey("test_key"), 2));
+
+        // Assert
+        final SecretKey current = provider.loadKey(MLockInternal.KEY_ALIAS);
+        assertNotNull(current);
+        assertSame(current, keyStore.getKey(MLockInternal.KEY_ALIAS));
+        assertFalse(Arrays.equals(previous.getEncoded(), current.getEncoded()));
+        assertEquals(2, MLock.get("test_key").getValue());
+    }
+
+    @Test
+    public void reset_fromRetrieveListener_shouldReturnPromptly() throws Exception {
+        // Arrange
+        MLock.commit("test_key", new MLockInteger(new MLockKey("test_key"), 1));
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicLong resetNanos = new AtomicLong(-1);
+
+        // Act
+        MLock.retrieve("test_key", new MLockAsyncRetrieveListener<Integer>() {
+            @Override
+            public void onRetrieved(MLockData<Integer> data) {
+                final long start = System.nanoTime();
+                MLock.reset();
+                resetNanos.set(System.nanoTime() - start);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(MLockException exception) {
+                done.countDown();
+            }
+        });
+
+        // Assert
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(resetNanos.get() >= 0);
+        assertTrue(resetNanos.get() < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void get_afterReset_shouldThrowIllegalStateException() {
+        // Arrange
+        MLock.reset();
+
+        // Act
+        MLock.get("writer_0");
+    }
+
+    /**
+     * @return {@link MLockInternal} over the test database.
+     */
+    private MLockInternal newInternal() {
+        final MLockNative storage =
+                new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        return new MLockInternal(new MLockCipherSymmetric(), keyStore, storage);
+    }
+
+    /**
+     * Runs the call, retrying while a concurrent reset has left MLock uninitialized.
+     */
+    private static <R> R retry(Call<R> call) throws Exception {
+        while (true) {
+            try {
+                return call.run();
+            } catch (IllegalStateException e) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * @return Thread that waits for the start latch and records the first failure of its body.
+     */
+    private static Thread newThread(CountDownLatch start, AtomicReference<Throwable> failure, Body body) {
+        return new Thread(() -> {
+            try {
+                start.await();
+                body.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        });
+    }
+
+    private interface Call<R> {
+        R run() throws Exception;
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import com.prodbymozat.mlock.exceptions.MLockException;
+import com.prodbymozat.mlock.exceptions.MLockStorageException;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit Test Class for {@link MLockFuture}.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockFutureTest {
+
+    @Test
+    public void complete_shouldNotifyListenersOnTheirExecutor() {
+        // Arrange
+        final QueuedExecutor callbackExecutor = new QueuedExecutor();
+        final MLockFuture<String> future = new MLockFuture<>(callbackExecutor);
+        final AtomicReference<String> result = new AtomicReference<>();
+        future.addListener(new RecordingListener<>(result));
+
+        // Act
+        future.complete("value");
+
+        // Assert, nothing runs until the callback executor does.
+        assertNull(result.get());
+        callbackExecutor.runAll();
+        assertEquals("value", result.get());
+    }
+
+    @Test
+    public void addListener_afterCompletion_shouldNotifyRightAway() throws Exception {
+        // Arrange
+        final MLockFuture<String> future = new MLockFuture<>(Runnable::run);
+        final AtomicReference<String> result = new AtomicReference<>();
+        future.complete("value");
+
+        // Act
+        future.addListener(new RecordingListener<>(result), Runnable::run);
+
+        // Assert
+        assertEquals("value", result.get());
+        assertEquals("value", future.get());
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void fail_shouldThrowExecutionExceptionFromGet() throws Exception {
+        // Arrange
+        final MLockFuture<String> future = new MLockFuture<>(Runnable::run);
+        final MLockStorageException failure = new MLockStorageException("failure");
+
+        // Act
+        future.fail(failure);
+
+        // Assert
+        try {
+            future.get();
+            fail("get should throw");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertFalse(future.complete("late"));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void get_notCompleted_shouldTimeOut() throws Exception {
+        // Act
+        new MLockFuture<String>(Runnable::run).get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void cancel_shouldNotCancel() {
+        // Arrange
+        final MLockFuture<String> future = new MLockFuture<>(Runnable::run);
+
+        // Act & Assert
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+        assertFalse(future.isDone());
+    }
+
+    /**
+     * Executor that queues tasks until {@link QueuedExecutor#runAll()}.
+     */
+    static final class QueuedExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        synchronized int size() {
+            return tasks.size();
+        }
+
+        void runAll() {
+            final List<Runnable> snapshot;
+            synchronized (this) {
+                snapshot = new ArrayList<>(tasks);
+                tasks.clear();
+            }
+            for (Runnable task : snapshot) task.run();
+        }
+    }
+
+    /**
+     * Listener storing the result it receives.
+     */
+    private static final class RecordingListener<V> implements MLockFutureListener<V> {
+        private final AtomicReference<V> result;
+
+        RecordingListener(AtomicReference<V> result) {
+            this.result = result;
+        }
+
+        @Override
+        public void onSuccess(V value) {
+            result.set(value);
+        }
+
+        @Override
+        public void onError(MLockException exception) {
+            fail(exception.getMessage());
+        }
+    }
+}
@@ -0,0 +1,951 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import android.content.ComponentCallbacks2;
+
+import com.prodbymozat.mlock.exceptions.MLockException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit Test Class for {@link MLockInternal}, runs the storage engine end to end against a host build of
+ * libmlock with a software key in place of the AndroidKeyStore.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockInternalTest {
+
+    // Test Constants
+    private static final String TEST_KEY = "test_key";
+    private static final byte[] TEST_DATABASE_KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * {@link MLockNative}
+     */
+    private MLockNative storage;
+
+    /**
+     * {@link MLockKeyStore} of the test, shared by every {@link MLockInternal} it opens so values survive a
+     * reopen.
+     */
+    private MLockKeyStore<?> keyStore;
+
+    /**
+     * {@link MLockInternal}
+     */
+    private MLockInternal internal;
+
+    @BeforeClass
+    public static void setUpClass() {
+        assumeTrue("Host build of libmlock is missing", MLockNativeTest.isLibraryAvailable());
+    }
+
+    @Before
+    public void setUp() {
+        keyStore = softwareKeyStore();
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage);
+    }
+
+    @After
+    public void tearDown() {
+        internal.close();
+    }
+
+    @Test
+    public void get_shouldReturnNullIfNothingWasCommitted() {
+        // Act & Assert
+        assertNull(internal.get(TEST_KEY));
+    }
+
+    @Test
+    public void commit_shouldBeReturnedByGetForEverySupportedType() {
+        // Arrange
+        final MLockKey key = new MLockKey(TEST_KEY);
+        final MLockData<?>[] values = {
+                new MLockInteger(key, 42),
+                new MLockLong(key, Long.MAX_VALUE),
+                new MLockFloat(key, 4.2f),
+                new MLockDouble(key, 4.2),
+                new MLockBoolean(key, true),
+                new MLockString(key, "Some Test Data ☃"),
+        };
+
+        for (final MLockData<?> value : values) {
+            // Act
+            internal.commit(TEST_KEY, value);
+            final MLockData<?> result = internal.get(TEST_KEY);
+
+            // Assert
+            assertEquals(value.getClass(), result.getClass());
+            assertEquals(value.getValue(), result.getValue());
+            assertEquals(value.getDate(), result.getDate());
+            assertEquals(key.getKey(), result.getKey().getKey());
+        }
+    }
+
+    @Test
+    public void commit_bytes_shouldRoundTripHeapAndDirectValues() {
+        // Arrange
+        final MLockKey key = new MLockKey(TEST_KEY);
+        final byte[] small = {0, 1, 2, (byte) 0xff};
+        final byte[] large = new byte[512 * 1024];
+        new Random(42).nextBytes(large);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(large.length);
+        direct.put(large).flip();
+
+        // Act
+        internal.commit(TEST_KEY, new MLockBytes(key, small));
+        final MLockData<?> smallResult = internal.get(TEST_KEY);
+        internal.commit(TEST_KEY, new MLockBytes(key, direct));
+        final MLockData<?> largeResult = internal.get(TEST_KEY);
+
+        // Assert
+        assertArrayEquals(small, ((MLockBytes) smallResult).getValue());
+        assertArrayEquals(large, ((MLockBytes) largeResult).getValue());
+        assertTrue(((MLockBytes) largeResult).getBuffer().isDirect());
+        assertEquals(large.length, direct.remaining());
+    }
+
+    @Test
+    public void commit_shouldStoreEncryptedRecord() throws Exception {
+        // Act
+        internal.commit(TEST_KEY, new MLockString(new MLockKey(TEST_KEY), "Some Test Data"));
+
+        // Assert
+        final byte[] record = storage.get(new MLockKey(TEST_KEY).getKey().getBytes(StandardCharsets.US_ASCII));
+        assertEquals(MLockRecord.VERSION_1, record[0]);
+        assertTrue(!new String(record, StandardCharsets.ISO_8859_1).contains("Some Test Data"));
+    }
+
+    @Test
+    public void commit_withCompression_shouldStoreSmallerRecord() throws Exception {
+        // Arrange
+        final StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 500; i++) json.append("{\"id\":").append(i).append(",\"active\":true}");
+        final MLockString data = new MLockString(new MLockKey(TEST_KEY), json.toString());
+        final byte[] storageKey = new MLockKey(TEST_KEY).getKey().getBytes(StandardCharsets.US_ASCII);
+        internal.commit(TEST_KEY, data);
+        final int plainLength = storage.get(storageKey).length;
+        internal.close();
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        final MLockOptions options = new MLockOptions.Builder().setCompressionThreshold(1024).build();
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+
+        // Act
+        final MLockData<?> plain = internal.get(TEST_KEY);
+        internal.commit(TEST_KEY, data);
+
+        // Assert
+        assertTrue(storage.get(storageKey).length < plainLength / 4);
+        assertEquals(json.toString(), plain.getValue());
+        assertEquals(json.toString(), internal.get(TEST_KEY).getValue());
+    }
+
+    @Test
+    public void apply_thenRetrieve_shouldReturnAppliedValue() throws Exception {
+        // Arrange
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<MLockData<?>> retrieved = new AtomicReference<>();
+
+        // Act
+        internal.apply(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 7));
+        internal.retrieve(TEST_KEY, new MLockAsyncRetrieveListener<Integer>() {
+            @Override
+            public void onRetrieved(MLockData<Integer> data) {
+                retrieved.set(data);
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(MLockException exception) {
+                latch.countDown();
+            }
+        });
+
+        // Assert
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(7, retrieved.get().getValue());
+    }
+
+    @Test
+    public void commit_shouldFlushPendingAppliesInOneBatch() throws Exception {
+        // Arrange
+        final MLockOptions options = new MLockOptions.Builder()
+                .setWriteBehind(1, TimeUnit.MINUTES, 1000)
+                .build();
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+        for (int i = 0; i < 10; i++) internal.apply(TEST_KEY + i, new MLockInteger(new MLockKey(TEST_KEY + i), i));
+        internal.apply(TEST_KEY + 0, new MLockInteger(new MLockKey(TEST_KEY + 0), 100));
+
+        // Act
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 42));
+
+        // Assert
+        final MLockWriteQueue queue = internal.getWriteQueue();
+        assertEquals(1, queue.getBatchCount());
+        assertEquals(11, queue.getLastBatchSize());
+        assertEquals(0, queue.getQueueDepth());
+        assertNotNull(storage.get(new MLockKey(TEST_KEY + 9).getKey().getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(100, internal.get(TEST_KEY + 0).getValue());
+    }
+
+    @Test
+    public void get_withValueCache_shouldServeHitsAndInvalidateOnCommit() {
+        // Arrange
+        final MLockOptions options = new MLockOptions.Builder()
+                .setValueCache(16, 1, TimeUnit.MINUTES)
+                .build();
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 1));
+
+        // Act
+        internal.get(TEST_KEY);
+        internal.get(TEST_KEY);
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 2));
+        final MLockData<?> result = internal.get(TEST_KEY);
+
+        // Assert
+        final MLockValueCache cache = internal.getValueCache();
+        assertEquals(2, result.getValue());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void get_withValueCache_modifiedBytes_shouldNotChangeCachedValue() {
+        // Arrange
+        final MLockOptions options = new MLockOptions.Builder()
+                .setValueCache(16, 1, TimeUnit.MINUTES)
+                .build();
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+        final MLockKey key = new MLockKey(TEST_KEY);
+        internal.commit(TEST_KEY, new MLockBytes(key, new byte[]{1, 2, 3}));
+        final byte[] read = ((MLockBytes) internal.get(TEST_KEY)).getValue();
+
+        // Act
+        read[0] = 9;
+        final MLockData<?> result = internal.get(TEST_KEY);
+
+        // Assert
+        assertEquals(1, internal.getValueCache().getHitCount());
+        assertArrayEquals(new byte[]{1, 2, 3}, ((MLockBytes) result).getValue());
+        assertNotSame(((MLockBytes) result).getValue(), ((MLockBytes) result).getValue());
+    }
+
+    @Test
+    public void trimMemory_shouldClearValueCache() {
+        // Arrange
+        final MLockOptions options = new MLockOptions.Builder()
+                .setValueCache(16, 0, TimeUnit.MINUTES)
+                .build();
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 1));
+        internal.get(TEST_KEY);
+
+        // Act
+        internal.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        final int sizeWhileHidden = internal.getValueCache().size();
+        internal.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+
+        // Assert
+        assertEquals(1, sizeWhileHidden);
+        assertEquals(0, internal.getValueCache().size());
+    }
+
+    @Test
+    public void commitAll_shouldBeReturnedByGetAll() {
+        // Arrange
+        final MLockOptions options = new MLockOptions.Builder()
+                .setWriteBehind(1, TimeUnit.MINUTES, 1000)
+                .build();
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+        final Map<MLockKey, MLockData<?>> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            final MLockKey key = new MLockKey(TEST_KEY + i);
+            values.put(key, new MLockInteger(key, i));
+        }
+        final List<MLockKey> keys = new ArrayList<>(values.keySet());
+        keys.add(new MLockKey(TEST_KEY + "_missing"));
+
+        // Act
+        internal.commitAll(values);
+        final Map<MLockKey, MLockData<?>> result = internal.getAll(keys);
+
+        // Assert
+        assertEquals(values.size(), result.size());
+        for (final Map.Entry<MLockKey, MLockData<?>> entry : values.entrySet()) {
+            assertEquals(entry.getValue().getValue(), result.get(entry.getKey()).getValue());
+        }
+        assertEquals(1, internal.getWriteQueue().getBatchCount());
+    }
+
+    @Test
+    public void retrieveAll_shouldReturnQueuedAndStoredValues() throws Exception {
+        // Arrange
+        final MLockKey stored = new MLockKey(TEST_KEY + 1);
+        final MLockKey queued = new MLockKey(TEST_KEY + 2);
+        internal.commit(TEST_KEY + 1, new MLockInteger(stored, 1));
+        internal.apply(TEST_KEY + 2, new MLockInteger(queued, 2));
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Map<MLockKey, MLockData<?>>> retrieved = new AtomicReference<>();
+
+        // Act
+        internal.retrieveAll(Arrays.asList(stored, queued), new MLockAsyncRetrieveAllListener() {
+            @Override
+            public void onRetrieved(Map<MLockKey, MLockData<?>> data) {
+                retrieved.set(data);
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(MLockException exception) {
+                latch.countDown();
+            }
+        });
+
+        // Assert
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, retrieved.get().get(stored).getValue());
+        assertEquals(2, retrieved.get().get(queued).getValue());
+    }
+
+    @Test
+    public void commit_withDigestStorageKeys_shouldStoreUnderDigest() throws Exception {
+        // Arrange
+        final MLockOptions options = new MLockOptions.Builder()
+                .setDigestStorageKeys(true)
+                .build();
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+
+        // Act
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 1));
+
+        // Assert
+        assertNotNull(storage.get(new MLockKey(TEST_KEY).getDigest()));
+        assertNull(storage.get(new MLockKey(TEST_KEY).getKey().getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(1, internal.get(TEST_KEY).getValue());
+    }
+
+    @Test
+    public void warmUp_shouldOpenStorageAndReportTimings() throws Exception {
+        // Act
+        final MLockInitTimings timings = internal.warmUp(TimeUnit.MILLISECONDS.toNanos(3)).get(5, TimeUnit.SECONDS);
+
+        // Assert, the storage can only be read once it is open.
+        assertNull(storage.get(new MLockKey(TEST_KEY).hexBytes()));
+        assertEquals(3, timings.getConstructMillis());
+        assertTrue(timings.getTotalMillis() >= timings.getConstructMillis() + timings.getKeyMillis()
+                + timings.getStorageMillis() + timings.getCipherMillis() - 3);
+    }
+
+    @Test
+    public void get_duringWarmUp_shouldWaitForStorage() throws Exception {
+        // Arrange
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 42));
+        internal.close();
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage);
+
+        // Act
+        final MLockFuture<MLockInitTimings> warmUp = internal.warmUp(0);
+        final MLockData<?> result = internal.get(TEST_KEY);
+
+        // Assert
+        assertEquals(42, result.getValue());
+        assertNotNull(warmUp.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void retrieveAsync_concurrentCalls_shouldShareOneRead() throws Exception {
+        // Arrange
+        final MLockCipherSymmetric cipher = new MLockCipherSymmetric();
+        internal.close();
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        internal = new MLockInternal(cipher, keyStore, storage);
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 42));
+        final long operations = cipher.getPool().getHitCount() + cipher.getPool().getMissCount();
+        final MLockFutureTest.QueuedExecutor executor = new MLockFutureTest.QueuedExecutor();
+
+        // Act
+        final List<MLockFuture<MLockData<?>>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) futures.add(internal.retrieveAsync(TEST_KEY, executor));
+        executor.runAll();
+
+        // Assert
+        for (MLockFuture<MLockData<?>> future : futures) {
+            assertSame(futures.get(0), future);
+            assertEquals(42, future.get().getValue());
+        }
+        assertEquals(operations + 1, cipher.getPool().getHitCount() + cipher.getPool().getMissCount());
+    }
+
+    @Test
+    public void close_withQueuedAsyncReads_shouldFinishThemBeforeClosingStorage() throws Exception {
+        // Arrange
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 42));
+        final List<MLockFuture<Map<MLockKey, MLockData<?>>>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(internal.getAllAsync(Collections.singletonList(new MLockKey(TEST_KEY))));
+        }
+        final MLockFuture<MLockInitTimings> warmUp = internal.warmUp(0);
+
+        // Act
+        internal.close();
+
+        // Assert
+        for (final MLockFuture<Map<MLockKey, MLockData<?>>> future : futures) {
+            assertTrue(future.isDone());
+            assertEquals(42, future.get().get(new MLockKey(TEST_KEY)).getValue());
+        }
+        assertNotNull(warmUp.get());
+        assertStorageClosed();
+    }
+
+    @Test
+    public void close_withReadsQueuedOnCallerExecutor_shouldFailThemWithoutReopeningStorage() throws Exception {
+        // Arrange
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 42));
+        final MLockFutureTest.QueuedExecutor executor = new MLockFutureTest.QueuedExecutor();
+        final MLockFuture<MLockData<?>> future = internal.retrieveAsync(TEST_KEY, executor);
+
+        // Act
+        internal.close();
+        executor.runAll();
+
+        // Assert
+        try {
+            future.get();
+            fail("Read queued before close should fail");
+        } catch (ExecutionException e) {
+            assertEquals("MLock is closed", e.getCause().getMessage());
+        }
+        assertStorageClosed();
+    }
+
+    @Test
+    public void retrieveAsync_afterWrite_shouldNotJoinReadInFlight() throws Exception {
+        // Arrange
+        final MLockFutureTest.QueuedExecutor executor = new MLockFutureTest.QueuedExecutor();
+        final MLockFuture<MLockData<?>> before = internal.retrieveAsync(TEST_KEY, executor);
+
+        // Act
+        internal.apply(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 7));
+        final MLockFuture<MLockData<?>> after = internal.retrieveAsync(TEST_KEY, executor);
+        executor.runAll();
+
+        // Assert
+        assertNotSame(before, after);
+        assertEquals(7, after.get().getValue());
+    }
+
+    @Test
+    public void applyAsync_shouldCompleteOncePersisted() throws Exception {
+        // Arrange
+        final MLockOptions options = new MLockOptions.Builder()
+                .setWriteBehind(1, TimeUnit.MINUTES, 1000)
+                .build();
+        internal.close();
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+
+        // Act
+        internal.applyAsync(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 5)).get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(0, internal.getWriteQueue().getQueueDepth());
+        assertNotNull(storage.get(new MLockKey(TEST_KEY).getKey().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void getAllAsync_shouldReturnEveryValue() throws Exception {
+        // Arrange
+        final Map<MLockKey, MLockData<?>> values = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            final MLockKey key = new MLockKey(TEST_KEY + i);
+            values.put(key, new MLockInteger(key, i));
+        }
+        internal.commitAll(values);
+
+        // Act
+        final Map<MLockKey, MLockData<?>> result = internal.getAllAsync(values.keySet()).get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(values.size(), result.size());
+        for (MLockKey key : values.keySet()) assertEquals(values.get(key).getValue(), result.get(key).getValue());
+    }
+
+    @Test
+    public void metrics_shouldRecordStagesAndCounters() {
+        // Arrange
+        final MLockMetrics metrics = new MLockMetrics();
+        final List<String> sections = new ArrayList<>();
+        final int[] depth = {0};
+        internal.close();
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        final MLockOptions options = new MLockOptions.Builder()
+                .setMetrics(metrics)
+                .setTracer(new MLockTracer() {
+                    @Override
+                    public void beginSection(String name) {
+                        sections.add(name);
+                        depth[0]++;
+                    }
+
+                    @Override
+                    public void endSection() {
+                        depth[0]--;
+                    }
+                })
+                .build();
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+
+        // Act
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 1));
+        internal.get(TEST_KEY);
+        internal.get("missing_key");
+
+        // Assert
+        assertEquals(1, metrics.getHistogram(MLockMetrics.Operation.COMMIT, MLockMetrics.Stage.TOTAL).getCount());
+        assertEquals(1, metrics.getHistogram(MLockMetrics.Operation.COMMIT, MLockMetrics.Stage.KEY_HASH).getCount());
+        assertEquals(1, metrics.getHistogram(MLockMetrics.Operation.FLUSH, MLockMetrics.Stage.CIPHER).getCount());
+        assertEquals(1, metrics.getHistogram(MLockMetrics.Operation.FLUSH, MLockMetrics.Stage.STORAGE).getCount());
+        assertEquals(2, metrics.getHistogram(MLockMetrics.Operation.GET, MLockMetrics.Stage.STORAGE).getCount());
+        assertEquals(1, metrics.getHistogram(MLockMetrics.Operation.GET, MLockMetrics.Stage.CIPHER).getCount());
+        assertEquals(0, metrics.getCacheHits());
+        assertEquals(2, metrics.getCacheMisses());
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(0, depth[0]);
+        assertTrue(sections.contains("MLock.commit"));
+        assertTrue(sections.contains("MLock.key_fetch"));
+    }
+
+    @Test
+    public void metrics_queuedValue_shouldCountCacheHit() {
+        // Arrange
+        final MLockMetrics metrics = new MLockMetrics();
+        internal.close();
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        final MLockOptions options = new MLockOptions.Builder()
+                .setMetrics(metrics)
+                .setWriteBehind(1, TimeUnit.HOURS, 100)
+                .build();
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+
+        // Act
+        internal.apply(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 1));
+        internal.get(TEST_KEY);
+
+        // Assert
+        assertEquals(1, metrics.getCacheHits());
+        assertEquals(1, metrics.getQueueDepth());
+        assertEquals(1, metrics.getHistogram(MLockMetrics.Operation.APPLY, MLockMetrics.Stage.TOTAL).getCount());
+        assertEquals(0, metrics.getHistogram(MLockMetrics.Operation.GET, MLockMetrics.Stage.STORAGE).getCount());
+    }
+
+    @Test
+    public void get_withBloomFilter_shouldAnswerMissesWithoutStorage() {
+        // Arrange
+        final MLockMetrics metrics = new MLockMetrics();
+        internal.close();
+        internal = newBloomFilterInternal(metrics);
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 1));
+
+        // Act
+        for (int i = 0; i < 100; i++) assertNull(internal.get("missing_" + i));
+
+        // Assert
+        assertNotNull(internal.get(TEST_KEY));
+        assertTrue(metrics.getBloomFilterNegatives() > 90);
+        assertEquals(metrics.getBloomFilterPositives() - 1, metrics.getBloomFilterFalsePositives());
+        assertEquals(metrics.getBloomFilterPositives(),
+                metrics.getHistogram(MLockMetrics.Operation.GET, MLockMetrics.Stage.STORAGE).getCount());
+    }
+
+    @Test
+    public void get_withBloomFilter_shouldFindValuesAfterReopen() {
+        // Arrange
+        internal.close();
+        internal = newBloomFilterInternal(null);
+        final Map<MLockKey, MLockData<?>> values = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            final MLockKey key = new MLockKey(TEST_KEY + i);
+            values.put(key, new MLockInteger(key, i));
+        }
+        internal.commitAll(values);
+        internal.close();
+        final File saved = new File(folder.getRoot(), MLockBloomFilter.FILE_NAME);
+        assertTrue(saved.exists());
+
+        // Act
+        internal = newBloomFilterInternal(null);
+        final Map<MLockKey, MLockData<?>> results = internal.getAll(values.keySet());
+
+        // Assert
+        assertEquals(values.size(), results.size());
+        assertFalse(saved.exists());
+        assertNull(internal.get("missing"));
+    }
+
+    @Test
+    public void openOutputStream_thenOpenInputStream_shouldRoundTripEveryChunk() throws Exception {
+        // Arrange
+        internal = newStreamingInternal();
+        final byte[] value = new byte[10_500];
+        new Random(42).nextBytes(value);
+
+        // Act
+        try (OutputStream output = internal.openOutputStream(TEST_KEY)) {
+            output.write(value, 0, 3000);
+            output.write(value[3000]);
+            output.write(value, 3001, value.length - 3001);
+        }
+        final byte[] result = readFully(internal.openInputStream(TEST_KEY));
+
+        // Assert
+        assertArrayEquals(value, result);
+        assertNull(internal.get(TEST_KEY));
+    }
+
+    @Test
+    public void openOutputStream_empty_shouldRoundTrip() throws Exception {
+        // Act
+        internal.openOutputStream(TEST_KEY).close();
+
+        // Assert
+        assertArrayEquals(new byte[0], readFully(internal.openInputStream(TEST_KEY)));
+    }
+
+    @Test
+    public void openOutputStream_beforeClose_shouldKeepPreviousValue() throws Exception {
+        // Arrange
+        internal = newStreamingInternal();
+        final byte[] previous = {1, 2, 3};
+        try (OutputStream output = internal.openOutputStream(TEST_KEY)) {
+            output.write(previous);
+        }
+
+        // Act
+        final OutputStream output = internal.openOutputStream(TEST_KEY);
+        output.write(new byte[5000]);
+
+        // Assert
+        assertArrayEquals(previous, readFully(internal.openInputStream(TEST_KEY)));
+        output.close();
+        assertArrayEquals(new byte[5000], readFully(internal.openInputStream(TEST_KEY)));
+    }
+
+    @Test
+    public void openOutputStream_shouldDeleteChunksOfReplacedStream() throws Exception {
+        // Arrange
+        internal = newStreamingInternal();
+        try (OutputStream output = internal.openOutputStream(TEST_KEY)) {
+            output.write(new byte[5000]);
+        }
+        final InputStream replaced = internal.openInputStream(TEST_KEY);
+        assertNotNull(replaced);
+
+        // Act
+        try (OutputStream output = internal.openOutputStream(TEST_KEY)) {
+            output.write(new byte[]{1});
+        }
+
+        // Assert
+        try {
+            readFully(replaced);
+            fail("Replaced stream should no longer be readable");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Missing chunk"));
+        }
+    }
+
+    @Test
+    public void openOutputStream_neverClosed_shouldDeleteChunksOnClose() throws Exception {
+        // Arrange
+        internal = newStreamingInternal();
+        final OutputStream output = internal.openOutputStream(TEST_KEY);
+        output.write(new byte[5000]);
+
+        // Act
+        internal.close();
+
+        // Assert
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        storage.open();
+        assertEquals(0, storage.keys().length);
+        storage.close();
+    }
+
+    @Test
+    public void deleteStream_shouldDeleteManifestAndEveryChunk() throws Exception {
+        // Arrange
+        internal = newStreamingInternal();
+        try (OutputStream output = internal.openOutputStream(TEST_KEY)) {
+            output.write(new byte[5000]);
+        }
+        final InputStream reader = internal.openInputStream(TEST_KEY);
+        assertNotNull(reader);
+
+        // Act
+        final boolean deleted = internal.deleteStream(TEST_KEY);
+
+        // Assert
+        assertTrue(deleted);
+        assertNull(internal.openInputStream(TEST_KEY));
+        assertFalse(internal.deleteStream(TEST_KEY));
+        assertEquals(0, storage.keys().length);
+        try {
+            readFully(reader);
+            fail("Deleted stream should no longer be readable");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Missing chunk"));
+        }
+    }
+
+    @Test
+    public void openInputStream_shouldReturnNullIfNothingWasWritten() {
+        // Act & Assert
+        assertNull(internal.openInputStream(TEST_KEY));
+    }
+
+    @Test
+    public void namespace_keysAndValues_shouldListOnlyNamespace() {
+        // Arrange
+        final Map<MLockKey, MLockData<?>> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            final MLockKey key = new MLockKey("user:42", TEST_KEY + i);
+            values.put(key, new MLockInteger(key, i));
+        }
+        internal.commitAll(values);
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), -1));
+
+        // Act
+        final List<MLockKey> keys = internal.keys("user:42");
+        final Map<MLockKey, Object> iterated = new HashMap<>();
+        for (final Iterator<MLockData<?>> it = internal.values("user:42"); it.hasNext(); ) {
+            final MLockData<?> data = it.next();
+            iterated.put(data.getKey(), data.getValue());
+        }
+
+        // Assert
+        assertEquals(100, keys.size());
+        assertEquals(values.keySet(), new HashSet<>(keys));
+        assertEquals("user:42", keys.get(0).getNamespace());
+        assertEquals(100, iterated.size());
+        for (final Map.Entry<MLockKey, MLockData<?>> entry : values.entrySet()) {
+            assertEquals(entry.getValue().getValue(), iterated.get(entry.getKey()));
+        }
+        assertTrue(internal.keys("user:7").isEmpty());
+    }
+
+    @Test
+    public void clearNamespace_concurrentFlush_shouldKeepValueQueuedAfterClearStarted() throws Exception {
+        // Arrange
+        final CountDownLatch clearing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        internal.close();
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        final MLockStorage blocking = mock(MLockStorage.class, delegatesTo(storage));
+        doAnswer(invocation -> {
+            clearing.countDown();
+            assertTrue(release.await(30, TimeUnit.SECONDS));
+            return storage.clearNamespace(invocation.getArgument(0));
+        }).when(blocking).clearNamespace(any(byte[].class));
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, blocking);
+        final MLockKey key = new MLockKey("user:42", TEST_KEY);
+        final MLockKey pending = new MLockKey("user:42", TEST_KEY + "_pending");
+        internal.commitAll(Collections.singletonMap(key, new MLockInteger(key, 1)));
+        final AtomicReference<Integer> deleted = new AtomicReference<>();
+        final Thread clearer = new Thread(() -> deleted.set(internal.clearNamespace("user:42")));
+        clearer.start();
+        assertTrue(clearing.await(30, TimeUnit.SECONDS));
+
+        // Act
+        internal.getWriteQueue().enqueue(pending, new MLockInteger(pending, 2));
+        final Thread flusher = new Thread(() -> {
+            try {
+                internal.getWriteQueue().flush();
+            } catch (MLockException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        flusher.start();
+        flusher.join(200);
+        release.countDown();
+        clearer.join(TimeUnit.SECONDS.toMillis(30));
+        flusher.join(TimeUnit.SECONDS.toMillis(30));
+
+        // Assert
+        assertEquals(Integer.valueOf(1), deleted.get());
+        assertEquals(2, internal.getAll(Collections.singleton(pending)).get(pending).getValue());
+        assertTrue(internal.getAll(Collections.singleton(key)).isEmpty());
+    }
+
+    @Test
+    public void values_afterClose_shouldThrowIllegalStateException() {
+        // Arrange
+        final Map<MLockKey, MLockData<?>> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            final MLockKey key = new MLockKey("user:42", TEST_KEY + i);
+            values.put(key, new MLockInteger(key, i));
+        }
+        internal.commitAll(values);
+        final Iterator<MLockData<?>> iterator = internal.values("user:42");
+        for (int i = 0; i < 64; i++) iterator.next();
+
+        // Act
+        internal.close();
+
+        // Assert
+        try {
+            iterator.hasNext();
+            fail("Iterating after close should fail");
+        } catch (IllegalStateException e) {
+            assertEquals("MLock was reset while iterating", e.getMessage());
+        }
+    }
+
+    @Test
+    public void clearNamespace_shouldDeleteNamespaceAndDropCachedValues() {
+        // Arrange
+        final MLockOptions options = new MLockOptions.Builder()
+                .setValueCache(16, 1, TimeUnit.MINUTES)
+                .setWriteBehind(1, TimeUnit.MINUTES, 1000)
+                .build();
+        internal = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+        final MLockKey key = new MLockKey("user:42", TEST_KEY);
+        final MLockKey pending = new MLockKey("user:42", TEST_KEY + "_pending");
+        internal.commitAll(Collections.singletonMap(key, new MLockInteger(key, 42)));
+        internal.commit(TEST_KEY, new MLockInteger(new MLockKey(TEST_KEY), 7));
+        assertEquals(1, internal.getAll(Collections.singleton(key)).size());
+        internal.getWriteQueue().enqueue(pending, new MLockInteger(pending, 1));
+
+        // Act
+        final int deleted = internal.clearNamespace("user:42");
+
+        // Assert
+        assertEquals(2, deleted);
+        assertTrue(internal.getAll(Arrays.asList(key, pending)).isEmpty());
+        assertEquals(7, internal.get(TEST_KEY).getValue());
+    }
+
+    private MLockInternal newBloomFilterInternal(MLockMetrics metrics) {
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        final MLockOptions options = new MLockOptions.Builder()
+                .setMetrics(metrics)
+                .setBloomFilter(1000, MLockOptions.DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE)
+                .build();
+        final File file = new File(folder.getRoot(), MLockBloomFilter.FILE_NAME);
+        final MLockBloomFilter bloomFilter = new MLockBloomFilter(file, MLockBloomFilter.storageId(options),
+                options.getBloomFilterExpectedKeys(), options.getBloomFilterFalsePositiveRate());
+        return new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options, bloomFilter);
+    }
+
+    /**
+     * @return {@link MLockInternal} writing streams in 1 KiB chunks.
+     */
+    private MLockInternal newStreamingInternal() {
+        internal.close();
+        storage = new MLockNative(new File(folder.getRoot(), MLockNative.DATABASE_NAME), TEST_DATABASE_KEY::clone);
+        final MLockOptions options = new MLockOptions.Builder()
+                .setStreamChunkSize(1024)
+                .build();
+        return new MLockInternal(new MLockCipherSymmetric(), keyStore, storage, null, options);
+    }
+
+    /**
+     * Reads a stream to its end.
+     */
+    private static byte[] readFully(InputStream input) throws IOException {
+        assertNotNull(input);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[700];
+        int read;
+        while ((read = input.read(buffer)) != -1) output.write(buffer, 0, read);
+        return output.toByteArray();
+    }
+
+    /**
+     * @return {@link MLockKeyStore} with in-memory software keys in place of the AndroidKeyStore.
+     */
+    private void assertStorageClosed() {
+        try {
+            storage.get(new MLockKey(TEST_KEY).getKey().getBytes(StandardCharsets.US_ASCII));
+            fail("Storage should be closed");
+        } catch (IOException expected) {
+            // Closed.
+        }
+    }
+
+    static MLockKeyStore<?> softwareKeyStore() {
+        return new MLockKeyStoreProvided(MLockSoftwareKeyProvider.inMemory());
+    }
+}
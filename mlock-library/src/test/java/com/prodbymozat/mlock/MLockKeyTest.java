@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.prodbymozat.mlock;
+
+import org.junit.After;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit Test Class for {@link MLockKey}.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockKeyTest {
+
+    // Test Constants
+    private static final String TEST_KEY = "abc";
+    private static final String TEST_KEY_SHA_256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @After
+    public void tearDown() {
+        MLockKey.setCacheSize(0);
+    }
+
+    @Test
+    public void getKey_shouldReturnHexSha256() {
+        // Act
+        final MLockKey key = new MLockKey(TEST_KEY);
+
+        // Assert
+        assertEquals(TEST_KEY_SHA_256, key.getKey());
+        assertArrayEquals(TEST_KEY_SHA_256.getBytes(StandardCharsets.US_ASCII), key.hexBytes());
+        assertEquals(32, key.getDigest().length);
+    }
+
+    @Test
+    public void equals_shouldCompareDigests() {
+        // Act
+        final MLockKey key = new MLockKey(TEST_KEY);
+        final MLockKey same = new MLockKey(TEST_KEY);
+        final MLockKey other = new MLockKey(TEST_KEY + "_other");
+
+        // Assert
+        assertEquals(key, same);
+        assertEquals(key.hashCode(), same.hashCode());
+        assertNotEquals(key, other);
+    }
+
+    @Test
+    public void constructor_withNamespace_shouldNotCollideWithOtherNamespaces() {
+        // Act
+        final MLockKey key = new MLockKey("user:42", TEST_KEY);
+        final MLockKey other = new MLockKey("user:7", TEST_KEY);
+
+        // Assert
+        assertEquals("user:42", key.getNamespace());
+        assertEquals(key, new MLockKey("user:42", TEST_KEY));
+        assertNotEquals(key, other);
+        assertNotEquals(key, new MLockKey(TEST_KEY));
+        assertNull(new MLockKey(TEST_KEY).getNamespace());
+    }
+
+    @Test
+    public void fromHex_shouldRestoreKey() {
+        // Arrange
+        final MLockKey key = new MLockKey("user:42", TEST_KEY);
+
+        // Act
+        final MLockKey restored = MLockKey.fromHex(key.hexBytes(), key.getNamespace());
+
+        // Assert
+        assertEquals(key, restored);
+        assertEquals(key.getKey(), restored.getKey());
+        assertNull(MLockKey.fromHex(new byte[]{'z', 'z'}, null));
+    }
+
+    @Test
+    public void getDigest_shouldReturnCopy() {
+        // Arrange
+        final MLockKey key = new MLockKey(TEST_KEY);
+
+        // Act
+        key.getDigest()[0] ^= 0xff;
+
+        // Assert
+        assertEquals(TEST_KEY_SHA_256, key.getKey());
+    }
+
+    @Test
+    public void constructor_withCache_shouldReuseDigest() {
+        // Arrange
+        MLockKey.setCacheSize(16);
+
+        // Act
+        final MLockKey key = new MLockKey(TEST_KEY);
+        final MLockKey same = new MLockKey(TEST_KEY);
+
+        // Assert
+        assertSame(key.digest(), same.digest());
+        assertEquals(TEST_KEY_SHA_256, same.getKey());
+    }
+
+    @Test
+    public void constructor_withoutCache_shouldHashAgain() {
+        // Act
+        final MLockKey key = new MLockKey(TEST_KEY);
+        final MLockKey same = new MLockKey(TEST_KEY);
+
+        // Assert
+        assertNotSame(key.digest(), same.digest());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_namespaceWithNul_shouldThrowIllegalArgumentException() {
+        // Act, would hash like namespace "a" with key "b\0c"
+        new MLockKey("a\u0000b", "c");
+    }
+
+    @Test
+    public void constructor_keyWithNul_shouldNotCollideWithOtherNamespace() {
+        // Act
+        final MLockKey key = new MLockKey("a", "b\u0000c");
+        final MLockKey other = new MLockKey("a", "b");
+
+        // Assert
+        assertNotEquals(key.getKey(), other.getKey());
+        assertNotEquals(key.getKey(), new MLockKey("a\u0000b\u0000c").getKey());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void namespace_withNul_shouldThrowIllegalArgumentException() {
+        // Act
+        MLock.namespace("user\u000042");
+    }
+}
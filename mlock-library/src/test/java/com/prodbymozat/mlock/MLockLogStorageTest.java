@@ -0,0 +1,601 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Test Class for {@link MLockLogStorage}.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockLogStorageTest {
+
+    // Test Constants
+    private static final byte[] TEST_LOG_KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TEST_KEY = bytes("test_key");
+    private static final byte[] TEST_VALUE = bytes("test_value");
+    private static final byte[] TEST_NAMESPACE = bytes("user:42");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * {@link MLockLogStorage}
+     */
+    private MLockLogStorage storage;
+
+    /**
+     * Log file.
+     */
+    private File logFile;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = new File(folder.getRoot(), MLockLogStorage.LOG_NAME);
+        storage = open(logFile);
+    }
+
+    @After
+    public void tearDown() {
+        storage.close();
+    }
+
+    @Test
+    public void get_shouldReturnNullIfNothingWasPut() throws IOException {
+        // Act & Assert
+        assertNull(storage.get(TEST_KEY));
+        assertNull(storage.getBuffer(TEST_KEY));
+    }
+
+    @Test
+    public void put_shouldReplacePreviousValue() throws IOException {
+        // Arrange
+        final byte[] value = {0, 1, 2, (byte) 0xff};
+        storage.put(TEST_KEY, TEST_VALUE);
+
+        // Act
+        storage.put(TEST_KEY, value);
+
+        // Assert
+        assertArrayEquals(value, storage.get(TEST_KEY));
+    }
+
+    @Test
+    public void putAll_shouldSaveDirectAndHeapValues() throws IOException {
+        // Arrange
+        final byte[] large = new byte[128 * 1024];
+        new Random(7).nextBytes(large);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(large.length);
+        direct.put(large).flip();
+        final ByteBuffer heapSlice = ByteBuffer.wrap(new byte[]{9, 1, 2, 3, 9}, 1, 3);
+        final byte[][] keys = {bytes("heap"), bytes("direct"), TEST_KEY};
+
+        // Act
+        storage.putAll(keys, new ByteBuffer[]{heapSlice, direct, ByteBuffer.wrap(TEST_VALUE)});
+
+        // Assert
+        assertArrayEquals(new byte[]{1, 2, 3}, storage.get(keys[0]));
+        final ByteBuffer buffer = storage.getBuffer(keys[1]);
+        assertNotNull(buffer);
+        assertTrue(buffer.isDirect());
+        assertArrayEquals(large, toArray(buffer));
+        final byte[][] values = storage.getAll(new byte[][]{TEST_KEY, bytes("missing")});
+        assertArrayEquals(TEST_VALUE, values[0]);
+        assertNull(values[1]);
+    }
+
+    @Test
+    public void remove_shouldDeleteValue() throws IOException {
+        // Arrange
+        storage.put(TEST_KEY, TEST_VALUE);
+
+        // Act & Assert
+        assertTrue(storage.remove(TEST_KEY));
+        assertFalse(storage.remove(TEST_KEY));
+        assertNull(storage.get(TEST_KEY));
+    }
+
+    @Test
+    public void clear_shouldDeleteEveryValueAndShrinkLog() throws IOException {
+        // Arrange
+        storage.put(TEST_KEY, TEST_VALUE);
+
+        // Act
+        storage.clear();
+
+        // Assert
+        assertNull(storage.get(TEST_KEY));
+        assertEquals(MLockLogStorage.HEADER_LENGTH, logFile.length());
+    }
+
+    @Test
+    public void open_shouldReplayLog() throws IOException {
+        // Arrange
+        final byte[] otherKey = bytes("other_key");
+        storage.put(TEST_KEY, bytes("first"));
+        storage.put(otherKey, TEST_VALUE);
+        storage.put(TEST_KEY, TEST_VALUE);
+        storage.remove(otherKey);
+        storage.close();
+
+        // Act
+        storage = open(logFile);
+
+        // Assert
+        assertArrayEquals(TEST_VALUE, storage.get(TEST_KEY));
+        assertNull(storage.get(otherKey));
+    }
+
+    @Test
+    public void open_tornFrame_shouldKeepCompleteWritesAndAcceptNewOnes() throws IOException {
+        // Arrange
+        final byte[] tornKey = bytes("torn_key");
+        storage.put(TEST_KEY, TEST_VALUE);
+        final long complete = logFile.length();
+        storage.putAll(new byte[][]{tornKey, bytes("other")}, new byte[][]{TEST_VALUE, TEST_VALUE});
+        storage.close();
+        truncate(logFile, logFile.length() - 3);
+
+        // Act
+        storage = open(logFile);
+        storage.put(tornKey, bytes("rewritten"));
+        storage.close();
+        storage = open(logFile);
+
+        // Assert
+        assertTrue(logFile.length() > complete);
+        assertArrayEquals(TEST_VALUE, storage.get(TEST_KEY));
+        assertArrayEquals(bytes("rewritten"), storage.get(tornKey));
+        assertNull(storage.get(bytes("other")));
+    }
+
+    @Test
+    public void open_corruptedFrame_shouldDiscardItAndEverythingAfter() throws IOException {
+        // Arrange
+        storage.put(TEST_KEY, TEST_VALUE);
+        final long corrupted = logFile.length();
+        storage.put(TEST_KEY, bytes("corrupted"));
+        storage.put(bytes("later"), TEST_VALUE);
+        storage.close();
+        // A crash leaves no saved index covering the damaged frame.
+        Files.delete(indexFile().toPath());
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            file.seek(corrupted + MLockLogStorage.FRAME_HEADER_LENGTH + 1);
+            file.write(0x7f);
+        }
+
+        // Act
+        storage = open(logFile);
+
+        // Assert
+        assertArrayEquals(TEST_VALUE, storage.get(TEST_KEY));
+        assertNull(storage.get(bytes("later")));
+        assertEquals(corrupted, logFile.length());
+    }
+
+    @Test
+    public void close_shouldSaveIndexThatOpenMaps() throws IOException {
+        // Arrange
+        for (int i = 0; i < 100; i++) storage.put(bytes("key-" + i), bytes("value-" + i));
+        storage.putAll(new byte[][]{TEST_KEY}, new ByteBuffer[]{ByteBuffer.wrap(TEST_VALUE)},
+                new byte[][]{TEST_NAMESPACE});
+        storage.remove(bytes("key-0"));
+        storage.close();
+
+        // Act
+        storage = open(logFile);
+        storage.remove(bytes("key-1"));
+        storage.put(bytes("key-2"), bytes("rewritten"));
+        final long garbage = storage.garbageBytes();
+        storage.close();
+        storage = open(logFile);
+
+        // Assert
+        assertTrue(indexFile().exists());
+        assertNull(storage.get(bytes("key-0")));
+        assertNull(storage.get(bytes("key-1")));
+        assertArrayEquals(bytes("rewritten"), storage.get(bytes("key-2")));
+        assertArrayEquals(bytes("value-99"), storage.get(bytes("key-99")));
+        assertNull(storage.get(bytes("key-100")));
+        assertArrayEquals(TEST_KEY, storage.keys(TEST_NAMESPACE)[0]);
+        assertEquals(garbage, storage.garbageBytes());
+    }
+
+    @Test
+    public void open_savedIndex_shouldReplayFramesWrittenAfterIt() throws IOException {
+        // Arrange
+        storage.put(TEST_KEY, TEST_VALUE);
+        storage.put(bytes("removed"), TEST_VALUE);
+        storage.saveIndex();
+        storage.put(bytes("later"), TEST_VALUE);
+        storage.remove(bytes("removed"));
+        final long garbage = storage.garbageBytes();
+
+        // Act, from a copy of the files as a crash would leave them.
+        final File crashed = new File(folder.newFolder(), MLockLogStorage.LOG_NAME);
+        Files.copy(logFile.toPath(), crashed.toPath());
+        Files.copy(indexFile().toPath(), new File(crashed.getPath() + MLockLogStorage.INDEX_SUFFIX).toPath());
+        final MLockLogStorage reopened = open(crashed);
+
+        // Assert
+        try {
+            assertArrayEquals(TEST_VALUE, reopened.get(TEST_KEY));
+            assertArrayEquals(TEST_VALUE, reopened.get(bytes("later")));
+            assertNull(reopened.get(bytes("removed")));
+            assertEquals(garbage, reopened.garbageBytes());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void open_staleIndex_shouldReplayWholeLog() throws IOException {
+        // Arrange
+        storage.put(TEST_KEY, TEST_VALUE);
+        storage.close();
+        final byte[] stale = Files.readAllBytes(indexFile().toPath());
+        storage = open(logFile);
+        storage.put(bytes("later"), TEST_VALUE);
+        storage.remove(TEST_KEY);
+        storage.compact();
+        storage.close();
+        Files.write(indexFile().toPath(), stale);
+
+        // Act
+        storage = open(logFile);
+
+        // Assert
+        assertNull(storage.get(TEST_KEY));
+        assertArrayEquals(TEST_VALUE, storage.get(bytes("later")));
+    }
+
+    @Test
+    public void open_corruptedIndex_shouldReplayWholeLog() throws IOException {
+        // Arrange
+        storage.put(TEST_KEY, TEST_VALUE);
+        storage.close();
+        try (RandomAccessFile file = new RandomAccessFile(indexFile(), "rw")) {
+            file.seek(MLockLogStorage.INDEX_HEADER_LENGTH - 5);
+            file.write(0x7f);
+        }
+
+        // Act
+        storage = open(logFile);
+        storage.put(bytes("later"), TEST_VALUE);
+
+        // Assert
+        assertArrayEquals(TEST_VALUE, storage.get(TEST_KEY));
+        assertArrayEquals(TEST_VALUE, storage.get(bytes("later")));
+    }
+
+    @Test
+    public void clear_shouldDeleteSavedIndex() throws IOException {
+        // Arrange
+        storage.put(TEST_KEY, TEST_VALUE);
+        storage.saveIndex();
+
+        // Act
+        storage.clear();
+
+        // Assert
+        assertFalse(indexFile().exists());
+        assertNull(storage.get(TEST_KEY));
+    }
+
+    @Test
+    public void keys_shouldListEveryLiveKeyAcrossReopen() throws IOException {
+        // Arrange
+        storage.putAll(new byte[][]{bytes("a"), bytes("b")}, new ByteBuffer[]{ByteBuffer.wrap(TEST_VALUE),
+                ByteBuffer.wrap(TEST_VALUE)}, new byte[][]{TEST_NAMESPACE, null});
+        storage.put(TEST_KEY, TEST_VALUE);
+        storage.remove(bytes("b"));
+        storage.close();
+        storage = open(logFile);
+        storage.put(bytes("c"), TEST_VALUE);
+
+        // Act
+        final byte[][] keys = storage.keys();
+
+        // Assert
+        final Set<String> listed = new HashSet<>();
+        for (final byte[] key : keys) listed.add(new String(key, StandardCharsets.UTF_8));
+        assertEquals(new HashSet<>(Arrays.asList("a", "c", "test_key")), listed);
+    }
+
+    @Test
+    public void namespaces_shouldListScanAndClearAcrossReopen() throws IOException {
+        // Arrange
+        final byte[][] keys = {bytes("c"), bytes("a"), bytes("b"), TEST_KEY};
+        final byte[][] namespaces = {TEST_NAMESPACE, TEST_NAMESPACE, TEST_NAMESPACE, bytes("user:7")};
+        storage.putAll(keys, new ByteBuffer[]{ByteBuffer.wrap(bytes("vc")), ByteBuffer.wrap(bytes("va")),
+                ByteBuffer.wrap(bytes("vb")), ByteBuffer.wrap(TEST_VALUE)}, namespaces);
+
+        // Act
+        final byte[][] listed = storage.keys(TEST_NAMESPACE);
+        final byte[][] first = storage.scan(TEST_NAMESPACE, null, 2);
+        final byte[][] second = storage.scan(TEST_NAMESPACE, first[first.length - 2], 2);
+        final int cleared = storage.clearNamespace(TEST_NAMESPACE);
+        storage.close();
+        storage = open(logFile);
+
+        // Assert
+        assertEquals(3, listed.length);
+        assertArrayEquals(bytes("a"), listed[0]);
+        assertArrayEquals(bytes("c"), listed[2]);
+        assertEquals(4, first.length);
+        assertArrayEquals(bytes("vb"), first[3]);
+        assertEquals(2, second.length);
+        assertArrayEquals(bytes("c"), second[0]);
+        assertEquals(3, cleared);
+        assertEquals(0, storage.keys(TEST_NAMESPACE).length);
+        assertNull(storage.get(bytes("a")));
+        assertArrayEquals(TEST_VALUE, storage.get(TEST_KEY));
+        assertEquals(1, storage.keys(bytes("user:7")).length);
+    }
+
+    @Test
+    public void putAll_shouldNotStoreNamespaceInPlainText() throws IOException {
+        // Act
+        storage.putAll(new byte[][]{TEST_KEY}, new ByteBuffer[]{ByteBuffer.wrap(TEST_VALUE)},
+                new byte[][]{TEST_NAMESPACE});
+        storage.close();
+
+        // Assert
+        final String log = new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(log.contains("user:42"));
+        assertTrue(log.contains("test_value"));
+    }
+
+    @Test
+    public void commit_throughInternal_shouldRoundTripAndPersist() throws IOException {
+        // Arrange
+        storage.close();
+        final MLockKeyStore<?> keyStore = MLockInternalTest.softwareKeyStore();
+        final MLockInternal writer = new MLockInternal(new MLockCipherSymmetric(), keyStore, open(logFile));
+        writer.commit("test_key", new MLockString(new MLockKey("test_key"), "Some Test Data"));
+        writer.close();
+
+        // Act
+        storage = open(logFile);
+        final MLockInternal reader = new MLockInternal(new MLockCipherSymmetric(), keyStore, storage);
+        final MLockData<?> result = reader.get("test_key");
+        reader.close();
+
+        // Assert
+        assertNotNull(result);
+        assertEquals("Some Test Data", result.getValue());
+    }
+
+    @Test
+    public void compact_shouldReclaimGarbageAndKeepLiveValues() throws IOException {
+        // Arrange
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) storage.put(bytes("key-" + i), bytes("value-" + round + "-" + i));
+        }
+        for (int i = 0; i < 100; i += 2) storage.remove(bytes("key-" + i));
+        storage.putAll(new byte[][]{bytes("a")}, new ByteBuffer[]{ByteBuffer.wrap(TEST_VALUE)},
+                new byte[][]{TEST_NAMESPACE});
+        final long size = storage.size();
+
+        // Act
+        final long reclaimed = storage.compact();
+        storage.close();
+        storage = open(logFile);
+
+        // Assert
+        assertTrue(reclaimed > size / 2);
+        assertEquals(size - reclaimed, logFile.length());
+        assertTrue(storage.garbageBytes() < 64);
+        assertNull(storage.get(bytes("key-0")));
+        for (int i = 1; i < 100; i += 2) assertArrayEquals(bytes("value-2-" + i), storage.get(bytes("key-" + i)));
+        assertArrayEquals(bytes("a"), storage.keys(TEST_NAMESPACE)[0]);
+        assertFalse(new File(logFile.getPath() + MLockLogStorage.COMPACT_SUFFIX).exists());
+    }
+
+    @Test
+    public void compact_concurrentWrites_shouldKeepLatestValues() throws Exception {
+        // Arrange
+        final byte[] large = new byte[64 * 1024];
+        for (int i = 0; i < 40; i++) storage.put(bytes("key-" + i), large);
+        final Thread writer = new Thread(() -> {
+            try {
+                for (int round = 0; round < 20; round++) {
+                    for (int i = 0; i < 40; i += 3) storage.put(bytes("key-" + i), bytes("value-" + round));
+                    storage.remove(bytes("key-" + (round + 1)));
+                }
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        // Act
+        writer.start();
+        storage.compact();
+        writer.join();
+        storage.close();
+        storage = open(logFile);
+
+        // Assert
+        for (int i = 0; i < 40; i++) {
+            final byte[] value = storage.get(bytes("key-" + i));
+            if (i % 3 == 0) assertArrayEquals(bytes("value-19"), value);
+            else if (i >= 1 && i <= 20) assertNull(value);
+            else assertArrayEquals(large, value);
+        }
+    }
+
+    @Test
+    public void put_pastThresholds_shouldCompactInBackground() throws Exception {
+        // Arrange
+        storage.close();
+        final MLockMetrics metrics = new MLockMetrics();
+        storage = new MLockLogStorage(logFile, TEST_LOG_KEY::clone, 16 * 1024, 0.5f, metrics);
+        storage.open();
+
+        // Act
+        for (int i = 0; i < 1000; i++) storage.put(TEST_KEY, bytes("value-" + i));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getCompactionPauses().getCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Assert
+        assertTrue(metrics.getCompactionPauses().getCount() > 0);
+        assertTrue(metrics.getBytesReclaimed() > 0);
+        assertTrue(storage.size() < 1000 * 64);
+        assertArrayEquals(bytes("value-999"), storage.get(TEST_KEY));
+    }
+
+    @Test
+    public void close_withCompactionQueued_shouldNotReportItAsFailure() throws Exception {
+        // Arrange
+        final List<LogRecord> warnings = new CopyOnWriteArrayList<>();
+        final Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getLevel().intValue() >= Level.WARNING.intValue()) warnings.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final Logger logger = Logger.getLogger(MLockLogStorage.class.getSimpleName());
+        storage.close();
+        storage = new MLockLogStorage(logFile, TEST_LOG_KEY::clone, 64 * 1024, 0.5f, null);
+        storage.open();
+        // Stop one put short of the compaction threshold.
+        final byte[] value = new byte[1024];
+        final long before = storage.size();
+        storage.put(TEST_KEY, value);
+        final long frameLength = storage.size() - before;
+        while (storage.size() + frameLength < 64 * 1024) storage.put(TEST_KEY, value);
+        logger.addHandler(handler);
+
+        try {
+            // Act
+            storage.put(TEST_KEY, value);
+            storage.close();
+            Thread.sleep(200);
+
+            // Assert
+            assertTrue(warnings.isEmpty());
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+
+    @Test
+    public void open_shouldDeleteUnfinishedCompaction() throws IOException {
+        // Arrange
+        storage.put(TEST_KEY, TEST_VALUE);
+        storage.close();
+        final File compactFile = new File(logFile.getPath() + MLockLogStorage.COMPACT_SUFFIX);
+        Files.write(compactFile.toPath(), new byte[]{1, 2, 3});
+
+        // Act
+        storage = open(logFile);
+
+        // Assert
+        assertFalse(compactFile.exists());
+        assertArrayEquals(TEST_VALUE, storage.get(TEST_KEY));
+    }
+
+    @Test(expected = IOException.class)
+    public void get_afterClose_shouldThrowIOException() throws IOException {
+        // Arrange
+        storage.close();
+
+        // Act
+        storage.get(TEST_KEY);
+    }
+
+    /**
+     * @return Index file saved next to the test log.
+     */
+    private File indexFile() {
+        return new File(logFile.getPath() + MLockLogStorage.INDEX_SUFFIX);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer.
+     */
+    private static byte[] toArray(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile random = new RandomAccessFile(file, "rw")) {
+            random.setLength(length);
+        }
+    }
+
+    /**
+     * Opens an {@link MLockLogStorage} with the test log key.
+     */
+    private static MLockLogStorage open(File file) throws IOException {
+        final MLockLogStorage storage = new MLockLogStorage(file, TEST_LOG_KEY::clone);
+        storage.open();
+        return storage;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Test Class for {@link MLockMetrics}.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockMetricsTest {
+
+    @Test
+    public void histogram_emptyShouldReportZero() {
+        // Arrange
+        final MLockMetrics.Histogram histogram = new MLockMetrics().getHistogram(
+                MLockMetrics.Operation.GET, MLockMetrics.Stage.TOTAL);
+
+        // Act & Assert
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanNanos());
+        assertEquals(0, histogram.getPercentileNanos(99));
+    }
+
+    @Test
+    public void histogram_percentilesShouldBeWithinFactorOfTwo() {
+        // Arrange
+        final MLockMetrics metrics = new MLockMetrics();
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            metrics.record(MLockMetrics.Operation.GET, MLockMetrics.Stage.CIPHER, nanos * 1000);
+        }
+        final MLockMetrics.Histogram histogram =
+                metrics.getHistogram(MLockMetrics.Operation.GET, MLockMetrics.Stage.CIPHER);
+
+        // Act
+        final long p50 = histogram.getPercentileNanos(50);
+        final long p99 = histogram.getPercentileNanos(99);
+
+        // Assert
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getMeanNanos());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+        assertTrue(p50 >= 500_000 && p50 < 1_000_000);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000);
+        assertEquals(1_000_000, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void reset_shouldClearHistogramsAndCounters() {
+        // Arrange
+        final MLockMetrics metrics = new MLockMetrics();
+        metrics.record(MLockMetrics.Operation.COMMIT, MLockMetrics.Stage.TOTAL, 42);
+        metrics.recordLookup(true);
+        metrics.recordLookup(false);
+        metrics.recordCompaction(1000, 10, 4096);
+        metrics.recordBloomFilter(false);
+        metrics.recordBloomFilter(true);
+        metrics.recordBloomFilterFalsePositive();
+
+        // Act
+        metrics.reset();
+
+        // Assert
+        assertEquals(0, metrics.getHistogram(MLockMetrics.Operation.COMMIT, MLockMetrics.Stage.TOTAL).getCount());
+        assertEquals(0, metrics.getCacheHits());
+        assertEquals(0, metrics.getCacheMisses());
+        assertEquals(0, metrics.getCompactionPauses().getCount());
+        assertEquals(0, metrics.getBytesReclaimed());
+        assertEquals(0, metrics.getBloomFilterNegatives());
+        assertEquals(0, metrics.getBloomFilterPositives());
+        assertEquals(0, metrics.getBloomFilterFalsePositives());
+    }
+
+    @Test
+    public void recordCompaction_shouldRecordTimeAndPauseAndReclaimedBytes() {
+        // Arrange
+        final MLockMetrics metrics = new MLockMetrics();
+
+        // Act
+        metrics.recordCompaction(1000, 10, 4096);
+        metrics.recordCompaction(3000, 30, 1024);
+
+        // Assert
+        assertEquals(2, metrics.getHistogram(MLockMetrics.Operation.COMPACT, MLockMetrics.Stage.TOTAL).getCount());
+        assertEquals(30, metrics.getCompactionPauses().getMaxNanos());
+        assertEquals(5120, metrics.getBytesReclaimed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void histogram_invalidPercentile_shouldThrowIllegalArgumentException() {
+        // Act
+        new MLockMetrics().getHistogram(MLockMetrics.Operation.GET, MLockMetrics.Stage.TOTAL).getPercentileNanos(101);
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Unit Test Class for {@link MLockNative}, runs against a host build of libmlock. Skipped if the library is
+ * not on `java.library.path`, build it with `./gradlew buildHostNative`.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockNativeTest {
+
+    // Test Constants
+    private static final byte[] TEST_DATABASE_KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TEST_KEY = "test_key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TEST_VALUE = "test_value".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * {@link MLockNative}
+     */
+    private MLockNative mLockNative;
+
+    /**
+     * Database file.
+     */
+    private File databaseFile;
+
+    @BeforeClass
+    public static void setUpClass() {
+        assumeTrue("Host build of libmlock is missing", isLibraryAvailable());
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        databaseFile = new File(folder.getRoot(), MLockNative.DATABASE_NAME);
+        mLockNative = open(databaseFile);
+    }
+
+    @After
+    public void tearDown() {
+        mLockNative.close();
+    }
+
+    @Test
+    public void get_shouldReturnNullIfNothingWasPut() throws IOException {
+        // Act & Assert
+        assertNull(mLockNative.get(TEST_KEY));
+    }
+
+    @Test
+    public void put_shouldBeReturnedByGet() throws IOException {
+        // Act
+        mLockNative.put(TEST_KEY, TEST_VALUE);
+
+        // Assert
+        assertArrayEquals(TEST_VALUE, mLockNative.get(TEST_KEY));
+    }
+
+    @Test
+    public void put_shouldReplacePreviousValue() throws IOException {
+        // Arrange
+        final byte[] value = {0, 1, 2, (byte) 0xff};
+        mLockNative.put(TEST_KEY, TEST_VALUE);
+
+        // Act
+        mLockNative.put(TEST_KEY, value);
+
+        // Assert
+        assertArrayEquals(value, mLockNative.get(TEST_KEY));
+    }
+
+    @Test
+    public void putAll_shouldSaveEveryValue() throws IOException {
+        // Arrange
+        final byte[][] keys = new byte[100][];
+        final byte[][] values = new byte[100][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ("key-" + i).getBytes(StandardCharsets.UTF_8);
+            values[i] = ("value-" + i).getBytes(StandardCharsets.UTF_8);
+        }
+
+        // Act
+        mLockNative.putAll(keys, values);
+
+        // Assert
+        for (int i = 0; i < keys.length; i++) assertArrayEquals(values[i], mLockNative.get(keys[i]));
+    }
+
+    @Test
+    public void getAll_shouldReturnValuesInKeyOrder() throws IOException {
+        // Arrange
+        final byte[] missing = "missing_key".getBytes(StandardCharsets.UTF_8);
+        final byte[] otherKey = "other_key".getBytes(StandardCharsets.UTF_8);
+        final byte[] otherValue = "other_value".getBytes(StandardCharsets.UTF_8);
+        mLockNative.put(TEST_KEY, TEST_VALUE);
+        mLockNative.put(otherKey, otherValue);
+
+        // Act
+        final byte[][] values = mLockNative.getAll(new byte[][]{otherKey, missing, TEST_KEY});
+
+        // Assert
+        assertEquals(3, values.length);
+        assertArrayEquals(otherValue, values[0]);
+        assertNull(values[1]);
+        assertArrayEquals(TEST_VALUE, values[2]);
+    }
+
+    @Test
+    public void getBuffer_smallValue_shouldReturnHeapBuffer() throws IOException {
+        // Arrange
+        mLockNative.put(TEST_KEY, TEST_VALUE);
+
+        // Act
+        final ByteBuffer buffer = mLockNative.getBuffer(TEST_KEY);
+
+        // Assert
+        assertNotNull(buffer);
+        assertFalse(buffer.isDirect());
+        assertArrayEquals(TEST_VALUE, toArray(buffer));
+    }
+
+    @Test
+    public void getBuffer_largeValue_shouldReturnDirectBuffer() throws IOException {
+        // Arrange
+        final byte[] value = new byte[256 * 1024];
+        new Random(42).nextBytes(value);
+        mLockNative.put(TEST_KEY, value);
+
+        // Act
+        final ByteBuffer buffer = mLockNative.getBuffer(TEST_KEY);
+
+        // Assert
+        assertNotNull(buffer);
+        assertTrue(buffer.isDirect());
+        assertArrayEquals(value, toArray(buffer));
+    }
+
+    @Test
+    public void putAll_buffers_shouldSaveDirectAndHeapValues() throws IOException {
+        // Arrange
+        final byte[] large = new byte[128 * 1024];
+        new Random(7).nextBytes(large);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(large.length);
+        direct.put(large).flip();
+        final ByteBuffer heapSlice = ByteBuffer.wrap(new byte[]{9, 1, 2, 3, 9}, 1, 3);
+        final byte[][] keys = {"direct".getBytes(StandardCharsets.UTF_8), "heap".getBytes(StandardCharsets.UTF_8)};
+
+        // Act
+        mLockNative.putAll(keys, new ByteBuffer[]{direct, heapSlice});
+
+        // Assert
+        assertArrayEquals(large, mLockNative.get(keys[0]));
+        assertArrayEquals(new byte[]{1, 2, 3}, mLockNative.get(keys[1]));
+    }
+
+    @Test
+    public void remove_shouldDeleteValue() throws IOException {
+        // Arrange
+        mLockNative.put(TEST_KEY, TEST_VALUE);
+
+        // Act & Assert
+        assertTrue(mLockNative.remove(TEST_KEY));
+        assertFalse(mLockNative.remove(TEST_KEY));
+        assertNull(mLockNative.get(TEST_KEY));
+    }
+
+    @Test
+    public void clear_shouldDeleteEveryValue() throws IOException {
+        // Arrange
+        mLockNative.put(TEST_KEY, TEST_VALUE);
+
+        // Act
+        mLockNative.clear();
+
+        // Assert
+        assertNull(mLockNative.get(TEST_KEY));
+    }
+
+    @Test
+    public void keys_shouldListOnlyKeysOfNamespace() throws IOException {
+        // Arrange
+        final byte[] namespace = bytes("user:42");
+        final byte[][] keys = {bytes("b"), bytes("a"), bytes("c")};
+        final byte[][] values = {TEST_VALUE, TEST_VALUE, TEST_VALUE};
+        mLockNative.putAll(keys, toBuffers(values), new byte[][]{namespace, namespace, bytes("user:7")});
+        mLockNative.put(TEST_KEY, TEST_VALUE);
+
+        // Act
+        final byte[][] result = mLockNative.keys(namespace);
+
+        // Assert
+        assertEquals(2, result.length);
+        assertArrayEquals(bytes("a"), result[0]);
+        assertArrayEquals(bytes("b"), result[1]);
+    }
+
+    @Test
+    public void keys_shouldListEveryKey() throws IOException {
+        // Arrange
+        mLockNative.putAll(new byte[][]{bytes("a"), bytes("b")}, toBuffers(new byte[][]{TEST_VALUE, TEST_VALUE}),
+                new byte[][]{bytes("user:42"), null});
+        mLockNative.put(TEST_KEY, TEST_VALUE);
+
+        // Act
+        final byte[][] result = mLockNative.keys();
+
+        // Assert
+        final Set<String> listed = new HashSet<>();
+        for (final byte[] key : result) listed.add(new String(key, StandardCharsets.UTF_8));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "test_key")), listed);
+    }
+
+    @Test
+    public void scan_shouldPageThroughNamespaceInKeyOrder() throws IOException {
+        // Arrange
+        final byte[] namespace = bytes("user:42");
+        final byte[][] keys = new byte[5][];
+        final byte[][] values = new byte[5][];
+        final byte[][] namespaces = new byte[5][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = bytes("key-" + i);
+            values[i] = bytes("value-" + i);
+            namespaces[i] = namespace;
+        }
+        mLockNative.putAll(keys, toBuffers(values), namespaces);
+
+        // Act
+        final byte[][] first = mLockNative.scan(namespace, null, 3);
+        final byte[][] second = mLockNative.scan(namespace, first[first.length - 2], 3);
+
+        // Assert
+        assertEquals(6, first.length);
+        assertEquals(4, second.length);
+        assertArrayEquals(keys[0], first[0]);
+        assertArrayEquals(values[0], first[1]);
+        assertArrayEquals(keys[3], second[0]);
+        assertArrayEquals(values[4], second[3]);
+    }
+
+    @Test
+    public void clearNamespace_shouldDeleteOnlyValuesOfNamespace() throws IOException {
+        // Arrange
+        final byte[] namespace = bytes("user:42");
+        final byte[] otherKey = bytes("other_key");
+        mLockNative.putAll(new byte[][]{TEST_KEY, otherKey}, toBuffers(new byte[][]{TEST_VALUE, TEST_VALUE}),
+                new byte[][]{namespace, null});
+
+        // Act
+        final int deleted = mLockNative.clearNamespace(namespace);
+
+        // Assert
+        assertEquals(1, deleted);
+        assertNull(mLockNative.get(TEST_KEY));
+        assertArrayEquals(TEST_VALUE, mLockNative.get(otherKey));
+        assertEquals(0, mLockNative.keys(namespace).length);
+    }
+
+    @Test
+    public void put_shouldPersistUponReopen() throws IOException {
+        // Arrange
+        mLockNative.put(TEST_KEY, TEST_VALUE);
+        mLockNative.close();
+
+        // Act
+        mLockNative = open(databaseFile);
+
+        // Assert
+        assertArrayEquals(TEST_VALUE, mLockNative.get(TEST_KEY));
+    }
+
+    @Test(expected = IOException.class)
+    public void get_afterClose_shouldThrowIOException() throws IOException {
+        // Arrange
+        mLockNative.close();
+
+        // Act
+        mLockNative.get(TEST_KEY);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer[] toBuffers(byte[][] values) {
+        final ByteBuffer[] buffers = new ByteBuffer[values.length];
+        for (int i = 0; i < values.length; i++) buffers[i] = ByteBuffer.wrap(values[i]);
+        return buffers;
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer.
+     */
+    private static byte[] toArray(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Opens an {@link MLockNative} with the test database key.
+     */
+    private static MLockNative open(File file) throws IOException {
+        final MLockNative mLockNative = new MLockNative(file, TEST_DATABASE_KEY::clone);
+        mLockNative.open();
+        return mLockNative;
+    }
+
+    /**
+     * @return true if the host build of libmlock can be loaded.
+     */
+    static boolean isLibraryAvailable() {
+        try {
+            MLockNative.loadLibrary();
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+}
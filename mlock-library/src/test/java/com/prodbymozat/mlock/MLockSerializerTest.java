@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.prodbymozat.mlock;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Test Class for {@link MLockSerializer}.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockSerializerTest {
+
+    // Test Constants
+    private static final MLockKey TEST_KEY = new MLockKey("test_key");
+    private static final long TEST_TIMESTAMP = 1577836800000L;
+
+    @Test
+    public void encode_shouldUseFixedWidthValues() {
+        // Act & Assert
+        assertEquals(MLockSerializer.HEADER_LENGTH + 4,
+                MLockSerializer.encode(new MLockInteger(TEST_KEY, 1)).length);
+        assertEquals(MLockSerializer.HEADER_LENGTH + 8,
+                MLockSerializer.encode(new MLockLong(TEST_KEY, 1L)).length);
+        assertEquals(MLockSerializer.HEADER_LENGTH + 4,
+                MLockSerializer.encode(new MLockFloat(TEST_KEY, 1f)).length);
+        assertEquals(MLockSerializer.HEADER_LENGTH + 8,
+                MLockSerializer.encode(new MLockDouble(TEST_KEY, 1d)).length);
+        assertEquals(MLockSerializer.HEADER_LENGTH + 1,
+                MLockSerializer.encode(new MLockBoolean(TEST_KEY, true)).length);
+    }
+
+    @Test
+    public void encode_integer_shouldBeLittleEndian() {
+        // Act
+        final byte[] bytes = MLockSerializer.encode(new MLockInteger(TEST_KEY, 0x01020304, TEST_TIMESTAMP));
+
+        // Assert
+        assertEquals(MLockSerializer.TYPE_INTEGER, bytes[0]);
+        assertEquals(0x04, bytes[MLockSerializer.HEADER_LENGTH]);
+        assertEquals(0x01, bytes[MLockSerializer.HEADER_LENGTH + 3]);
+    }
+
+    @Test
+    public void decode_shouldRestoreEveryType() {
+        // Arrange
+        final MLockData<?>[] values = {
+                new MLockInteger(TEST_KEY, Integer.MIN_VALUE, TEST_TIMESTAMP),
+                new MLockLong(TEST_KEY, -1L, TEST_TIMESTAMP),
+                new MLockFloat(TEST_KEY, Float.NaN, TEST_TIMESTAMP),
+                new MLockDouble(TEST_KEY, -0.5, TEST_TIMESTAMP),
+                new MLockBoolean(TEST_KEY, false, TEST_TIMESTAMP),
+                new MLockString(TEST_KEY, "Some Test Data ☃", TEST_TIMESTAMP),
+        };
+
+        for (final MLockData<?> value : values) {
+            // Act
+            final MLockData<?> result = MLockSerializer.decode(TEST_KEY, MLockSerializer.encode(value));
+
+            // Assert
+            assertEquals(value.getClass(), result.getClass());
+            assertEquals(value.getValue(), result.getValue());
+            assertEquals(TEST_TIMESTAMP, result.getTimestamp());
+        }
+    }
+
+    @Test
+    public void decode_bytes_shouldShareRecordWithoutCopying() {
+        // Arrange
+        final byte[] value = {1, 2, 3, 4, 5};
+        final byte[] encoded = MLockSerializer.encode(new MLockBytes(TEST_KEY, ByteBuffer.wrap(value), TEST_TIMESTAMP));
+
+        // Act
+        final MLockData<?> result = MLockSerializer.decode(TEST_KEY, ByteBuffer.wrap(encoded));
+
+        // Assert
+        assertEquals(MLockBytes.class, result.getClass());
+        assertEquals(value.length, ((MLockBytes) result).size());
+        assertArrayEquals(value, ((MLockBytes) result).getValue());
+        assertEquals(TEST_TIMESTAMP, result.getTimestamp());
+        encoded[MLockSerializer.HEADER_LENGTH] = 42;
+        assertEquals(42, ((MLockBytes) result).getBuffer().get(0));
+    }
+
+    @Test
+    public void encodeHeader_bytes_shouldMatchEncodedPrefix() {
+        // Arrange
+        final MLockBytes bytes = new MLockBytes(TEST_KEY, ByteBuffer.wrap(new byte[]{7, 8}), TEST_TIMESTAMP);
+
+        // Act
+        final byte[] header = MLockSerializer.encodeHeader(bytes);
+
+        // Assert
+        assertArrayEquals(header, Arrays.copyOf(MLockSerializer.encode(bytes), MLockSerializer.HEADER_LENGTH));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_wrongValueLength_shouldThrowIllegalArgumentException() {
+        // Arrange
+        final byte[] bytes = MLockSerializer.encode(new MLockLong(TEST_KEY, 1L));
+
+        // Act
+        MLockSerializer.decode(TEST_KEY, Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test
+    public void encode_largeString_shouldCompressAndRoundTrip() {
+        // Arrange
+        final String value = json(200);
+        final MLockString data = new MLockString(TEST_KEY, value, TEST_TIMESTAMP);
+
+        // Act
+        final byte[] bytes = MLockSerializer.encode(data, 1024);
+        final MLockData<?> result = MLockSerializer.decode(TEST_KEY, bytes);
+        final MLockData<?> direct = MLockSerializer.decode(TEST_KEY, direct(bytes));
+
+        // Assert
+        assertEquals(MLockSerializer.TYPE_STRING | MLockSerializer.FLAG_DEFLATED, bytes[0]);
+        assertTrue(bytes.length < MLockSerializer.encode(data).length / 4);
+        assertEquals(value, result.getValue());
+        assertEquals(TEST_TIMESTAMP, result.getTimestamp());
+        assertEquals(value, direct.getValue());
+    }
+
+    @Test
+    public void encode_stringBelowThreshold_shouldNotCompress() {
+        // Arrange
+        final MLockString data = new MLockString(TEST_KEY, json(200), TEST_TIMESTAMP);
+
+        // Act
+        final byte[] bytes = MLockSerializer.encode(data, Integer.MAX_VALUE);
+
+        // Assert
+        assertArrayEquals(MLockSerializer.encode(data), bytes);
+    }
+
+    @Test
+    public void encode_stringLargerCompressed_shouldNotCompress() {
+        // Arrange
+        final MLockString data = new MLockString(TEST_KEY, "Some Test Data", TEST_TIMESTAMP);
+
+        // Act
+        final byte[] bytes = MLockSerializer.encode(data, 1);
+
+        // Assert
+        assertArrayEquals(MLockSerializer.encode(data), bytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_truncatedCompressedString_shouldThrowIllegalArgumentException() {
+        // Arrange
+        final byte[] bytes = MLockSerializer.encode(new MLockString(TEST_KEY, json(200)), 1);
+
+        // Act
+        MLockSerializer.decode(TEST_KEY, Arrays.copyOf(bytes, bytes.length - 8));
+    }
+
+    private static String json(int items) {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(i).append(",\"name\":\"Item ").append(i).append("\",\"active\":true}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+}
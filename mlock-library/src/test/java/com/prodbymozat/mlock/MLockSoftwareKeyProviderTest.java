@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Test Class for {@link MLockSoftwareKeyProvider} and the {@link MLockKeyStoreProvided} it plugs into.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockSoftwareKeyProviderTest {
+
+    // Test Constants
+    private static final String TEST_ALIAS = "test_alias";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generateKey_shouldReturnAes256Key() {
+        // Act
+        final SecretKey key = MLockSoftwareKeyProvider.inMemory().generateKey(TEST_ALIAS);
+
+        // Assert
+        assertNotNull(key);
+        assertEquals("AES", key.getAlgorithm());
+        assertEquals(32, key.getEncoded().length);
+    }
+
+    @Test
+    public void loadKey_inMemory_shouldNotOutliveProvider() {
+        // Arrange
+        MLockSoftwareKeyProvider.inMemory().generateKey(TEST_ALIAS);
+
+        // Act & Assert
+        assertNull(MLockSoftwareKeyProvider.inMemory().loadKey(TEST_ALIAS));
+    }
+
+    @Test
+    public void loadKey_inDirectory_shouldSurviveNewProvider() {
+        // Arrange
+        final SecretKey key = MLockSoftwareKeyProvider.inDirectory(folder.getRoot()).generateKey(TEST_ALIAS);
+
+        // Act
+        final MLockSoftwareKeyProvider provider = MLockSoftwareKeyProvider.inDirectory(folder.getRoot());
+
+        // Assert
+        assertNotNull(key);
+        assertTrue(provider.containsKey(TEST_ALIAS));
+        assertArrayEquals(key.getEncoded(), provider.loadKey(TEST_ALIAS).getEncoded());
+    }
+
+    @Test
+    public void deleteKey_inDirectory_shouldDeleteKeyFile() {
+        // Arrange
+        final MLockSoftwareKeyProvider provider = MLockSoftwareKeyProvider.inDirectory(folder.getRoot());
+        provider.generateKey(TEST_ALIAS);
+
+        // Act
+        provider.deleteKey(TEST_ALIAS);
+
+        // Assert
+        assertFalse(provider.containsKey(TEST_ALIAS));
+        assertFalse(MLockSoftwareKeyProvider.inDirectory(folder.getRoot()).containsKey(TEST_ALIAS));
+    }
+
+    @Test
+    public void deleteAllKeys_inDirectory_shouldDeleteEveryKey() {
+        // Arrange
+        final MLockSoftwareKeyProvider provider = MLockSoftwareKeyProvider.inDirectory(folder.getRoot());
+        provider.generateKey(TEST_ALIAS);
+        provider.generateKey("some/alias with:odd characters");
+
+        // Act
+        provider.deleteAllKeys();
+
+        // Assert
+        assertFalse(provider.containsKey(TEST_ALIAS));
+        assertFalse(provider.containsKey("some/alias with:odd characters"));
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void keyStore_providersOnOtherDirectories_shouldNotShareCachedKeys() throws Exception {
+        // Arrange
+        final MLockKeyStore<?> first = new MLockKeyStoreProvided(
+                MLockSoftwareKeyProvider.inDirectory(folder.newFolder("first")));
+        final MLockKeyStore<?> second = new MLockKeyStoreProvided(
+                MLockSoftwareKeyProvider.inDirectory(folder.newFolder("second")));
+        first.generateKey(TEST_ALIAS);
+
+        // Act
+        final Object key = second.getKey(TEST_ALIAS);
+
+        // Assert
+        assertNull(key);
+        assertFalse(second.hasKey(TEST_ALIAS));
+        assertNotNull(first.getKey(TEST_ALIAS));
+    }
+
+    @Test
+    public void keyStore_shouldRouteThroughProvider() {
+        // Arrange
+        final MLockSoftwareKeyProvider provider = MLockSoftwareKeyProvider.inMemory();
+        final MLockKeyStore<?> keyStore = new MLockKeyStoreProvided(provider);
+
+        // Act
+        final Object key = keyStore.generateKey(TEST_ALIAS);
+
+        // Assert
+        assertSame(provider.loadKey(TEST_ALIAS), key);
+        assertTrue(keyStore.hasKey(TEST_ALIAS));
+        keyStore.deleteKey(TEST_ALIAS);
+        assertFalse(keyStore.hasKey(TEST_ALIAS));
+        assertFalse(provider.containsKey(TEST_ALIAS));
+    }
+
+    @Test
+    public void getInstance_providedKeyStore_shouldUseSymmetricCipher() {
+        // Act
+        final MLockCipher<?> cipher =
+                MLockCipher.getInstance(new MLockKeyStoreProvided(MLockSoftwareKeyProvider.inMemory()));
+
+        // Assert
+        assertTrue(cipher instanceof MLockCipherSymmetric);
+    }
+}
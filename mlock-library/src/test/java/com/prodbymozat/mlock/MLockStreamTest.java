@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.prodbymozat.mlock;
+
+import androidx.annotation.NonNull;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit Test Class for {@link MLockStream}.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockStreamTest {
+
+    // Test Constants
+    private static final byte[] TEST_MANIFEST_KEY = MLockStream.manifestKey("test_key".getBytes(StandardCharsets.UTF_8));
+    private static final byte[] TEST_DATA = "Some Test Data".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void decode_shouldRestoreEncodedManifest() throws Exception {
+        // Arrange
+        final MLockStream stream = MLockStream.create(16).complete(2, 20);
+        final byte[] chunk = stream.encryptChunk(1, true, TEST_DATA, 0, TEST_DATA.length);
+
+        // Act
+        final MLockStream result = MLockStream.decode(stream.encode());
+
+        // Assert
+        assertEquals(16, result.getChunkSize());
+        assertEquals(2, result.getChunkCount());
+        assertEquals(20, result.getLength());
+        assertArrayEquals(stream.chunkKey(TEST_MANIFEST_KEY, 1), result.chunkKey(TEST_MANIFEST_KEY, 1));
+        assertArrayEquals(TEST_DATA, result.decryptChunk(1, chunk));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_lengthBeyondChunks_shouldThrowIllegalArgumentException() {
+        // Act
+        MLockStream.decode(MLockStream.create(16).complete(1, 17).encode());
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void decryptChunk_wrongIndex_shouldFailAuthentication() throws Exception {
+        // Arrange
+        final MLockStream stream = MLockStream.create(16).complete(3, 48);
+        final byte[] chunk = stream.encryptChunk(0, false, TEST_DATA, 0, TEST_DATA.length);
+
+        // Act
+        stream.decryptChunk(1, chunk);
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void decryptChunk_truncatedStream_shouldFailAuthentication() throws Exception {
+        // Arrange, the second of three chunks is presented as the last one.
+        final MLockStream stream = MLockStream.create(16);
+        final byte[] chunk = stream.encryptChunk(1, false, TEST_DATA, 0, TEST_DATA.length);
+
+        // Act
+        stream.complete(2, 32).decryptChunk(1, chunk);
+    }
+
+    @Test
+    public void outputStream_failedCommit_shouldDiscardSavedChunks() throws Exception {
+        // Arrange
+        final RecordingSink sink = new RecordingSink();
+        sink.failCommit = true;
+        final MLockOutputStream output = new MLockOutputStream(sink, TEST_MANIFEST_KEY, MLockStream.create(16));
+        output.write(new byte[40]);
+
+        // Act
+        try {
+            output.close();
+            fail("Close should fail with the commit");
+        } catch (IOException e) {
+            assertEquals("Commit failed", e.getMessage());
+        }
+
+        // Assert
+        assertEquals(3, sink.chunks);
+        assertEquals(1, sink.discarded);
+    }
+
+    @Test
+    public void outputStream_failedChunk_shouldDiscardSavedChunksAndClose() throws Exception {
+        // Arrange
+        final RecordingSink sink = new RecordingSink();
+        sink.failChunk = 1;
+        final MLockOutputStream output = new MLockOutputStream(sink, TEST_MANIFEST_KEY, MLockStream.create(16));
+
+        // Act
+        try {
+            output.write(new byte[40]);
+            fail("Write should fail with the chunk");
+        } catch (IOException e) {
+            assertEquals("Chunk failed", e.getMessage());
+        }
+
+        // Assert
+        assertEquals(1, sink.discarded);
+        try {
+            output.write(1);
+            fail("Stream should be closed");
+        } catch (IOException e) {
+            assertEquals("Stream is closed", e.getMessage());
+        }
+        output.close();
+        assertEquals(1, sink.discarded);
+    }
+
+    @Test
+    public void create_shouldUseFreshKeyAndNoncePrefix() {
+        // Act
+        final MLockStream first = MLockStream.create(16);
+        final MLockStream second = MLockStream.create(16);
+
+        // Assert
+        assertFalse(Arrays.equals(first.encode(), second.encode()));
+        assertFalse(Arrays.equals(first.chunkKey(TEST_MANIFEST_KEY, 0), second.chunkKey(TEST_MANIFEST_KEY, 0)));
+    }
+
+    /**
+     * {@link MLockOutputStream.Sink} counting what it is given, failing on request.
+     */
+    private static final class RecordingSink implements MLockOutputStream.Sink {
+        private int chunks = 0;
+        private int discarded = 0;
+        private int failChunk = -1;
+        private boolean failCommit = false;
+
+        @Override
+        public void putChunk(@NonNull byte[] key, @NonNull byte[] chunk) throws IOException {
+            if (chunks == failChunk) throw new IOException("Chunk failed");
+            chunks++;
+        }
+
+        @Override
+        public void commit(@NonNull MLockStream stream) throws IOException {
+            if (failCommit) throw new IOException("Commit failed");
+        }
+
+        @Override
+        public void discard() {
+            discarded++;
+        }
+    }
+}
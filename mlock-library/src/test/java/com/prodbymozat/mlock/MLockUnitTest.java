@@ -34,6 +34,11 @@ import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
 import static org.mockito.Mockito.mock;
@@ -149,4 +154,118 @@ public class MLockUnitTest {
         // Assert
         verify(MLock.internal).retrieve(TEST_KEY, retrieveListener);
     }
+
+    @Test
+    public void commitAll_shouldCallInternalCommitAll() {
+        // Arrange
+        MLock.internal = mock(MLockInternal.class);
+        final Map<MLockKey, MLockData<?>> data = new HashMap<>();
+
+        // Act
+        MLock.commitAll(data);
+
+        // Assert
+        verify(MLock.internal).commitAll(data);
+    }
+
+    @Test
+    public void getAll_shouldCallInternalGetAll() {
+        // Arrange
+        MLock.internal = mock(MLockInternal.class);
+        final List<MLockKey> keys = Collections.singletonList(new MLockKey(TEST_KEY));
+
+        // Act
+        MLock.getAll(keys);
+
+        // Assert
+        verify(MLock.internal).getAll(keys);
+    }
+
+    @Test
+    public void retrieveAll_shouldCallInternalRetrieveAll() {
+        // Arrange
+        MLock.internal = mock(MLockInternal.class);
+        final List<MLockKey> keys = Collections.singletonList(new MLockKey(TEST_KEY));
+        final MLockAsyncRetrieveAllListener retrieveListener = mock(MLockAsyncRetrieveAllListener.class);
+
+        // Act
+        MLock.retrieveAll(keys, retrieveListener);
+
+        // Assert
+        verify(MLock.internal).retrieveAll(keys, retrieveListener);
+    }
+
+    @Test
+    public void openOutputStream_shouldCallInternalOpenOutputStream() {
+        // Arrange
+        MLock.internal = mock(MLockInternal.class);
+
+        // Act
+        MLock.openOutputStream(TEST_KEY);
+
+        // Assert
+        verify(MLock.internal).openOutputStream(TEST_KEY);
+    }
+
+    @Test
+    public void deleteStream_shouldCallInternalDeleteStream() {
+        // Arrange
+        MLock.internal = mock(MLockInternal.class);
+
+        // Act
+        MLock.deleteStream(TEST_KEY);
+
+        // Assert
+        verify(MLock.internal).deleteStream(TEST_KEY);
+    }
+
+    @Test
+    public void openInputStream_shouldCallInternalOpenInputStream() {
+        // Arrange
+        MLock.internal = mock(MLockInternal.class);
+
+        // Act
+        MLock.openInputStream(TEST_KEY);
+
+        // Assert
+        verify(MLock.internal).openInputStream(TEST_KEY);
+    }
+
+    @Test
+    public void retrieveAsync_shouldCallInternalRetrieveAsync() {
+        // Arrange
+        MLock.internal = mock(MLockInternal.class);
+
+        // Act
+        MLock.retrieveAsync(TEST_KEY);
+
+        // Assert
+        verify(MLock.internal).retrieveAsync(TEST_KEY);
+    }
+
+    @Test
+    public void applyAsync_shouldCallInternalApplyAsync() {
+        // Arrange
+        MLock.internal = mock(MLockInternal.class);
+        final MLockData<?> data = new MLockInteger(new MLockKey(TEST_KEY), 1);
+
+        // Act
+        MLock.applyAsync(TEST_KEY, data);
+
+        // Assert
+        verify(MLock.internal).applyAsync(TEST_KEY, data);
+    }
+
+    @Test
+    public void getAllAsync_shouldCallInternalGetAllAsync() {
+        // Arrange
+        MLock.internal = mock(MLockInternal.class);
+        final List<MLockKey> keys = Collections.singletonList(new MLockKey(TEST_KEY));
+
+        // Act
+        MLock.getAllAsync(keys);
+
+        // Assert
+        verify(MLock.internal).getAllAsync(keys);
+    }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.prodbymozat.mlock;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit Test Class for {@link MLockValueCache}.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockValueCacheTest {
+
+    // Test Constants
+    private static final String TEST_KEY = "test_key";
+
+    @Test
+    public void get_afterPut_shouldHit() {
+        // Arrange
+        final MLockValueCache cache = new MLockValueCache(4, 0);
+        final MLockData<?> data = value(1);
+
+        // Act
+        cache.put(new MLockKey(TEST_KEY), data, cache.version());
+
+        // Assert
+        assertSame(data, cache.get(new MLockKey(TEST_KEY)));
+        assertNull(cache.get(new MLockKey(TEST_KEY + "_missing")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void put_full_shouldEvictLeastRecentlyUsed() {
+        // Arrange
+        final MLockValueCache cache = new MLockValueCache(2, 0);
+        cache.put(new MLockKey(TEST_KEY + 1), value(1), cache.version());
+        cache.put(new MLockKey(TEST_KEY + 2), value(2), cache.version());
+        cache.get(new MLockKey(TEST_KEY + 1));
+
+        // Act
+        cache.put(new MLockKey(TEST_KEY + 3), value(3), cache.version());
+
+        // Assert
+        assertEquals(2, cache.size());
+        assertNull(cache.get(new MLockKey(TEST_KEY + 2)));
+        assertEquals(1, cache.get(new MLockKey(TEST_KEY + 1)).getValue());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void get_expired_shouldMissAndEvict() throws Exception {
+        // Arrange
+        final MLockValueCache cache = new MLockValueCache(4, 1);
+        cache.put(new MLockKey(TEST_KEY), value(1), cache.version());
+
+        // Act
+        Thread.sleep(5);
+
+        // Assert
+        assertNull(cache.get(new MLockKey(TEST_KEY)));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void put_afterInvalidate_shouldDropStaleValue() {
+        // Arrange
+        final MLockValueCache cache = new MLockValueCache(4, 0);
+        final long readVersion = cache.version();
+
+        // Act
+        cache.invalidate(new MLockKey(TEST_KEY));
+        cache.put(new MLockKey(TEST_KEY), value(1), readVersion);
+
+        // Assert
+        assertNull(cache.get(new MLockKey(TEST_KEY)));
+    }
+
+    @Test
+    public void clear_shouldRemoveEveryValue() {
+        // Arrange
+        final MLockValueCache cache = new MLockValueCache(4, 0);
+        cache.put(new MLockKey(TEST_KEY + 1), value(1), cache.version());
+        cache.put(new MLockKey(TEST_KEY + 2), value(2), cache.version());
+
+        // Act
+        cache.clear();
+
+        // Assert
+        assertEquals(0, cache.size());
+    }
+
+    private static MLockData<?> value(int value) {
+        return new MLockInteger(new MLockKey(TEST_KEY), value);
+    }
+}
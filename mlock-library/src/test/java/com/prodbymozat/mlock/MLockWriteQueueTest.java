@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2020 Mozart Alexander Louis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.prodbymozat.mlock;
+
+import com.prodbymozat.mlock.exceptions.MLockStorageException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit Test Class for {@link MLockWriteQueue}, with a {@link MLockWriteQueue.Flusher} that records batches.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MLockWriteQueueTest {
+
+    // Test Constants
+    private static final String TEST_KEY = "test_key";
+    private static final long LONG_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Executor scheduled flushes run on.
+     */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Batches received by the flusher.
+     */
+    private final List<Map<MLockKey, MLockData<?>>> batches = new ArrayList<>();
+
+    /**
+     * Released every time a batch is flushed.
+     */
+    private volatile CountDownLatch flushed = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void enqueue_sameKey_shouldCoalesce() throws Exception {
+        // Arrange
+        final MLockWriteQueue queue = newQueue(LONG_DELAY_MILLIS, 10, 100);
+
+        // Act
+        for (int i = 0; i < 5; i++) queue.enqueue(new MLockKey(TEST_KEY), value(i));
+        queue.flush();
+
+        // Assert
+        assertEquals(1, batches.size());
+        assertEquals(1, batches.get(0).size());
+        assertEquals(4, batches.get(0).get(new MLockKey(TEST_KEY)).getValue());
+        assertEquals(4, queue.getCoalescedCount());
+    }
+
+    @Test
+    public void enqueue_batchSizeReached_shouldFlushOneBatch() throws Exception {
+        // Arrange
+        final MLockWriteQueue queue = newQueue(LONG_DELAY_MILLIS, 8, 100);
+
+        // Act
+        for (int i = 0; i < 8; i++) queue.enqueue(new MLockKey(TEST_KEY + i), value(i));
+
+        // Assert
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        drainExecutor();
+        assertEquals(8, queue.getLastBatchSize());
+        assertEquals(1, queue.getBatchCount());
+        assertEquals(0, queue.getQueueDepth());
+    }
+
+    @Test
+    public void enqueue_delayElapsed_shouldFlush() throws Exception {
+        // Arrange
+        final MLockWriteQueue queue = newQueue(10, 100, 100);
+
+        // Act
+        queue.enqueue(new MLockKey(TEST_KEY), value(1));
+
+        // Assert
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        drainExecutor();
+        assertEquals(1, queue.getFlushedCount());
+    }
+
+    @Test
+    public void enqueue_capacityReached_shouldFlushOnCallingThread() {
+        // Arrange, a shut down executor can not flush.
+        executor.shutdown();
+        final MLockWriteQueue queue = newQueue(LONG_DELAY_MILLIS, 4, 4);
+
+        // Act
+        for (int i = 0; i < 4; i++) queue.enqueue(new MLockKey(TEST_KEY + i), value(i));
+
+        // Assert
+        assertEquals(1, batches.size());
+        assertEquals(4, queue.getMaxBatchSize());
+        assertEquals(0, queue.getQueueDepth());
+    }
+
+    @Test
+    public void lookup_shouldReturnPendingValue() {
+        // Arrange
+        final MLockWriteQueue queue = newQueue(LONG_DELAY_MILLIS, 10, 100);
+        final MLockData<?> data = value(3);
+
+        // Act
+        queue.enqueue(new MLockKey(TEST_KEY), data);
+
+        // Assert
+        assertSame(data, queue.lookup(new MLockKey(TEST_KEY)));
+        assertNull(queue.lookup(new MLockKey(TEST_KEY + "_missing")));
+        assertEquals(1, queue.getQueueDepth());
+    }
+
+    @Test
+    public void flush_failure_shouldRequeueValues() {
+        // Arrange
+        final MLockWriteQueue queue = new MLockWriteQueue(batch -> {
+            throw new MLockStorageException("Storage is unavailable");
+        }, executor, LONG_DELAY_MILLIS, 10, 100);
+        queue.enqueue(new MLockKey(TEST_KEY), value(1));
+
+        // Act
+        try {
+            queue.flush();
+            fail("Flush should have failed");
+        } catch (MLockStorageException expected) {
+            // Expected
+        }
+
+        // Assert
+        assertEquals(1, queue.getQueueDepth());
+        assertEquals(1, queue.lookup(new MLockKey(TEST_KEY)).getValue());
+        assertEquals(0, queue.getBatchCount());
+    }
+
+    private MLockWriteQueue newQueue(long delayMillis, int batchSize, int capacity) {
+        return new MLockWriteQueue(batch -> {
+            synchronized (batches) {
+                batches.add(new LinkedHashMap<>(batch));
+            }
+            flushed.countDown();
+        }, executor, delayMillis, batchSize, capacity);
+    }
+
+    /**
+     * Waits for the flush that is running on the executor to complete.
+     */
+    private void drainExecutor() throws Exception {
+        executor.submit(() -> {
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    private static MLockData<?> value(int value) {
+        return new MLockInteger(new MLockKey(TEST_KEY), value);
+    }
+}